@@ -15,16 +15,27 @@
  */
 package com.blazebit.notify.channel.memory;
 
+import com.blazebit.job.JobRateLimitException;
 import com.blazebit.notify.Channel;
 import com.blazebit.notify.ChannelKey;
+import com.blazebit.notify.NotificationException;
 import com.blazebit.notify.NotificationMessage;
 import com.blazebit.notify.NotificationRecipient;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
 /**
  * A in-memory channel that sends messages to a queue.
+ * By default, the queue is a lock-free {@link MpmcRingBuffer}, so that multiple producers and consumers can hand off messages without contending on a lock.
+ * When the queue is full, the {@link OverflowPolicy} decides whether the send waits, drops a message or fails with a {@link JobRateLimitException}.
+ * Consumers can take messages in batches via {@link #drain(Consumer, int)}.
  *
  * @param <R> The notification recipient type
  * @param <T> The notification message type
@@ -37,8 +48,15 @@ public class MemoryChannel<R extends NotificationRecipient<?>, T extends Notific
      * The key for which the channel is registered.
      */
     public static final ChannelKey<MemoryChannel<NotificationRecipient<?>, NotificationMessage>> KEY = (ChannelKey<MemoryChannel<NotificationRecipient<?>, NotificationMessage>>) (ChannelKey) ChannelKey.of("memory", MemoryChannel.class);
-    private static final int DEFAULT_CAPACITY = 1024;
+    static final int DEFAULT_CAPACITY = 1024;
+    static final long DEFAULT_BLOCK_TIMEOUT = 10000L;
+    private static final int MAX_BATCH_SIZE = 256;
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
     private final Queue<T> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMillis;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
 
     /**
      * Creates a channel with a queue that has a default capacity.
@@ -50,10 +68,21 @@ public class MemoryChannel<R extends NotificationRecipient<?>, T extends Notific
     /**
      * Creates a channel with a queue with the given capacity.
      *
-     * @param capacity The capacity
+     * @param capacity The capacity, which is rounded up to the next power of two
      */
     public MemoryChannel(int capacity) {
-        this(new ArrayBlockingQueue<T>(capacity));
+        this(capacity, OverflowPolicy.BLOCK, DEFAULT_BLOCK_TIMEOUT);
+    }
+
+    /**
+     * Creates a channel with a queue with the given capacity and overflow policy.
+     *
+     * @param capacity The capacity, which is rounded up to the next power of two
+     * @param overflowPolicy The policy to apply when the queue is full
+     * @param blockTimeoutMillis The maximum time in milliseconds to wait for space in the queue with {@link OverflowPolicy#BLOCK}
+     */
+    public MemoryChannel(int capacity, OverflowPolicy overflowPolicy, long blockTimeoutMillis) {
+        this(new MpmcRingBuffer<T>(capacity), overflowPolicy, blockTimeoutMillis);
     }
 
     /**
@@ -62,7 +91,23 @@ public class MemoryChannel<R extends NotificationRecipient<?>, T extends Notific
      * @param queue The queue
      */
     public MemoryChannel(Queue<T> queue) {
+        this(queue, OverflowPolicy.BLOCK, DEFAULT_BLOCK_TIMEOUT);
+    }
+
+    /**
+     * Creates a channel with the given queue and overflow policy.
+     *
+     * @param queue The queue
+     * @param overflowPolicy The policy to apply when the queue is full
+     * @param blockTimeoutMillis The maximum time in milliseconds to wait for space in the queue with {@link OverflowPolicy#BLOCK}
+     */
+    public MemoryChannel(Queue<T> queue, OverflowPolicy overflowPolicy, long blockTimeoutMillis) {
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("No overflow policy given for memory channel!");
+        }
         this.queue = queue;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
     }
 
     /**
@@ -74,6 +119,76 @@ public class MemoryChannel<R extends NotificationRecipient<?>, T extends Notific
         return queue;
     }
 
+    /**
+     * Returns the policy that is applied when the queue is full.
+     *
+     * @return the overflow policy
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Returns the amount of messages in the queue.
+     *
+     * @return the amount of messages in the queue
+     */
+    public int getSize() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the amount of messages that were dropped because the queue was full.
+     *
+     * @return the amount of dropped messages
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Returns the amount of sends that failed because the queue was full.
+     *
+     * @return the amount of rejected sends
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Removes up to the given amount of messages from the queue and passes them to the given consumer in queue order.
+     *
+     * @param consumer The consumer for the messages
+     * @param maxMessages The maximum amount of messages to remove
+     * @return the amount of removed messages
+     */
+    public int drain(Consumer<? super T> consumer, int maxMessages) {
+        if (queue instanceof MpmcRingBuffer<?>) {
+            return ((MpmcRingBuffer<T>) queue).drain(consumer, maxMessages);
+        }
+        int count = 0;
+        T message;
+        while (count < maxMessages && (message = queue.poll()) != null) {
+            consumer.accept(message);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Removes up to the given amount of messages from the queue and adds them to the given collection in queue order.
+     *
+     * @param collection The collection to add the messages to
+     * @param maxMessages The maximum amount of messages to remove
+     * @return the amount of removed messages
+     */
+    public int drainTo(Collection<? super T> collection, int maxMessages) {
+        if (queue instanceof BlockingQueue<?>) {
+            return ((BlockingQueue<T>) queue).drainTo(collection, maxMessages);
+        }
+        return drain(collection::add, maxMessages);
+    }
+
     @Override
     public Class<T> getNotificationMessageType() {
         return (Class<T>) NotificationMessage.class;
@@ -81,10 +196,96 @@ public class MemoryChannel<R extends NotificationRecipient<?>, T extends Notific
 
     @Override
     public Object sendNotificationMessage(R recipient, T message) {
-        queue.add(message);
+        enqueue(message);
         return null;
     }
 
+    @Override
+    public boolean isBatchingSupported() {
+        return true;
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return MAX_BATCH_SIZE;
+    }
+
+    @Override
+    public Object[] sendNotificationMessages(List<? extends R> recipients, List<? extends T> messages) {
+        int size = messages.size();
+        if (size != recipients.size()) {
+            throw new IllegalArgumentException("The amount of recipients and messages must match!");
+        }
+        Object[] results = new Object[size];
+        for (int i = 0; i < size; i++) {
+            try {
+                enqueue(messages.get(i));
+            } catch (JobRateLimitException e) {
+                // The queue is full, so there is no point in trying the remaining messages
+                for (; i < size; i++) {
+                    results[i] = e;
+                }
+            } catch (RuntimeException e) {
+                results[i] = e;
+            }
+        }
+        return results;
+    }
+
+    private void enqueue(T message) {
+        if (queue.offer(message)) {
+            return;
+        }
+        switch (overflowPolicy) {
+            case DROP_NEWEST:
+                dropped.increment();
+                return;
+            case DROP_OLDEST:
+                do {
+                    if (queue.poll() != null) {
+                        dropped.increment();
+                    }
+                } while (!queue.offer(message));
+                return;
+            case BLOCK:
+                if (offer(message, blockTimeoutMillis)) {
+                    return;
+                }
+                rejected.increment();
+                throw new JobRateLimitException("The memory channel queue is still full after " + blockTimeoutMillis + "ms");
+            case REJECT:
+            default:
+                rejected.increment();
+                throw new JobRateLimitException("The memory channel queue is full");
+        }
+    }
+
+    private boolean offer(T message, long timeoutMillis) {
+        try {
+            if (queue instanceof BlockingQueue<?>) {
+                return ((BlockingQueue<T>) queue).offer(message, timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            // A lock-free queue can't signal free space, so poll with an exponential back off
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            long parkNanos = 1000L;
+            while (!queue.offer(message)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0L) {
+                    return false;
+                }
+                LockSupport.parkNanos(Math.min(parkNanos, remaining));
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                parkNanos = Math.min(parkNanos << 1, MAX_PARK_NANOS);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NotificationException("Interrupted while waiting for space in the memory channel queue", e);
+        }
+    }
+
     @Override
     public void close() {
     }
@@ -23,6 +23,12 @@ import com.blazebit.notify.NotificationJobContext;
 import com.blazebit.notify.NotificationMessage;
 import com.blazebit.notify.NotificationRecipient;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
 /**
  * A factory for in-memory channels.
  *
@@ -31,13 +37,42 @@ import com.blazebit.notify.NotificationRecipient;
  */
 @ServiceProvider(ChannelFactory.class)
 public class MemoryChannelFactory implements ChannelFactory<MemoryChannel<NotificationRecipient<?>, NotificationMessage>> {
+
+    /**
+     * The configuration property for the capacity of the queue.
+     */
+    public static final String MEMORY_CAPACITY_PROPERTY = "channel.memory.capacity";
+    /**
+     * The configuration property for the {@link OverflowPolicy} to apply when the queue is full.
+     */
+    public static final String MEMORY_OVERFLOW_POLICY_PROPERTY = "channel.memory.overflow_policy";
+    /**
+     * The configuration property for the maximum time in milliseconds to wait for space in the queue with {@link OverflowPolicy#BLOCK}.
+     */
+    public static final String MEMORY_BLOCK_TIMEOUT_PROPERTY = "channel.memory.block_timeout";
+
+    private static final Set<String> TRANSPORT_PROPERTY_NAMES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        MEMORY_CAPACITY_PROPERTY,
+        MEMORY_OVERFLOW_POLICY_PROPERTY,
+        MEMORY_BLOCK_TIMEOUT_PROPERTY
+    )));
+
     @Override
     public ChannelKey<MemoryChannel<NotificationRecipient<?>, NotificationMessage>> getChannelType() {
         return MemoryChannel.KEY;
     }
 
+    @Override
+    public Set<String> getTransportPropertyNames() {
+        return TRANSPORT_PROPERTY_NAMES;
+    }
+
     @Override
     public MemoryChannel<NotificationRecipient<?>, NotificationMessage> createChannel(NotificationJobContext jobContext, ConfigurationSource configurationSource) {
-        return new MemoryChannel<>();
+        return new MemoryChannel<>(
+            configurationSource.getPropertyOrDefault(MEMORY_CAPACITY_PROPERTY, Integer.class, Integer::valueOf, o -> MemoryChannel.DEFAULT_CAPACITY),
+            configurationSource.getPropertyOrDefault(MEMORY_OVERFLOW_POLICY_PROPERTY, OverflowPolicy.class, s -> OverflowPolicy.valueOf(s.toUpperCase(Locale.ROOT)), o -> OverflowPolicy.BLOCK),
+            configurationSource.getPropertyOrDefault(MEMORY_BLOCK_TIMEOUT_PROPERTY, Long.class, Long::valueOf, o -> MemoryChannel.DEFAULT_BLOCK_TIMEOUT)
+        );
     }
 }
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.memory;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A bounded lock-free queue for multiple producers and consumers that is backed by a ring buffer.
+ * Every slot carries a sequence number that tells producers whether the slot is free and consumers whether the slot is filled for the current lap,
+ * so producers and consumers only contend on the counter of their own side, see Dmitry Vyukov's bounded MPMC queue.
+ *
+ * The capacity is rounded up to the next power of two. Consumers can claim multiple filled slots at once with {@link #drain(Consumer, int)},
+ * which costs a single compare and set for the whole batch. The iterator is a weakly consistent snapshot that does not support removal.
+ *
+ * @param <E> The element type
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public class MpmcRingBuffer<E> extends AbstractQueue<E> {
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Creates a new ring buffer.
+     *
+     * @param capacity The minimum capacity
+     */
+    public MpmcRingBuffer(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("The capacity must be between 1 and 2^30 but was: " + capacity);
+        }
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        this.elements = new AtomicReferenceArray<>(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Returns the capacity.
+     *
+     * @return the capacity
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    @Override
+    public boolean offer(E element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0L) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.lazySet(index, element);
+                    // Publishes the element to consumers
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0L) {
+                // The slot still holds the element of the previous lap
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    @Override
+    public E poll() {
+        long position = head.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0L) {
+                if (head.compareAndSet(position, position + 1)) {
+                    return take(index, position);
+                }
+                position = head.get();
+            } else if (difference < 0L) {
+                // The slot was not filled yet for this lap
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * Removes up to the given amount of elements and passes them to the given consumer in queue order.
+     * The elements are removed before the consumer is invoked, so elements are not lost if the consumer fails.
+     *
+     * @param consumer The consumer for the elements
+     * @param maxElements The maximum amount of elements to remove
+     * @return the amount of removed elements
+     */
+    @SuppressWarnings("unchecked")
+    public int drain(Consumer<? super E> consumer, int maxElements) {
+        int limit = Math.min(maxElements, capacity());
+        while (true) {
+            long position = head.get();
+            int count = 0;
+            while (count < limit && sequences.get((int) (position + count) & mask) == position + count + 1) {
+                count++;
+            }
+            if (count == 0) {
+                return 0;
+            }
+            // Producers can't reuse the claimed slots before the sequences are advanced, so the batch is stable after the claim
+            if (head.compareAndSet(position, position + count)) {
+                Object[] batch = new Object[count];
+                for (int i = 0; i < count; i++) {
+                    batch[i] = take((int) (position + i) & mask, position + i);
+                }
+                for (int i = 0; i < count; i++) {
+                    consumer.accept((E) batch[i]);
+                }
+                return count;
+            }
+        }
+    }
+
+    /**
+     * Removes up to the given amount of elements and adds them to the given collection in queue order.
+     *
+     * @param collection The collection to add the elements to
+     * @param maxElements The maximum amount of elements to remove
+     * @return the amount of removed elements
+     */
+    public int drainTo(Collection<? super E> collection, int maxElements) {
+        if (collection == this) {
+            throw new IllegalArgumentException("Can't drain a queue into itself");
+        }
+        return drain(collection::add, maxElements);
+    }
+
+    @Override
+    public E peek() {
+        while (true) {
+            long position = head.get();
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) {
+                return null;
+            }
+            E element = elements.get(index);
+            // The element is only valid if no consumer took it in the meantime
+            if (element != null && head.get() == position) {
+                return element;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        while (true) {
+            long currentHead = head.get();
+            long currentTail = tail.get();
+            if (head.get() == currentHead) {
+                return (int) Math.max(0L, Math.min(capacity(), currentTail - currentHead));
+            }
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return peek() == null;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<>();
+        long end = tail.get();
+        for (long position = head.get(); position < end; position++) {
+            int index = (int) position & mask;
+            E element = elements.get(index);
+            if (element != null && sequences.get(index) == position + 1) {
+                snapshot.add(element);
+            }
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+
+    private E take(int index, long position) {
+        E element = elements.get(index);
+        elements.lazySet(index, null);
+        // Frees the slot for the producer of the next lap
+        sequences.lazySet(index, position + mask + 1);
+        return element;
+    }
+}
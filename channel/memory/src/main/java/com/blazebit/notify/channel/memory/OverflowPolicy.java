@@ -0,0 +1,44 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.memory;
+
+import com.blazebit.job.JobRateLimitException;
+
+/**
+ * The policies for sending a message to a {@link MemoryChannel} whose queue is full.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Waits until a consumer takes messages from the queue and fails with a {@link JobRateLimitException} if there is no space within the block timeout.
+     */
+    BLOCK,
+    /**
+     * Removes the oldest messages from the queue to make space for the new message.
+     */
+    DROP_OLDEST,
+    /**
+     * Discards the new message.
+     */
+    DROP_NEWEST,
+    /**
+     * Fails with a {@link JobRateLimitException} right away, so that the message is retried later.
+     */
+    REJECT;
+}
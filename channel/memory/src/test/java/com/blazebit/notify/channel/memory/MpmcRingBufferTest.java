@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.memory;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MpmcRingBufferTest {
+
+    @Test
+    public void roundCapacityAndRejectWhenFull() {
+        MpmcRingBuffer<Integer> buffer = new MpmcRingBuffer<>(3);
+        assertEquals(4, buffer.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(4, buffer.size());
+        assertEquals(Integer.valueOf(0), buffer.poll());
+        assertTrue(buffer.offer(4));
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(3, buffer.drainTo(drained, 3));
+        assertEquals("[1, 2, 3]", drained.toString());
+        assertEquals(Integer.valueOf(4), buffer.peek());
+        assertEquals(Integer.valueOf(4), buffer.poll());
+        assertNull(buffer.poll());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void handOffEveryElementExactlyOnce() throws InterruptedException {
+        int producers = 4;
+        int consumers = 4;
+        int perProducer = 20000;
+        MpmcRingBuffer<Integer> buffer = new MpmcRingBuffer<>(64);
+        AtomicIntegerArray seen = new AtomicIntegerArray(producers * perProducer);
+        AtomicInteger consumed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(producers + consumers);
+        for (int p = 0; p < producers; p++) {
+            int offset = p * perProducer;
+            new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    while (!buffer.offer(offset + i)) {
+                        Thread.yield();
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        for (int c = 0; c < consumers; c++) {
+            boolean batched = c % 2 == 0;
+            new Thread(() -> {
+                while (consumed.get() < producers * perProducer) {
+                    if (batched) {
+                        consumed.addAndGet(buffer.drain(element -> seen.incrementAndGet(element), 16));
+                    } else {
+                        Integer element = buffer.poll();
+                        if (element != null) {
+                            seen.incrementAndGet(element);
+                            consumed.incrementAndGet();
+                        }
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+
+        for (int i = 0; i < seen.length(); i++) {
+            assertEquals("Element " + i, 1, seen.get(i));
+        }
+        assertTrue(buffer.isEmpty());
+    }
+}
@@ -17,39 +17,60 @@ package com.blazebit.notify.channel.ses;
 
 import com.blazebit.job.ConfigurationSource;
 import com.blazebit.job.JobRateLimitException;
+import com.blazebit.job.JobTemporaryException;
+import com.blazebit.notify.BoundedCache;
 import com.blazebit.notify.Channel;
 import com.blazebit.notify.ChannelKey;
+import com.blazebit.notify.InFlightLimiter;
 import com.blazebit.notify.NotificationException;
-import com.blazebit.notify.email.message.Attachment;
-import com.blazebit.notify.email.message.EmailBody;
 import com.blazebit.notify.email.message.EmailNotificationMessage;
 import com.blazebit.notify.email.message.EmailNotificationRecipient;
-import com.sun.mail.smtp.SMTPMessage;
+import com.blazebit.notify.email.mime.MimeMessageWriter;
+import com.blazebit.notify.email.mime.PooledOutputStream;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.ses.SesClient;
+import software.amazon.awssdk.services.ses.SesAsyncClient;
+import software.amazon.awssdk.services.ses.SesAsyncClientBuilder;
+import software.amazon.awssdk.services.ses.model.AlreadyExistsException;
+import software.amazon.awssdk.services.ses.model.BulkEmailDestination;
+import software.amazon.awssdk.services.ses.model.BulkEmailDestinationStatus;
+import software.amazon.awssdk.services.ses.model.BulkEmailStatus;
+import software.amazon.awssdk.services.ses.model.CreateTemplateRequest;
+import software.amazon.awssdk.services.ses.model.DeleteTemplateRequest;
+import software.amazon.awssdk.services.ses.model.Destination;
 import software.amazon.awssdk.services.ses.model.RawMessage;
+import software.amazon.awssdk.services.ses.model.SendBulkTemplatedEmailRequest;
 import software.amazon.awssdk.services.ses.model.SendRawEmailRequest;
-import software.amazon.awssdk.services.ses.model.SendRawEmailResponse;
 import software.amazon.awssdk.services.ses.model.SesException;
+import software.amazon.awssdk.services.ses.model.Template;
+import software.amazon.awssdk.services.ses.model.TemplateDoesNotExistException;
 
-import javax.activation.DataHandler;
-import javax.activation.DataSource;
-import javax.mail.Address;
-import javax.mail.MessagingException;
-import javax.mail.Multipart;
-import javax.mail.Session;
-import javax.mail.internet.AddressException;
-import javax.mail.internet.InternetAddress;
-import javax.mail.internet.MimeBodyPart;
-import javax.mail.internet.MimeMultipart;
-import javax.mail.internet.MimeUtility;
-import java.io.ByteArrayOutputStream;
-import java.io.UnsupportedEncodingException;
-import java.util.Properties;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -57,6 +78,16 @@ import java.util.logging.Logger;
 /**
  * A channel that sends messages via AWS SES.
  *
+ * Messages are sent as raw MIME messages. If bulk sends are enabled, messages with identical content for multiple recipients are sent with a single
+ * <code>SendBulkTemplatedEmail</code> call per 50 recipients instead when batching. The content is registered as SES template without placeholders,
+ * named after the configurable template prefix and the hash of the content, so templates that were left behind e.g. by a crashed JVM can be found by the prefix and deleted.
+ * A template that is evicted from the template cache might still be used by a send in flight, so it is only deleted after a delay, and the remaining templates are deleted when the channel is closed.
+ * A channel with the same prefix that still uses a deleted template recreates it when SES reports that the template doesn't exist.
+ * Messages with attachments are always sent as raw messages, because SES templates don't support attachments.
+ *
+ * If enabled, sends are paced to the send quota of the account by a {@link SesSendGovernor} that is shared by all SES channels of the JVM.
+ * This requires the <code>ses:GetSendQuota</code> permission.
+ *
  * @author Christian Beikov
  * @since 1.0.0
  */
@@ -79,14 +110,82 @@ public class SesChannel implements Channel<EmailNotificationRecipient<?>, EmailN
      * The configuration property for the AWS SES region.
      */
     public static final String SES_REGION_PROPERTY = "channel.ses.region";
+    /**
+     * The configuration property for the maximum amount of AWS SES requests in flight.
+     */
+    public static final String SES_MAX_IN_FLIGHT_PROPERTY = "channel.ses.max_in_flight";
+    /**
+     * The configuration property for the maximum time in milliseconds to wait for an AWS SES request in flight to complete when the limit is reached.
+     */
+    public static final String SES_IN_FLIGHT_TIMEOUT_PROPERTY = "channel.ses.in_flight_timeout";
+    /**
+     * The configuration property for the AWS SES endpoint that overrides the default endpoint of the region.
+     */
+    public static final String SES_ENDPOINT_PROPERTY = "channel.ses.endpoint";
+    /**
+     * The configuration property for the maximum amount of messages to send at once.
+     */
+    public static final String SES_BATCH_SIZE_PROPERTY = "channel.ses.batch_size";
+    /**
+     * The configuration property for whether to send messages with identical content via bulk templated sends.
+     */
+    public static final String SES_BULK_ENABLED_PROPERTY = "channel.ses.bulk.enabled";
+    /**
+     * The configuration property for the maximum amount of SES templates to keep for bulk templated sends.
+     */
+    public static final String SES_BULK_MAX_TEMPLATES_PROPERTY = "channel.ses.bulk.max_templates";
+    /**
+     * The configuration property for the prefix of the names of the SES templates for bulk templated sends.
+     */
+    public static final String SES_BULK_TEMPLATE_PREFIX_PROPERTY = "channel.ses.bulk.template_prefix";
+    /**
+     * The configuration property for whether to pace sends to the send quota of the AWS SES account, which requires the <code>ses:GetSendQuota</code> permission.
+     */
+    public static final String SES_QUOTA_ENABLED_PROPERTY = "channel.ses.quota.enabled";
+    /**
+     * The configuration property for the interval in milliseconds in which to read the send quota of the AWS SES account.
+     */
+    public static final String SES_QUOTA_REFRESH_INTERVAL_PROPERTY = "channel.ses.quota.refresh_interval";
+    /**
+     * The configuration property for the amount of messages of the 24 hour quota to keep in reserve.
+     */
+    public static final String SES_QUOTA_DAILY_RESERVE_PROPERTY = "channel.ses.quota.daily_reserve";
 
-    private static final Logger LOG = Logger.getLogger(SesChannel.class.getName());
+    static final Set<String> TRANSPORT_PROPERTY_NAMES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        SES_ACCESS_KEY_PROPERTY,
+        SES_SECRET_KEY_PROPERTY,
+        SES_REGION_PROPERTY,
+        SES_MAX_IN_FLIGHT_PROPERTY,
+        SES_IN_FLIGHT_TIMEOUT_PROPERTY,
+        SES_ENDPOINT_PROPERTY,
+        SES_BATCH_SIZE_PROPERTY,
+        SES_BULK_ENABLED_PROPERTY,
+        SES_BULK_MAX_TEMPLATES_PROPERTY,
+        SES_BULK_TEMPLATE_PREFIX_PROPERTY,
+        SES_QUOTA_ENABLED_PROPERTY,
+        SES_QUOTA_REFRESH_INTERVAL_PROPERTY,
+        SES_QUOTA_DAILY_RESERVE_PROPERTY
+    )));
 
-    private static final String CHARSET_UTF8 = "UTF-8";
-    private static final String HTML_MIME_TYPE = "text/html; charset=" + CHARSET_UTF8;
+    private static final Logger LOG = Logger.getLogger(SesChannel.class.getName());
+    // SES accepts at most 50 destinations per bulk call
+    private static final int MAX_BULK_DESTINATIONS = 50;
+    // Creating a template costs an extra call, which only pays off for at least two recipients
+    private static final int MIN_BULK_DESTINATIONS = 2;
+    // Template names must be at most 64 characters long, which leaves 22 characters for the prefix and 42 for the content hash
+    private static final int MAX_TEMPLATE_PREFIX_LENGTH = 22;
+    private static final int TEMPLATE_HASH_LENGTH = 42;
+    private static final long TEMPLATE_DELETION_DELAY_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final String EMPTY_TEMPLATE_DATA = "{}";
 
-    private final Session session = Session.getDefaultInstance(new Properties());
-    private final SesClient client;
+    private final Config config;
+    private final MimeMessageWriter mimeMessageWriter = new MimeMessageWriter();
+    private final SesAsyncClient client;
+    private final InFlightLimiter inFlightLimiter;
+    private final BoundedCache<TemplateContent, CompletableFuture<String>> templates;
+    // Evicted template names with the time of eviction, the templates are deleted once no send can use them anymore
+    private final ConcurrentMap<String, Long> retiredTemplates = new ConcurrentHashMap<>();
+    private final SesSendGovernor governor;
 
     /**
      * Creates a new SES channel from the given configuration source.
@@ -103,6 +202,7 @@ public class SesChannel implements Channel<EmailNotificationRecipient<?>, EmailN
      * @param config The config
      */
     public SesChannel(Config config) {
+        this.config = config;
         AwsCredentialsProvider credentials;
 
         if (config.accessKey != null && config.secretKey != null) {
@@ -118,10 +218,26 @@ public class SesChannel implements Channel<EmailNotificationRecipient<?>, EmailN
             region = Region.of(config.region);
         }
 
-        client = SesClient.builder()
+        String templatePrefix = config.templatePrefix;
+        if (templatePrefix == null || templatePrefix.length() > MAX_TEMPLATE_PREFIX_LENGTH || !templatePrefix.matches("[A-Za-z0-9_-]*")) {
+            throw new IllegalArgumentException("The SES template prefix must consist of at most " + MAX_TEMPLATE_PREFIX_LENGTH
+                + " alphanumeric characters, underscores or dashes but was: " + templatePrefix);
+        }
+
+        SesAsyncClientBuilder clientBuilder = SesAsyncClient.builder()
             .credentialsProvider(credentials)
-            .region(region)
-            .build();
+            .region(region);
+        if (config.endpoint != null) {
+            clientBuilder.endpointOverride(URI.create(config.endpoint));
+        }
+        client = clientBuilder.build();
+        inFlightLimiter = new InFlightLimiter(config.maxInFlight, config.inFlightTimeout);
+        templates = new BoundedCache<>(config.maxTemplates, 0L, this::retireTemplate);
+        if (config.quotaEnabled) {
+            governor = SesSendGovernor.getInstance(config.accessKey, config.region, config.endpoint, config.quotaRefreshInterval, config.quotaDailyReserve);
+        } else {
+            governor = null;
+        }
         LOG.log(Level.FINEST, "SES transport opened");
     }
 
@@ -129,14 +245,36 @@ public class SesChannel implements Channel<EmailNotificationRecipient<?>, EmailN
         Config.Builder builder = Config.builder()
             .withAccessKey(configurationSource.getPropertyOrFail(SES_ACCESS_KEY_PROPERTY, String.class, Function.identity()))
             .withSecretKey(configurationSource.getPropertyOrFail(SES_SECRET_KEY_PROPERTY, String.class, Function.identity()))
-            .withRegion(configurationSource.getPropertyOrFail(SES_REGION_PROPERTY, String.class, Function.identity()));
+            .withRegion(configurationSource.getPropertyOrFail(SES_REGION_PROPERTY, String.class, Function.identity()))
+            .withMaxInFlight(configurationSource.getPropertyOrDefault(SES_MAX_IN_FLIGHT_PROPERTY, Integer.class, Integer::valueOf, o -> 20))
+            .withInFlightTimeout(configurationSource.getPropertyOrDefault(SES_IN_FLIGHT_TIMEOUT_PROPERTY, Long.class, Long::valueOf, o -> 10000L))
+            .withEndpoint(configurationSource.getPropertyOrDefault(SES_ENDPOINT_PROPERTY, String.class, Function.identity(), o -> null))
+            .withBatchSize(configurationSource.getPropertyOrDefault(SES_BATCH_SIZE_PROPERTY, Integer.class, Integer::valueOf, o -> 50))
+            .withBulkEnabled(configurationSource.getPropertyOrDefault(SES_BULK_ENABLED_PROPERTY, Boolean.class, Boolean::valueOf, o -> false))
+            .withMaxTemplates(configurationSource.getPropertyOrDefault(SES_BULK_MAX_TEMPLATES_PROPERTY, Integer.class, Integer::valueOf, o -> 100))
+            .withTemplatePrefix(configurationSource.getPropertyOrDefault(SES_BULK_TEMPLATE_PREFIX_PROPERTY, String.class, Function.identity(), o -> "blaze-notify-"))
+            .withQuotaEnabled(configurationSource.getPropertyOrDefault(SES_QUOTA_ENABLED_PROPERTY, Boolean.class, Boolean::valueOf, o -> false))
+            .withQuotaRefreshInterval(configurationSource.getPropertyOrDefault(SES_QUOTA_REFRESH_INTERVAL_PROPERTY, Long.class, Long::valueOf, o -> 60000L))
+            .withQuotaDailyReserve(configurationSource.getPropertyOrDefault(SES_QUOTA_DAILY_RESERVE_PROPERTY, Long.class, Long::valueOf, o -> 0L));
 
         return builder.build();
     }
 
     @Override
     public void close() {
-        client.close();
+        templates.clear();
+        List<CompletableFuture<?>> deletions = new ArrayList<>(retiredTemplates.size());
+        for (String templateName : retiredTemplates.keySet()) {
+            if (retiredTemplates.remove(templateName) != null) {
+                deletions.add(deleteTemplate(templateName));
+            }
+        }
+        try {
+            // Wait for the deletions, as closing the client aborts pending requests
+            CompletableFuture.allOf(deletions.toArray(new CompletableFuture[0])).join();
+        } finally {
+            client.close();
+        }
     }
 
     @Override
@@ -144,106 +282,452 @@ public class SesChannel implements Channel<EmailNotificationRecipient<?>, EmailN
         return EmailNotificationMessage.class;
     }
 
+    @Override
+    public int getMaxInFlight() {
+        return inFlightLimiter.getMaxInFlight();
+    }
+
     @Override
     public Object sendNotificationMessage(EmailNotificationRecipient<?> recipient, EmailNotificationMessage message) {
         try {
-            SMTPMessage msg = new SMTPMessage(session);
-
-            EmailBody textBody = message.getTextBody();
-            EmailBody htmlBody = message.getHtmlBody();
-            boolean hasAttachments = !message.getAttachments().isEmpty();
-            if (textBody != null && htmlBody != null || hasAttachments) {
-                Multipart multipart = new MimeMultipart("alternative");
-                if (textBody != null) {
-                    MimeBodyPart textPart = new MimeBodyPart();
-                    textPart.setText(textBody.getBody(), CHARSET_UTF8);
-                    multipart.addBodyPart(textPart);
+            return sendNotificationMessageAsync(recipient, message).toCompletableFuture().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new NotificationException(e.getCause());
+        }
+    }
+
+    @Override
+    public CompletionStage<Object> sendNotificationMessageAsync(EmailNotificationRecipient<?> recipient, EmailNotificationMessage message) {
+        SendRawEmailRequest rawEmailRequest;
+        try {
+            rawEmailRequest = SendRawEmailRequest.builder()
+                .rawMessage(createRawMessage(recipient, message))
+                .build();
+        } catch (Throwable e) {
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            future.completeExceptionally(translateException(e));
+            return future;
+        }
+
+        // Take the send rate token only when the send can start, otherwise tokens would expire while waiting for in flight sends
+        return inFlightLimiter.submit(() -> {
+            CompletableFuture<Void> sendRatePermit;
+            try {
+                sendRatePermit = governor == null ? CompletableFuture.completedFuture(null) : governor.acquire(client, 1, config.inFlightTimeout);
+            } catch (RuntimeException e) {
+                CompletableFuture<Object> future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+                return future;
+            }
+            return sendRatePermit.thenCompose(ignore -> client.sendRawEmail(rawEmailRequest)).<Object>handle((result, throwable) -> {
+                if (throwable != null) {
+                    throw translateException(throwable);
+                }
+                if (LOG.isLoggable(Level.FINEST)) {
+                    LOG.log(Level.FINEST, "SES notification sent to " + recipient + " with message id: " + result.messageId());
                 }
+                return result.messageId();
+            });
+        });
+    }
+
+    @Override
+    public boolean isBatchingSupported() {
+        return true;
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return config.batchSize;
+    }
+
+    @Override
+    public Object[] sendNotificationMessages(List<? extends EmailNotificationRecipient<?>> recipients, List<? extends EmailNotificationMessage> messages) {
+        int size = recipients.size();
+        if (size != messages.size()) {
+            throw new IllegalArgumentException("The amount of recipients and messages must match!");
+        }
+        Object[] results = new Object[size];
+        boolean[] bulk = new boolean[size];
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        Map<BulkKey, List<Integer>> groups = config.bulkEnabled ? groupBulkMessages(messages) : Collections.emptyMap();
+        // The templates are created while the other messages are sent
+        List<CompletableFuture<String>> templateNames = new ArrayList<>(groups.size());
+        for (Map.Entry<BulkKey, List<Integer>> entry : groups.entrySet()) {
+            templateNames.add(getTemplateName(entry.getKey().templateContent));
+            for (Integer index : entry.getValue()) {
+                bulk[index] = true;
+            }
+        }
+        List<Integer> rawIndices = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            if (!bulk[i]) {
+                rawIndices.add(i);
+            }
+        }
+        sendRaw(recipients, messages, rawIndices, results, futures);
+        int groupIndex = 0;
+        for (Map.Entry<BulkKey, List<Integer>> entry : groups.entrySet()) {
+            List<Integer> group = entry.getValue();
+            String templateName = awaitTemplateName(templateNames.get(groupIndex++));
+            if (templateName == null) {
+                sendRaw(recipients, messages, group, results, futures);
+                continue;
+            }
+            EmailNotificationMessage message = messages.get(group.get(0));
+            for (int start = 0; start < group.size(); start += MAX_BULK_DESTINATIONS) {
+                int[] indices = new int[Math.min(group.size(), start + MAX_BULK_DESTINATIONS) - start];
+                for (int i = 0; i < indices.length; i++) {
+                    indices[i] = group.get(start + i);
+                }
+                try {
+                    futures.add(sendBulk(entry.getKey().templateContent, templateName, message, recipients, indices, results));
+                } catch (RuntimeException e) {
+                    fill(results, indices, e);
+                }
+            }
+        }
+        for (CompletableFuture<?> future : futures) {
+            // The futures record their results and never complete exceptionally
+            future.join();
+        }
+        return results;
+    }
 
-                if (htmlBody != null) {
-                    MimeBodyPart htmlPart = new MimeBodyPart();
-                    htmlPart.setContent(htmlBody.getBody(), HTML_MIME_TYPE);
-                    multipart.addBodyPart(htmlPart);
+    private Map<BulkKey, List<Integer>> groupBulkMessages(List<? extends EmailNotificationMessage> messages) {
+        Map<BulkKey, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < messages.size(); i++) {
+            EmailNotificationMessage message = messages.get(i);
+            if (message.getAttachments() == null || message.getAttachments().isEmpty()) {
+                TemplateContent templateContent = new TemplateContent(message);
+                // Template syntax in the content would be interpreted by SES
+                if (!templateContent.containsTemplateSyntax()) {
+                    groups.computeIfAbsent(new BulkKey(message, templateContent), k -> new ArrayList<>()).add(i);
                 }
+            }
+        }
+        groups.values().removeIf(group -> group.size() < MIN_BULK_DESTINATIONS);
+        return groups;
+    }
 
-                for (Attachment attachment : message.getAttachments()) {
-                    multipart.addBodyPart(createAttachmentBodyPart(attachment.getName(), attachment.getDataSource()));
+    private void sendRaw(List<? extends EmailNotificationRecipient<?>> recipients, List<? extends EmailNotificationMessage> messages, List<Integer> indices, Object[] results, List<CompletableFuture<?>> futures) {
+        for (int i = 0; i < indices.size(); i++) {
+            int index = indices.get(i);
+            try {
+                futures.add(sendNotificationMessageAsync(recipients.get(index), messages.get(index)).toCompletableFuture().handle((result, throwable) -> {
+                    results[index] = throwable == null ? result : throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+                    return null;
+                }));
+            } catch (JobTemporaryException e) {
+                // The channel is unavailable for now, so there is no point in trying the remaining messages
+                for (; i < indices.size(); i++) {
+                    results[indices.get(i)] = e;
                 }
+            } catch (RuntimeException e) {
+                results[index] = e;
+            }
+        }
+    }
+
+    private CompletableFuture<String> getTemplateName(TemplateContent templateContent) {
+        try {
+            return templates.get(templateContent, this::createTemplate);
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Failed to create SES template, sending raw messages instead", e);
+            CompletableFuture<String> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    private static String awaitTemplateName(CompletableFuture<String> templateName) {
+        try {
+            return templateName.join();
+        } catch (CompletionException | CancellationException e) {
+            // The failure was already logged when creating the template
+            return null;
+        }
+    }
 
-                msg.setContent(multipart);
-            } else if (textBody != null) {
-                msg.setText(textBody.getBody(), CHARSET_UTF8);
-            } else if (htmlBody != null) {
-                msg.setContent(htmlBody.getBody(), HTML_MIME_TYPE);
+    private CompletableFuture<String> createTemplate(TemplateContent templateContent) {
+        deleteRetiredTemplates();
+        String templateName = config.templatePrefix + templateContent.getContentHash();
+        if (retiredTemplates.remove(templateName) != null) {
+            // The template was evicted but not deleted yet, so it can be used again
+            return CompletableFuture.completedFuture(templateName);
+        }
+        CreateTemplateRequest request = CreateTemplateRequest.builder()
+            .template(Template.builder()
+                .templateName(templateName)
+                .subjectPart(templateContent.subject)
+                .textPart(templateContent.text)
+                .htmlPart(templateContent.html)
+                .build())
+            .build();
+        return client.createTemplate(request).handle((response, throwable) -> {
+            Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+            // The name is derived from the content, so an existing template with the same name has the same content
+            if (cause == null || cause instanceof AlreadyExistsException) {
+                return templateName;
             }
+            LOG.log(Level.WARNING, "Failed to create SES template, sending raw messages instead", cause);
+            // Don't cache the failure, so that the template is created again for the next batch
+            templates.invalidate(templateContent);
+            throw new CompletionException(cause);
+        });
+    }
 
-            String from = message.getFrom();
-            String fromDisplayName = message.getFromDisplayName();
-            msg.setFrom(toInternetAddress(from, fromDisplayName));
+    private void retireTemplate(CompletableFuture<String> templateName) {
+        // Templates that failed to be created don't have to be deleted
+        templateName.thenAccept(name -> retiredTemplates.put(name, System.nanoTime()));
+    }
 
-            String replyTo = message.getReplyTo();
-            if (replyTo != null && !replyTo.isEmpty()) {
-                msg.setReplyTo(new Address[]{toInternetAddress(replyTo, message.getReplyToDisplayName())});
+    private void deleteRetiredTemplates() {
+        long now = System.nanoTime();
+        for (Map.Entry<String, Long> entry : retiredTemplates.entrySet()) {
+            if (now - entry.getValue() > TEMPLATE_DELETION_DELAY_NANOS && retiredTemplates.remove(entry.getKey(), entry.getValue())) {
+                deleteTemplate(entry.getKey());
             }
-            String envelopeFrom = message.getEnvelopeFrom();
-            if (envelopeFrom != null && !envelopeFrom.isEmpty()) {
-                msg.setEnvelopeFrom(envelopeFrom);
+        }
+    }
+
+    private CompletableFuture<Void> deleteTemplate(String templateName) {
+        return client.deleteTemplate(DeleteTemplateRequest.builder().templateName(templateName).build()).handle((response, throwable) -> {
+            if (throwable != null) {
+                LOG.log(Level.FINE, "Failed to delete SES template " + templateName, throwable);
             }
+            return null;
+        });
+    }
 
-            msg.setHeader("To", recipient.getEmail());
-            msg.setSubject(message.getSubject().getSubject(), CHARSET_UTF8);
+    private CompletableFuture<Void> sendBulk(TemplateContent templateContent, String templateName, EmailNotificationMessage message, List<? extends EmailNotificationRecipient<?>> recipients, int[] indices, Object[] results) {
+        List<BulkEmailDestination> destinations = new ArrayList<>(indices.length);
+        for (int index : indices) {
+            destinations.add(BulkEmailDestination.builder()
+                .destination(Destination.builder().toAddresses(recipients.get(index).getEmail()).build())
+                .build());
+        }
+        SendBulkTemplatedEmailRequest.Builder requestBuilder = SendBulkTemplatedEmailRequest.builder()
+            .source(mimeMessageWriter.formatAddress(message.getFrom(), message.getFromDisplayName()))
+            .template(templateName)
+            .defaultTemplateData(EMPTY_TEMPLATE_DATA)
+            .destinations(destinations);
+        String replyTo = message.getReplyTo();
+        if (replyTo != null && !replyTo.isEmpty()) {
+            requestBuilder.replyToAddresses(mimeMessageWriter.formatAddress(replyTo, message.getReplyToDisplayName()));
+        }
+        String envelopeFrom = message.getEnvelopeFrom();
+        if (envelopeFrom != null && !envelopeFrom.isEmpty()) {
+            requestBuilder.returnPath(envelopeFrom);
+        }
+        SendBulkTemplatedEmailRequest request = requestBuilder.build();
+        return inFlightLimiter.submit(() -> {
+            // SES counts every destination of a bulk send as message
+            CompletableFuture<Void> sendRatePermit = governor == null ? CompletableFuture.completedFuture(null) : governor.acquire(client, indices.length, config.inFlightTimeout);
+            return sendRatePermit.thenCompose(ignore -> client.sendBulkTemplatedEmail(request)).<Void>handle((response, throwable) -> {
+                if (throwable != null) {
+                    Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+                    if (cause instanceof TemplateDoesNotExistException) {
+                        // The template was deleted by a channel with the same template prefix, so recreate it for the next attempt
+                        templates.invalidate(templateContent);
+                        fill(results, indices, new JobTemporaryException(cause));
+                    } else {
+                        fill(results, indices, translateException(throwable));
+                    }
+                    return null;
+                }
+                // The statuses are in the order of the destinations
+                List<BulkEmailDestinationStatus> statuses = response.status();
+                for (int i = 0; i < indices.length; i++) {
+                    if (i < statuses.size()) {
+                        results[indices[i]] = translateStatus(templateContent, statuses.get(i));
+                    } else {
+                        results[indices[i]] = new NotificationException("SES returned no status for destination " + recipients.get(indices[i]).getEmail());
+                    }
+                }
+                if (LOG.isLoggable(Level.FINEST)) {
+                    LOG.log(Level.FINEST, "SES bulk notification sent to " + indices.length + " recipients with template: " + templateName);
+                }
+                return null;
+            });
+        }).toCompletableFuture();
+    }
 
-            // Build the raw message
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            msg.writeTo(outputStream);
-            RawMessage rawMessage = RawMessage.builder()
-                .data(SdkBytes.fromByteArray(outputStream.toByteArray()))
-                .build();
+    private Object translateStatus(TemplateContent templateContent, BulkEmailDestinationStatus status) {
+        String message = status.statusAsString() + ": " + status.error();
+        if (status.status() == null) {
+            return new NotificationException(message);
+        }
+        switch (status.status()) {
+            case SUCCESS:
+                return status.messageId();
+            case ACCOUNT_THROTTLED:
+            case ACCOUNT_DAILY_QUOTA_EXCEEDED:
+                LOG.log(Level.FINE, "Rate limit exceeded: {0}", message);
+                if (governor != null) {
+                    governor.throttled(status.status() == BulkEmailStatus.ACCOUNT_DAILY_QUOTA_EXCEEDED);
+                }
+                return new JobRateLimitException(message);
+            case TEMPLATE_DOES_NOT_EXIST:
+                // The template was deleted externally, so recreate it for the next attempt
+                templates.invalidate(templateContent);
+                return new JobTemporaryException(message);
+            case TRANSIENT_FAILURE:
+            case ACCOUNT_SENDING_PAUSED:
+            case CONFIGURATION_SET_SENDING_PAUSED:
+                return new JobTemporaryException(message);
+            default:
+                return new NotificationException(message);
+        }
+    }
 
-            // Send the email.
-            SendRawEmailRequest rawEmailRequest = SendRawEmailRequest.builder()
-                .rawMessage(rawMessage)
+    private static void fill(Object[] results, int[] indices, Object value) {
+        for (int index : indices) {
+            results[index] = value;
+        }
+    }
+
+    private RawMessage createRawMessage(EmailNotificationRecipient<?> recipient, EmailNotificationMessage message) throws IOException {
+        try (PooledOutputStream outputStream = mimeMessageWriter.writeMessage(recipient, message)) {
+            // The SDK takes ownership of the exact sized array, so it is not copied again
+            return RawMessage.builder()
+                .data(SdkBytes.fromByteArrayUnsafe(outputStream.toByteArray()))
                 .build();
-            SendRawEmailResponse result = client.sendRawEmail(rawEmailRequest);
+        }
+    }
 
-            if (LOG.isLoggable(Level.FINEST)) {
-                LOG.log(Level.FINEST, "SES notification sent to " + recipient + " with message id: " + result.messageId());
-            }
-            return result.messageId();
-        } catch (SesException e) {
-            if ("Throttling".equals(e.awsErrorDetails().errorCode())) {
+    private RuntimeException translateException(Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        if (e instanceof SesException) {
+            SesException sesException = (SesException) e;
+            if (sesException.awsErrorDetails() != null && "Throttling".equals(sesException.awsErrorDetails().errorCode())) {
                 LOG.log(Level.FINE, "Rate limit exceeded", e);
-                // TODO: parse if daily or second rate limit and adapt wait time
-                throw new JobRateLimitException(e);
+                if (governor != null) {
+                    // SES reports "Daily message quota exceeded" or "Maximum sending rate exceeded"
+                    String errorMessage = sesException.awsErrorDetails().errorMessage();
+                    governor.throttled(errorMessage != null && errorMessage.toLowerCase(Locale.ROOT).contains("daily"));
+                }
+                return new JobRateLimitException(e);
             }
-            LOG.log(Level.SEVERE, "Failed to send email", e);
-            throw new NotificationException(e);
-        } catch (Throwable e) {
-            LOG.log(Level.SEVERE, "Failed to send email", e);
-            throw new NotificationException(e);
         }
+        LOG.log(Level.SEVERE, "Failed to send email", e);
+        return new NotificationException(e);
     }
 
-    private MimeBodyPart createAttachmentBodyPart(String attachmentFilename, DataSource dataSource) throws MessagingException {
-        try {
-            MimeBodyPart mimeBodyPart = new MimeBodyPart();
-            mimeBodyPart.setDisposition(MimeBodyPart.ATTACHMENT);
-            mimeBodyPart.setFileName(MimeUtility.encodeText(attachmentFilename));
-            mimeBodyPart.setDataHandler(new DataHandler(dataSource));
-            return mimeBodyPart;
-        } catch (UnsupportedEncodingException ex) {
-            throw new MessagingException("Failed to encode attachment filename", ex);
+    /**
+     * The content of a SES template, which is the part of a message that is the same for all recipients of a bulk templated send.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    private static final class TemplateContent {
+
+        private final String subject;
+        private final String text;
+        private final String html;
+        private final int hashCode;
+
+        private TemplateContent(EmailNotificationMessage message) {
+            this.subject = message.getSubject() == null ? "" : message.getSubject().getSubject();
+            this.text = message.getTextBody() == null ? null : message.getTextBody().getBody();
+            this.html = message.getHtmlBody() == null ? null : message.getHtmlBody().getBody();
+            this.hashCode = Objects.hash(subject, text, html);
+        }
+
+        private boolean containsTemplateSyntax() {
+            return subject.contains("{{") || text != null && text.contains("{{") || html != null && html.contains("{{");
+        }
+
+        private String getContentHash() {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not supported", e);
+            }
+            update(digest, subject);
+            update(digest, text);
+            update(digest, html);
+            // Template names may only contain alphanumeric characters, underscores and dashes
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest()).substring(0, TEMPLATE_HASH_LENGTH);
+        }
+
+        private static void update(MessageDigest digest, String part) {
+            if (part != null) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+            }
+            // Separates the parts, so that moving text from one part to another changes the hash
+            digest.update(part == null ? (byte) 0 : (byte) 1);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TemplateContent)) {
+                return false;
+            }
+            TemplateContent that = (TemplateContent) o;
+            return hashCode == that.hashCode && subject.equals(that.subject) && Objects.equals(text, that.text) && Objects.equals(html, that.html);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
         }
     }
 
-    private InternetAddress toInternetAddress(String email, String displayName) throws UnsupportedEncodingException, AddressException {
-        if (email == null || "".equals(email.trim())) {
-            throw new IllegalArgumentException("Please provide a valid address", null);
+    /**
+     * The key for messages that can be sent with a single bulk templated send, because they only differ in the recipient.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    private static final class BulkKey {
+
+        private final String from;
+        private final String fromDisplayName;
+        private final String replyTo;
+        private final String replyToDisplayName;
+        private final String envelopeFrom;
+        private final TemplateContent templateContent;
+
+        private BulkKey(EmailNotificationMessage message, TemplateContent templateContent) {
+            this.from = message.getFrom();
+            this.fromDisplayName = message.getFromDisplayName();
+            this.replyTo = message.getReplyTo();
+            this.replyToDisplayName = message.getReplyToDisplayName();
+            this.envelopeFrom = message.getEnvelopeFrom();
+            this.templateContent = templateContent;
         }
-        if (displayName == null || "".equals(displayName.trim())) {
-            return new InternetAddress(email);
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BulkKey)) {
+                return false;
+            }
+            BulkKey that = (BulkKey) o;
+            return templateContent.equals(that.templateContent)
+                && Objects.equals(from, that.from)
+                && Objects.equals(fromDisplayName, that.fromDisplayName)
+                && Objects.equals(replyTo, that.replyTo)
+                && Objects.equals(replyToDisplayName, that.replyToDisplayName)
+                && Objects.equals(envelopeFrom, that.envelopeFrom);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * templateContent.hashCode() + Objects.hash(from, fromDisplayName, replyTo, replyToDisplayName, envelopeFrom);
         }
-        return new InternetAddress(email, displayName, "utf-8");
     }
 
     /**
@@ -256,18 +740,49 @@ public class SesChannel implements Channel<EmailNotificationRecipient<?>, EmailN
         private final String accessKey;
         private final String secretKey;
         private final String region;
+        private final int maxInFlight;
+        private final long inFlightTimeout;
+        private final String endpoint;
+        private final int batchSize;
+        private final boolean bulkEnabled;
+        private final int maxTemplates;
+        private final String templatePrefix;
+        private final boolean quotaEnabled;
+        private final long quotaRefreshInterval;
+        private final long quotaDailyReserve;
 
         /**
          * Create a new config.
          *
-         * @param accessKey The AWS SES access key
-         * @param secretKey The AWS SES secret key
-         * @param region    The AWS SES region
+         * @param accessKey       The AWS SES access key
+         * @param secretKey       The AWS SES secret key
+         * @param region          The AWS SES region
+         * @param maxInFlight     The maximum amount of requests in flight
+         * @param inFlightTimeout The maximum time in milliseconds to wait for a request in flight to complete when the limit is reached
+         * @param endpoint        The AWS SES endpoint or <code>null</code> for the default endpoint of the region
+         * @param batchSize       The maximum amount of messages to send at once
+         * @param bulkEnabled     Whether to send messages with identical content via bulk templated sends
+         * @param maxTemplates    The maximum amount of SES templates to keep for bulk templated sends
+         * @param templatePrefix  The prefix of the names of the SES templates for bulk templated sends
+         * @param quotaEnabled    Whether to pace sends to the send quota of the AWS SES account
+         * @param quotaRefreshInterval The interval in milliseconds in which to read the send quota
+         * @param quotaDailyReserve The amount of messages of the 24 hour quota to keep in reserve
          */
-        Config(String accessKey, String secretKey, String region) {
+        Config(String accessKey, String secretKey, String region, int maxInFlight, long inFlightTimeout, String endpoint, int batchSize, boolean bulkEnabled, int maxTemplates,
+               String templatePrefix, boolean quotaEnabled, long quotaRefreshInterval, long quotaDailyReserve) {
             this.accessKey = accessKey;
             this.secretKey = secretKey;
             this.region = region;
+            this.maxInFlight = maxInFlight;
+            this.inFlightTimeout = inFlightTimeout;
+            this.endpoint = endpoint;
+            this.batchSize = batchSize;
+            this.bulkEnabled = bulkEnabled;
+            this.maxTemplates = maxTemplates;
+            this.templatePrefix = templatePrefix;
+            this.quotaEnabled = quotaEnabled;
+            this.quotaRefreshInterval = quotaRefreshInterval;
+            this.quotaDailyReserve = quotaDailyReserve;
         }
 
         /**
@@ -297,6 +812,96 @@ public class SesChannel implements Channel<EmailNotificationRecipient<?>, EmailN
             return region;
         }
 
+        /**
+         * Returns the maximum amount of requests in flight.
+         *
+         * @return the maximum amount of requests in flight
+         */
+        public int getMaxInFlight() {
+            return maxInFlight;
+        }
+
+        /**
+         * Returns the maximum time in milliseconds to wait for a request in flight to complete when the limit is reached.
+         *
+         * @return the in flight timeout
+         */
+        public long getInFlightTimeout() {
+            return inFlightTimeout;
+        }
+
+        /**
+         * Returns the AWS SES endpoint or <code>null</code> for the default endpoint of the region.
+         *
+         * @return the AWS SES endpoint
+         */
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        /**
+         * Returns the maximum amount of messages to send at once.
+         *
+         * @return the maximum amount of messages to send at once
+         */
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        /**
+         * Returns whether to send messages with identical content via bulk templated sends.
+         *
+         * @return whether to send messages with identical content via bulk templated sends
+         */
+        public boolean isBulkEnabled() {
+            return bulkEnabled;
+        }
+
+        /**
+         * Returns the maximum amount of SES templates to keep for bulk templated sends.
+         *
+         * @return the maximum amount of SES templates
+         */
+        public int getMaxTemplates() {
+            return maxTemplates;
+        }
+
+        /**
+         * Returns the prefix of the names of the SES templates for bulk templated sends.
+         *
+         * @return the template prefix
+         */
+        public String getTemplatePrefix() {
+            return templatePrefix;
+        }
+
+        /**
+         * Returns whether to pace sends to the send quota of the AWS SES account.
+         *
+         * @return whether to pace sends to the send quota
+         */
+        public boolean isQuotaEnabled() {
+            return quotaEnabled;
+        }
+
+        /**
+         * Returns the interval in milliseconds in which to read the send quota of the AWS SES account.
+         *
+         * @return the quota refresh interval
+         */
+        public long getQuotaRefreshInterval() {
+            return quotaRefreshInterval;
+        }
+
+        /**
+         * Returns the amount of messages of the 24 hour quota to keep in reserve.
+         *
+         * @return the daily reserve
+         */
+        public long getQuotaDailyReserve() {
+            return quotaDailyReserve;
+        }
+
         /**
          * Returns a new configuration builder.
          *
@@ -316,6 +921,16 @@ public class SesChannel implements Channel<EmailNotificationRecipient<?>, EmailN
             private String accessKey;
             private String secretKey;
             private String region;
+            private int maxInFlight = 20;
+            private long inFlightTimeout = 10000L;
+            private String endpoint;
+            private int batchSize = 50;
+            private boolean bulkEnabled;
+            private int maxTemplates = 100;
+            private String templatePrefix = "blaze-notify-";
+            private boolean quotaEnabled;
+            private long quotaRefreshInterval = 60000L;
+            private long quotaDailyReserve;
 
             /**
              * Returns the configuration.
@@ -323,7 +938,8 @@ public class SesChannel implements Channel<EmailNotificationRecipient<?>, EmailN
              * @return the configuration
              */
             public Config build() {
-                return new Config(accessKey, secretKey, region);
+                return new Config(accessKey, secretKey, region, maxInFlight, inFlightTimeout, endpoint, batchSize, bulkEnabled, maxTemplates,
+                    templatePrefix, quotaEnabled, quotaRefreshInterval, quotaDailyReserve);
             }
 
             /**
@@ -358,6 +974,117 @@ public class SesChannel implements Channel<EmailNotificationRecipient<?>, EmailN
                 this.region = region;
                 return this;
             }
+
+            /**
+             * Sets the maximum amount of requests in flight.
+             *
+             * @param maxInFlight The maximum amount of requests in flight
+             * @return <code>this</code> for chaining
+             */
+            public Builder withMaxInFlight(int maxInFlight) {
+                this.maxInFlight = maxInFlight;
+                return this;
+            }
+
+            /**
+             * Sets the maximum time in milliseconds to wait for a request in flight to complete when the limit is reached.
+             *
+             * @param inFlightTimeout The in flight timeout
+             * @return <code>this</code> for chaining
+             */
+            public Builder withInFlightTimeout(long inFlightTimeout) {
+                this.inFlightTimeout = inFlightTimeout;
+                return this;
+            }
+
+            /**
+             * Sets the AWS SES endpoint that overrides the default endpoint of the region.
+             *
+             * @param endpoint The AWS SES endpoint
+             * @return <code>this</code> for chaining
+             */
+            public Builder withEndpoint(String endpoint) {
+                this.endpoint = endpoint;
+                return this;
+            }
+
+            /**
+             * Sets the maximum amount of messages to send at once.
+             *
+             * @param batchSize The maximum amount of messages to send at once
+             * @return <code>this</code> for chaining
+             */
+            public Builder withBatchSize(int batchSize) {
+                this.batchSize = batchSize;
+                return this;
+            }
+
+            /**
+             * Sets whether to send messages with identical content via bulk templated sends.
+             *
+             * @param bulkEnabled Whether to send messages with identical content via bulk templated sends
+             * @return <code>this</code> for chaining
+             */
+            public Builder withBulkEnabled(boolean bulkEnabled) {
+                this.bulkEnabled = bulkEnabled;
+                return this;
+            }
+
+            /**
+             * Sets the maximum amount of SES templates to keep for bulk templated sends.
+             *
+             * @param maxTemplates The maximum amount of SES templates
+             * @return <code>this</code> for chaining
+             */
+            public Builder withMaxTemplates(int maxTemplates) {
+                this.maxTemplates = maxTemplates;
+                return this;
+            }
+
+            /**
+             * Sets the prefix of the names of the SES templates for bulk templated sends.
+             * Channels with the same prefix share templates with the same content, and all templates with the prefix can be deleted when no channel uses it.
+             *
+             * @param templatePrefix The template prefix of at most 22 alphanumeric characters, underscores or dashes
+             * @return <code>this</code> for chaining
+             */
+            public Builder withTemplatePrefix(String templatePrefix) {
+                this.templatePrefix = templatePrefix;
+                return this;
+            }
+
+            /**
+             * Sets whether to pace sends to the send quota of the AWS SES account.
+             *
+             * @param quotaEnabled Whether to pace sends to the send quota
+             * @return <code>this</code> for chaining
+             */
+            public Builder withQuotaEnabled(boolean quotaEnabled) {
+                this.quotaEnabled = quotaEnabled;
+                return this;
+            }
+
+            /**
+             * Sets the interval in milliseconds in which to read the send quota of the AWS SES account.
+             *
+             * @param quotaRefreshInterval The quota refresh interval
+             * @return <code>this</code> for chaining
+             */
+            public Builder withQuotaRefreshInterval(long quotaRefreshInterval) {
+                this.quotaRefreshInterval = quotaRefreshInterval;
+                return this;
+            }
+
+            /**
+             * Sets the amount of messages of the 24 hour quota to keep in reserve, e.g. for messages sent by other applications.
+             *
+             * @param quotaDailyReserve The daily reserve
+             * @return <code>this</code> for chaining
+             */
+            public Builder withQuotaDailyReserve(long quotaDailyReserve) {
+                this.quotaDailyReserve = quotaDailyReserve;
+                return this;
+            }
         }
     }
 }
@@ -21,6 +21,8 @@ import com.blazebit.notify.ChannelFactory;
 import com.blazebit.notify.ChannelKey;
 import com.blazebit.notify.NotificationJobContext;
 
+import java.util.Set;
+
 /**
  * A factory for AWS SES channels.
  *
@@ -35,6 +37,11 @@ public class SesChannelFactory implements ChannelFactory<SesChannel> {
         return SesChannel.KEY;
     }
 
+    @Override
+    public Set<String> getTransportPropertyNames() {
+        return SesChannel.TRANSPORT_PROPERTY_NAMES;
+    }
+
     @Override
     public SesChannel createChannel(NotificationJobContext jobContext, ConfigurationSource configurationSource) {
         return new SesChannel(configurationSource);
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.ses;
+
+import com.blazebit.job.JobRateLimitException;
+import software.amazon.awssdk.services.ses.SesAsyncClient;
+import software.amazon.awssdk.services.ses.model.GetSendQuotaResponse;
+import software.amazon.awssdk.services.ses.model.SesException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Paces sends to the send quota of an AWS SES account, so that sends are not rejected with throttling errors that are retried later.
+ * The maximum send rate and the 24 hour quota are read periodically via <code>GetSendQuota</code>.
+ * Sends are paced with a token bucket at the maximum send rate, where every recipient of a message takes a token.
+ * A send that has to wait for a token is delayed with a scheduled future rather than blocking the caller.
+ * When the 24 hour quota is about to be exhausted, sends fail fast with a {@link JobRateLimitException} until a refresh shows that there is quota left again.
+ *
+ * A governor is shared by all SES channels of the JVM that use the same account, region and endpoint, because the quota applies to the account.
+ * If the account is not permitted to read the send quota, the governor logs this once and stops pacing.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+final class SesSendGovernor {
+
+    private static final Logger LOG = Logger.getLogger(SesSendGovernor.class.getName());
+    private static final ConcurrentMap<String, SesSendGovernor> GOVERNORS = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ses-send-governor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final int HTTP_FORBIDDEN = 403;
+
+    private final long refreshIntervalNanos;
+    private final long dailyReserve;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    // Only the first of consecutive refresh failures is logged as warning
+    private final AtomicBoolean refreshFailureLogged = new AtomicBoolean();
+    private volatile long nextRefreshNanos;
+    private volatile boolean initialized;
+    private volatile boolean disabled;
+    // The state of the token bucket and the quota, guarded by this
+    private long nanosPerMessage;
+    private long nextMessageNanos;
+    private double max24HourSend = -1d;
+    private double sentLast24Hours;
+    private long pausedUntilNanos;
+    private boolean paused;
+
+    private SesSendGovernor(long refreshIntervalMillis, long dailyReserve) {
+        this.refreshIntervalNanos = TimeUnit.MILLISECONDS.toNanos(refreshIntervalMillis);
+        this.dailyReserve = dailyReserve;
+        this.nextRefreshNanos = System.nanoTime();
+        this.nextMessageNanos = nextRefreshNanos;
+    }
+
+    /**
+     * Returns the governor for the given account, region and endpoint.
+     * The refresh interval and daily reserve of the channel that created the governor apply, so different settings are logged and ignored.
+     *
+     * @param accessKey The AWS access key
+     * @param region The AWS region
+     * @param endpoint The endpoint or <code>null</code>
+     * @param refreshIntervalMillis The interval in milliseconds in which to read the send quota
+     * @param dailyReserve The amount of messages of the 24 hour quota to keep in reserve
+     * @return the governor
+     */
+    static SesSendGovernor getInstance(String accessKey, String region, String endpoint, long refreshIntervalMillis, long dailyReserve) {
+        SesSendGovernor governor = GOVERNORS.computeIfAbsent(accessKey + "|" + region + "|" + endpoint, k -> new SesSendGovernor(refreshIntervalMillis, dailyReserve));
+        if (governor.refreshIntervalNanos != TimeUnit.MILLISECONDS.toNanos(refreshIntervalMillis) || governor.dailyReserve != dailyReserve) {
+            LOG.log(Level.WARNING, "Ignoring the SES quota refresh interval of " + refreshIntervalMillis + "ms and daily reserve of " + dailyReserve
+                + " for region " + region + " and endpoint " + endpoint + " because the send quota is already governed with a refresh interval of "
+                + TimeUnit.NANOSECONDS.toMillis(governor.refreshIntervalNanos) + "ms and daily reserve of " + governor.dailyReserve);
+        }
+        return governor;
+    }
+
+    /**
+     * Reserves the send rate tokens for the given amount of messages.
+     *
+     * @param client The client to use for reading the send quota
+     * @param messages The amount of messages to send, counting every recipient
+     * @param timeoutMillis The maximum time in milliseconds to wait
+     * @return The future that is completed when the messages may be sent
+     * @throws JobRateLimitException If the 24 hour quota is exhausted or the send rate does not allow to send within the timeout
+     */
+    CompletableFuture<Void> acquire(SesAsyncClient client, int messages, long timeoutMillis) {
+        refreshIfNecessary(client);
+        if (disabled) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (paused) {
+                if (now - pausedUntilNanos < 0L) {
+                    throw new JobRateLimitException("SES daily sending quota exhausted, sending is paused until the quota is refreshed");
+                }
+                paused = false;
+            }
+            if (max24HourSend >= 0d && sentLast24Hours + messages + dailyReserve > max24HourSend) {
+                pause(now);
+                throw new JobRateLimitException("SES daily sending quota of " + (long) max24HourSend + " messages exhausted, sending is paused until the quota is refreshed");
+            }
+            waitNanos = 0L;
+            if (nanosPerMessage != 0L) {
+                waitNanos = nextMessageNanos - now;
+                if (waitNanos > TimeUnit.MILLISECONDS.toNanos(timeoutMillis)) {
+                    throw new JobRateLimitException("SES maximum send rate does not allow to send within " + timeoutMillis + "ms");
+                }
+                // Don't accumulate credit for idle periods
+                nextMessageNanos = Math.max(nextMessageNanos, now) + nanosPerMessage * messages;
+            }
+            sentLast24Hours += messages;
+        }
+        if (waitNanos <= 0L) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        SCHEDULER.schedule(() -> future.complete(null), waitNanos, TimeUnit.NANOSECONDS);
+        return future;
+    }
+
+    /**
+     * Adapts the governor after SES rejected a send because of throttling.
+     *
+     * @param daily Whether the 24 hour quota was exceeded rather than the maximum send rate
+     */
+    synchronized void throttled(boolean daily) {
+        long now = System.nanoTime();
+        if (daily) {
+            pause(now);
+        } else {
+            // Let the sends that are already in flight drain before sending again
+            nextMessageNanos = Math.max(nextMessageNanos, now + TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    private void pause(long now) {
+        paused = true;
+        // The quota is a sliding window, so capacity is freed continuously and the next refresh tells if there is some left
+        pausedUntilNanos = now + refreshIntervalNanos;
+        nextRefreshNanos = pausedUntilNanos;
+    }
+
+    private void refreshIfNecessary(SesAsyncClient client) {
+        if (disabled || System.nanoTime() - nextRefreshNanos < 0L || !refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        nextRefreshNanos = System.nanoTime() + refreshIntervalNanos;
+        if (initialized) {
+            client.getSendQuota().whenComplete((response, throwable) -> refreshed(response, throwable));
+        } else {
+            // Wait for the quota initially, so that the first sends are paced already
+            try {
+                refreshed(client.getSendQuota().join(), null);
+            } catch (CompletionException e) {
+                refreshed(null, e.getCause());
+            }
+        }
+    }
+
+    private void refreshed(GetSendQuotaResponse response, Throwable throwable) {
+        try {
+            if (throwable != null) {
+                Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+                if (cause instanceof SesException && ((SesException) cause).statusCode() == HTTP_FORBIDDEN) {
+                    // Retrying won't help without the ses:GetSendQuota permission, so stop pacing instead of failing every refresh
+                    disabled = true;
+                    LOG.log(Level.WARNING, "Disabling SES send quota pacing, because the send quota can't be read: {0}", cause.getMessage());
+                } else if (refreshFailureLogged.compareAndSet(false, true)) {
+                    LOG.log(Level.WARNING, "Failed to read the SES send quota, using the last known quota until a refresh succeeds", cause);
+                } else {
+                    LOG.log(Level.FINE, "Failed to read the SES send quota", cause);
+                }
+                return;
+            }
+            refreshFailureLogged.set(false);
+            synchronized (this) {
+                double maxSendRate = response.maxSendRate() == null ? 0d : response.maxSendRate();
+                nanosPerMessage = maxSendRate > 0d ? (long) (TimeUnit.SECONDS.toNanos(1) / maxSendRate) : 0L;
+                max24HourSend = response.max24HourSend() == null ? -1d : response.max24HourSend();
+                sentLast24Hours = response.sentLast24Hours() == null ? 0d : response.sentLast24Hours();
+                if (paused && (max24HourSend < 0d || sentLast24Hours + dailyReserve < max24HourSend)) {
+                    paused = false;
+                }
+            }
+            if (LOG.isLoggable(Level.FINEST)) {
+                LOG.log(Level.FINEST, "SES send quota refreshed: " + response);
+            }
+        } finally {
+            initialized = true;
+            refreshing.set(false);
+        }
+    }
+}
@@ -0,0 +1,426 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.ses;
+
+import com.blazebit.job.JobRateLimitException;
+import com.blazebit.job.JobTemporaryException;
+import com.blazebit.notify.email.message.Attachment;
+import com.blazebit.notify.email.message.EmailBody;
+import com.blazebit.notify.email.message.EmailNotificationMessage;
+import com.blazebit.notify.email.message.EmailNotificationRecipient;
+import com.blazebit.notify.email.message.EmailSubject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.activation.DataSource;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SesChannelTest {
+
+    private static final String NAMESPACE = "http://ses.amazonaws.com/doc/2010-12-01/";
+
+    private final List<String> actions = new CopyOnWriteArrayList<>();
+    private final List<Integer> bulkDestinationCounts = new CopyOnWriteArrayList<>();
+    private final Set<String> templates = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger messageIds = new AtomicInteger();
+    private volatile long max24HourSend = 1000000L;
+    private volatile double maxSendRate = 1000d;
+    private volatile boolean quotaForbidden;
+    private volatile long sentLast24Hours;
+    private HttpServer server;
+    private SesChannel channel;
+
+    @Before
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        channel = createChannel(100);
+    }
+
+    @After
+    public void tearDown() {
+        channel.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void sendIdenticalMessagesWithBulkTemplatedSends() {
+        int recipientCount = 120;
+        List<EmailNotificationRecipient<?>> recipients = new ArrayList<>();
+        List<EmailNotificationMessage> messages = new ArrayList<>();
+        for (int i = 0; i < recipientCount; i++) {
+            recipients.add(new TestRecipient("user" + i + "@localhost"));
+            messages.add(new EmailNotificationMessage("no-reply@localhost", "newsletter", "newsletter body"));
+        }
+        // Messages with attachments or unique content are sent raw
+        recipients.add(new TestRecipient("attachment@localhost"));
+        messages.add(new EmailNotificationMessage("no-reply@localhost", null, null, null, null, new EmailSubject("newsletter"), new EmailBody("newsletter body"), null,
+                Collections.singletonList(new Attachment("attachment.txt", new TestDataSource("attachment content")))));
+        recipients.add(new TestRecipient("unique@localhost"));
+        messages.add(new EmailNotificationMessage("no-reply@localhost", "unique", "unique body"));
+
+        Object[] results = channel.sendNotificationMessages(recipients, messages);
+
+        Set<Object> messageIds = new HashSet<>();
+        for (int i = 0; i < results.length; i++) {
+            assertTrue(String.valueOf(results[i]), results[i] instanceof String);
+            assertTrue(messageIds.add(results[i]));
+            assertTrue(String.valueOf(results[i]), ((String) results[i]).startsWith(i < recipientCount ? "bulk-" : "raw-"));
+        }
+        assertEquals(1, countActions("CreateTemplate"));
+        assertEquals(2, countActions("SendRawEmail"));
+        Collections.sort(bulkDestinationCounts);
+        assertEquals("[20, 50, 50]", bulkDestinationCounts.toString());
+    }
+
+    @Test
+    public void reportBulkDestinationFailuresPerRecipient() {
+        List<EmailNotificationRecipient<?>> recipients = new ArrayList<>();
+        List<EmailNotificationMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            recipients.add(new TestRecipient((i % 2 == 0 ? "throttled" : "user") + i + "@localhost"));
+            messages.add(new EmailNotificationMessage("no-reply@localhost", "newsletter", "newsletter body"));
+        }
+
+        Object[] results = channel.sendNotificationMessages(recipients, messages);
+
+        assertTrue(String.valueOf(results[0]), results[0] instanceof JobRateLimitException);
+        assertTrue(String.valueOf(results[1]), results[1] instanceof String);
+        assertTrue(String.valueOf(results[2]), results[2] instanceof JobRateLimitException);
+        assertTrue(String.valueOf(results[3]), results[3] instanceof String);
+    }
+
+    @Test
+    public void pauseSendsWhenDailyQuotaIsExhausted() {
+        max24HourSend = 200L;
+        sentLast24Hours = 199L;
+        List<EmailNotificationRecipient<?>> recipients = new ArrayList<>();
+        List<EmailNotificationMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            recipients.add(new TestRecipient("user" + i + "@localhost"));
+            messages.add(new EmailNotificationMessage("no-reply@localhost", "message " + i, "body " + i));
+        }
+
+        Object[] results = channel.sendNotificationMessages(recipients, messages);
+
+        assertTrue(String.valueOf(results[0]), results[0] instanceof String);
+        assertTrue(String.valueOf(results[1]), results[1] instanceof JobRateLimitException);
+        assertTrue(String.valueOf(results[2]), results[2] instanceof JobRateLimitException);
+        assertEquals(1, countActions("GetSendQuota"));
+        assertEquals(1, countActions("SendRawEmail"));
+    }
+
+    @Test
+    public void delaySendsToSendRateWithoutBlockingTheCaller() {
+        maxSendRate = 10d;
+        long start = System.nanoTime();
+        List<CompletableFuture<Object>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(channel.sendNotificationMessageAsync(new TestRecipient("user" + i + "@localhost"), new EmailNotificationMessage("no-reply@localhost", "message " + i, "body " + i))
+                    .toCompletableFuture());
+        }
+        long submitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        for (CompletableFuture<Object> future : futures) {
+            assertTrue(future.join() instanceof String);
+        }
+        long sendMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // Every message after the first one waits 100ms for its send rate token, but only the initial quota refresh blocks the caller
+        assertTrue("Sent after " + sendMillis + "ms", sendMillis >= 350L);
+        assertTrue("Submitted after " + submitMillis + "ms", submitMillis < 200L);
+    }
+
+    @Test
+    public void disablePacingWhenSendQuotaIsForbidden() {
+        quotaForbidden = true;
+        List<EmailNotificationRecipient<?>> recipients = new ArrayList<>();
+        List<EmailNotificationMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            recipients.add(new TestRecipient("user" + i + "@localhost"));
+            messages.add(new EmailNotificationMessage("no-reply@localhost", "message " + i, "body " + i));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            for (Object result : channel.sendNotificationMessages(recipients, messages)) {
+                assertTrue(String.valueOf(result), result instanceof String);
+            }
+        }
+        assertEquals(1, countActions("GetSendQuota"));
+    }
+
+    @Test
+    public void nameTemplatesWithConfiguredPrefix() {
+        SesChannel prefixedChannel = createChannel(100, "orders-");
+        try {
+            assertBulkSent(prefixedChannel.sendNotificationMessages(newsletterRecipients(2), newsletterMessages("newsletter", 2)));
+            assertBulkSent(channel.sendNotificationMessages(newsletterRecipients(2), newsletterMessages("newsletter", 2)));
+        } finally {
+            prefixedChannel.close();
+        }
+
+        // Closing a channel only deletes the templates with its own prefix
+        assertEquals(1, countActions("DeleteTemplate"));
+        assertEquals(1, templates.size());
+        assertTrue(templates.toString(), templates.iterator().next().startsWith("blaze-notify-"));
+        assertBulkSent(channel.sendNotificationMessages(newsletterRecipients(2), newsletterMessages("newsletter", 2)));
+    }
+
+    @Test
+    public void recreateTemplateDeletedByChannelWithSamePrefix() {
+        SesChannel otherChannel = createChannel(100);
+        try {
+            assertBulkSent(otherChannel.sendNotificationMessages(newsletterRecipients(2), newsletterMessages("newsletter", 2)));
+            assertBulkSent(channel.sendNotificationMessages(newsletterRecipients(2), newsletterMessages("newsletter", 2)));
+        } finally {
+            otherChannel.close();
+        }
+
+        // Channels with the same prefix share the template, so the send fails temporarily and the template is created again for the retry
+        assertTrue(templates.isEmpty());
+        Object[] results = channel.sendNotificationMessages(newsletterRecipients(2), newsletterMessages("newsletter", 2));
+        assertTrue(String.valueOf(results[0]), results[0] instanceof JobTemporaryException);
+        assertBulkSent(channel.sendNotificationMessages(newsletterRecipients(2), newsletterMessages("newsletter", 2)));
+        assertEquals(1, templates.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectInvalidTemplatePrefix() {
+        createChannel(100, "blaze notify/");
+    }
+
+    @Test
+    public void deferDeletionOfEvictedTemplates() {
+        SesChannel evictingChannel = createChannel(1);
+        try {
+            assertBulkSent(evictingChannel.sendNotificationMessages(newsletterRecipients(2), newsletterMessages("first", 2)));
+            assertBulkSent(evictingChannel.sendNotificationMessages(newsletterRecipients(2), newsletterMessages("second", 2)));
+            // The evicted template might still be used by a send in flight, so it is reused rather than deleted
+            assertBulkSent(evictingChannel.sendNotificationMessages(newsletterRecipients(2), newsletterMessages("first", 2)));
+            assertEquals(2, countActions("CreateTemplate"));
+            assertEquals(0, countActions("DeleteTemplate"));
+        } finally {
+            evictingChannel.close();
+        }
+
+        assertEquals(2, countActions("DeleteTemplate"));
+        assertTrue(templates.isEmpty());
+    }
+
+    private SesChannel createChannel(int maxTemplates) {
+        return createChannel(maxTemplates, "blaze-notify-");
+    }
+
+    private SesChannel createChannel(int maxTemplates, String templatePrefix) {
+        return new SesChannel(SesChannel.Config.builder()
+                .withAccessKey("access")
+                .withSecretKey("secret")
+                .withRegion("eu-central-1")
+                .withEndpoint("http://localhost:" + server.getAddress().getPort())
+                .withQuotaEnabled(true)
+                .withBulkEnabled(true)
+                .withMaxTemplates(maxTemplates)
+                .withTemplatePrefix(templatePrefix)
+                .build());
+    }
+
+    private static List<EmailNotificationRecipient<?>> newsletterRecipients(int count) {
+        List<EmailNotificationRecipient<?>> recipients = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            recipients.add(new TestRecipient("user" + i + "@localhost"));
+        }
+        return recipients;
+    }
+
+    private static List<EmailNotificationMessage> newsletterMessages(String subject, int count) {
+        List<EmailNotificationMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(new EmailNotificationMessage("no-reply@localhost", subject, "newsletter body"));
+        }
+        return messages;
+    }
+
+    private static void assertBulkSent(Object[] results) {
+        for (Object result : results) {
+            assertTrue(String.valueOf(result), result instanceof String && ((String) result).startsWith("bulk-"));
+        }
+    }
+
+    private int countActions(String action) {
+        int count = 0;
+        for (String a : actions) {
+            if (a.equals(action)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = parseForm(exchange.getRequestBody());
+        String action = parameters.get("Action");
+        actions.add(action);
+        StringBuilder result = new StringBuilder();
+        switch (action) {
+            case "CreateTemplate":
+                templates.add(parameters.get("Template.TemplateName"));
+                break;
+            case "DeleteTemplate":
+                templates.remove(parameters.get("TemplateName"));
+                break;
+            case "GetSendQuota":
+                if (quotaForbidden) {
+                    sendResponse(exchange, 403, "<ErrorResponse xmlns=\"" + NAMESPACE + "\"><Error><Type>Sender</Type><Code>AccessDenied</Code><Message>Not authorized to perform ses:GetSendQuota</Message></Error><RequestId>1</RequestId></ErrorResponse>");
+                    return;
+                }
+                result.append("<Max24HourSend>").append(max24HourSend).append("</Max24HourSend>")
+                        .append("<MaxSendRate>").append(maxSendRate).append("</MaxSendRate>")
+                        .append("<SentLast24Hours>").append(sentLast24Hours).append("</SentLast24Hours>");
+                break;
+            case "SendRawEmail":
+                result.append("<MessageId>raw-").append(messageIds.incrementAndGet()).append("</MessageId>");
+                break;
+            case "SendBulkTemplatedEmail":
+                if (!templates.contains(parameters.get("Template"))) {
+                    sendResponse(exchange, 400, "<ErrorResponse xmlns=\"" + NAMESPACE + "\"><Error><Type>Sender</Type><Code>TemplateDoesNotExist</Code><Message>Template does not exist</Message></Error><RequestId>1</RequestId></ErrorResponse>");
+                    return;
+                }
+                result.append("<Status>");
+                int destinations = 0;
+                String address;
+                while ((address = parameters.get("Destinations.member." + (destinations + 1) + ".Destination.ToAddresses.member.1")) != null) {
+                    destinations++;
+                    if (address.startsWith("throttled")) {
+                        result.append("<member><Status>AccountThrottled</Status><Error>Maximum sending rate exceeded</Error></member>");
+                    } else {
+                        result.append("<member><Status>Success</Status><MessageId>bulk-").append(messageIds.incrementAndGet()).append("</MessageId></member>");
+                    }
+                }
+                result.append("</Status>");
+                bulkDestinationCounts.add(destinations);
+                break;
+            default:
+                sendResponse(exchange, 400, "<ErrorResponse xmlns=\"" + NAMESPACE + "\"><Error><Type>Sender</Type><Code>InvalidAction</Code><Message>" + action + "</Message></Error><RequestId>1</RequestId></ErrorResponse>");
+                return;
+        }
+        sendResponse(exchange, 200, "<" + action + "Response xmlns=\"" + NAMESPACE + "\"><" + action + "Result>" + result + "</" + action + "Result>"
+                + "<ResponseMetadata><RequestId>1</RequestId></ResponseMetadata></" + action + "Response>");
+    }
+
+    private static Map<String, String> parseForm(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[8192];
+        StringBuilder sb = new StringBuilder();
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            sb.append(new String(buffer, 0, read, StandardCharsets.ISO_8859_1));
+        }
+        Map<String, String> parameters = new HashMap<>();
+        for (String pair : sb.toString().split("&")) {
+            int equalsIndex = pair.indexOf('=');
+            if (equalsIndex != -1) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equalsIndex), "UTF-8"), URLDecoder.decode(pair.substring(equalsIndex + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static void sendResponse(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/xml");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    private static class TestRecipient implements EmailNotificationRecipient<String> {
+
+        private final String email;
+
+        TestRecipient(String email) {
+            this.email = email;
+        }
+
+        @Override
+        public String getId() {
+            return email;
+        }
+
+        @Override
+        public String getEmail() {
+            return email;
+        }
+
+        @Override
+        public Locale getLocale() {
+            return Locale.getDefault();
+        }
+    }
+
+    private static class TestDataSource implements DataSource {
+
+        private final String content;
+
+        TestDataSource(String content) {
+            this.content = content;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getContentType() {
+            return "text/plain; charset=UTF-8";
+        }
+
+        @Override
+        public String getName() {
+            return "attachment.txt";
+        }
+    }
+}
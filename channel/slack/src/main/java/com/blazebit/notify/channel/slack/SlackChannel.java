@@ -17,8 +17,11 @@ package com.blazebit.notify.channel.slack;
 
 import com.blazebit.job.ConfigurationSource;
 import com.blazebit.job.JobRateLimitException;
+import com.blazebit.notify.BoundedCache;
 import com.blazebit.notify.Channel;
+import com.blazebit.notify.CacheStatistics;
 import com.blazebit.notify.ChannelKey;
+import com.blazebit.notify.InFlightLimiter;
 import com.blazebit.notify.NotificationException;
 import com.blazebit.notify.NotificationMessage;
 import com.blazebit.notify.email.message.EmailNotificationRecipient;
@@ -31,9 +34,24 @@ import com.hubspot.slack.client.methods.params.users.UserEmailParams;
 import com.hubspot.slack.client.models.response.SlackError;
 import com.hubspot.slack.client.models.response.SlackErrorType;
 import com.hubspot.slack.client.models.response.chat.ChatPostMessageResponse;
+import com.hubspot.slack.client.models.users.SlackUser;
+import com.hubspot.slack.client.models.users.UserProfile;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -43,12 +61,21 @@ import java.util.logging.Logger;
  * <p>
  * See https://api.slack.com/docs/rate-limits for rate limiting
  * <p>
+ * Every Slack API method that is used has a rate limit of its own, so the calls of each method are paced by a separate token bucket
+ * that is sized to the tier of the method. Sends are pipelined up to the maximum amount of requests in flight and wait for a permit of the method without blocking.
+ * When Slack rejects a call because of rate limiting, calls of that method are suspended for the configured back off time, while the other methods continue.
+ * <p>
  * This channel needs a Slack App Bot User OAuth Access Token() with the permissions
  * <p>
  * * users:read
  * * users:read.email
  * <p>
  * This is required to resolve the user id by email.
+ * <p>
+ * Resolved user ids are cached for a configurable time, as are email addresses that don't belong to a user of the workspace,
+ * because <code>users.lookupByEmail</code> is rate limited more strictly than <code>chat.postMessage</code>.
+ * The cache can optionally be filled by paging through <code>users.list</code>, so that looking up the recipients of a notification job doesn't need a request per recipient.
+ * Only the first sends wait for the initial prefetch, the cache is refreshed in the background twice per cache time to live.
  *
  * @author Christian Beikov
  * @since 1.0.0
@@ -68,11 +95,89 @@ public class SlackChannel implements Channel<EmailNotificationRecipient<?>, Noti
      * The configuration property for the slack sender name.
      */
     public static final String SLACK_SENDER_NAME_PROPERTY = "channel.slack.sender_name";
+    /**
+     * The configuration property for the maximum amount of Slack requests in flight.
+     */
+    public static final String SLACK_MAX_IN_FLIGHT_PROPERTY = "channel.slack.max_in_flight";
+    /**
+     * The configuration property for the maximum time in milliseconds to wait for a Slack request in flight to complete when the limit is reached.
+     */
+    public static final String SLACK_IN_FLIGHT_TIMEOUT_PROPERTY = "channel.slack.in_flight_timeout";
+    /**
+     * The configuration property for the maximum amount of email addresses for which to cache the Slack user id.
+     */
+    public static final String SLACK_USER_CACHE_MAX_SIZE_PROPERTY = "channel.slack.user_cache.max_size";
+    /**
+     * The configuration property for the time in milliseconds for which to cache the Slack user id of an email address.
+     */
+    public static final String SLACK_USER_CACHE_TTL_PROPERTY = "channel.slack.user_cache.ttl";
+    /**
+     * The configuration property for the time in milliseconds for which to cache that an email address doesn't belong to a Slack user.
+     */
+    public static final String SLACK_USER_CACHE_NEGATIVE_TTL_PROPERTY = "channel.slack.user_cache.negative_ttl";
+    /**
+     * The configuration property for whether to fill the user id cache by listing all users of the workspace.
+     */
+    public static final String SLACK_USER_CACHE_PREFETCH_PROPERTY = "channel.slack.user_cache.prefetch";
+    /**
+     * The configuration property for the amount of <code>chat.postMessage</code> calls allowed per minute.
+     */
+    public static final String SLACK_POST_MESSAGE_RATE_PROPERTY = "channel.slack.rate.post_message";
+    /**
+     * The configuration property for the amount of <code>users.lookupByEmail</code> calls allowed per minute.
+     */
+    public static final String SLACK_LOOKUP_BY_EMAIL_RATE_PROPERTY = "channel.slack.rate.lookup_by_email";
+    /**
+     * The configuration property for the amount of <code>users.list</code> calls allowed per minute.
+     */
+    public static final String SLACK_LIST_USERS_RATE_PROPERTY = "channel.slack.rate.list_users";
+    /**
+     * The configuration property for the time in milliseconds to suspend calls of a method after Slack rejected a call because of rate limiting.
+     */
+    public static final String SLACK_RATE_LIMIT_BACKOFF_PROPERTY = "channel.slack.rate.backoff";
+
+    static final Set<String> TRANSPORT_PROPERTY_NAMES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        SLACK_TOKEN_PROPERTY,
+        SLACK_SENDER_NAME_PROPERTY,
+        SLACK_MAX_IN_FLIGHT_PROPERTY,
+        SLACK_IN_FLIGHT_TIMEOUT_PROPERTY,
+        SLACK_USER_CACHE_MAX_SIZE_PROPERTY,
+        SLACK_USER_CACHE_TTL_PROPERTY,
+        SLACK_USER_CACHE_NEGATIVE_TTL_PROPERTY,
+        SLACK_USER_CACHE_PREFETCH_PROPERTY,
+        SLACK_POST_MESSAGE_RATE_PROPERTY,
+        SLACK_LOOKUP_BY_EMAIL_RATE_PROPERTY,
+        SLACK_LIST_USERS_RATE_PROPERTY,
+        SLACK_RATE_LIMIT_BACKOFF_PROPERTY
+    )));
 
     private static final Logger LOG = Logger.getLogger(SlackChannel.class.getName());
+    private static final String USERS_NOT_FOUND = "users_not_found";
+    // Prefetching blocks on the page requests, which must not happen on the threads that complete the sends
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "slack-user-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     private final SlackClient slackClient;
     private final String senderName;
+    private final InFlightLimiter inFlightLimiter;
+    private final long inFlightTimeout;
+    private final SlackMethodLimiter postMessageLimiter;
+    private final SlackMethodLimiter lookupByEmailLimiter;
+    private final SlackMethodLimiter listUsersLimiter;
+    private final BoundedCache<String, UserId> userIds;
+    private final int userCacheMaxSize;
+    private final long userCacheTtlNanos;
+    private final long userCacheNegativeTtlNanos;
+    private final boolean prefetchUsers;
+    private final long prefetchIntervalNanos;
+    // The initial prefetch that sends wait for, refreshes run in the background
+    private volatile CompletableFuture<Void> prefetch;
+    private CompletableFuture<Void> refresh;
+    private volatile long nextPrefetchNanos;
+    private volatile boolean closed;
 
     /**
      * Creates a new slack channel from the given configuration source.
@@ -89,29 +194,65 @@ public class SlackChannel implements Channel<EmailNotificationRecipient<?>, Noti
      * @param config The config
      */
     public SlackChannel(Config config) {
+        this(config, createSlackClient(config));
+    }
+
+    /**
+     * Creates a new slack channel from the given config that uses the given client.
+     *
+     * @param config The config
+     * @param slackClient The Slack client
+     */
+    SlackChannel(Config config, SlackClient slackClient) {
+        this.slackClient = slackClient;
+        this.senderName = config.senderName;
+        this.inFlightLimiter = new InFlightLimiter(config.maxInFlight, config.inFlightTimeout);
+        this.inFlightTimeout = config.inFlightTimeout;
+        this.postMessageLimiter = new SlackMethodLimiter("chat.postMessage", config.postMessageRate, config.rateLimitBackoff);
+        this.lookupByEmailLimiter = new SlackMethodLimiter("users.lookupByEmail", config.lookupByEmailRate, config.rateLimitBackoff);
+        this.listUsersLimiter = new SlackMethodLimiter("users.list", config.listUsersRate, config.rateLimitBackoff);
+        this.userIds = new BoundedCache<>(config.userCacheMaxSize, 0L, userId -> { });
+        this.userCacheMaxSize = config.userCacheMaxSize;
+        this.userCacheTtlNanos = TimeUnit.MILLISECONDS.toNanos(config.userCacheTtl);
+        this.userCacheNegativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(config.userCacheNegativeTtl);
+        this.prefetchUsers = config.userCachePrefetch;
+        // Refresh before the prefetched entries expire, so that sends don't fall back to looking up users individually
+        this.prefetchIntervalNanos = userCacheTtlNanos / 2;
+        LOG.log(Level.FINEST, "Slack channel opened");
+    }
+
+    private static SlackClient createSlackClient(Config config) {
         if (config.token == null) {
             throw new IllegalArgumentException("No Slack token given for Slack channel!");
         }
-
-        this.slackClient = SlackClientFactory.defaultFactory().build(
+        return SlackClientFactory.defaultFactory().build(
             SlackClientRuntimeConfig.builder()
                 .setTokenSupplier(() -> config.token)
                 .build()
         );
-        this.senderName = config.senderName;
-        LOG.log(Level.FINEST, "Slack channel opened");
     }
 
     private static Config fromConfigurationSource(ConfigurationSource configurationSource) {
         Config.Builder builder = Config.builder()
             .withToken(configurationSource.getPropertyOrFail(SLACK_TOKEN_PROPERTY, String.class, Function.identity()))
-            .withSenderName(configurationSource.getPropertyOrFail(SLACK_SENDER_NAME_PROPERTY, String.class, Function.identity()));
+            .withSenderName(configurationSource.getPropertyOrFail(SLACK_SENDER_NAME_PROPERTY, String.class, Function.identity()))
+            .withMaxInFlight(configurationSource.getPropertyOrDefault(SLACK_MAX_IN_FLIGHT_PROPERTY, Integer.class, Integer::valueOf, o -> 10))
+            .withInFlightTimeout(configurationSource.getPropertyOrDefault(SLACK_IN_FLIGHT_TIMEOUT_PROPERTY, Long.class, Long::valueOf, o -> 10000L))
+            .withUserCacheMaxSize(configurationSource.getPropertyOrDefault(SLACK_USER_CACHE_MAX_SIZE_PROPERTY, Integer.class, Integer::valueOf, o -> 10000))
+            .withUserCacheTtl(configurationSource.getPropertyOrDefault(SLACK_USER_CACHE_TTL_PROPERTY, Long.class, Long::valueOf, o -> 3600000L))
+            .withUserCacheNegativeTtl(configurationSource.getPropertyOrDefault(SLACK_USER_CACHE_NEGATIVE_TTL_PROPERTY, Long.class, Long::valueOf, o -> 300000L))
+            .withUserCachePrefetch(configurationSource.getPropertyOrDefault(SLACK_USER_CACHE_PREFETCH_PROPERTY, Boolean.class, Boolean::valueOf, o -> false))
+            .withPostMessageRate(configurationSource.getPropertyOrDefault(SLACK_POST_MESSAGE_RATE_PROPERTY, Integer.class, Integer::valueOf, o -> 300))
+            .withLookupByEmailRate(configurationSource.getPropertyOrDefault(SLACK_LOOKUP_BY_EMAIL_RATE_PROPERTY, Integer.class, Integer::valueOf, o -> 50))
+            .withListUsersRate(configurationSource.getPropertyOrDefault(SLACK_LIST_USERS_RATE_PROPERTY, Integer.class, Integer::valueOf, o -> 20))
+            .withRateLimitBackoff(configurationSource.getPropertyOrDefault(SLACK_RATE_LIMIT_BACKOFF_PROPERTY, Long.class, Long::valueOf, o -> 30000L));
 
         return builder.build();
     }
 
     @Override
     public void close() {
+        closed = true;
         try {
             this.slackClient.close();
         } catch (IOException e) {
@@ -124,37 +265,193 @@ public class SlackChannel implements Channel<EmailNotificationRecipient<?>, Noti
         return NotificationMessage.class;
     }
 
+    @Override
+    public int getMaxInFlight() {
+        return inFlightLimiter.getMaxInFlight();
+    }
+
+    /**
+     * Returns the statistics of the cache for the Slack user ids of email addresses.
+     *
+     * @return the statistics of the user id cache
+     */
+    public CacheStatistics getUserIdCacheStatistics() {
+        return userIds;
+    }
+
     @Override
     public Object sendNotificationMessage(EmailNotificationRecipient<?> recipient, NotificationMessage message) {
         try {
-            String targetUserId = slackClient.lookupUserByEmail(UserEmailParams.builder().setEmail(recipient.getEmail()).build())
-                .get()
-                .unwrapOrElseThrow()
-                .getUser()
-                .getId();
-
-            String text = message.toString();
-            ChatPostMessageParams chatPostMessageParams = ChatPostMessageParams.builder()
-                .setUsername(senderName)
-                .setText(text)
-                .setChannelId(targetUserId)
-                .build();
-            CompletableFuture<Result<ChatPostMessageResponse, SlackError>> resultCompletableFuture = slackClient.postMessage(chatPostMessageParams);
-            Result<ChatPostMessageResponse, SlackError> result = resultCompletableFuture.get();
-            ChatPostMessageResponse chatPostMessageResponse = result.unwrapOrElseThrow(error -> {
-                if (error.getType() == SlackErrorType.RATE_LIMITED) {
-                    return new JobRateLimitException(error.getError());
-                } else {
-                    return new NotificationException("Couldn't send Slack notification: " + error.getError());
+            return sendNotificationMessageAsync(recipient, message).toCompletableFuture().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new NotificationException(e.getCause());
+        }
+    }
+
+    @Override
+    public CompletionStage<Object> sendNotificationMessageAsync(EmailNotificationRecipient<?> recipient, NotificationMessage message) {
+        return inFlightLimiter.submit(() -> lookupUserId(recipient.getEmail())
+            .thenCompose(targetUserId -> {
+                ChatPostMessageParams chatPostMessageParams = ChatPostMessageParams.builder()
+                    .setUsername(senderName)
+                    .setText(message.toString())
+                    .setChannelId(targetUserId)
+                    .build();
+                return postMessageLimiter.acquire(inFlightTimeout).thenCompose(ignore -> slackClient.postMessage(chatPostMessageParams));
+            })
+            .handle((postResult, throwable) -> {
+                if (throwable == null) {
+                    try {
+                        ChatPostMessageResponse chatPostMessageResponse = unwrap(postResult, postMessageLimiter);
+                        if (!chatPostMessageResponse.isOk()) {
+                            throw new NotificationException("Couldn't send Slack notification: " + chatPostMessageResponse.getMessage());
+                        }
+                        return null;
+                    } catch (RuntimeException e) {
+                        throwable = e;
+                    }
+                }
+                throw translateException(throwable);
+            }));
+    }
+
+    /**
+     * Returns the Slack user id for the given email address from the cache or by looking it up.
+     *
+     * @param email The email address
+     * @return the completion stage for the user id
+     */
+    CompletionStage<String> lookupUserId(String email) {
+        return prefetchIfNecessary().thenCompose(ignore -> {
+            String key = email.toLowerCase(Locale.ROOT);
+            UserId entry = userIds.getIfPresent(key);
+            if (entry != null) {
+                if (System.nanoTime() - entry.expiresAt < 0L) {
+                    CompletableFuture<String> future = new CompletableFuture<>();
+                    if (entry.id == null) {
+                        future.completeExceptionally(new NotificationException("Couldn't send Slack notification: " + USERS_NOT_FOUND));
+                    } else {
+                        future.complete(entry.id);
+                    }
+                    return future;
+                }
+                userIds.invalidate(key);
+            }
+            return lookupByEmailLimiter.acquire(inFlightTimeout)
+                .thenCompose(i -> slackClient.lookupUserByEmail(UserEmailParams.builder().setEmail(email).build()))
+                .thenApply(lookupResult -> {
+                    if (lookupResult.isErr() && USERS_NOT_FOUND.equals(lookupResult.unwrapErrOrElseThrow().getError())) {
+                        cacheUserId(key, null);
+                    }
+                    String userId = unwrap(lookupResult, lookupByEmailLimiter).getUser().getId();
+                    cacheUserId(key, userId);
+                    return userId;
+                });
+        });
+    }
+
+    private void cacheUserId(String key, String userId) {
+        if (userId == null && userCacheNegativeTtlNanos <= 0L) {
+            return;
+        }
+        userIds.put(key, new UserId(userId, System.nanoTime() + (userId == null ? userCacheNegativeTtlNanos : userCacheTtlNanos)));
+    }
+
+    private CompletionStage<Void> prefetchIfNecessary() {
+        if (!prefetchUsers) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> future = prefetch;
+        if (future == null || System.nanoTime() - nextPrefetchNanos >= 0L) {
+            synchronized (this) {
+                future = prefetch;
+                long now = System.nanoTime();
+                if (future == null) {
+                    nextPrefetchNanos = now + prefetchIntervalNanos;
+                    // The first sends wait for the prefetch instead of looking up users that the prefetch is about to find
+                    future = prefetch = refresh = CompletableFuture.runAsync(this::prefetchUsers, PREFETCH_EXECUTOR);
+                } else if (now - nextPrefetchNanos >= 0L && refresh.isDone()) {
+                    nextPrefetchNanos = now + prefetchIntervalNanos;
+                    // Later sends use the cached user ids while the cache is refreshed
+                    refresh = CompletableFuture.runAsync(this::prefetchUsers, PREFETCH_EXECUTOR);
+                }
+            }
+        }
+        return future;
+    }
+
+    private void prefetchUsers() {
+        int count = 0;
+        try {
+            Iterator<CompletableFuture<Result<List<SlackUser>, SlackError>>> pages = slackClient.listUsers().iterator();
+            while (!closed) {
+                // The prefetch runs in the background, so it waits for the permit of every page request
+                listUsersLimiter.acquire(Long.MAX_VALUE).join();
+                if (!pages.hasNext()) {
+                    break;
+                }
+                for (SlackUser user : unwrap(pages.next().join(), listUsersLimiter)) {
+                    Optional<String> email = user.getProfile().flatMap(UserProfile::getEmail);
+                    if (email.isPresent()) {
+                        if (count >= userCacheMaxSize) {
+                            // Prefetching more users would only evict the users that were just prefetched
+                            LOG.log(Level.FINE, "Stopped prefetching Slack users after {0} users, because the user id cache is full", count);
+                            return;
+                        }
+                        cacheUserId(email.get().toLowerCase(Locale.ROOT), user.getId());
+                        count++;
+                    }
                 }
-            });
-            if (!chatPostMessageResponse.isOk()) {
-                throw new NotificationException("Couldn't send Slack notification: " + chatPostMessageResponse.getMessage());
             }
-            return null;
-        } catch (Throwable e) {
-            LOG.log(Level.SEVERE, "Failed to send Slack notification", e);
-            throw new NotificationException(e);
+            LOG.log(Level.FINE, "Prefetched the Slack user ids of {0} email addresses", count);
+        } catch (RuntimeException e) {
+            // Users that were not prefetched are looked up individually
+            LOG.log(Level.WARNING, "Failed to prefetch Slack users after " + count + " users", e);
+        }
+    }
+
+    private static <T> T unwrap(Result<T, SlackError> result, SlackMethodLimiter limiter) {
+        return result.unwrapOrElseThrow(error -> {
+            if (error.getType() == SlackErrorType.RATE_LIMITED) {
+                limiter.rateLimited();
+                return new JobRateLimitException(error.getError());
+            } else {
+                return new NotificationException("Couldn't send Slack notification: " + error.getError());
+            }
+        });
+    }
+
+    private static RuntimeException translateException(Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        if (e instanceof JobRateLimitException) {
+            return (JobRateLimitException) e;
+        }
+        LOG.log(Level.SEVERE, "Failed to send Slack notification", e);
+        if (e instanceof NotificationException) {
+            return (NotificationException) e;
+        }
+        return new NotificationException(e);
+    }
+
+    /**
+     * A cached user id or an email address that doesn't belong to a user.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    private static final class UserId {
+
+        private final String id;
+        private final long expiresAt;
+
+        private UserId(String id, long expiresAt) {
+            this.id = id;
+            this.expiresAt = expiresAt;
         }
     }
 
@@ -167,16 +464,47 @@ public class SlackChannel implements Channel<EmailNotificationRecipient<?>, Noti
     public static class Config {
         private final String token;
         private final String senderName;
+        private final int maxInFlight;
+        private final long inFlightTimeout;
+        private final int userCacheMaxSize;
+        private final long userCacheTtl;
+        private final long userCacheNegativeTtl;
+        private final boolean userCachePrefetch;
+        private final int postMessageRate;
+        private final int lookupByEmailRate;
+        private final int listUsersRate;
+        private final long rateLimitBackoff;
 
         /**
          * Create a new config.
          *
-         * @param token      The slack token
-         * @param senderName The sender name
+         * @param token           The slack token
+         * @param senderName      The sender name
+         * @param maxInFlight     The maximum amount of requests in flight
+         * @param inFlightTimeout The maximum time in milliseconds to wait for a request in flight to complete when the limit is reached
+         * @param userCacheMaxSize The maximum amount of email addresses for which to cache the user id
+         * @param userCacheTtl The time in milliseconds for which to cache the user id of an email address
+         * @param userCacheNegativeTtl The time in milliseconds for which to cache that an email address doesn't belong to a user
+         * @param userCachePrefetch Whether to fill the user id cache by listing all users of the workspace
+         * @param postMessageRate The amount of <code>chat.postMessage</code> calls allowed per minute
+         * @param lookupByEmailRate The amount of <code>users.lookupByEmail</code> calls allowed per minute
+         * @param listUsersRate The amount of <code>users.list</code> calls allowed per minute
+         * @param rateLimitBackoff The time in milliseconds to suspend calls of a method after Slack rejected a call because of rate limiting
          */
-        Config(String token, String senderName) {
+        Config(String token, String senderName, int maxInFlight, long inFlightTimeout, int userCacheMaxSize, long userCacheTtl, long userCacheNegativeTtl, boolean userCachePrefetch,
+               int postMessageRate, int lookupByEmailRate, int listUsersRate, long rateLimitBackoff) {
             this.token = token;
             this.senderName = senderName;
+            this.maxInFlight = maxInFlight;
+            this.inFlightTimeout = inFlightTimeout;
+            this.userCacheMaxSize = userCacheMaxSize;
+            this.userCacheTtl = userCacheTtl;
+            this.userCacheNegativeTtl = userCacheNegativeTtl;
+            this.userCachePrefetch = userCachePrefetch;
+            this.postMessageRate = postMessageRate;
+            this.lookupByEmailRate = lookupByEmailRate;
+            this.listUsersRate = listUsersRate;
+            this.rateLimitBackoff = rateLimitBackoff;
         }
 
         /**
@@ -197,6 +525,96 @@ public class SlackChannel implements Channel<EmailNotificationRecipient<?>, Noti
             return senderName;
         }
 
+        /**
+         * Returns the maximum amount of requests in flight.
+         *
+         * @return the maximum amount of requests in flight
+         */
+        public int getMaxInFlight() {
+            return maxInFlight;
+        }
+
+        /**
+         * Returns the maximum time in milliseconds to wait for a request in flight to complete when the limit is reached.
+         *
+         * @return the in flight timeout
+         */
+        public long getInFlightTimeout() {
+            return inFlightTimeout;
+        }
+
+        /**
+         * Returns the maximum amount of email addresses for which to cache the user id.
+         *
+         * @return the maximum user cache size
+         */
+        public int getUserCacheMaxSize() {
+            return userCacheMaxSize;
+        }
+
+        /**
+         * Returns the time in milliseconds for which to cache the user id of an email address.
+         *
+         * @return the user cache time to live
+         */
+        public long getUserCacheTtl() {
+            return userCacheTtl;
+        }
+
+        /**
+         * Returns the time in milliseconds for which to cache that an email address doesn't belong to a user.
+         *
+         * @return the negative user cache time to live
+         */
+        public long getUserCacheNegativeTtl() {
+            return userCacheNegativeTtl;
+        }
+
+        /**
+         * Returns whether to fill the user id cache by listing all users of the workspace.
+         *
+         * @return whether to prefetch users
+         */
+        public boolean isUserCachePrefetch() {
+            return userCachePrefetch;
+        }
+
+        /**
+         * Returns the amount of <code>chat.postMessage</code> calls allowed per minute.
+         *
+         * @return the post message rate
+         */
+        public int getPostMessageRate() {
+            return postMessageRate;
+        }
+
+        /**
+         * Returns the amount of <code>users.lookupByEmail</code> calls allowed per minute.
+         *
+         * @return the lookup by email rate
+         */
+        public int getLookupByEmailRate() {
+            return lookupByEmailRate;
+        }
+
+        /**
+         * Returns the amount of <code>users.list</code> calls allowed per minute.
+         *
+         * @return the list users rate
+         */
+        public int getListUsersRate() {
+            return listUsersRate;
+        }
+
+        /**
+         * Returns the time in milliseconds to suspend calls of a method after Slack rejected a call because of rate limiting.
+         *
+         * @return the rate limit back off time
+         */
+        public long getRateLimitBackoff() {
+            return rateLimitBackoff;
+        }
+
         /**
          * Returns a new configuration builder.
          *
@@ -215,6 +633,16 @@ public class SlackChannel implements Channel<EmailNotificationRecipient<?>, Noti
         public static class Builder {
             private String token;
             private String senderName;
+            private int maxInFlight = 10;
+            private long inFlightTimeout = 10000L;
+            private int userCacheMaxSize = 10000;
+            private long userCacheTtl = 3600000L;
+            private long userCacheNegativeTtl = 300000L;
+            private boolean userCachePrefetch;
+            private int postMessageRate = 300;
+            private int lookupByEmailRate = 50;
+            private int listUsersRate = 20;
+            private long rateLimitBackoff = 30000L;
 
             /**
              * Returns the configuration.
@@ -222,7 +650,8 @@ public class SlackChannel implements Channel<EmailNotificationRecipient<?>, Noti
              * @return the configuration
              */
             public Config build() {
-                return new Config(token, senderName);
+                return new Config(token, senderName, maxInFlight, inFlightTimeout, userCacheMaxSize, userCacheTtl, userCacheNegativeTtl, userCachePrefetch,
+                    postMessageRate, lookupByEmailRate, listUsersRate, rateLimitBackoff);
             }
 
             /**
@@ -246,6 +675,116 @@ public class SlackChannel implements Channel<EmailNotificationRecipient<?>, Noti
                 this.senderName = senderName;
                 return this;
             }
+
+            /**
+             * Sets the given maximum amount of requests in flight.
+             *
+             * @param maxInFlight The maximum amount of requests in flight
+             * @return <code>this</code> for chaining
+             */
+            public Builder withMaxInFlight(int maxInFlight) {
+                this.maxInFlight = maxInFlight;
+                return this;
+            }
+
+            /**
+             * Sets the given maximum time in milliseconds to wait for a request in flight to complete when the limit is reached.
+             *
+             * @param inFlightTimeout The in flight timeout
+             * @return <code>this</code> for chaining
+             */
+            public Builder withInFlightTimeout(long inFlightTimeout) {
+                this.inFlightTimeout = inFlightTimeout;
+                return this;
+            }
+
+            /**
+             * Sets the given maximum amount of email addresses for which to cache the user id.
+             *
+             * @param userCacheMaxSize The maximum user cache size
+             * @return <code>this</code> for chaining
+             */
+            public Builder withUserCacheMaxSize(int userCacheMaxSize) {
+                this.userCacheMaxSize = userCacheMaxSize;
+                return this;
+            }
+
+            /**
+             * Sets the given time in milliseconds for which to cache the user id of an email address.
+             *
+             * @param userCacheTtl The user cache time to live
+             * @return <code>this</code> for chaining
+             */
+            public Builder withUserCacheTtl(long userCacheTtl) {
+                this.userCacheTtl = userCacheTtl;
+                return this;
+            }
+
+            /**
+             * Sets the given time in milliseconds for which to cache that an email address doesn't belong to a user.
+             *
+             * @param userCacheNegativeTtl The negative user cache time to live
+             * @return <code>this</code> for chaining
+             */
+            public Builder withUserCacheNegativeTtl(long userCacheNegativeTtl) {
+                this.userCacheNegativeTtl = userCacheNegativeTtl;
+                return this;
+            }
+
+            /**
+             * Sets whether to fill the user id cache by listing all users of the workspace once per user cache time to live.
+             *
+             * @param userCachePrefetch Whether to prefetch users
+             * @return <code>this</code> for chaining
+             */
+            public Builder withUserCachePrefetch(boolean userCachePrefetch) {
+                this.userCachePrefetch = userCachePrefetch;
+                return this;
+            }
+
+            /**
+             * Sets the given amount of <code>chat.postMessage</code> calls allowed per minute or 0 for no limit.
+             *
+             * @param postMessageRate The post message rate
+             * @return <code>this</code> for chaining
+             */
+            public Builder withPostMessageRate(int postMessageRate) {
+                this.postMessageRate = postMessageRate;
+                return this;
+            }
+
+            /**
+             * Sets the given amount of <code>users.lookupByEmail</code> calls allowed per minute or 0 for no limit.
+             *
+             * @param lookupByEmailRate The lookup by email rate
+             * @return <code>this</code> for chaining
+             */
+            public Builder withLookupByEmailRate(int lookupByEmailRate) {
+                this.lookupByEmailRate = lookupByEmailRate;
+                return this;
+            }
+
+            /**
+             * Sets the given amount of <code>users.list</code> calls allowed per minute or 0 for no limit.
+             *
+             * @param listUsersRate The list users rate
+             * @return <code>this</code> for chaining
+             */
+            public Builder withListUsersRate(int listUsersRate) {
+                this.listUsersRate = listUsersRate;
+                return this;
+            }
+
+            /**
+             * Sets the given time in milliseconds to suspend calls of a method after Slack rejected a call because of rate limiting.
+             *
+             * @param rateLimitBackoff The rate limit back off time
+             * @return <code>this</code> for chaining
+             */
+            public Builder withRateLimitBackoff(long rateLimitBackoff) {
+                this.rateLimitBackoff = rateLimitBackoff;
+                return this;
+            }
         }
     }
 }
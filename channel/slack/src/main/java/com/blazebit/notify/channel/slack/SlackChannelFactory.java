@@ -21,6 +21,8 @@ import com.blazebit.notify.ChannelFactory;
 import com.blazebit.notify.ChannelKey;
 import com.blazebit.notify.NotificationJobContext;
 
+import java.util.Set;
+
 /**
  * A factory for Slack Webhook channels.
  *
@@ -35,6 +37,11 @@ public class SlackChannelFactory implements ChannelFactory<SlackChannel> {
         return SlackChannel.KEY;
     }
 
+    @Override
+    public Set<String> getTransportPropertyNames() {
+        return SlackChannel.TRANSPORT_PROPERTY_NAMES;
+    }
+
     @Override
     public SlackChannel createChannel(NotificationJobContext jobContext, ConfigurationSource configurationSource) {
         return new SlackChannel(configurationSource);
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.slack;
+
+import com.blazebit.job.JobRateLimitException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket for the calls of a single Slack API method, since Slack assigns every method to a rate limit tier of its own.
+ * Callers reserve a permit and get a future that completes when the call may be made, so that calls are started at the allowed rate
+ * without blocking a thread while waiting. When Slack rejects a call nevertheless, calls of the method are suspended for a back off time.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+final class SlackMethodLimiter {
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "slack-method-limiter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String method;
+    private final long nanosPerPermit;
+    private final long burstNanos;
+    private final long backOffNanos;
+    // The time at which the next permit is available, guarded by this
+    private long nextPermitNanos;
+
+    /**
+     * Creates a new limiter.
+     *
+     * @param method The Slack API method
+     * @param permitsPerMinute The amount of calls allowed per minute or 0 for no limit
+     * @param backOffMillis The time in milliseconds to suspend calls after Slack rejected a call because of rate limiting
+     */
+    SlackMethodLimiter(String method, int permitsPerMinute, long backOffMillis) {
+        this.method = method;
+        this.nanosPerPermit = permitsPerMinute > 0 ? TimeUnit.MINUTES.toNanos(1) / permitsPerMinute : 0L;
+        // Allow to use the permits of a second at once, like Slack does
+        this.burstNanos = Math.max(nanosPerPermit, TimeUnit.SECONDS.toNanos(1));
+        this.backOffNanos = TimeUnit.MILLISECONDS.toNanos(backOffMillis);
+        this.nextPermitNanos = System.nanoTime();
+    }
+
+    /**
+     * Reserves a permit for a call.
+     *
+     * @param timeoutMillis The maximum time in milliseconds to wait for the permit
+     * @return The future that is completed when the call may be made
+     * @throws JobRateLimitException If the permit is not available within the timeout
+     */
+    CompletableFuture<Void> acquire(long timeoutMillis) {
+        if (nanosPerPermit == 0L && backOffNanos == 0L) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            // Unused permits accumulate only up to the burst size
+            long next = Math.max(nextPermitNanos, now - burstNanos + nanosPerPermit);
+            waitNanos = next - now;
+            if (waitNanos > TimeUnit.MILLISECONDS.toNanos(timeoutMillis)) {
+                throw new JobRateLimitException("The rate limit of the Slack method " + method + " does not allow a call within " + timeoutMillis + "ms");
+            }
+            nextPermitNanos = next + nanosPerPermit;
+        }
+        if (waitNanos <= 0L) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        SCHEDULER.schedule(() -> future.complete(null), waitNanos, TimeUnit.NANOSECONDS);
+        return future;
+    }
+
+    /**
+     * Suspends calls for the back off time after Slack rejected a call because of rate limiting.
+     */
+    synchronized void rateLimited() {
+        nextPermitNanos = Math.max(nextPermitNanos, System.nanoTime() + backOffNanos);
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.slack;
+
+import com.blazebit.job.JobRateLimitException;
+import com.blazebit.notify.NotificationException;
+import com.blazebit.notify.NotificationMessage;
+import com.blazebit.notify.email.message.EmailNotificationRecipient;
+import com.hubspot.algebra.Result;
+import com.hubspot.slack.client.SlackClient;
+import com.hubspot.slack.client.methods.params.chat.ChatPostMessageParams;
+import com.hubspot.slack.client.methods.params.users.UserEmailParams;
+import com.hubspot.slack.client.models.response.SlackError;
+import com.hubspot.slack.client.models.response.chat.ChatPostMessageResponse;
+import com.hubspot.slack.client.models.response.users.UsersInfoResponse;
+import com.hubspot.slack.client.models.users.SlackUser;
+import com.hubspot.slack.client.models.users.UserProfile;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SlackChannelTest {
+
+    private final Map<String, String> userIds = new ConcurrentHashMap<>();
+    private final List<List<SlackUser>> userPages = new ArrayList<>();
+    private final AtomicInteger lookupCount = new AtomicInteger();
+    private final AtomicInteger pageCount = new AtomicInteger();
+    private final AtomicInteger postCount = new AtomicInteger();
+    private volatile String lookupError;
+    private SlackChannel channel;
+
+    @After
+    public void closeChannel() {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void cacheUserIdOfEmailAddress() {
+        userIds.put("alice@example.com", "U1");
+        channel = createChannel(unlimitedConfig());
+
+        assertEquals("U1", lookupUserId("Alice@example.com"));
+        assertEquals("U1", lookupUserId("alice@example.com"));
+
+        assertEquals(1, lookupCount.get());
+        assertEquals(1L, channel.getUserIdCacheStatistics().getHitCount());
+    }
+
+    @Test
+    public void cacheEmailAddressWithoutUserUntilNegativeTtlExpires() throws Exception {
+        channel = createChannel(unlimitedConfig().withUserCacheNegativeTtl(100L));
+
+        assertUserNotFound("unknown@example.com");
+        assertUserNotFound("unknown@example.com");
+        assertEquals(1, lookupCount.get());
+
+        Thread.sleep(150L);
+        // The user might have joined the workspace in the meantime
+        userIds.put("unknown@example.com", "U2");
+        assertEquals("U2", lookupUserId("unknown@example.com"));
+        assertEquals(2, lookupCount.get());
+    }
+
+    @Test
+    public void lookUpEmailAddressWithoutUserEveryTimeWithoutNegativeTtl() {
+        channel = createChannel(unlimitedConfig().withUserCacheNegativeTtl(0L));
+
+        assertUserNotFound("unknown@example.com");
+        assertUserNotFound("unknown@example.com");
+
+        assertEquals(2, lookupCount.get());
+    }
+
+    @Test
+    public void lookUpUsersThatWerePrefetched() {
+        userPages.add(users(0, 2));
+        userPages.add(users(2, 2));
+        channel = createChannel(unlimitedConfig().withUserCachePrefetch(true));
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals("U" + i, lookupUserId("user" + i + "@example.com"));
+        }
+
+        assertEquals(0, lookupCount.get());
+        assertEquals(2, pageCount.get());
+    }
+
+    @Test
+    public void stopPrefetchingWhenUserCacheIsFull() {
+        userPages.add(users(0, 2));
+        userPages.add(users(2, 2));
+        userPages.add(users(4, 2));
+        userIds.put("user3@example.com", "U3");
+        channel = createChannel(unlimitedConfig().withUserCachePrefetch(true).withUserCacheMaxSize(3));
+
+        assertEquals("U0", lookupUserId("user0@example.com"));
+
+        // The third page is not requested, as the cache is full after the first user of the second page
+        assertEquals(2, pageCount.get());
+        assertEquals(3, channel.getUserIdCacheStatistics().getSize());
+        assertEquals(0, lookupCount.get());
+        // Users that were not prefetched are looked up individually
+        assertEquals("U3", lookupUserId("user3@example.com"));
+        assertEquals(1, lookupCount.get());
+    }
+
+    @Test
+    public void useSeparateRateLimitPerMethod() {
+        userIds.put("alice@example.com", "U1");
+        userIds.put("bob@example.com", "U2");
+        // One lookup per minute, but no limit for posting messages
+        channel = createChannel(unlimitedConfig().withLookupByEmailRate(1));
+
+        assertEquals("U1", lookupUserId("alice@example.com"));
+        assertRateLimited("bob@example.com");
+        assertEquals(1, lookupCount.get());
+
+        // Messages to users with a cached user id are still posted
+        for (int i = 0; i < 3; i++) {
+            assertPosted("alice@example.com");
+        }
+        assertEquals(3, postCount.get());
+    }
+
+    @Test
+    public void suspendMethodCallsAfterRateLimitedCall() {
+        userPages.add(users(0, 1));
+        channel = createChannel(unlimitedConfig().withUserCachePrefetch(true).withRateLimitBackoff(60_000L));
+        lookupError = "ratelimited";
+
+        assertRateLimited("alice@example.com");
+        assertEquals(1, lookupCount.get());
+        // Further lookups are rejected without calling Slack until the back off time passed
+        lookupError = null;
+        userIds.put("bob@example.com", "U2");
+        assertRateLimited("bob@example.com");
+        assertEquals(1, lookupCount.get());
+
+        // Other methods are not suspended
+        assertPosted("user0@example.com");
+        assertEquals(1, postCount.get());
+    }
+
+    private static SlackChannel.Config.Builder unlimitedConfig() {
+        // Don't pace the calls, so that the tests don't wait for permits
+        return SlackChannel.Config.builder()
+            .withPostMessageRate(0)
+            .withLookupByEmailRate(0)
+            .withListUsersRate(0);
+    }
+
+    private SlackChannel createChannel(SlackChannel.Config.Builder builder) {
+        SlackChannel.Config config = builder.withToken("test-token").withSenderName("blaze-notify").build();
+        return new SlackChannel(config, createSlackClient());
+    }
+
+    private SlackClient createSlackClient() {
+        return (SlackClient) Proxy.newProxyInstance(SlackChannelTest.class.getClassLoader(), new Class<?>[]{ SlackClient.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "lookupUserByEmail":
+                    return lookupUserByEmail((UserEmailParams) args[0]);
+                case "postMessage":
+                    return postMessage((ChatPostMessageParams) args[0]);
+                case "listUsers":
+                    return (Iterable<CompletableFuture<Result<List<SlackUser>, SlackError>>>) this::listUsers;
+                case "close":
+                    return null;
+                default:
+                    throw new UnsupportedOperationException("Not stubbed: " + method);
+            }
+        });
+    }
+
+    private CompletableFuture<Result<ChatPostMessageResponse, SlackError>> postMessage(ChatPostMessageParams params) {
+        postCount.incrementAndGet();
+        // Failing the call is enough to know that it was made
+        return CompletableFuture.completedFuture(Result.err(SlackError.builder().setError("channel_not_found").build()));
+    }
+
+    private CompletableFuture<Result<UsersInfoResponse, SlackError>> lookupUserByEmail(UserEmailParams params) {
+        lookupCount.incrementAndGet();
+        if (lookupError != null) {
+            return CompletableFuture.completedFuture(Result.err(SlackError.builder().setError(lookupError).build()));
+        }
+        String userId = userIds.get(params.getEmail().toLowerCase(Locale.ROOT));
+        if (userId == null) {
+            return CompletableFuture.completedFuture(Result.err(SlackError.builder().setError("users_not_found").build()));
+        }
+        return CompletableFuture.completedFuture(Result.ok(UsersInfoResponse.builder().setOk(true).setUser(user(userId, params.getEmail())).build()));
+    }
+
+    private Iterator<CompletableFuture<Result<List<SlackUser>, SlackError>>> listUsers() {
+        Iterator<List<SlackUser>> iterator = userPages.iterator();
+        return new Iterator<CompletableFuture<Result<List<SlackUser>, SlackError>>>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public CompletableFuture<Result<List<SlackUser>, SlackError>> next() {
+                pageCount.incrementAndGet();
+                return CompletableFuture.completedFuture(Result.ok(iterator.next()));
+            }
+        };
+    }
+
+    private String lookupUserId(String email) {
+        try {
+            return channel.lookupUserId(email).toCompletableFuture().join();
+        } catch (CompletionException e) {
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    private void assertUserNotFound(String email) {
+        try {
+            lookupUserId(email);
+            fail("Expected the user not to be found");
+        } catch (NotificationException e) {
+            assertTrue(e.getMessage().contains("users_not_found"));
+        }
+    }
+
+    private void assertRateLimited(String email) {
+        try {
+            lookupUserId(email);
+            fail("Expected JobRateLimitException");
+        } catch (JobRateLimitException e) {
+            // Expected
+        }
+    }
+
+    private void assertPosted(String email) {
+        try {
+            channel.sendNotificationMessage(EmailNotificationRecipient.of(email, Locale.ENGLISH, email), new NotificationMessage() { });
+            fail("Expected NotificationException");
+        } catch (NotificationException e) {
+            assertTrue(e.getMessage().contains("channel_not_found"));
+        }
+    }
+
+    private static List<SlackUser> users(int start, int count) {
+        List<SlackUser> users = new ArrayList<>(count);
+        for (int i = start; i < start + count; i++) {
+            users.add(user("U" + i, "user" + i + "@example.com"));
+        }
+        return Collections.unmodifiableList(users);
+    }
+
+    private static SlackUser user(String id, String email) {
+        return SlackUser.builder()
+            .setId(id)
+            .setProfile(UserProfile.builder().setEmail(email).build())
+            .build();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.slack;
+
+import com.blazebit.job.JobRateLimitException;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SlackMethodLimiterTest {
+
+    @Test
+    public void grantPermitsWithoutLimit() {
+        SlackMethodLimiter limiter = new SlackMethodLimiter("chat.postMessage", 0, 0L);
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(limiter.acquire(0L).isDone());
+        }
+    }
+
+    @Test
+    public void delayCallUntilNextPermit() throws Exception {
+        // One permit every 100ms
+        SlackMethodLimiter limiter = new SlackMethodLimiter("chat.postMessage", 600, 0L);
+
+        assertTrue(limiter.acquire(0L).isDone());
+        long start = System.nanoTime();
+        CompletableFuture<Void> second = limiter.acquire(1_000L);
+
+        assertFalse(second.isDone());
+        second.get(1, TimeUnit.SECONDS);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 90L);
+    }
+
+    @Test
+    public void grantAccumulatedPermitsAtOnce() throws Exception {
+        // One permit every 100ms, so at most 10 permits accumulate within the burst of a second
+        SlackMethodLimiter limiter = new SlackMethodLimiter("chat.postMessage", 600, 0L);
+
+        Thread.sleep(1_200L);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.acquire(0L).isDone());
+        }
+        assertFalse(limiter.acquire(1_000L).isDone());
+    }
+
+    @Test
+    public void throwRateLimitExceptionWhenPermitIsNotAvailableWithinTimeout() {
+        // One permit every minute
+        SlackMethodLimiter limiter = new SlackMethodLimiter("users.lookupByEmail", 1, 0L);
+        assertTrue(limiter.acquire(0L).isDone());
+
+        assertRateLimited(limiter, 100L);
+    }
+
+    @Test
+    public void suspendCallsAfterRateLimitedCall() throws Exception {
+        SlackMethodLimiter limiter = new SlackMethodLimiter("users.lookupByEmail", 0, 100L);
+        assertTrue(limiter.acquire(0L).isDone());
+
+        limiter.rateLimited();
+
+        assertRateLimited(limiter, 0L);
+        long start = System.nanoTime();
+        CompletableFuture<Void> afterBackOff = limiter.acquire(1_000L);
+        assertFalse(afterBackOff.isDone());
+        afterBackOff.get(1, TimeUnit.SECONDS);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 90L);
+    }
+
+    private static void assertRateLimited(SlackMethodLimiter limiter, long timeoutMillis) {
+        try {
+            limiter.acquire(timeoutMillis);
+            fail("Expected JobRateLimitException");
+        } catch (JobRateLimitException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,648 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.smpp;
+
+import com.blazebit.job.ConfigurationSource;
+import com.blazebit.job.JobRateLimitException;
+import com.blazebit.job.JobTemporaryException;
+import com.blazebit.notify.Channel;
+import com.blazebit.notify.ChannelKey;
+import com.blazebit.notify.NotificationException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A channel that submits SMS to a SMSC via SMPP 3.4.
+ * <p>
+ * The channel binds a configurable amount of transceiver sessions and distributes submits over them round robin.
+ * Every session keeps up to a window of <code>submit_sm</code> outstanding and matches the <code>submit_sm_resp</code> asynchronously,
+ * so the throughput is not bound by the round trip time to the SMSC. Sessions are kept alive with <code>enquire_link</code> and rebound when they fail.
+ * <p>
+ * Texts that only consist of ASCII characters are sent as IA5, other texts as UCS2. Texts that don't fit into a single <code>short_message</code>
+ * are sent via the <code>message_payload</code> parameter, so the SMSC splits them. A throttling error of the SMSC is translated to a {@link JobRateLimitException}.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public class SmppChannel implements Channel<SmsNotificationRecipient<?>, SmsNotificationMessage> {
+
+    /**
+     * The key for which the channel is registered.
+     */
+    public static final ChannelKey<SmppChannel> KEY = ChannelKey.of("smpp", SmppChannel.class);
+
+    /**
+     * The configuration property for the SMSC host.
+     */
+    public static final String SMPP_HOST_PROPERTY = "channel.smpp.host";
+    /**
+     * The configuration property for the SMSC port.
+     */
+    public static final String SMPP_PORT_PROPERTY = "channel.smpp.port";
+    /**
+     * The configuration property for the system id to bind with.
+     */
+    public static final String SMPP_SYSTEM_ID_PROPERTY = "channel.smpp.system_id";
+    /**
+     * The configuration property for the password to bind with.
+     */
+    public static final String SMPP_PASSWORD_PROPERTY = "channel.smpp.password";
+    /**
+     * The configuration property for the system type to bind with.
+     */
+    public static final String SMPP_SYSTEM_TYPE_PROPERTY = "channel.smpp.system_type";
+    /**
+     * The configuration property for the default sender address.
+     */
+    public static final String SMPP_SOURCE_ADDRESS_PROPERTY = "channel.smpp.source_address";
+    /**
+     * The configuration property for the amount of sessions to bind.
+     */
+    public static final String SMPP_SESSIONS_PROPERTY = "channel.smpp.sessions";
+    /**
+     * The configuration property for the maximum amount of outstanding submits per session.
+     */
+    public static final String SMPP_WINDOW_SIZE_PROPERTY = "channel.smpp.window_size";
+    /**
+     * The configuration property for the maximum time in milliseconds to wait for space in the window of a session.
+     */
+    public static final String SMPP_WINDOW_TIMEOUT_PROPERTY = "channel.smpp.window_timeout";
+    /**
+     * The configuration property for the connection timeout in milliseconds.
+     */
+    public static final String SMPP_CONNECTION_TIMEOUT_PROPERTY = "channel.smpp.connection_timeout";
+    /**
+     * The configuration property for the maximum time in milliseconds to wait for the response to a request.
+     */
+    public static final String SMPP_RESPONSE_TIMEOUT_PROPERTY = "channel.smpp.response_timeout";
+    /**
+     * The configuration property for the time in milliseconds after which an idle session is checked with <code>enquire_link</code> or 0 to disable.
+     */
+    public static final String SMPP_ENQUIRE_LINK_INTERVAL_PROPERTY = "channel.smpp.enquire_link_interval";
+
+    static final Set<String> TRANSPORT_PROPERTY_NAMES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        SMPP_HOST_PROPERTY,
+        SMPP_PORT_PROPERTY,
+        SMPP_SYSTEM_ID_PROPERTY,
+        SMPP_PASSWORD_PROPERTY,
+        SMPP_SYSTEM_TYPE_PROPERTY,
+        SMPP_SOURCE_ADDRESS_PROPERTY,
+        SMPP_SESSIONS_PROPERTY,
+        SMPP_WINDOW_SIZE_PROPERTY,
+        SMPP_WINDOW_TIMEOUT_PROPERTY,
+        SMPP_CONNECTION_TIMEOUT_PROPERTY,
+        SMPP_RESPONSE_TIMEOUT_PROPERTY,
+        SMPP_ENQUIRE_LINK_INTERVAL_PROPERTY
+    )));
+
+    private static final Logger LOG = Logger.getLogger(SmppChannel.class.getName());
+    private static final int MAX_SHORT_MESSAGE_LENGTH = 254;
+    private static final int DATA_CODING_IA5 = 0x01;
+    private static final int DATA_CODING_UCS2 = 0x08;
+    private static final int TON_UNKNOWN = 0x00;
+    private static final int TON_INTERNATIONAL = 0x01;
+    private static final int TON_ALPHANUMERIC = 0x05;
+    private static final int NPI_UNKNOWN = 0x00;
+    private static final int NPI_ISDN = 0x01;
+
+    private final Config config;
+    private final SmppSession[] sessions;
+    private final AtomicInteger nextSession = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * Creates a new SMPP channel from the given configuration source.
+     *
+     * @param configurationSource The configuration source
+     */
+    public SmppChannel(ConfigurationSource configurationSource) {
+        this(fromConfigurationSource(configurationSource));
+    }
+
+    /**
+     * Creates a new SMPP channel from the given config.
+     *
+     * @param config The config
+     */
+    public SmppChannel(Config config) {
+        if (config.host == null) {
+            throw new IllegalArgumentException("No host given for SMPP channel!");
+        }
+        if (config.systemId == null) {
+            throw new IllegalArgumentException("No system id given for SMPP channel!");
+        }
+        if (config.sessions < 1 || config.windowSize < 1) {
+            throw new IllegalArgumentException("The amount of sessions and the window size must be positive for SMPP channel!");
+        }
+        this.config = config;
+        this.sessions = new SmppSession[config.sessions];
+        LOG.log(Level.FINEST, "SMPP channel opened");
+    }
+
+    private static Config fromConfigurationSource(ConfigurationSource configurationSource) {
+        return Config.builder()
+            .withHost(configurationSource.getPropertyOrFail(SMPP_HOST_PROPERTY, String.class, Function.identity()))
+            .withPort(configurationSource.getPropertyOrDefault(SMPP_PORT_PROPERTY, Integer.class, Integer::valueOf, o -> 2775))
+            .withSystemId(configurationSource.getPropertyOrFail(SMPP_SYSTEM_ID_PROPERTY, String.class, Function.identity()))
+            .withPassword(configurationSource.getPropertyOrDefault(SMPP_PASSWORD_PROPERTY, String.class, Function.identity(), o -> null))
+            .withSystemType(configurationSource.getPropertyOrDefault(SMPP_SYSTEM_TYPE_PROPERTY, String.class, Function.identity(), o -> null))
+            .withSourceAddress(configurationSource.getPropertyOrDefault(SMPP_SOURCE_ADDRESS_PROPERTY, String.class, Function.identity(), o -> null))
+            .withSessions(configurationSource.getPropertyOrDefault(SMPP_SESSIONS_PROPERTY, Integer.class, Integer::valueOf, o -> 1))
+            .withWindowSize(configurationSource.getPropertyOrDefault(SMPP_WINDOW_SIZE_PROPERTY, Integer.class, Integer::valueOf, o -> 10))
+            .withWindowTimeout(configurationSource.getPropertyOrDefault(SMPP_WINDOW_TIMEOUT_PROPERTY, Long.class, Long::valueOf, o -> 10000L))
+            .withConnectionTimeout(configurationSource.getPropertyOrDefault(SMPP_CONNECTION_TIMEOUT_PROPERTY, Long.class, Long::valueOf, o -> 10000L))
+            .withResponseTimeout(configurationSource.getPropertyOrDefault(SMPP_RESPONSE_TIMEOUT_PROPERTY, Long.class, Long::valueOf, o -> 30000L))
+            .withEnquireLinkInterval(configurationSource.getPropertyOrDefault(SMPP_ENQUIRE_LINK_INTERVAL_PROPERTY, Long.class, Long::valueOf, o -> 30000L))
+            .build();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (sessions) {
+            for (int i = 0; i < sessions.length; i++) {
+                if (sessions[i] != null) {
+                    sessions[i].close();
+                    sessions[i] = null;
+                }
+            }
+        }
+    }
+
+    @Override
+    public Class<SmsNotificationMessage> getNotificationMessageType() {
+        return SmsNotificationMessage.class;
+    }
+
+    @Override
+    public int getMaxInFlight() {
+        return config.sessions * config.windowSize;
+    }
+
+    @Override
+    public Object sendNotificationMessage(SmsNotificationRecipient<?> recipient, SmsNotificationMessage message) {
+        try {
+            return sendNotificationMessageAsync(recipient, message).toCompletableFuture().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new NotificationException(e.getCause());
+        }
+    }
+
+    @Override
+    public CompletionStage<Object> sendNotificationMessageAsync(SmsNotificationRecipient<?> recipient, SmsNotificationMessage message) {
+        String from = message.getFrom() == null ? config.sourceAddress : message.getFrom();
+        if (from == null) {
+            throw new NotificationException("No sender address given for SMS message");
+        }
+        if (recipient.getPhoneNumber() == null) {
+            throw new NotificationException("No phone number given for SMS recipient " + recipient.getId());
+        }
+        byte[] body = createSubmitSm(from, recipient.getPhoneNumber(), message.getText() == null ? "" : message.getText());
+        return getSession().submit(body).thenApply(messageId -> messageId);
+    }
+
+    private SmppSession getSession() {
+        int index = Math.floorMod(nextSession.getAndIncrement(), sessions.length);
+        SmppSession session = sessions[index];
+        if (session != null && !session.isClosed()) {
+            return session;
+        }
+        synchronized (sessions) {
+            if (closed) {
+                throw new JobTemporaryException("SMPP channel is closed");
+            }
+            session = sessions[index];
+            if (session == null || session.isClosed()) {
+                try {
+                    session = SmppSession.bind("smpp-" + config.host + "-" + index, config);
+                } catch (IOException e) {
+                    throw new JobTemporaryException(e);
+                }
+                sessions[index] = session;
+            }
+            return session;
+        }
+    }
+
+    /**
+     * Creates the body of a submit_sm command for the given text, encoded as IA5 if possible and as UCS2 otherwise.
+     * Texts that don't fit into the short message field are sent in the message_payload TLV.
+     *
+     * @param from The source address
+     * @param to The destination address
+     * @param text The message text
+     * @return the command body
+     */
+    static byte[] createSubmitSm(String from, String to, String text) {
+        boolean ascii = true;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                ascii = false;
+                break;
+            }
+        }
+        byte[] shortMessage = text.getBytes(ascii ? StandardCharsets.US_ASCII : StandardCharsets.UTF_16BE);
+        SmppPdu.BodyBuilder builder = new SmppPdu.BodyBuilder()
+            // service_type
+            .cString(null);
+        address(builder, from, true);
+        address(builder, to, false);
+        builder
+            // esm_class, protocol_id, priority_flag
+            .int8(0)
+            .int8(0)
+            .int8(0)
+            // schedule_delivery_time, validity_period
+            .cString(null)
+            .cString(null)
+            // registered_delivery, replace_if_present_flag
+            .int8(0)
+            .int8(0)
+            .int8(ascii ? DATA_CODING_IA5 : DATA_CODING_UCS2)
+            // sm_default_msg_id
+            .int8(0);
+        if (shortMessage.length <= MAX_SHORT_MESSAGE_LENGTH) {
+            builder.int8(shortMessage.length).octets(shortMessage);
+        } else {
+            builder.int8(0).tlv(SmppPdu.MESSAGE_PAYLOAD_TAG, shortMessage);
+        }
+        return builder.build();
+    }
+
+    private static void address(SmppPdu.BodyBuilder builder, String address, boolean source) {
+        if (address.startsWith("+")) {
+            builder.int8(TON_INTERNATIONAL).int8(NPI_ISDN).cString(address.substring(1));
+            return;
+        }
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (c < '0' || c > '9') {
+                if (!source) {
+                    throw new NotificationException("Invalid phone number for SMS recipient: " + address);
+                }
+                builder.int8(TON_ALPHANUMERIC).int8(NPI_UNKNOWN).cString(address);
+                return;
+            }
+        }
+        builder.int8(TON_UNKNOWN).int8(NPI_ISDN).cString(address);
+    }
+
+    /**
+     * The configuration for the SMPP channel.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    public static class Config {
+        private final String host;
+        private final int port;
+        private final String systemId;
+        private final String password;
+        private final String systemType;
+        private final String sourceAddress;
+        private final int sessions;
+        private final int windowSize;
+        private final long windowTimeout;
+        private final long connectionTimeout;
+        private final long responseTimeout;
+        private final long enquireLinkInterval;
+
+        /**
+         * Create a new config.
+         *
+         * @param host                The SMSC host
+         * @param port                The SMSC port
+         * @param systemId            The system id to bind with
+         * @param password            The password to bind with
+         * @param systemType          The system type to bind with
+         * @param sourceAddress       The default sender address
+         * @param sessions            The amount of sessions to bind
+         * @param windowSize          The maximum amount of outstanding submits per session
+         * @param windowTimeout       The maximum time in milliseconds to wait for space in the window of a session
+         * @param connectionTimeout   The connection timeout in milliseconds
+         * @param responseTimeout     The maximum time in milliseconds to wait for the response to a request
+         * @param enquireLinkInterval The time in milliseconds after which an idle session is checked with <code>enquire_link</code>
+         */
+        Config(String host, int port, String systemId, String password, String systemType, String sourceAddress, int sessions, int windowSize, long windowTimeout,
+               long connectionTimeout, long responseTimeout, long enquireLinkInterval) {
+            this.host = host;
+            this.port = port;
+            this.systemId = systemId;
+            this.password = password;
+            this.systemType = systemType;
+            this.sourceAddress = sourceAddress;
+            this.sessions = sessions;
+            this.windowSize = windowSize;
+            this.windowTimeout = windowTimeout;
+            this.connectionTimeout = connectionTimeout;
+            this.responseTimeout = responseTimeout;
+            this.enquireLinkInterval = enquireLinkInterval;
+        }
+
+        /**
+         * Returns the SMSC host.
+         *
+         * @return the SMSC host
+         */
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * Returns the SMSC port.
+         *
+         * @return the SMSC port
+         */
+        public int getPort() {
+            return port;
+        }
+
+        /**
+         * Returns the system id to bind with.
+         *
+         * @return the system id
+         */
+        public String getSystemId() {
+            return systemId;
+        }
+
+        /**
+         * Returns the password to bind with.
+         *
+         * @return the password
+         */
+        public String getPassword() {
+            return password;
+        }
+
+        /**
+         * Returns the system type to bind with.
+         *
+         * @return the system type
+         */
+        public String getSystemType() {
+            return systemType;
+        }
+
+        /**
+         * Returns the default sender address.
+         *
+         * @return the default sender address
+         */
+        public String getSourceAddress() {
+            return sourceAddress;
+        }
+
+        /**
+         * Returns the amount of sessions to bind.
+         *
+         * @return the amount of sessions
+         */
+        public int getSessions() {
+            return sessions;
+        }
+
+        /**
+         * Returns the maximum amount of outstanding submits per session.
+         *
+         * @return the window size
+         */
+        public int getWindowSize() {
+            return windowSize;
+        }
+
+        /**
+         * Returns the maximum time in milliseconds to wait for space in the window of a session.
+         *
+         * @return the window timeout
+         */
+        public long getWindowTimeout() {
+            return windowTimeout;
+        }
+
+        /**
+         * Returns the connection timeout in milliseconds.
+         *
+         * @return the connection timeout
+         */
+        public long getConnectionTimeout() {
+            return connectionTimeout;
+        }
+
+        /**
+         * Returns the maximum time in milliseconds to wait for the response to a request.
+         *
+         * @return the response timeout
+         */
+        public long getResponseTimeout() {
+            return responseTimeout;
+        }
+
+        /**
+         * Returns the time in milliseconds after which an idle session is checked with <code>enquire_link</code>.
+         *
+         * @return the enquire link interval
+         */
+        public long getEnquireLinkInterval() {
+            return enquireLinkInterval;
+        }
+
+        /**
+         * Returns a new configuration builder.
+         *
+         * @return a new configuration builder
+         */
+        public static Builder builder() {
+            return new Builder();
+        }
+
+        /**
+         * The configuration builder.
+         *
+         * @author Christian Beikov
+         * @since 1.0.0
+         */
+        public static class Builder {
+            private String host;
+            private int port = 2775;
+            private String systemId;
+            private String password;
+            private String systemType;
+            private String sourceAddress;
+            private int sessions = 1;
+            private int windowSize = 10;
+            private long windowTimeout = 10000L;
+            private long connectionTimeout = 10000L;
+            private long responseTimeout = 30000L;
+            private long enquireLinkInterval = 30000L;
+
+            /**
+             * Returns the configuration.
+             *
+             * @return the configuration
+             */
+            public Config build() {
+                return new Config(host, port, systemId, password, systemType, sourceAddress, sessions, windowSize, windowTimeout, connectionTimeout, responseTimeout, enquireLinkInterval);
+            }
+
+            /**
+             * Sets the given SMSC host.
+             *
+             * @param host The SMSC host
+             * @return <code>this</code> for chaining
+             */
+            public Builder withHost(String host) {
+                this.host = host;
+                return this;
+            }
+
+            /**
+             * Sets the given SMSC port.
+             *
+             * @param port The SMSC port
+             * @return <code>this</code> for chaining
+             */
+            public Builder withPort(int port) {
+                this.port = port;
+                return this;
+            }
+
+            /**
+             * Sets the given system id to bind with.
+             *
+             * @param systemId The system id
+             * @return <code>this</code> for chaining
+             */
+            public Builder withSystemId(String systemId) {
+                this.systemId = systemId;
+                return this;
+            }
+
+            /**
+             * Sets the given password to bind with.
+             *
+             * @param password The password
+             * @return <code>this</code> for chaining
+             */
+            public Builder withPassword(String password) {
+                this.password = password;
+                return this;
+            }
+
+            /**
+             * Sets the given system type to bind with.
+             *
+             * @param systemType The system type
+             * @return <code>this</code> for chaining
+             */
+            public Builder withSystemType(String systemType) {
+                this.systemType = systemType;
+                return this;
+            }
+
+            /**
+             * Sets the given default sender address, either a phone number or an alphanumeric sender id.
+             *
+             * @param sourceAddress The default sender address
+             * @return <code>this</code> for chaining
+             */
+            public Builder withSourceAddress(String sourceAddress) {
+                this.sourceAddress = sourceAddress;
+                return this;
+            }
+
+            /**
+             * Sets the given amount of sessions to bind.
+             *
+             * @param sessions The amount of sessions
+             * @return <code>this</code> for chaining
+             */
+            public Builder withSessions(int sessions) {
+                this.sessions = sessions;
+                return this;
+            }
+
+            /**
+             * Sets the given maximum amount of outstanding submits per session.
+             *
+             * @param windowSize The window size
+             * @return <code>this</code> for chaining
+             */
+            public Builder withWindowSize(int windowSize) {
+                this.windowSize = windowSize;
+                return this;
+            }
+
+            /**
+             * Sets the given maximum time in milliseconds to wait for space in the window of a session.
+             *
+             * @param windowTimeout The window timeout
+             * @return <code>this</code> for chaining
+             */
+            public Builder withWindowTimeout(long windowTimeout) {
+                this.windowTimeout = windowTimeout;
+                return this;
+            }
+
+            /**
+             * Sets the given connection timeout in milliseconds.
+             *
+             * @param connectionTimeout The connection timeout
+             * @return <code>this</code> for chaining
+             */
+            public Builder withConnectionTimeout(long connectionTimeout) {
+                this.connectionTimeout = connectionTimeout;
+                return this;
+            }
+
+            /**
+             * Sets the given maximum time in milliseconds to wait for the response to a request.
+             *
+             * @param responseTimeout The response timeout
+             * @return <code>this</code> for chaining
+             */
+            public Builder withResponseTimeout(long responseTimeout) {
+                this.responseTimeout = responseTimeout;
+                return this;
+            }
+
+            /**
+             * Sets the given time in milliseconds after which an idle session is checked with <code>enquire_link</code> or 0 to disable.
+             *
+             * @param enquireLinkInterval The enquire link interval
+             * @return <code>this</code> for chaining
+             */
+            public Builder withEnquireLinkInterval(long enquireLinkInterval) {
+                this.enquireLinkInterval = enquireLinkInterval;
+                return this;
+            }
+        }
+    }
+}
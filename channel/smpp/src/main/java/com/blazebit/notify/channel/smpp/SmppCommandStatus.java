@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.smpp;
+
+import com.blazebit.job.JobRateLimitException;
+import com.blazebit.job.JobTemporaryException;
+import com.blazebit.notify.NotificationException;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Maps SMPP command status codes of failed commands to the exceptions that are expected by the job processing.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public final class SmppCommandStatus {
+
+    /**
+     * No error.
+     */
+    public static final int ESME_ROK = 0x00000000;
+    /**
+     * The message queue of the SMSC is full.
+     */
+    public static final int ESME_RMSGQFUL = 0x00000014;
+    /**
+     * A system error of the SMSC.
+     */
+    public static final int ESME_RSYSERR = 0x00000008;
+    /**
+     * The command id is invalid or not supported.
+     */
+    public static final int ESME_RINVCMDID = 0x00000003;
+    /**
+     * The sender exceeded the allowed message rate.
+     */
+    public static final int ESME_RTHROTTLED = 0x00000058;
+    /**
+     * The SMSC could not submit the message.
+     */
+    public static final int ESME_RSUBMITFAIL = 0x00000045;
+    /**
+     * The destination address is invalid.
+     */
+    public static final int ESME_RINVDSTADR = 0x0000000B;
+
+    private static final Logger LOG = Logger.getLogger(SmppCommandStatus.class.getName());
+
+    private SmppCommandStatus() {
+    }
+
+    /**
+     * Translates the given command status of a failed command to a {@link JobTemporaryException} if the failure is temporary,
+     * a {@link JobRateLimitException} if the sender is throttled or a {@link NotificationException} otherwise.
+     *
+     * @param commandStatus The command status
+     * @param command The name of the failed command
+     * @return the translated exception
+     */
+    public static RuntimeException translate(int commandStatus, String command) {
+        String message = "SMPP " + command + " failed with command status 0x" + Integer.toHexString(commandStatus);
+        switch (commandStatus) {
+            case ESME_RTHROTTLED:
+                LOG.log(Level.FINE, "Rate limit exceeded: {0}", message);
+                return new JobRateLimitException(message);
+            case ESME_RMSGQFUL:
+            case ESME_RSYSERR:
+                LOG.log(Level.FINE, "Temporary SMSC failure: {0}", message);
+                return new JobTemporaryException(message);
+            default:
+                LOG.log(Level.SEVERE, message);
+                return new NotificationException(message);
+        }
+    }
+}
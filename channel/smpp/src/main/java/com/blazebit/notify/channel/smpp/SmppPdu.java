@@ -0,0 +1,237 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.smpp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A SMPP 3.4 protocol data unit with the command header and the raw command body.
+ * Only the commands needed for submitting messages as transceiver are modelled, other commands are handled generically.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+final class SmppPdu {
+
+    static final int HEADER_LENGTH = 16;
+    static final int MAX_LENGTH = 64 * 1024;
+    static final int RESPONSE_BIT = 0x80000000;
+
+    static final int GENERIC_NACK = 0x80000000;
+    static final int SUBMIT_SM = 0x00000004;
+    static final int SUBMIT_SM_RESP = 0x80000004;
+    static final int DELIVER_SM = 0x00000005;
+    static final int DELIVER_SM_RESP = 0x80000005;
+    static final int UNBIND = 0x00000006;
+    static final int UNBIND_RESP = 0x80000006;
+    static final int BIND_TRANSCEIVER = 0x00000009;
+    static final int BIND_TRANSCEIVER_RESP = 0x80000009;
+    static final int ENQUIRE_LINK = 0x00000015;
+    static final int ENQUIRE_LINK_RESP = 0x80000015;
+
+    static final int SMPP_VERSION = 0x34;
+    static final short MESSAGE_PAYLOAD_TAG = 0x0424;
+
+    private final int commandId;
+    private final int commandStatus;
+    private final int sequenceNumber;
+    private final byte[] body;
+
+    /**
+     * Creates a new PDU.
+     *
+     * @param commandId The command id
+     * @param commandStatus The command status
+     * @param sequenceNumber The sequence number
+     * @param body The command body
+     */
+    SmppPdu(int commandId, int commandStatus, int sequenceNumber, byte[] body) {
+        this.commandId = commandId;
+        this.commandStatus = commandStatus;
+        this.sequenceNumber = sequenceNumber;
+        this.body = body;
+    }
+
+    /**
+     * Reads the next PDU from the given stream.
+     *
+     * @param inputStream The stream
+     * @return the PDU
+     * @throws IOException If reading fails or the PDU is malformed
+     */
+    static SmppPdu read(DataInputStream inputStream) throws IOException {
+        int length = inputStream.readInt();
+        if (length < HEADER_LENGTH || length > MAX_LENGTH) {
+            throw new IOException("Invalid SMPP command length: " + length);
+        }
+        int commandId = inputStream.readInt();
+        int commandStatus = inputStream.readInt();
+        int sequenceNumber = inputStream.readInt();
+        byte[] body = new byte[length - HEADER_LENGTH];
+        inputStream.readFully(body);
+        return new SmppPdu(commandId, commandStatus, sequenceNumber, body);
+    }
+
+    /**
+     * Writes this PDU to the given stream without flushing it.
+     *
+     * @param outputStream The stream
+     * @throws IOException If writing fails
+     */
+    void write(OutputStream outputStream) throws IOException {
+        int length = HEADER_LENGTH + body.length;
+        byte[] header = new byte[HEADER_LENGTH];
+        putInt(header, 0, length);
+        putInt(header, 4, commandId);
+        putInt(header, 8, commandStatus);
+        putInt(header, 12, sequenceNumber);
+        outputStream.write(header);
+        outputStream.write(body);
+    }
+
+    int getCommandId() {
+        return commandId;
+    }
+
+    int getCommandStatus() {
+        return commandStatus;
+    }
+
+    int getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    byte[] getBody() {
+        return body;
+    }
+
+    boolean isResponse() {
+        return (commandId & RESPONSE_BIT) != 0;
+    }
+
+    /**
+     * Returns the C-Octet string at the given offset of the body, e.g. the message id of a <code>submit_sm_resp</code> at offset 0.
+     *
+     * @param offset The offset
+     * @return the string or <code>null</code> if the body is too short
+     */
+    String getCString(int offset) {
+        for (int i = offset; i < body.length; i++) {
+            if (body[i] == 0) {
+                return new String(body, offset, i - offset, StandardCharsets.ISO_8859_1);
+            }
+        }
+        return null;
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    @Override
+    public String toString() {
+        return "SmppPdu{commandId=0x" + Integer.toHexString(commandId) + ", commandStatus=0x" + Integer.toHexString(commandStatus) + ", sequenceNumber=" + sequenceNumber + "}";
+    }
+
+    /**
+     * A builder for command bodies.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    static final class BodyBuilder {
+
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+
+        /**
+         * Appends the given value as NUL terminated C-Octet string.
+         *
+         * @param value The value or <code>null</code> for an empty string
+         * @return <code>this</code> for chaining
+         */
+        BodyBuilder cString(String value) {
+            if (value != null) {
+                byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+                buffer.write(bytes, 0, bytes.length);
+            }
+            buffer.write(0);
+            return this;
+        }
+
+        /**
+         * Appends the given value as 1 octet integer.
+         *
+         * @param value The value
+         * @return <code>this</code> for chaining
+         */
+        BodyBuilder int8(int value) {
+            buffer.write(value);
+            return this;
+        }
+
+        /**
+         * Appends the given value as 2 octet integer.
+         *
+         * @param value The value
+         * @return <code>this</code> for chaining
+         */
+        BodyBuilder int16(int value) {
+            buffer.write(value >>> 8);
+            buffer.write(value);
+            return this;
+        }
+
+        /**
+         * Appends the given octets.
+         *
+         * @param value The octets
+         * @return <code>this</code> for chaining
+         */
+        BodyBuilder octets(byte[] value) {
+            buffer.write(value, 0, value.length);
+            return this;
+        }
+
+        /**
+         * Appends an optional parameter.
+         *
+         * @param tag The parameter tag
+         * @param value The parameter value
+         * @return <code>this</code> for chaining
+         */
+        BodyBuilder tlv(short tag, byte[] value) {
+            int16(tag);
+            int16(value.length);
+            return octets(value);
+        }
+
+        /**
+         * Returns the built body.
+         *
+         * @return the body
+         */
+        byte[] build() {
+            return buffer.toByteArray();
+        }
+    }
+}
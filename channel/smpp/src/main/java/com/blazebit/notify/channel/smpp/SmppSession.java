@@ -0,0 +1,350 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.smpp;
+
+import com.blazebit.job.JobTemporaryException;
+import com.blazebit.notify.NotificationException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A SMPP session that is bound as transceiver.
+ * Submits are written without waiting for the responses of previous submits, up to the size of the window,
+ * and a reader thread completes the submits when the SMSC responds, matching responses by sequence number.
+ * Idle sessions are kept alive with <code>enquire_link</code>, and a session whose SMSC doesn't respond in time is closed.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+final class SmppSession implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(SmppSession.class.getName());
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "smpp-session-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String name;
+    private final Socket socket;
+    private final DataInputStream inputStream;
+    private final OutputStream outputStream;
+    private final Semaphore window;
+    private final long windowTimeoutMillis;
+    private final long responseTimeoutMillis;
+    private final ConcurrentMap<Integer, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final Thread reader;
+    private final ScheduledFuture<?> enquireLinkTask;
+    private volatile long lastActivityNanos;
+    private volatile boolean closed;
+    private volatile boolean unbinding;
+
+    private SmppSession(String name, Socket socket, SmppChannel.Config config) throws IOException {
+        this.name = name;
+        this.socket = socket;
+        this.inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.outputStream = new BufferedOutputStream(socket.getOutputStream());
+        this.window = new Semaphore(config.getWindowSize());
+        this.windowTimeoutMillis = config.getWindowTimeout();
+        this.responseTimeoutMillis = config.getResponseTimeout();
+        this.lastActivityNanos = System.nanoTime();
+        this.reader = new Thread(this::read, name + "-reader");
+        this.reader.setDaemon(true);
+        long enquireLinkInterval = config.getEnquireLinkInterval();
+        if (enquireLinkInterval > 0L) {
+            this.enquireLinkTask = TIMER.scheduleWithFixedDelay(() -> enquireLinkIfIdle(enquireLinkInterval), enquireLinkInterval, enquireLinkInterval, TimeUnit.MILLISECONDS);
+        } else {
+            this.enquireLinkTask = null;
+        }
+    }
+
+    /**
+     * Connects to the SMSC and binds a transceiver session.
+     *
+     * @param name The name of the session for logging
+     * @param config The channel config
+     * @return the bound session
+     * @throws IOException If connecting fails
+     * @throws NotificationException If the SMSC rejects the bind
+     */
+    static SmppSession bind(String name, SmppChannel.Config config) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(config.getHost(), config.getPort()), (int) config.getConnectionTimeout());
+            socket.setSoTimeout((int) config.getResponseTimeout());
+            SmppSession session = new SmppSession(name, socket, config);
+            byte[] body = new SmppPdu.BodyBuilder()
+                .cString(config.getSystemId())
+                .cString(config.getPassword())
+                .cString(config.getSystemType())
+                .int8(SmppPdu.SMPP_VERSION)
+                // addr_ton, addr_npi and address_range
+                .int8(0)
+                .int8(0)
+                .cString(null)
+                .build();
+            int sequenceNumber = session.nextSequenceNumber();
+            session.write(new SmppPdu(SmppPdu.BIND_TRANSCEIVER, 0, sequenceNumber, body));
+            SmppPdu response;
+            try {
+                response = SmppPdu.read(session.inputStream);
+            } catch (SocketTimeoutException e) {
+                throw new IOException("No bind response from SMSC within " + config.getResponseTimeout() + "ms", e);
+            }
+            if (response.getCommandId() != SmppPdu.BIND_TRANSCEIVER_RESP && response.getCommandId() != SmppPdu.GENERIC_NACK || response.getSequenceNumber() != sequenceNumber) {
+                throw new IOException("Unexpected bind response: " + response);
+            }
+            if (response.getCommandStatus() != SmppCommandStatus.ESME_ROK) {
+                throw SmppCommandStatus.translate(response.getCommandStatus(), "bind_transceiver");
+            }
+            // Responses are matched asynchronously from now on and timeouts are handled per request
+            socket.setSoTimeout(0);
+            session.reader.start();
+            LOG.log(Level.FINE, "SMPP session {0} bound to {1}", new Object[]{ name, response.getCString(0) });
+            return session;
+        } catch (IOException | RuntimeException e) {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                e.addSuppressed(ex);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns whether the session is closed and can't be used for submits anymore.
+     *
+     * @return whether the session is closed
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Returns the amount of submits that are waiting for a response.
+     *
+     * @return the amount of outstanding submits
+     */
+    int getOutstanding() {
+        return pending.size();
+    }
+
+    /**
+     * Writes a <code>submit_sm</code> with the given body as soon as the window allows it.
+     *
+     * @param body The body of the <code>submit_sm</code>
+     * @return The future that is completed with the message id assigned by the SMSC
+     * @throws JobTemporaryException If the session is closed or the window does not allow to submit within the window timeout
+     */
+    CompletableFuture<String> submit(byte[] body) {
+        if (closed) {
+            throw new JobTemporaryException("SMPP session " + name + " is closed");
+        }
+        try {
+            if (!window.tryAcquire(windowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new JobTemporaryException("The window of SMPP session " + name + " did not allow to submit within " + windowTimeoutMillis + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NotificationException("Interrupted while waiting for the window of SMPP session " + name, e);
+        }
+        return request(SmppPdu.SUBMIT_SM, body, true);
+    }
+
+    private CompletableFuture<String> request(int commandId, byte[] body, boolean windowed) {
+        int sequenceNumber = nextSequenceNumber();
+        Pending request = new Pending(commandId, windowed);
+        pending.put(sequenceNumber, request);
+        request.timeout = TIMER.schedule(() -> timeout(sequenceNumber), responseTimeoutMillis, TimeUnit.MILLISECONDS);
+        if (closed) {
+            // Close might have failed the pending requests before this one was registered
+            complete(sequenceNumber, null, new JobTemporaryException("SMPP session " + name + " is closed"));
+        } else {
+            try {
+                write(new SmppPdu(commandId, 0, sequenceNumber, body));
+            } catch (IOException e) {
+                close(new JobTemporaryException(e));
+            }
+        }
+        return request.future;
+    }
+
+    private int nextSequenceNumber() {
+        // Sequence numbers range from 1 to 0x7FFFFFFF
+        return (sequence.getAndIncrement() & 0x7FFFFFFF) % 0x7FFFFFFF + 1;
+    }
+
+    private void write(SmppPdu pdu) throws IOException {
+        synchronized (outputStream) {
+            pdu.write(outputStream);
+            outputStream.flush();
+        }
+        lastActivityNanos = System.nanoTime();
+    }
+
+    private void read() {
+        try {
+            while (!closed) {
+                SmppPdu pdu = SmppPdu.read(inputStream);
+                lastActivityNanos = System.nanoTime();
+                switch (pdu.getCommandId()) {
+                    case SmppPdu.SUBMIT_SM_RESP:
+                    case SmppPdu.ENQUIRE_LINK_RESP:
+                    case SmppPdu.UNBIND_RESP:
+                    case SmppPdu.GENERIC_NACK:
+                        complete(pdu.getSequenceNumber(), pdu, null);
+                        break;
+                    case SmppPdu.ENQUIRE_LINK:
+                        write(new SmppPdu(SmppPdu.ENQUIRE_LINK_RESP, SmppCommandStatus.ESME_ROK, pdu.getSequenceNumber(), new byte[0]));
+                        break;
+                    case SmppPdu.DELIVER_SM:
+                        // Delivery receipts and mobile originated messages are not processed, but must be acknowledged
+                        write(new SmppPdu(SmppPdu.DELIVER_SM_RESP, SmppCommandStatus.ESME_ROK, pdu.getSequenceNumber(), new byte[]{ 0 }));
+                        break;
+                    case SmppPdu.UNBIND:
+                        write(new SmppPdu(SmppPdu.UNBIND_RESP, SmppCommandStatus.ESME_ROK, pdu.getSequenceNumber(), new byte[0]));
+                        close(new JobTemporaryException("SMPP session " + name + " was unbound by the SMSC"));
+                        return;
+                    default:
+                        if (!pdu.isResponse()) {
+                            write(new SmppPdu(SmppPdu.GENERIC_NACK, SmppCommandStatus.ESME_RINVCMDID, pdu.getSequenceNumber(), new byte[0]));
+                        }
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                if (!unbinding) {
+                    LOG.log(Level.WARNING, "SMPP session " + name + " failed", e);
+                }
+                close(new JobTemporaryException(e));
+            }
+        }
+    }
+
+    private void complete(int sequenceNumber, SmppPdu response, RuntimeException failure) {
+        Pending request = pending.remove(sequenceNumber);
+        if (request == null) {
+            return;
+        }
+        if (request.timeout != null) {
+            request.timeout.cancel(false);
+        }
+        if (request.windowed) {
+            window.release();
+        }
+        if (failure != null) {
+            request.future.completeExceptionally(failure);
+        } else if (response.getCommandStatus() == SmppCommandStatus.ESME_ROK) {
+            request.future.complete(response.getCString(0));
+        } else {
+            request.future.completeExceptionally(SmppCommandStatus.translate(response.getCommandStatus(), request.commandId == SmppPdu.SUBMIT_SM ? "submit_sm" : "0x" + Integer.toHexString(request.commandId)));
+        }
+    }
+
+    private void timeout(int sequenceNumber) {
+        Pending request = pending.get(sequenceNumber);
+        if (request != null) {
+            // A SMSC that doesn't respond in time is considered dead, so the session is replaced
+            LOG.log(Level.WARNING, "SMPP session {0} did not receive a response within {1}ms", new Object[]{ name, responseTimeoutMillis });
+            close(new JobTemporaryException("No response from SMSC within " + responseTimeoutMillis + "ms"));
+        }
+    }
+
+    private void enquireLinkIfIdle(long intervalMillis) {
+        if (!closed && System.nanoTime() - lastActivityNanos >= TimeUnit.MILLISECONDS.toNanos(intervalMillis)) {
+            request(SmppPdu.ENQUIRE_LINK, new byte[0], false);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        if (pending.isEmpty()) {
+            unbinding = true;
+            try {
+                // Don't wait for the response, the SMSC closes the connection anyway
+                write(new SmppPdu(SmppPdu.UNBIND, 0, nextSequenceNumber(), new byte[0]));
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Failed to unbind SMPP session " + name, e);
+            }
+        }
+        close(new JobTemporaryException("SMPP session " + name + " is closed"));
+    }
+
+    private void close(RuntimeException failure) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        if (enquireLinkTask != null) {
+            enquireLinkTask.cancel(false);
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Failed to close SMPP session " + name, e);
+        }
+        for (Integer sequenceNumber : pending.keySet()) {
+            complete(sequenceNumber, null, failure);
+        }
+    }
+
+    /**
+     * A request that waits for its response.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    private static final class Pending {
+
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+        private final int commandId;
+        private final boolean windowed;
+        private volatile ScheduledFuture<?> timeout;
+
+        private Pending(int commandId, boolean windowed) {
+            this.commandId = commandId;
+            this.windowed = windowed;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.smpp;
+
+import com.blazebit.notify.NotificationMessage;
+
+/**
+ * A SMS notification message.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public class SmsNotificationMessage implements NotificationMessage {
+
+    private final String from;
+    private final String text;
+
+    /**
+     * Creates a new SMS message.
+     *
+     * @param from The sender address, either a phone number or an alphanumeric sender id, or <code>null</code> for the default of the channel
+     * @param text The text
+     */
+    public SmsNotificationMessage(String from, String text) {
+        this.from = from;
+        this.text = text;
+    }
+
+    /**
+     * Returns the sender address.
+     *
+     * @return the sender address or <code>null</code>
+     */
+    public String getFrom() {
+        return from;
+    }
+
+    /**
+     * Returns the text.
+     *
+     * @return the text
+     */
+    public String getText() {
+        return text;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.smpp;
+
+import com.blazebit.notify.NotificationRecipient;
+
+import java.util.Locale;
+
+/**
+ * A base type for a SMS notification recipient.
+ *
+ * @param <ID> The id type of the notification recipient
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public interface SmsNotificationRecipient<ID> extends NotificationRecipient<ID> {
+
+    /**
+     * Returns the phone number of the notification recipient, preferably in international format with a leading <code>+</code>.
+     *
+     * @return the phone number of the notification recipient
+     */
+    String getPhoneNumber();
+
+    /**
+     * Returns a SMS notification recipient with the given identifier, locale and phone number.
+     *
+     * @param id          The notification recipient identifier
+     * @param locale      The notification recipient locale
+     * @param phoneNumber The notification recipient phone number
+     * @param <X>         The notification recipient identifier type
+     * @return a simple notification recipient
+     */
+    static <X> SmsNotificationRecipient<X> of(X id, Locale locale, String phoneNumber) {
+        return new SmsNotificationRecipient<X>() {
+            @Override
+            public X getId() {
+                return id;
+            }
+
+            @Override
+            public Locale getLocale() {
+                return locale;
+            }
+
+            @Override
+            public String getPhoneNumber() {
+                return phoneNumber;
+            }
+        };
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.smpp;
+
+import com.blazebit.job.JobRateLimitException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SmppChannelTest {
+
+    private static final int WINDOW_SIZE = 4;
+
+    private final AtomicInteger messageIds = new AtomicInteger();
+    private final AtomicInteger maxOutstanding = new AtomicInteger();
+    private final AtomicInteger enquireLinks = new AtomicInteger();
+    private final List<String> texts = new ArrayList<>();
+    private ScheduledExecutorService responder;
+    private ServerSocket serverSocket;
+    private SmppChannel channel;
+
+    @Before
+    public void setup() throws IOException {
+        responder = Executors.newSingleThreadScheduledExecutor();
+        serverSocket = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    Thread connection = new Thread(() -> handle(socket));
+                    connection.setDaemon(true);
+                    connection.start();
+                } catch (IOException e) {
+                    // Closed
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        serverSocket.close();
+        responder.shutdownNow();
+    }
+
+    @Test
+    public void keepWindowOfSubmitsOutstanding() {
+        channel = createChannel(0L);
+        List<CompletableFuture<Object>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(channel.sendNotificationMessageAsync(SmsNotificationRecipient.of(1L, Locale.ENGLISH, "+4366012345" + i), new SmsNotificationMessage(null, "Hello " + i)).toCompletableFuture());
+        }
+        List<Object> ids = new ArrayList<>();
+        for (CompletableFuture<Object> future : futures) {
+            ids.add(future.join());
+        }
+        assertEquals(20, ids.stream().distinct().count());
+        assertTrue("Submits were not pipelined", maxOutstanding.get() > 1);
+        assertTrue("Window was exceeded: " + maxOutstanding.get(), maxOutstanding.get() <= WINDOW_SIZE);
+    }
+
+    @Test
+    public void sendLongUnicodeTextAsPayload() {
+        channel = createChannel(0L);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            sb.append('\u00e4');
+        }
+        channel.sendNotificationMessage(SmsNotificationRecipient.of(1L, Locale.GERMAN, "06601234"), new SmsNotificationMessage("Blazebit", sb.toString()));
+        synchronized (texts) {
+            assertEquals(sb.toString(), texts.get(0));
+        }
+    }
+
+    @Test
+    public void translateThrottlingToRateLimit() {
+        channel = createChannel(0L);
+        try {
+            channel.sendNotificationMessageAsync(SmsNotificationRecipient.of(1L, Locale.ENGLISH, "9991234"), new SmsNotificationMessage(null, "Hello")).toCompletableFuture().join();
+            fail("Expected rate limit");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof JobRateLimitException);
+        }
+    }
+
+    @Test
+    public void enquireLinkWhenIdle() throws InterruptedException {
+        channel = createChannel(100L);
+        channel.sendNotificationMessage(SmsNotificationRecipient.of(1L, Locale.ENGLISH, "+43660123"), new SmsNotificationMessage(null, "Hello"));
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (enquireLinks.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50L);
+        }
+        assertTrue(enquireLinks.get() > 0);
+    }
+
+    private SmppChannel createChannel(long enquireLinkInterval) {
+        return new SmppChannel(SmppChannel.Config.builder()
+            .withHost("localhost")
+            .withPort(serverSocket.getLocalPort())
+            .withSystemId("test")
+            .withPassword("secret")
+            .withSourceAddress("Test")
+            .withWindowSize(WINDOW_SIZE)
+            .withResponseTimeout(5000L)
+            .withEnquireLinkInterval(enquireLinkInterval)
+            .build());
+    }
+
+    private void handle(Socket socket) {
+        AtomicInteger outstanding = new AtomicInteger();
+        try (Socket s = socket) {
+            DataInputStream inputStream = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            OutputStream outputStream = new BufferedOutputStream(s.getOutputStream());
+            while (true) {
+                SmppPdu pdu = SmppPdu.read(inputStream);
+                switch (pdu.getCommandId()) {
+                    case SmppPdu.BIND_TRANSCEIVER:
+                        respond(outputStream, new SmppPdu(SmppPdu.BIND_TRANSCEIVER_RESP, 0, pdu.getSequenceNumber(), new SmppPdu.BodyBuilder().cString("simulator").build()));
+                        break;
+                    case SmppPdu.ENQUIRE_LINK:
+                        enquireLinks.incrementAndGet();
+                        respond(outputStream, new SmppPdu(SmppPdu.ENQUIRE_LINK_RESP, 0, pdu.getSequenceNumber(), new byte[0]));
+                        break;
+                    case SmppPdu.UNBIND:
+                        respond(outputStream, new SmppPdu(SmppPdu.UNBIND_RESP, 0, pdu.getSequenceNumber(), new byte[0]));
+                        return;
+                    case SmppPdu.SUBMIT_SM:
+                        maxOutstanding.accumulateAndGet(outstanding.incrementAndGet(), Math::max);
+                        String destination = submit(pdu);
+                        // Respond asynchronously with a delay, so that further submits arrive in the meantime
+                        responder.schedule(() -> {
+                            outstanding.decrementAndGet();
+                            if (destination.startsWith("999")) {
+                                respond(outputStream, new SmppPdu(SmppPdu.SUBMIT_SM_RESP, SmppCommandStatus.ESME_RTHROTTLED, pdu.getSequenceNumber(), new byte[0]));
+                            } else {
+                                respond(outputStream, new SmppPdu(SmppPdu.SUBMIT_SM_RESP, 0, pdu.getSequenceNumber(), new SmppPdu.BodyBuilder().cString("msg-" + messageIds.incrementAndGet()).build()));
+                            }
+                        }, 20L, TimeUnit.MILLISECONDS);
+                        break;
+                    default:
+                        respond(outputStream, new SmppPdu(SmppPdu.GENERIC_NACK, SmppCommandStatus.ESME_RINVCMDID, pdu.getSequenceNumber(), new byte[0]));
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            // Connection closed
+        }
+    }
+
+    private String submit(SmppPdu pdu) {
+        byte[] body = pdu.getBody();
+        // service_type, source_addr_ton, source_addr_npi, source_addr, dest_addr_ton, dest_addr_npi, destination_addr
+        int offset = pdu.getCString(0).length() + 1 + 2;
+        offset += pdu.getCString(offset).length() + 1 + 2;
+        String destination = pdu.getCString(offset);
+        // esm_class, protocol_id, priority_flag, schedule_delivery_time, validity_period, registered_delivery, replace_if_present_flag
+        offset += destination.length() + 1 + 3;
+        offset += pdu.getCString(offset).length() + 1;
+        offset += pdu.getCString(offset).length() + 1 + 2;
+        int dataCoding = body[offset];
+        int smLength = body[offset + 2] & 0xFF;
+        int start = offset + 3;
+        int length = smLength;
+        if (smLength == 0 && body.length > start) {
+            // message_payload TLV
+            length = ((body[start + 2] & 0xFF) << 8) | (body[start + 3] & 0xFF);
+            start += 4;
+        }
+        String text = new String(body, start, length, dataCoding == 0x08 ? StandardCharsets.UTF_16BE : StandardCharsets.US_ASCII);
+        synchronized (texts) {
+            texts.add(text);
+        }
+        return destination;
+    }
+
+    private static void respond(OutputStream outputStream, SmppPdu pdu) {
+        synchronized (outputStream) {
+            try {
+                pdu.write(outputStream);
+                outputStream.flush();
+            } catch (IOException e) {
+                // Connection closed
+            }
+        }
+    }
+}
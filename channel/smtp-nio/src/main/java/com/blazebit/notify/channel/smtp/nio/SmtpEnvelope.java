@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.smtp.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A message to send in a single SMTP transaction along with the future that is completed when the server accepted or rejected it.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+final class SmtpEnvelope {
+
+    private final String reversePath;
+    private final String forwardPath;
+    private final ByteBuffer data;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    /**
+     * Creates a new envelope.
+     *
+     * @param reversePath The address for the <code>MAIL FROM</code> command
+     * @param forwardPath The address for the <code>RCPT TO</code> command
+     * @param data The dot-stuffed message data, including the terminating <code>CRLF.CRLF</code>
+     */
+    SmtpEnvelope(String reversePath, String forwardPath, ByteBuffer data) {
+        this.reversePath = reversePath;
+        this.forwardPath = forwardPath;
+        this.data = data;
+    }
+
+    public String getReversePath() {
+        return reversePath;
+    }
+
+    public String getForwardPath() {
+        return forwardPath;
+    }
+
+    /**
+     * Returns a new buffer for the message data, so that a send can be retried on a different connection.
+     *
+     * @return the message data
+     */
+    public ByteBuffer getData() {
+        return data.duplicate();
+    }
+
+    public CompletableFuture<Void> getFuture() {
+        return future;
+    }
+}
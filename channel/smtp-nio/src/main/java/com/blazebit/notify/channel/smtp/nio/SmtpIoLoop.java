@@ -0,0 +1,254 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.smtp.nio;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A selector thread that drives a set of {@link SmtpNioConnection}s. Envelopes submitted to the loop are queued
+ * and handed to the next ready connection. New connections are opened while envelopes are queued and the connection limit of the loop allows it.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+final class SmtpIoLoop implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger(SmtpIoLoop.class.getName());
+    private static final long SELECT_TIMEOUT_MILLIS = 1000L;
+
+    private final SmtpNioClient client;
+    private final int maxConnections;
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<SmtpEnvelope> submissions = new ConcurrentLinkedQueue<>();
+    private final ArrayDeque<SmtpEnvelope> backlog = new ArrayDeque<>();
+    private final ArrayDeque<SmtpNioConnection> readyConnections = new ArrayDeque<>();
+    private final List<SmtpNioConnection> connections = new ArrayList<>();
+    private volatile boolean running = true;
+    private volatile int connectionCount;
+
+    /**
+     * Opens the selector and starts the loop thread.
+     *
+     * @param client The client that provides the connection settings
+     * @param maxConnections The maximum amount of connections of this loop
+     * @param name The name of the loop thread
+     * @throws IOException If the selector can't be opened
+     */
+    SmtpIoLoop(SmtpNioClient client, int maxConnections, String name) throws IOException {
+        this.client = client;
+        this.maxConnections = maxConnections;
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues the given envelope for sending.
+     *
+     * @param envelope The envelope
+     */
+    void submit(SmtpEnvelope envelope) {
+        if (!running) {
+            envelope.getFuture().completeExceptionally(new IOException("SMTP client closed"));
+            return;
+        }
+        submissions.add(envelope);
+        if (!running && submissions.remove(envelope)) {
+            // The loop was closed concurrently and won't process the envelope anymore
+            envelope.getFuture().completeExceptionally(new IOException("SMTP client closed"));
+            return;
+        }
+        selector.wakeup();
+    }
+
+    /**
+     * Returns the amount of open connections.
+     *
+     * @return the amount of open connections
+     */
+    int getConnectionCount() {
+        return connectionCount;
+    }
+
+    /**
+     * Stops the loop after closing all connections and failing all queued envelopes.
+     */
+    void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (key.isValid()) {
+                        ((SmtpNioConnection) key.attachment()).handleSelection();
+                    }
+                }
+                SmtpEnvelope envelope;
+                while ((envelope = submissions.poll()) != null) {
+                    backlog.add(envelope);
+                }
+                dispatch();
+                long now = System.nanoTime();
+                for (int i = connections.size() - 1; i >= 0; i--) {
+                    connections.get(i).checkTimeout(now);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.SEVERE, "SMTP I/O loop failed", e);
+        } finally {
+            shutdown();
+        }
+    }
+
+    /**
+     * Invoked by a connection when it is ready for a transaction.
+     *
+     * @param connection The connection
+     */
+    void onReady(SmtpNioConnection connection) {
+        // Dispatching happens after the selected keys are processed to avoid reentrant sends
+        readyConnections.add(connection);
+    }
+
+    /**
+     * Invoked by a connection when it was closed.
+     *
+     * @param connection The connection
+     * @param setupFailure The failure if the connection failed before it became ready or <code>null</code>
+     */
+    void onClosed(SmtpNioConnection connection, Throwable setupFailure) {
+        connections.remove(connection);
+        readyConnections.remove(connection);
+        connectionCount = connections.size();
+        if (setupFailure != null && !hasEstablishedConnection()) {
+            // Don't retry opening connections in a tight loop, let the callers retry the queued messages later
+            SmtpEnvelope envelope;
+            while ((envelope = backlog.poll()) != null) {
+                envelope.getFuture().completeExceptionally(setupFailure);
+            }
+        }
+    }
+
+    private boolean hasEstablishedConnection() {
+        for (int i = 0; i < connections.size(); i++) {
+            if (!connections.get(i).isConnecting()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void dispatch() {
+        while (!backlog.isEmpty()) {
+            SmtpNioConnection connection = readyConnections.poll();
+            if (connection == null) {
+                break;
+            }
+            if (connection.isReady()) {
+                connection.send(backlog.poll());
+            }
+        }
+        int connecting = 0;
+        for (int i = 0; i < connections.size(); i++) {
+            if (connections.get(i).isConnecting()) {
+                connecting++;
+            }
+        }
+        while (backlog.size() > connecting && connections.size() < maxConnections) {
+            SmtpNioConnection connection;
+            try {
+                connection = new SmtpNioConnection(client, this);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Failed to open SMTP connection", e);
+                break;
+            }
+            connections.add(connection);
+            connectionCount = connections.size();
+            connecting++;
+            try {
+                connection.connect(selector);
+            } catch (IOException | RuntimeException e) {
+                connection.fail(e);
+            }
+        }
+    }
+
+    private void shutdown() {
+        running = false;
+        for (SmtpNioConnection connection : new ArrayList<>(connections)) {
+            connection.quit();
+        }
+        // Give the connections a chance to process the reply to QUIT
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(client.getTimeout());
+        try {
+            while (!connections.isEmpty() && System.nanoTime() - deadline < 0L) {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (key.isValid()) {
+                        ((SmtpNioConnection) key.attachment()).handleSelection();
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.FINEST, "Failed to close SMTP connections", e);
+        }
+        for (SmtpNioConnection connection : new ArrayList<>(connections)) {
+            connection.fail(new IOException("SMTP client closed"));
+        }
+        IOException closed = new IOException("SMTP client closed");
+        SmtpEnvelope envelope;
+        while ((envelope = backlog.poll()) != null) {
+            envelope.getFuture().completeExceptionally(closed);
+        }
+        while ((envelope = submissions.poll()) != null) {
+            envelope.getFuture().completeExceptionally(closed);
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOG.log(Level.FINEST, "Failed to close selector", e);
+        }
+    }
+}
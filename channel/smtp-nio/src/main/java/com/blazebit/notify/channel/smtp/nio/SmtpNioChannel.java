@@ -0,0 +1,753 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.smtp.nio;
+
+import com.blazebit.job.ConfigurationSource;
+import com.blazebit.job.JobTemporaryException;
+import com.blazebit.notify.Channel;
+import com.blazebit.notify.ChannelKey;
+import com.blazebit.notify.InFlightLimiter;
+import com.blazebit.notify.NotificationException;
+import com.blazebit.notify.channel.smtp.SmtpChannel;
+import com.blazebit.notify.channel.smtp.SmtpChannelFilter;
+import com.blazebit.notify.channel.smtp.SmtpMessageFactory;
+import com.blazebit.notify.channel.smtp.SmtpReplyCodes;
+import com.blazebit.notify.email.message.EmailNotificationMessage;
+import com.blazebit.notify.email.message.EmailNotificationRecipient;
+import com.blazebit.notify.email.mime.PooledOutputStream;
+import com.blazebit.notify.security.HandshakeStatistics;
+import com.blazebit.notify.security.SharedSSLContext;
+import com.sun.mail.smtp.SMTPMessage;
+import com.sun.mail.smtp.SMTPOutputStream;
+
+import javax.mail.Address;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A channel that sends messages via SMTP with non-blocking I/O. In contrast to the {@link SmtpChannel}, which needs a thread per connection,
+ * this channel multiplexes many SMTP sessions over a few selector threads and supports command pipelining.
+ * The messages and the mapping of SMTP failures are the same as for the {@link SmtpChannel}.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public class SmtpNioChannel implements Channel<EmailNotificationRecipient<?>, EmailNotificationMessage> {
+
+    /**
+     * The key for which the channel is registered.
+     */
+    public static final ChannelKey<SmtpNioChannel> KEY = ChannelKey.of("smtp-nio", SmtpNioChannel.class);
+
+    public static final String SMTP_NIO_IO_THREADS_PROPERTY = "channel.smtp.nio.io_threads";
+    public static final String SMTP_NIO_MAX_CONNECTIONS_PROPERTY = "channel.smtp.nio.max_connections";
+    public static final String SMTP_NIO_MAX_IN_FLIGHT_PROPERTY = "channel.smtp.nio.max_in_flight";
+    public static final String SMTP_NIO_IN_FLIGHT_TIMEOUT_PROPERTY = "channel.smtp.nio.in_flight_timeout";
+    public static final String SMTP_NIO_IDLE_TIMEOUT_PROPERTY = "channel.smtp.nio.idle_timeout";
+    public static final String SMTP_NIO_MAX_MESSAGES_PER_CONNECTION_PROPERTY = "channel.smtp.nio.max_messages_per_connection";
+
+    static final Set<String> TRANSPORT_PROPERTY_NAMES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        SmtpChannel.SMTP_HOST_PROPERTY,
+        SmtpChannel.SMTP_PORT_PROPERTY,
+        SmtpChannel.SMTP_USER_PROPERTY,
+        SmtpChannel.SMTP_PASSWORD_PROPERTY,
+        SmtpChannel.SMTP_CONNECTION_TIMEOUT_PROPERTY,
+        SmtpChannel.SMTP_TIMEOUT_PROPERTY,
+        SmtpChannel.SMTP_ENABLE_SSL_PROPERTY,
+        SmtpChannel.SMTP_ENABLE_STARTTLS_PROPERTY,
+        SmtpChannel.SMTP_NODE_NAME_PROPERTY,
+        SmtpChannel.SMTP_FILTER_PROPERTY,
+        SmtpChannel.SMTP_TLS_SESSION_CACHE_SIZE_PROPERTY,
+        SmtpChannel.SMTP_TLS_SESSION_TIMEOUT_PROPERTY,
+        SMTP_NIO_IO_THREADS_PROPERTY,
+        SMTP_NIO_MAX_CONNECTIONS_PROPERTY,
+        SMTP_NIO_MAX_IN_FLIGHT_PROPERTY,
+        SMTP_NIO_IN_FLIGHT_TIMEOUT_PROPERTY,
+        SMTP_NIO_IDLE_TIMEOUT_PROPERTY,
+        SMTP_NIO_MAX_MESSAGES_PER_CONNECTION_PROPERTY
+    )));
+
+    private static final Logger LOG = Logger.getLogger(SmtpNioChannel.class.getName());
+    private static final String[] IGNORED_HEADERS = { "Bcc", "Content-Length" };
+
+    private final SmtpMessageFactory messageFactory;
+    private final InFlightLimiter inFlightLimiter;
+    private final SmtpNioClient client;
+    private final SharedSSLContext sslContext;
+
+    /**
+     * Creates a new non-blocking SMTP channel from the given configuration source.
+     *
+     * @param configurationSource The configuration source
+     */
+    public SmtpNioChannel(ConfigurationSource configurationSource) {
+        this(fromConfigurationSource(configurationSource));
+    }
+
+    /**
+     * Creates a new non-blocking SMTP channel from the given config.
+     *
+     * @param config The config
+     */
+    public SmtpNioChannel(Config config) {
+        Properties props = new Properties();
+        if (config.nodeName != null) {
+            props.setProperty("mail.from", config.nodeName);
+        }
+        // The session is only used to create the MIME messages
+        this.messageFactory = new SmtpMessageFactory(Session.getInstance(props), config.filter);
+        this.inFlightLimiter = new InFlightLimiter(config.maxInFlight, config.inFlightTimeout);
+        this.sslContext = config.enableSsl || config.enableStartTls ? SharedSSLContext.getInstance(config.tlsSessionCacheSize, config.tlsSessionTimeout) : null;
+        this.client = new SmtpNioClient(config, sslContext);
+        LOG.log(Level.FINEST, "SMTP NIO client opened");
+    }
+
+    private static Config fromConfigurationSource(ConfigurationSource configurationSource) {
+        Config.Builder builder = Config.builder()
+            .withHost(configurationSource.getPropertyOrFail(SmtpChannel.SMTP_HOST_PROPERTY, String.class, Function.identity()))
+            .withPort(configurationSource.getPropertyOrFail(SmtpChannel.SMTP_PORT_PROPERTY, Integer.class, Integer::valueOf))
+            .withConnectionTimeout(configurationSource.getPropertyOrDefault(SmtpChannel.SMTP_CONNECTION_TIMEOUT_PROPERTY, Long.class, Long::valueOf, o -> 10000L))
+            .withTimeout(configurationSource.getPropertyOrDefault(SmtpChannel.SMTP_TIMEOUT_PROPERTY, Long.class, Long::valueOf, o -> 10000L))
+            .withEnableSsl(configurationSource.getPropertyOrDefault(SmtpChannel.SMTP_ENABLE_SSL_PROPERTY, Boolean.class, Boolean::valueOf, o -> false))
+            .withEnableStartTls(configurationSource.getPropertyOrDefault(SmtpChannel.SMTP_ENABLE_STARTTLS_PROPERTY, Boolean.class, Boolean::valueOf, o -> false))
+            .withNodeName(configurationSource.getPropertyOrDefault(SmtpChannel.SMTP_NODE_NAME_PROPERTY, String.class, Function.identity(), o -> null))
+            .withFilter(configurationSource.getPropertyOrDefault(SmtpChannel.SMTP_FILTER_PROPERTY, SmtpChannelFilter.class, null, o -> null))
+            .withTlsSessionCacheSize(configurationSource.getPropertyOrDefault(SmtpChannel.SMTP_TLS_SESSION_CACHE_SIZE_PROPERTY, Integer.class, Integer::valueOf, o -> 1024))
+            .withTlsSessionTimeout(configurationSource.getPropertyOrDefault(SmtpChannel.SMTP_TLS_SESSION_TIMEOUT_PROPERTY, Long.class, Long::valueOf, o -> 3600000L))
+            .withIoThreads(configurationSource.getPropertyOrDefault(SMTP_NIO_IO_THREADS_PROPERTY, Integer.class, Integer::valueOf, o -> 2))
+            .withMaxConnections(configurationSource.getPropertyOrDefault(SMTP_NIO_MAX_CONNECTIONS_PROPERTY, Integer.class, Integer::valueOf, o -> 16))
+            .withMaxInFlight(configurationSource.getPropertyOrDefault(SMTP_NIO_MAX_IN_FLIGHT_PROPERTY, Integer.class, Integer::valueOf, o -> 64))
+            .withInFlightTimeout(configurationSource.getPropertyOrDefault(SMTP_NIO_IN_FLIGHT_TIMEOUT_PROPERTY, Long.class, Long::valueOf, o -> 30000L))
+            .withIdleTimeout(configurationSource.getPropertyOrDefault(SMTP_NIO_IDLE_TIMEOUT_PROPERTY, Long.class, Long::valueOf, o -> 60000L))
+            .withMaxMessagesPerConnection(configurationSource.getPropertyOrDefault(SMTP_NIO_MAX_MESSAGES_PER_CONNECTION_PROPERTY, Integer.class, Integer::valueOf, o -> 100));
+
+        String user = configurationSource.getPropertyOrDefault(SmtpChannel.SMTP_USER_PROPERTY, String.class, Function.identity(), o -> null);
+        String password = configurationSource.getPropertyOrDefault(SmtpChannel.SMTP_PASSWORD_PROPERTY, String.class, Function.identity(), o -> null);
+
+        if (user != null && !user.isEmpty() || password != null && !password.isEmpty()) {
+            builder.withAuth(user, password);
+        }
+
+        return builder.build();
+    }
+
+    @Override
+    public void close() {
+        client.close();
+        LOG.log(Level.FINEST, "SMTP NIO client closed");
+    }
+
+    /**
+     * Returns the amount of currently open SMTP connections.
+     *
+     * @return the amount of open connections
+     */
+    public int getConnectionCount() {
+        return client.getConnectionCount();
+    }
+
+    /**
+     * Returns the statistics of the TLS handshakes of the process wide TLS context that is used by this channel.
+     *
+     * @return the handshake statistics or <code>null</code> if TLS is disabled
+     */
+    public HandshakeStatistics getHandshakeStatistics() {
+        return sslContext;
+    }
+
+    @Override
+    public Class<EmailNotificationMessage> getNotificationMessageType() {
+        return EmailNotificationMessage.class;
+    }
+
+    @Override
+    public int getMaxInFlight() {
+        return inFlightLimiter.getMaxInFlight();
+    }
+
+    @Override
+    public Object sendNotificationMessage(EmailNotificationRecipient<?> recipient, EmailNotificationMessage message) {
+        try {
+            return sendNotificationMessageAsync(recipient, message).toCompletableFuture().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new NotificationException(e.getCause());
+        }
+    }
+
+    @Override
+    public CompletionStage<Object> sendNotificationMessageAsync(EmailNotificationRecipient<?> recipient, EmailNotificationMessage message) {
+        SMTPMessage msg;
+        SmtpEnvelope envelope;
+        try {
+            msg = messageFactory.createMessage(recipient, message);
+            if (msg == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            envelope = new SmtpEnvelope(getReversePath(msg), recipient.getEmail(), encode(msg));
+        } catch (Throwable e) {
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            future.completeExceptionally(translateException(e));
+            return future;
+        }
+        // Continue on a different thread so that callbacks of the caller never block the selector threads
+        return inFlightLimiter.submit(() -> client.send(envelope))
+            .handleAsync((result, throwable) -> {
+                if (throwable != null) {
+                    throw translateException(throwable);
+                }
+                try {
+                    String messageId = msg.getMessageID();
+                    if (LOG.isLoggable(Level.FINEST)) {
+                        LOG.log(Level.FINEST, "SMTP notification sent to " + recipient + " with message id: " + messageId);
+                    }
+                    return messageId;
+                } catch (Exception e) {
+                    throw translateException(e);
+                }
+            });
+    }
+
+    private static String getReversePath(SMTPMessage msg) throws Exception {
+        String envelopeFrom = msg.getEnvelopeFrom();
+        if (envelopeFrom != null) {
+            return envelopeFrom;
+        }
+        Address[] from = msg.getFrom();
+        return ((InternetAddress) from[0]).getAddress();
+    }
+
+    /**
+     * Renders the given message to the dot-stuffed content of the <code>DATA</code> command, including the terminating <code>CRLF.CRLF</code>.
+     *
+     * @param msg The message
+     * @return the message data
+     * @throws Exception If rendering fails
+     */
+    private ByteBuffer encode(SMTPMessage msg) throws Exception {
+        msg.saveChanges();
+        try (PooledOutputStream buffer = new PooledOutputStream(messageFactory.getMimeMessageWriter().getBufferPool())) {
+            SMTPOutputStream out = new SMTPOutputStream(buffer);
+            msg.writeTo(out, IGNORED_HEADERS);
+            out.ensureAtBOL();
+            out.flush();
+            buffer.write(new byte[]{ '.', '\r', '\n' });
+            return buffer.toByteBuffer();
+        }
+    }
+
+    private static RuntimeException translateException(Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        if (e instanceof SmtpReplyException) {
+            return SmtpReplyCodes.translate(((SmtpReplyException) e).getReplyCode(), e);
+        } else if (e instanceof IOException) {
+            // Connection failures are usually temporary
+            LOG.log(Level.FINE, "SMTP connection failure", e);
+            return new JobTemporaryException(e);
+        } else if (e instanceof JobTemporaryException || e instanceof NotificationException) {
+            return (RuntimeException) e;
+        }
+        LOG.log(Level.SEVERE, "Failed to send email", e);
+        return new NotificationException(e);
+    }
+
+    /**
+     * The configuration for the non-blocking SMTP channel.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    public static class Config {
+        private final String host;
+        private final int port;
+        private final String user;
+        private final String password;
+        private final boolean enableSsl;
+        private final boolean enableStartTls;
+        private final long timeout;
+        private final long connectionTimeout;
+        private final String nodeName;
+        private final SmtpChannelFilter filter;
+        private final int ioThreads;
+        private final int maxConnections;
+        private final int maxInFlight;
+        private final long inFlightTimeout;
+        private final long idleTimeout;
+        private final int maxMessagesPerConnection;
+        private final int tlsSessionCacheSize;
+        private final long tlsSessionTimeout;
+
+        /**
+         * Create a new config.
+         *
+         * @param host                     The SMTP host
+         * @param port                     The SMTP port
+         * @param user                     The SMTP user or <code>null</code> for no authentication
+         * @param password                 The SMTP password
+         * @param enableSsl                Whether to connect with SSL/TLS
+         * @param enableStartTls           Whether to upgrade to TLS with STARTTLS if the server supports it
+         * @param timeout                  The maximum time in milliseconds to wait for a reply
+         * @param connectionTimeout        The maximum time in milliseconds to wait for a connection to be established
+         * @param nodeName                 The name of this sender node
+         * @param filter                   The SMTP channel filter
+         * @param ioThreads                The amount of selector threads
+         * @param maxConnections           The maximum amount of connections
+         * @param maxInFlight              The maximum amount of messages in flight
+         * @param inFlightTimeout          The maximum time in milliseconds to wait for a message in flight to complete when the limit is reached
+         * @param idleTimeout              The time in milliseconds after which an idle connection is closed
+         * @param maxMessagesPerConnection The maximum amount of messages to send over a connection or 0 for no limit
+         * @param tlsSessionCacheSize      The maximum amount of cached TLS client sessions or 0 for no limit
+         * @param tlsSessionTimeout        The time in milliseconds after which cached TLS client sessions expire or 0 for no limit
+         */
+        public Config(String host, int port, String user, String password, boolean enableSsl, boolean enableStartTls, long timeout, long connectionTimeout, String nodeName, SmtpChannelFilter filter,
+                      int ioThreads, int maxConnections, int maxInFlight, long inFlightTimeout, long idleTimeout, int maxMessagesPerConnection,
+                      int tlsSessionCacheSize, long tlsSessionTimeout) {
+            this.host = host;
+            this.port = port;
+            this.user = user;
+            this.password = password;
+            this.enableSsl = enableSsl;
+            this.enableStartTls = enableStartTls;
+            this.timeout = timeout;
+            this.connectionTimeout = connectionTimeout;
+            this.nodeName = nodeName;
+            this.filter = filter;
+            this.ioThreads = ioThreads;
+            this.maxConnections = maxConnections;
+            this.maxInFlight = maxInFlight;
+            this.inFlightTimeout = inFlightTimeout;
+            this.idleTimeout = idleTimeout;
+            this.maxMessagesPerConnection = maxMessagesPerConnection;
+            this.tlsSessionCacheSize = tlsSessionCacheSize;
+            this.tlsSessionTimeout = tlsSessionTimeout;
+        }
+
+        /**
+         * Returns the SMTP host.
+         *
+         * @return the SMTP host
+         */
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * Returns the SMTP port.
+         *
+         * @return the SMTP port
+         */
+        public int getPort() {
+            return port;
+        }
+
+        /**
+         * Returns the SMTP user or <code>null</code> if no authentication is used.
+         *
+         * @return the SMTP user
+         */
+        public String getUser() {
+            return user;
+        }
+
+        /**
+         * Returns the SMTP password.
+         *
+         * @return the SMTP password
+         */
+        public String getPassword() {
+            return password;
+        }
+
+        /**
+         * Returns whether to connect with SSL/TLS.
+         *
+         * @return whether to connect with SSL/TLS
+         */
+        public boolean isEnableSsl() {
+            return enableSsl;
+        }
+
+        /**
+         * Returns whether to upgrade to TLS with STARTTLS if the server supports it.
+         *
+         * @return whether to enable STARTTLS
+         */
+        public boolean isEnableStartTls() {
+            return enableStartTls;
+        }
+
+        /**
+         * Returns the maximum time in milliseconds to wait for a reply.
+         *
+         * @return the SMTP timeout
+         */
+        public long getTimeout() {
+            return timeout;
+        }
+
+        /**
+         * Returns the maximum time in milliseconds to wait for a connection to be established.
+         *
+         * @return the connection timeout
+         */
+        public long getConnectionTimeout() {
+            return connectionTimeout;
+        }
+
+        /**
+         * Returns the name of this sender node.
+         *
+         * @return the name of this sender node
+         */
+        public String getNodeName() {
+            return nodeName;
+        }
+
+        /**
+         * Returns the SMTP channel filter.
+         *
+         * @return the SMTP channel filter
+         */
+        public SmtpChannelFilter getFilter() {
+            return filter;
+        }
+
+        /**
+         * Returns the amount of selector threads.
+         *
+         * @return the amount of selector threads
+         */
+        public int getIoThreads() {
+            return ioThreads;
+        }
+
+        /**
+         * Returns the maximum amount of connections.
+         *
+         * @return the maximum amount of connections
+         */
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        /**
+         * Returns the maximum amount of messages in flight.
+         *
+         * @return the maximum amount of messages in flight
+         */
+        public int getMaxInFlight() {
+            return maxInFlight;
+        }
+
+        /**
+         * Returns the maximum time in milliseconds to wait for a message in flight to complete when the limit is reached.
+         *
+         * @return the in flight timeout
+         */
+        public long getInFlightTimeout() {
+            return inFlightTimeout;
+        }
+
+        /**
+         * Returns the time in milliseconds after which an idle connection is closed.
+         *
+         * @return the idle timeout
+         */
+        public long getIdleTimeout() {
+            return idleTimeout;
+        }
+
+        /**
+         * Returns the maximum amount of messages to send over a connection or 0 for no limit.
+         *
+         * @return the maximum amount of messages per connection
+         */
+        public int getMaxMessagesPerConnection() {
+            return maxMessagesPerConnection;
+        }
+
+        /**
+         * Returns the maximum amount of cached TLS client sessions or 0 for no limit.
+         *
+         * @return the maximum amount of cached TLS client sessions
+         */
+        public int getTlsSessionCacheSize() {
+            return tlsSessionCacheSize;
+        }
+
+        /**
+         * Returns the time in milliseconds after which cached TLS client sessions expire or 0 for no limit.
+         *
+         * @return the TLS session timeout
+         */
+        public long getTlsSessionTimeout() {
+            return tlsSessionTimeout;
+        }
+
+        /**
+         * Returns a new configuration builder.
+         *
+         * @return a new configuration builder
+         */
+        public static Builder builder() {
+            return new Builder();
+        }
+
+        /**
+         * The configuration builder.
+         *
+         * @author Christian Beikov
+         * @since 1.0.0
+         */
+        public static class Builder {
+            private String host;
+            private int port = 25;
+            private String user;
+            private String password;
+            private boolean enableSsl;
+            private boolean enableStartTls;
+            private long timeout = 10000;
+            private long connectionTimeout = 10000;
+            private String nodeName;
+            private SmtpChannelFilter filter;
+            private int ioThreads = 2;
+            private int maxConnections = 16;
+            private int maxInFlight = 64;
+            private long inFlightTimeout = 30000;
+            private long idleTimeout = 60000;
+            private int maxMessagesPerConnection = 100;
+            private int tlsSessionCacheSize = 1024;
+            private long tlsSessionTimeout = 3600000;
+
+            /**
+             * Returns the configuration.
+             *
+             * @return the configuration
+             */
+            public Config build() {
+                return new Config(host, port, user, password, enableSsl, enableStartTls, timeout, connectionTimeout, nodeName, filter,
+                    ioThreads, maxConnections, maxInFlight, inFlightTimeout, idleTimeout, maxMessagesPerConnection,
+                    tlsSessionCacheSize, tlsSessionTimeout);
+            }
+
+            /**
+             * Sets the given SMTP host.
+             *
+             * @param host The SMTP host
+             * @return <code>this</code> for chaining
+             */
+            public Builder withHost(String host) {
+                this.host = host;
+                return this;
+            }
+
+            /**
+             * Sets the given SMTP port.
+             *
+             * @param port The SMTP port
+             * @return <code>this</code> for chaining
+             */
+            public Builder withPort(int port) {
+                this.port = port;
+                return this;
+            }
+
+            /**
+             * Enables SMTP authentication with the given user and password.
+             *
+             * @param user     The SMTP user
+             * @param password The SMTP password
+             * @return <code>this</code> for chaining
+             */
+            public Builder withAuth(String user, String password) {
+                this.user = user;
+                this.password = password;
+                return this;
+            }
+
+            /**
+             * Sets whether to connect with SSL/TLS.
+             *
+             * @param enableSsl whether to connect with SSL/TLS
+             * @return <code>this</code> for chaining
+             */
+            public Builder withEnableSsl(boolean enableSsl) {
+                this.enableSsl = enableSsl;
+                return this;
+            }
+
+            /**
+             * Sets whether to upgrade to TLS with STARTTLS if the server supports it.
+             *
+             * @param enableStartTls whether to enable STARTTLS
+             * @return <code>this</code> for chaining
+             */
+            public Builder withEnableStartTls(boolean enableStartTls) {
+                this.enableStartTls = enableStartTls;
+                return this;
+            }
+
+            /**
+             * Sets the given maximum time in milliseconds to wait for a reply.
+             *
+             * @param timeout The SMTP timeout
+             * @return <code>this</code> for chaining
+             */
+            public Builder withTimeout(long timeout) {
+                this.timeout = timeout;
+                return this;
+            }
+
+            /**
+             * Sets the given maximum time in milliseconds to wait for a connection to be established.
+             *
+             * @param connectionTimeout The connection timeout
+             * @return <code>this</code> for chaining
+             */
+            public Builder withConnectionTimeout(long connectionTimeout) {
+                this.connectionTimeout = connectionTimeout;
+                return this;
+            }
+
+            /**
+             * Sets the given node name.
+             *
+             * @param nodeName The node name
+             * @return <code>this</code> for chaining
+             */
+            public Builder withNodeName(String nodeName) {
+                this.nodeName = nodeName;
+                return this;
+            }
+
+            /**
+             * Sets the given SMTP channel filter.
+             *
+             * @param filter The SMTP channel filter
+             * @return <code>this</code> for chaining
+             */
+            public Builder withFilter(SmtpChannelFilter filter) {
+                this.filter = filter;
+                return this;
+            }
+
+            /**
+             * Sets the given amount of selector threads.
+             *
+             * @param ioThreads The amount of selector threads
+             * @return <code>this</code> for chaining
+             */
+            public Builder withIoThreads(int ioThreads) {
+                this.ioThreads = ioThreads;
+                return this;
+            }
+
+            /**
+             * Sets the given maximum amount of connections.
+             *
+             * @param maxConnections The maximum amount of connections
+             * @return <code>this</code> for chaining
+             */
+            public Builder withMaxConnections(int maxConnections) {
+                this.maxConnections = maxConnections;
+                return this;
+            }
+
+            /**
+             * Sets the given maximum amount of messages in flight.
+             *
+             * @param maxInFlight The maximum amount of messages in flight
+             * @return <code>this</code> for chaining
+             */
+            public Builder withMaxInFlight(int maxInFlight) {
+                this.maxInFlight = maxInFlight;
+                return this;
+            }
+
+            /**
+             * Sets the given maximum time in milliseconds to wait for a message in flight to complete when the limit is reached.
+             *
+             * @param inFlightTimeout The in flight timeout
+             * @return <code>this</code> for chaining
+             */
+            public Builder withInFlightTimeout(long inFlightTimeout) {
+                this.inFlightTimeout = inFlightTimeout;
+                return this;
+            }
+
+            /**
+             * Sets the given time in milliseconds after which an idle connection is closed.
+             *
+             * @param idleTimeout The idle timeout
+             * @return <code>this</code> for chaining
+             */
+            public Builder withIdleTimeout(long idleTimeout) {
+                this.idleTimeout = idleTimeout;
+                return this;
+            }
+
+            /**
+             * Sets the given maximum amount of messages to send over a connection or 0 for no limit.
+             *
+             * @param maxMessagesPerConnection The maximum amount of messages per connection
+             * @return <code>this</code> for chaining
+             */
+            public Builder withMaxMessagesPerConnection(int maxMessagesPerConnection) {
+                this.maxMessagesPerConnection = maxMessagesPerConnection;
+                return this;
+            }
+
+            /**
+             * Sets the maximum amount of cached TLS client sessions or 0 for no limit.
+             *
+             * @param tlsSessionCacheSize The maximum amount of cached TLS client sessions
+             * @return <code>this</code> for chaining
+             */
+            public Builder withTlsSessionCacheSize(int tlsSessionCacheSize) {
+                this.tlsSessionCacheSize = tlsSessionCacheSize;
+                return this;
+            }
+
+            /**
+             * Sets the time in milliseconds after which cached TLS client sessions expire or 0 for no limit.
+             *
+             * @param tlsSessionTimeout The TLS session timeout
+             * @return <code>this</code> for chaining
+             */
+            public Builder withTlsSessionTimeout(long tlsSessionTimeout) {
+                this.tlsSessionTimeout = tlsSessionTimeout;
+                return this;
+            }
+        }
+    }
+}
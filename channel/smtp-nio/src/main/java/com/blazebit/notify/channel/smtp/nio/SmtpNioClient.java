@@ -0,0 +1,171 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.smtp.nio;
+
+import com.blazebit.notify.NotificationException;
+import com.blazebit.notify.security.SharedSSLContext;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Distributes SMTP transactions over a fixed set of {@link SmtpIoLoop}s, each of which multiplexes its connections over a single selector thread.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+final class SmtpNioClient implements AutoCloseable {
+
+    private final String host;
+    private final int port;
+    private final String user;
+    private final String password;
+    private final boolean enableSsl;
+    private final boolean enableStartTls;
+    private final SharedSSLContext sslContext;
+    private final String heloName;
+    private final long connectionTimeout;
+    private final long timeout;
+    private final long idleTimeout;
+    private final int maxMessagesPerConnection;
+    private final SmtpIoLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    /**
+     * Creates a client and starts its loops.
+     *
+     * @param config The channel configuration
+     * @param sslContext The shared TLS context
+     */
+    SmtpNioClient(SmtpNioChannel.Config config, SharedSSLContext sslContext) {
+        this.host = config.getHost();
+        this.port = config.getPort();
+        this.user = config.getUser();
+        this.password = config.getPassword();
+        this.enableSsl = config.isEnableSsl();
+        this.enableStartTls = config.isEnableStartTls();
+        this.sslContext = sslContext;
+        this.heloName = getLocalHostName();
+        this.connectionTimeout = config.getConnectionTimeout();
+        this.timeout = config.getTimeout();
+        this.idleTimeout = config.getIdleTimeout();
+        this.maxMessagesPerConnection = config.getMaxMessagesPerConnection();
+        int ioThreads = Math.max(1, Math.min(config.getIoThreads(), config.getMaxConnections()));
+        // Distribute the connections evenly, so that the total does not exceed the configured maximum
+        this.loops = new SmtpIoLoop[ioThreads];
+        try {
+            for (int i = 0; i < ioThreads; i++) {
+                int maxConnections = config.getMaxConnections() / ioThreads + (i < config.getMaxConnections() % ioThreads ? 1 : 0);
+                loops[i] = new SmtpIoLoop(this, maxConnections, "blaze-notify-smtp-nio-" + i);
+            }
+        } catch (IOException e) {
+            close();
+            throw new NotificationException("Could not open selector", e);
+        }
+    }
+
+    /**
+     * Sends the given envelope.
+     *
+     * @param envelope The envelope
+     * @return The future that is completed when the server accepted the message
+     */
+    CompletableFuture<Void> send(SmtpEnvelope envelope) {
+        loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)].submit(envelope);
+        return envelope.getFuture();
+    }
+
+    /**
+     * Returns the amount of open connections over all loops.
+     *
+     * @return the amount of open connections
+     */
+    int getConnectionCount() {
+        int count = 0;
+        for (SmtpIoLoop loop : loops) {
+            count += loop.getConnectionCount();
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        for (SmtpIoLoop loop : loops) {
+            if (loop != null) {
+                loop.close();
+            }
+        }
+    }
+
+    String getHost() {
+        return host;
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    String getUser() {
+        return user;
+    }
+
+    String getPassword() {
+        return password;
+    }
+
+    boolean isEnableSsl() {
+        return enableSsl;
+    }
+
+    boolean isEnableStartTls() {
+        return enableStartTls;
+    }
+
+    SharedSSLContext getSslContext() {
+        return sslContext;
+    }
+
+    String getHeloName() {
+        return heloName;
+    }
+
+    long getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    long getTimeout() {
+        return timeout;
+    }
+
+    long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    int getMaxMessagesPerConnection() {
+        return maxMessagesPerConnection;
+    }
+
+    private static String getLocalHostName() {
+        try {
+            return InetAddress.getLocalHost().getCanonicalHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+}
@@ -0,0 +1,676 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.smtp.nio;
+
+import com.blazebit.notify.channel.smtp.SmtpReplyCodes;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A non-blocking SMTP client session that is driven by the selector thread of a {@link SmtpIoLoop}.
+ * The session connects, optionally upgrades to TLS, authenticates and then runs one mail transaction at a time.
+ * If the server supports the <code>PIPELINING</code> extension, the <code>MAIL</code>, <code>RCPT</code> and <code>DATA</code> commands of a transaction are sent at once.
+ *
+ * All methods must be called from the selector thread.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+final class SmtpNioConnection {
+
+    private static final Logger LOG = Logger.getLogger(SmtpNioConnection.class.getName());
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SmtpNioClient client;
+    private final SmtpIoLoop loop;
+    private final SocketChannel socketChannel;
+    private final Deque<ByteBuffer> outbound = new ArrayDeque<>();
+    private final Deque<ReplyHandler> replyHandlers = new ArrayDeque<>();
+    private final List<String> replyLines = new ArrayList<>();
+    private final Set<String> extensions = new HashSet<>();
+    private final Set<String> authMechanisms = new HashSet<>();
+    private SelectionKey selectionKey;
+    private ByteBuffer inbound = ByteBuffer.allocate(BUFFER_SIZE);
+    private SSLEngine sslEngine;
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private boolean handshaking;
+    private long handshakeStartNanos;
+    private long handshakeStartMillis;
+    private boolean ehloAfterHandshake;
+    private State state = State.CONNECTING;
+    private SmtpEnvelope envelope;
+    private IOException transactionFailure;
+    private int messageCount;
+    private long lastActivity;
+
+    /**
+     * Opens the socket channel of the connection, which connects when it is started.
+     *
+     * @param client The client that provides the connection settings
+     * @param loop The loop that owns the connection
+     * @throws IOException If the socket channel can't be opened
+     */
+    SmtpNioConnection(SmtpNioClient client, SmtpIoLoop loop) throws IOException {
+        this.client = client;
+        this.loop = loop;
+        this.socketChannel = SocketChannel.open();
+        this.lastActivity = System.nanoTime();
+    }
+
+    /**
+     * Starts connecting to the server.
+     *
+     * @param selector The selector to register with
+     * @throws IOException If connecting fails
+     */
+    void connect(Selector selector) throws IOException {
+        socketChannel.configureBlocking(false);
+        socketChannel.socket().setTcpNoDelay(true);
+        selectionKey = socketChannel.register(selector, SelectionKey.OP_CONNECT, this);
+        if (socketChannel.connect(new InetSocketAddress(client.getHost(), client.getPort()))) {
+            onConnected();
+        }
+    }
+
+    /**
+     * Returns whether the session is authenticated and has no running transaction.
+     *
+     * @return whether the session is ready for a transaction
+     */
+    boolean isReady() {
+        return state == State.READY;
+    }
+
+    /**
+     * Returns whether the session is still connecting, i.e. it will become ready without a further action.
+     *
+     * @return whether the session is still connecting
+     */
+    boolean isConnecting() {
+        return state == State.CONNECTING || state == State.SETUP;
+    }
+
+    boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    /**
+     * Handles the ready operations of the selection key.
+     */
+    void handleSelection() {
+        try {
+            if (selectionKey.isConnectable() && socketChannel.finishConnect()) {
+                onConnected();
+            }
+            if (selectionKey.isValid() && selectionKey.isReadable()) {
+                read();
+            }
+            if (selectionKey.isValid() && selectionKey.isWritable()) {
+                flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Starts a mail transaction for the given envelope. The session must be ready.
+     *
+     * @param envelope The envelope to send
+     */
+    void send(SmtpEnvelope envelope) {
+        this.envelope = envelope;
+        this.transactionFailure = null;
+        this.state = State.TRANSACTION;
+        this.lastActivity = System.nanoTime();
+        try {
+            command("MAIL FROM:<" + envelope.getReversePath() + ">", this::onMailFrom);
+            if (extensions.contains("PIPELINING")) {
+                command("RCPT TO:<" + envelope.getForwardPath() + ">", this::onRcptTo);
+                command("DATA", this::onData);
+            }
+            flush();
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Closes the session if it awaits a reply for longer than the timeout or if it is idle for longer than the idle timeout.
+     *
+     * @param now The current time as given by {@link System#nanoTime()}
+     */
+    void checkTimeout(long now) {
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(now - lastActivity);
+        if (state == State.CONNECTING) {
+            if (elapsedMillis > client.getConnectionTimeout()) {
+                fail(new SocketTimeoutException("Could not connect within " + client.getConnectionTimeout() + "ms"));
+            }
+        } else if (state == State.READY) {
+            if (client.getIdleTimeout() > 0 && elapsedMillis > client.getIdleTimeout()) {
+                quit();
+            }
+        } else if (state != State.CLOSED && elapsedMillis > client.getTimeout()) {
+            fail(new SocketTimeoutException("No reply within " + client.getTimeout() + "ms"));
+        }
+    }
+
+    /**
+     * Sends <code>QUIT</code> and closes the session.
+     */
+    void quit() {
+        if (state == State.CLOSED) {
+            return;
+        } else if (state == State.READY) {
+            state = State.QUITTING;
+            try {
+                command("QUIT", (code, lines) -> close(null));
+                flush();
+            } catch (IOException | RuntimeException e) {
+                close(null);
+            }
+        } else if (state != State.QUITTING) {
+            close(new IOException("SMTP client closed"));
+        }
+    }
+
+    private void onConnected() throws IOException {
+        lastActivity = System.nanoTime();
+        state = State.SETUP;
+        selectionKey.interestOps(SelectionKey.OP_READ);
+        expect(this::onGreeting);
+        if (client.isEnableSsl()) {
+            startTls();
+            flush();
+        }
+    }
+
+    private void onGreeting(int code, List<String> lines) throws IOException {
+        if (code != 220) {
+            throw new SmtpReplyException("Connect", code, lastLine(lines));
+        }
+        ehlo();
+    }
+
+    private void ehlo() throws IOException {
+        extensions.clear();
+        authMechanisms.clear();
+        command("EHLO " + client.getHeloName(), this::onEhlo);
+    }
+
+    private void onEhlo(int code, List<String> lines) throws IOException {
+        if (code == 250) {
+            // The first line is the greeting, the following lines are the supported extensions
+            for (int i = 1; i < lines.size(); i++) {
+                String[] parts = lines.get(i).toUpperCase(Locale.ROOT).split(" ");
+                extensions.add(parts[0]);
+                if ("AUTH".equals(parts[0])) {
+                    for (int j = 1; j < parts.length; j++) {
+                        authMechanisms.add(parts[j]);
+                    }
+                }
+            }
+            if (sslEngine == null && client.isEnableStartTls() && extensions.contains("STARTTLS")) {
+                command("STARTTLS", this::onStartTls);
+            } else {
+                authenticate();
+            }
+        } else if (code / 100 == 5) {
+            // The server does not support extended SMTP
+            command("HELO " + client.getHeloName(), this::onHelo);
+        } else {
+            throw new SmtpReplyException("EHLO", code, lastLine(lines));
+        }
+    }
+
+    private void onHelo(int code, List<String> lines) throws IOException {
+        if (code != 250) {
+            throw new SmtpReplyException("HELO", code, lastLine(lines));
+        }
+        authenticate();
+    }
+
+    private void onStartTls(int code, List<String> lines) throws IOException {
+        if (code != 220) {
+            throw new SmtpReplyException("STARTTLS", code, lastLine(lines));
+        }
+        // The capabilities have to be queried again over the secured connection
+        ehloAfterHandshake = true;
+        startTls();
+    }
+
+    private void authenticate() throws IOException {
+        if (client.getUser() == null) {
+            ready();
+        } else if (authMechanisms.contains("PLAIN")) {
+            String credentials = "\0" + client.getUser() + "\0" + client.getPassword();
+            write("AUTH PLAIN " + base64(credentials), this::onAuth);
+        } else if (authMechanisms.contains("LOGIN")) {
+            command("AUTH LOGIN", (code, lines) -> {
+                if (code != 334) {
+                    throw new SmtpReplyException("AUTH LOGIN", code, lastLine(lines));
+                }
+                write(base64(client.getUser()), (code2, lines2) -> {
+                    if (code2 != 334) {
+                        throw new SmtpReplyException("AUTH LOGIN", code2, lastLine(lines2));
+                    }
+                    write(base64(client.getPassword()), this::onAuth);
+                });
+            });
+        } else {
+            throw new IOException("The SMTP server does not support the PLAIN or LOGIN authentication mechanisms");
+        }
+    }
+
+    private void onAuth(int code, List<String> lines) throws IOException {
+        if (code != 235) {
+            throw new SmtpReplyException("AUTH", code, lastLine(lines));
+        }
+        ready();
+    }
+
+    private void ready() {
+        state = State.READY;
+        loop.onReady(this);
+    }
+
+    private void onMailFrom(int code, List<String> lines) throws IOException {
+        if (code != 250) {
+            transactionFailed(new SmtpReplyException("MAIL FROM", code, lastLine(lines)));
+            if (!extensions.contains("PIPELINING")) {
+                finishTransaction();
+            }
+            // Otherwise the reply to the pipelined DATA command finishes the transaction
+        } else if (!extensions.contains("PIPELINING")) {
+            command("RCPT TO:<" + envelope.getForwardPath() + ">", this::onRcptTo);
+        }
+    }
+
+    private void onRcptTo(int code, List<String> lines) throws IOException {
+        if (code != 250 && code != 251) {
+            transactionFailed(new SmtpReplyException("RCPT TO", code, lastLine(lines)));
+            if (!extensions.contains("PIPELINING")) {
+                finishTransaction();
+            }
+        } else if (!extensions.contains("PIPELINING")) {
+            command("DATA", this::onData);
+        }
+    }
+
+    private void onData(int code, List<String> lines) throws IOException {
+        if (code == 354) {
+            if (transactionFailure != null) {
+                // Sending the data would deliver a broken message, so the connection has to be dropped
+                throw transactionFailure;
+            }
+            lastActivity = System.nanoTime();
+            outbound.add(envelope.getData());
+            expect(this::onDataEnd);
+        } else {
+            transactionFailed(new SmtpReplyException("DATA", code, lastLine(lines)));
+            finishTransaction();
+        }
+    }
+
+    private void onDataEnd(int code, List<String> lines) throws IOException {
+        if (code != 250) {
+            transactionFailed(new SmtpReplyException("DATA", code, lastLine(lines)));
+        }
+        finishTransaction();
+    }
+
+    private void transactionFailed(SmtpReplyException exception) throws IOException {
+        if (transactionFailure == null) {
+            transactionFailure = exception;
+        }
+        if (SmtpReplyCodes.isConnectionClosing(exception.getReplyCode())) {
+            throw exception;
+        }
+    }
+
+    private void finishTransaction() throws IOException {
+        SmtpEnvelope envelope = this.envelope;
+        IOException failure = this.transactionFailure;
+        this.envelope = null;
+        this.transactionFailure = null;
+        messageCount++;
+        if (failure == null) {
+            envelope.getFuture().complete(null);
+        } else {
+            envelope.getFuture().completeExceptionally(failure);
+        }
+        if (failure != null) {
+            // Reset the server state before starting the next transaction
+            command("RSET", (code, lines) -> afterTransaction());
+        } else {
+            afterTransaction();
+        }
+    }
+
+    private void afterTransaction() {
+        if (client.getMaxMessagesPerConnection() > 0 && messageCount >= client.getMaxMessagesPerConnection()) {
+            state = State.READY;
+            quit();
+        } else {
+            ready();
+        }
+    }
+
+    private void command(String command, ReplyHandler handler) {
+        if (LOG.isLoggable(Level.FINEST)) {
+            LOG.log(Level.FINEST, "SMTP command: " + command);
+        }
+        write(command, handler);
+    }
+
+    private void write(String line, ReplyHandler handler) {
+        outbound.add(ByteBuffer.wrap((line + "\r\n").getBytes(StandardCharsets.UTF_8)));
+        expect(handler);
+    }
+
+    private void expect(ReplyHandler handler) {
+        replyHandlers.add(handler);
+    }
+
+    private void read() throws IOException {
+        ByteBuffer target = sslEngine == null ? inbound : netIn;
+        int read = socketChannel.read(target);
+        if (read < 0) {
+            throw new EOFException("Connection closed by the SMTP server");
+        }
+        lastActivity = System.nanoTime();
+        if (sslEngine != null) {
+            if (handshaking) {
+                handshake();
+            }
+            if (!handshaking) {
+                unwrap();
+            }
+        }
+        processReplies();
+        if (state != State.CLOSED) {
+            flush();
+        }
+    }
+
+    private void processReplies() throws IOException {
+        ByteBuffer buffer = inbound;
+        buffer.flip();
+        int lineStart = buffer.position();
+        for (int i = lineStart; i + 1 < buffer.limit(); i++) {
+            if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n') {
+                byte[] bytes = new byte[i - lineStart];
+                for (int j = 0; j < bytes.length; j++) {
+                    bytes[j] = buffer.get(lineStart + j);
+                }
+                lineStart = i + 2;
+                i++;
+                processLine(new String(bytes, StandardCharsets.UTF_8));
+                if (state == State.CLOSED || buffer != inbound) {
+                    // Plaintext data after STARTTLS must be ignored, the secured session uses a new buffer
+                    return;
+                }
+            }
+        }
+        buffer.position(lineStart);
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+            throw new IOException("SMTP reply line too long");
+        }
+    }
+
+    private void processLine(String line) throws IOException {
+        if (line.length() < 3) {
+            throw new IOException("Invalid SMTP reply: " + line);
+        }
+        replyLines.add(line.length() > 4 ? line.substring(4) : "");
+        if (line.length() > 3 && line.charAt(3) == '-') {
+            // Continuation of a multi-line reply
+            return;
+        }
+        int code;
+        try {
+            code = Integer.parseInt(line.substring(0, 3));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid SMTP reply: " + line, e);
+        }
+        List<String> lines = new ArrayList<>(replyLines);
+        replyLines.clear();
+        ReplyHandler handler = replyHandlers.poll();
+        if (handler == null) {
+            if (code == SmtpReplyCodes.SERVICE_NOT_AVAILABLE) {
+                // The server may announce a shutdown at any time
+                throw new SmtpReplyException("Session", code, lastLine(lines));
+            }
+            throw new IOException("Unexpected SMTP reply: " + line);
+        }
+        handler.onReply(code, lines);
+    }
+
+    private void flush() throws IOException {
+        boolean pending;
+        if (sslEngine == null) {
+            while (!outbound.isEmpty()) {
+                ByteBuffer buffer = outbound.peek();
+                socketChannel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    break;
+                }
+                outbound.poll();
+            }
+            pending = !outbound.isEmpty();
+        } else {
+            pending = false;
+            while (true) {
+                if (!flushNet()) {
+                    pending = true;
+                    break;
+                }
+                if (handshaking) {
+                    handshake();
+                    if (handshaking) {
+                        pending = netOut.position() > 0;
+                        break;
+                    }
+                    continue;
+                }
+                ByteBuffer buffer = outbound.peek();
+                if (buffer == null) {
+                    break;
+                }
+                SSLEngineResult result = sslEngine.wrap(buffer, netOut);
+                if (!buffer.hasRemaining()) {
+                    outbound.poll();
+                }
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new SSLException("TLS session closed");
+                }
+            }
+        }
+        if (selectionKey.isValid()) {
+            selectionKey.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+    }
+
+    private boolean flushNet() throws IOException {
+        if (netOut.position() > 0) {
+            netOut.flip();
+            socketChannel.write(netOut);
+            netOut.compact();
+        }
+        return netOut.position() == 0;
+    }
+
+    private void startTls() throws IOException {
+        // Passing the peer allows the engine to resume a cached session of the shared context
+        sslEngine = client.getSslContext().getSSLContext().createSSLEngine(client.getHost(), client.getPort());
+        sslEngine.setUseClientMode(true);
+        netIn = ByteBuffer.allocate(sslEngine.getSession().getPacketBufferSize());
+        netOut = ByteBuffer.allocate(sslEngine.getSession().getPacketBufferSize());
+        // Leave room for a full TLS record in addition to an incomplete reply line
+        inbound = ByteBuffer.allocate(Math.max(BUFFER_SIZE, 2 * sslEngine.getSession().getApplicationBufferSize()));
+        handshaking = true;
+        handshakeStartNanos = System.nanoTime();
+        handshakeStartMillis = System.currentTimeMillis();
+        sslEngine.beginHandshake();
+        handshake();
+    }
+
+    private void handshake() throws IOException {
+        while (handshaking) {
+            switch (sslEngine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    Runnable task;
+                    while ((task = sslEngine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    break;
+                case NEED_WRAP:
+                    if (sslEngine.wrap(EMPTY, netOut).getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new SSLException("TLS handshake failed");
+                    }
+                    if (!flushNet()) {
+                        // Continue when the socket is writable again
+                        return;
+                    }
+                    break;
+                case NEED_UNWRAP:
+                    netIn.flip();
+                    SSLEngineResult result = sslEngine.unwrap(netIn, inbound);
+                    netIn.compact();
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                        // Wait for more data
+                        return;
+                    } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new SSLException("TLS handshake failed");
+                    }
+                    break;
+                default:
+                    handshaking = false;
+                    client.getSslContext().recordHandshake(handshakeStartNanos, handshakeStartMillis, sslEngine.getSession());
+                    if (LOG.isLoggable(Level.FINEST)) {
+                        LOG.log(Level.FINEST, "TLS handshake finished with " + sslEngine.getSession().getProtocol());
+                    }
+                    if (ehloAfterHandshake) {
+                        ehloAfterHandshake = false;
+                        ehlo();
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void unwrap() throws IOException {
+        netIn.flip();
+        try {
+            while (netIn.hasRemaining()) {
+                SSLEngineResult result = sslEngine.unwrap(netIn, inbound);
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                    break;
+                } else if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    throw new IOException("SMTP reply line too long");
+                } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new EOFException("TLS session closed by the SMTP server");
+                }
+            }
+        } finally {
+            netIn.compact();
+        }
+    }
+
+    /**
+     * Fails the current transaction with the given exception and closes the connection.
+     *
+     * @param e The failure
+     */
+    void fail(Throwable e) {
+        if (state != State.CLOSED) {
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.log(Level.FINE, "SMTP connection failed", e);
+            }
+            close(e);
+        }
+    }
+
+    private void close(Throwable cause) {
+        boolean established = state != State.CONNECTING && state != State.SETUP;
+        state = State.CLOSED;
+        if (envelope != null) {
+            envelope.getFuture().completeExceptionally(cause);
+            envelope = null;
+        }
+        if (selectionKey != null) {
+            selectionKey.cancel();
+        }
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            LOG.log(Level.FINEST, "Failed to close SMTP connection", e);
+        }
+        loop.onClosed(this, established ? null : cause);
+    }
+
+    private static String base64(String value) {
+        return Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String lastLine(List<String> lines) {
+        return lines.isEmpty() ? "" : lines.get(lines.size() - 1);
+    }
+
+    /**
+     * The state of a session.
+     */
+    private enum State {
+        CONNECTING,
+        SETUP,
+        READY,
+        TRANSACTION,
+        QUITTING,
+        CLOSED
+    }
+
+    /**
+     * A handler for the reply to a command.
+     */
+    private interface ReplyHandler {
+        void onReply(int code, List<String> lines) throws IOException;
+    }
+}
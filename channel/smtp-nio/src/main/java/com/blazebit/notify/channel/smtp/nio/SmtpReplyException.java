@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.smtp.nio;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an SMTP server replies with an unexpected reply code to a command.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public class SmtpReplyException extends IOException {
+
+    private final int replyCode;
+
+    /**
+     * Creates a new exception.
+     *
+     * @param command The command that failed
+     * @param replyCode The reply code
+     * @param reply The reply text
+     */
+    public SmtpReplyException(String command, int replyCode, String reply) {
+        super(command + " failed: " + reply);
+        this.replyCode = replyCode;
+    }
+
+    /**
+     * Returns the reply code of the server.
+     *
+     * @return the reply code
+     */
+    public int getReplyCode() {
+        return replyCode;
+    }
+}
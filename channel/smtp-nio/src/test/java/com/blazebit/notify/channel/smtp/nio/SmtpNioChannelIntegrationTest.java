@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.smtp.nio;
+
+import com.blazebit.notify.channel.smtp.AbstractSmtpChannelIntegrationTest;
+import com.blazebit.notify.channel.smtp.DefaultEmailNotificationRecipient;
+import com.blazebit.notify.email.message.EmailBody;
+import com.blazebit.notify.email.message.EmailNotificationMessage;
+import com.blazebit.notify.email.message.EmailNotificationRecipient;
+import com.blazebit.notify.email.message.EmailSubject;
+import org.junit.Test;
+
+import javax.mail.Message;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SmtpNioChannelIntegrationTest extends AbstractSmtpChannelIntegrationTest {
+
+    @Test
+    public void multiplexMessagesOverLimitedConnections() throws Exception {
+        String from = "no-reply@localhost";
+        int messageCount = 10;
+        SmtpNioChannel.Config config = SmtpNioChannel.Config.builder()
+                .withHost(TEST_MAIL_SERVER_DOMAIN)
+                .withPort(TEST_MAIL_SERVER_SMTP_PORT)
+                .withIoThreads(1)
+                .withMaxConnections(2)
+                .build();
+        List<EmailNotificationRecipient<?>> recipients = new ArrayList<>(messageCount);
+        List<EmailNotificationMessage> messages = new ArrayList<>(messageCount);
+        for (int i = 0; i < messageCount; i++) {
+            recipients.add(new DefaultEmailNotificationRecipient(TEST_MAIL_USER));
+            messages.add(new EmailNotificationMessage(from, null, null, null, null, new EmailSubject("test subject " + i), new EmailBody("test body\r\n.\r\nwith a dot line"), null, Collections.emptyList()));
+        }
+        try (SmtpNioChannel channel = new SmtpNioChannel(config)) {
+            Object[] results = channel.sendNotificationMessages(recipients, messages);
+            for (Object result : results) {
+                assertFalse(String.valueOf(result), result instanceof Throwable);
+            }
+            assertTrue(channel.getConnectionCount() <= 2);
+        }
+
+        Message[] receivedEmails = mailClient.awaitIncomingEmails(5000, messageCount);
+        assertEquals(messageCount, receivedEmails.length);
+        Set<String> subjects = new HashSet<>();
+        for (Message receivedEmail : receivedEmails) {
+            assertEquals(from, receivedEmail.getFrom()[0].toString());
+            // The line with a single dot would have terminated the message if it was not escaped
+            assertTrue(((String) receivedEmail.getContent()).contains("with a dot line"));
+            subjects.add(receivedEmail.getSubject());
+        }
+        assertEquals(messageCount, subjects.size());
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2018 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.smtp.nio;
+
+import com.blazebit.notify.channel.smtp.DefaultEmailNotificationRecipient;
+import com.blazebit.notify.email.message.EmailBody;
+import com.blazebit.notify.email.message.EmailNotificationMessage;
+import com.blazebit.notify.email.message.EmailSubject;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the TLS and authentication paths of the SMTP session against a scripted server with a self-signed certificate.
+ */
+public class SmtpNioTlsTest {
+
+    private static final String KEYSTORE = "smtp-nio-test.jks";
+    private static final String KEYSTORE_PASSWORD = "changeit";
+    private static final String USER = "blaze-notify-test";
+    private static final String PASSWORD = "secret";
+    // A session cache size that no other test uses, so that a shared SSL context with the test trust store is created
+    private static final int TLS_SESSION_CACHE_SIZE = 17;
+
+    private static SSLContext serverSslContext;
+    private static String previousTrustStore;
+    private static String previousTrustStorePassword;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream is = SmtpNioTlsTest.class.getClassLoader().getResourceAsStream(KEYSTORE)) {
+            keyStore.load(is, KEYSTORE_PASSWORD.toCharArray());
+        }
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, KEYSTORE_PASSWORD.toCharArray());
+        serverSslContext = SSLContext.getInstance("TLS");
+        serverSslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+        // The client uses the default trust managers, which trust the self-signed certificate of the key store
+        previousTrustStore = System.setProperty("javax.net.ssl.trustStore", Paths.get(SmtpNioTlsTest.class.getClassLoader().getResource(KEYSTORE).toURI()).toString());
+        previousTrustStorePassword = System.setProperty("javax.net.ssl.trustStorePassword", KEYSTORE_PASSWORD);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        restoreProperty("javax.net.ssl.trustStore", previousTrustStore);
+        restoreProperty("javax.net.ssl.trustStorePassword", previousTrustStorePassword);
+    }
+
+    @Test
+    public void sendOverStartTlsWithAuthPlain() throws Exception {
+        try (ScriptedSmtpServer server = new ScriptedSmtpServer(false, "PLAIN")) {
+            SmtpNioChannel.Config config = createConfig(server)
+                    .withEnableStartTls(true)
+                    .withAuth(USER, PASSWORD)
+                    .build();
+            try (SmtpNioChannel channel = new SmtpNioChannel(config)) {
+                send(channel, "test subject");
+                assertEquals(1L, channel.getHandshakeStatistics().getHandshakeCount());
+            }
+
+            assertTrue(server.commands.contains("STARTTLS"));
+            assertTrue(server.commands.contains("AUTH PLAIN " + base64("\0" + USER + "\0" + PASSWORD)));
+            assertEquals(1, server.messages.size());
+            assertTrue(server.messages.get(0).contains("Subject: test subject"));
+        }
+    }
+
+    @Test
+    public void sendOverImplicitTlsWithAuthLogin() throws Exception {
+        try (ScriptedSmtpServer server = new ScriptedSmtpServer(true, "LOGIN")) {
+            SmtpNioChannel.Config config = createConfig(server)
+                    .withEnableSsl(true)
+                    .withAuth(USER, PASSWORD)
+                    .build();
+            try (SmtpNioChannel channel = new SmtpNioChannel(config)) {
+                send(channel, "test subject");
+                assertEquals(1L, channel.getHandshakeStatistics().getHandshakeCount());
+            }
+
+            assertFalse(server.commands.contains("STARTTLS"));
+            assertTrue(server.commands.contains("AUTH LOGIN"));
+            assertEquals(1, server.messages.size());
+            assertTrue(server.messages.get(0).contains("Subject: test subject"));
+        }
+    }
+
+    @Test
+    public void failSendWithWrongCredentials() throws Exception {
+        try (ScriptedSmtpServer server = new ScriptedSmtpServer(false, "PLAIN")) {
+            SmtpNioChannel.Config config = createConfig(server)
+                    .withEnableStartTls(true)
+                    .withAuth(USER, "wrong")
+                    .build();
+            try (SmtpNioChannel channel = new SmtpNioChannel(config)) {
+                send(channel, "test subject");
+                fail("Expected the authentication to fail");
+            } catch (RuntimeException e) {
+                // Expected
+            }
+
+            assertTrue(server.commands.contains("STARTTLS"));
+            assertTrue(server.messages.isEmpty());
+        }
+    }
+
+    @Test
+    public void shareSslContextBetweenChannelsWithSameTlsSettings() {
+        // The channels connect lazily, so no server is needed to inspect the TLS context
+        SmtpNioChannel.Config.Builder builder = SmtpNioChannel.Config.builder()
+                .withHost("localhost")
+                .withPort(25)
+                .withIoThreads(1)
+                .withMaxConnections(1)
+                .withEnableStartTls(true)
+                .withTlsSessionCacheSize(TLS_SESSION_CACHE_SIZE);
+        try (SmtpNioChannel channel = new SmtpNioChannel(builder.build());
+             SmtpNioChannel otherHostChannel = new SmtpNioChannel(builder.withHost("127.0.0.1").build());
+             SmtpNioChannel implicitTlsChannel = new SmtpNioChannel(builder.withEnableStartTls(false).withEnableSsl(true).build());
+             SmtpNioChannel otherSessionCacheChannel = new SmtpNioChannel(builder.withTlsSessionCacheSize(TLS_SESSION_CACHE_SIZE + 1).build());
+             SmtpNioChannel plainChannel = new SmtpNioChannel(builder.withEnableSsl(false).build())) {
+            assertNotNull(channel.getHandshakeStatistics());
+            assertSame(channel.getHandshakeStatistics(), otherHostChannel.getHandshakeStatistics());
+            assertSame(channel.getHandshakeStatistics(), implicitTlsChannel.getHandshakeStatistics());
+            assertNotSame(channel.getHandshakeStatistics(), otherSessionCacheChannel.getHandshakeStatistics());
+            assertNull(plainChannel.getHandshakeStatistics());
+        }
+    }
+
+    private static SmtpNioChannel.Config.Builder createConfig(ScriptedSmtpServer server) {
+        return SmtpNioChannel.Config.builder()
+                .withHost("localhost")
+                .withPort(server.getPort())
+                .withIoThreads(1)
+                .withMaxConnections(1)
+                .withTimeout(5000L)
+                .withConnectionTimeout(5000L)
+                .withTlsSessionCacheSize(TLS_SESSION_CACHE_SIZE);
+    }
+
+    private static void send(SmtpNioChannel channel, String subject) {
+        Object result = channel.sendNotificationMessage(
+                new DefaultEmailNotificationRecipient("recipient@localhost"),
+                new EmailNotificationMessage("no-reply@localhost", null, null, null, null, new EmailSubject(subject), new EmailBody("test body"), null, Collections.emptyList())
+        );
+        assertNotNull(result);
+    }
+
+    private static String base64(String value) {
+        return Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void restoreProperty(String key, String value) {
+        if (value == null) {
+            System.clearProperty(key);
+        } else {
+            System.setProperty(key, value);
+        }
+    }
+
+    /**
+     * A single threaded SMTP server that only offers authentication over TLS and records the received commands and messages.
+     */
+    private static class ScriptedSmtpServer implements Closeable, Runnable {
+
+        private final boolean implicitTls;
+        private final String authMechanism;
+        private final ServerSocket serverSocket;
+        private final Thread thread;
+        private final List<String> commands = new CopyOnWriteArrayList<>();
+        private final List<String> messages = new CopyOnWriteArrayList<>();
+        private Socket socket;
+        private BufferedReader reader;
+        private OutputStream out;
+
+        public ScriptedSmtpServer(boolean implicitTls, String authMechanism) throws IOException {
+            this.implicitTls = implicitTls;
+            this.authMechanism = authMechanism;
+            this.serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+            this.thread = new Thread(this, "scripted-smtp-server");
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        public int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            while (!serverSocket.isClosed()) {
+                try (Socket accepted = serverSocket.accept()) {
+                    socket = accepted;
+                    if (implicitTls) {
+                        secure();
+                    } else {
+                        open(accepted);
+                    }
+                    reply("220 localhost ESMTP");
+                    handle();
+                } catch (IOException e) {
+                    // The client closed the connection or the server was closed
+                } finally {
+                    if (socket != null) {
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            // Ignore
+                        }
+                    }
+                }
+            }
+        }
+
+        private void handle() throws IOException {
+            boolean authenticated = false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                commands.add(line);
+                String command = line.toUpperCase();
+                if (command.startsWith("EHLO")) {
+                    if (socket instanceof SSLSocket) {
+                        reply("250-localhost\r\n250 AUTH " + authMechanism);
+                    } else {
+                        reply("250-localhost\r\n250 STARTTLS");
+                    }
+                } else if (command.equals("STARTTLS")) {
+                    reply("220 Ready to start TLS");
+                    secure();
+                } else if (command.startsWith("AUTH PLAIN ")) {
+                    authenticated = authenticated(new String(Base64.getDecoder().decode(line.substring("AUTH PLAIN ".length())), StandardCharsets.UTF_8), "\0" + USER + "\0" + PASSWORD);
+                } else if (command.equals("AUTH LOGIN")) {
+                    reply("334 VXNlcm5hbWU6");
+                    String user = new String(Base64.getDecoder().decode(reader.readLine()), StandardCharsets.UTF_8);
+                    reply("334 UGFzc3dvcmQ6");
+                    String password = new String(Base64.getDecoder().decode(reader.readLine()), StandardCharsets.UTF_8);
+                    authenticated = authenticated(user + "\0" + password, USER + "\0" + PASSWORD);
+                } else if (command.startsWith("MAIL FROM:") || command.startsWith("RCPT TO:")) {
+                    reply(authenticated ? "250 OK" : "530 Authentication required");
+                } else if (command.equals("DATA")) {
+                    reply("354 End data with <CR><LF>.<CR><LF>");
+                    StringBuilder sb = new StringBuilder();
+                    while (!".".equals(line = reader.readLine())) {
+                        sb.append(line).append("\r\n");
+                    }
+                    messages.add(sb.toString());
+                    reply("250 OK queued");
+                } else if (command.equals("RSET") || command.equals("NOOP")) {
+                    reply("250 OK");
+                } else if (command.equals("QUIT")) {
+                    reply("221 Bye");
+                    return;
+                } else {
+                    reply("502 Command not implemented");
+                }
+            }
+        }
+
+        private boolean authenticated(String credentials, String expectedCredentials) throws IOException {
+            if (credentials.equals(expectedCredentials)) {
+                reply("235 Authentication successful");
+                return true;
+            }
+            reply("535 Authentication failed");
+            return false;
+        }
+
+        private void secure() throws IOException {
+            SSLSocket sslSocket = (SSLSocket) serverSslContext.getSocketFactory().createSocket(socket, null, socket.getPort(), true);
+            sslSocket.setUseClientMode(false);
+            sslSocket.startHandshake();
+            open(sslSocket);
+        }
+
+        private void open(Socket socket) throws IOException {
+            this.socket = socket;
+            this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+            this.out = socket.getOutputStream();
+        }
+
+        private void reply(String reply) throws IOException {
+            out.write((reply + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+            try {
+                thread.join(5000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
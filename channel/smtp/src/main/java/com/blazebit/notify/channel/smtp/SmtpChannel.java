@@ -15,46 +15,45 @@
  */
 package com.blazebit.notify.channel.smtp;
 
-import com.blazebit.exception.ExceptionUtils;
 import com.blazebit.job.ConfigurationSource;
-import com.blazebit.job.JobRateLimitException;
 import com.blazebit.job.JobTemporaryException;
 import com.blazebit.notify.Channel;
 import com.blazebit.notify.ChannelKey;
 import com.blazebit.notify.NotificationException;
 import com.blazebit.notify.email.message.Attachment;
-import com.blazebit.notify.email.message.EmailBody;
 import com.blazebit.notify.email.message.EmailNotificationMessage;
 import com.blazebit.notify.email.message.EmailNotificationRecipient;
+import com.blazebit.notify.email.mime.TransportCapability;
+import com.blazebit.notify.security.HandshakeStatistics;
 import com.blazebit.notify.security.HostnameVerificationPolicy;
-import com.blazebit.notify.security.JSSETruststoreConfigurator;
+import com.blazebit.notify.security.SharedSSLContext;
 import com.blazebit.notify.security.TruststoreProvider;
-import com.blazebit.notify.security.TruststoreProviderFactory;
+import com.sun.mail.smtp.SMTPAddressFailedException;
 import com.sun.mail.smtp.SMTPMessage;
 import com.sun.mail.smtp.SMTPSendFailedException;
 import com.sun.mail.smtp.SMTPTransport;
 
-import javax.activation.DataHandler;
-import javax.activation.DataSource;
 import javax.mail.Address;
 import javax.mail.MessagingException;
-import javax.mail.Multipart;
-import javax.mail.NoSuchProviderException;
 import javax.mail.SendFailedException;
 import javax.mail.Session;
 import javax.mail.Transport;
-import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
-import javax.mail.internet.MimeBodyPart;
-import javax.mail.internet.MimeMultipart;
-import javax.mail.internet.MimeUtility;
-import javax.net.ssl.SSLSocketFactory;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
-import java.util.ServiceLoader;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -82,15 +81,64 @@ public class SmtpChannel implements Channel<EmailNotificationRecipient<?>, Email
     public static final String SMTP_ENABLE_STARTTLS_PROPERTY = "channel.smtp.enable_starttls";
     public static final String SMTP_NODE_NAME_PROPERTY = "channel.smtp.node_name";
     public static final String SMTP_FILTER_PROPERTY = "channel.smtp.filter";
+    public static final String SMTP_BATCH_SIZE_PROPERTY = "channel.smtp.batch_size";
+    public static final String SMTP_POOL_MIN_SIZE_PROPERTY = "channel.smtp.pool.min_size";
+    public static final String SMTP_POOL_MAX_SIZE_PROPERTY = "channel.smtp.pool.max_size";
+    public static final String SMTP_POOL_ACQUIRE_TIMEOUT_PROPERTY = "channel.smtp.pool.acquire_timeout";
+    public static final String SMTP_POOL_IDLE_TIMEOUT_PROPERTY = "channel.smtp.pool.idle_timeout";
+    public static final String SMTP_POOL_VALIDATION_INTERVAL_PROPERTY = "channel.smtp.pool.validation_interval";
+    public static final String SMTP_POOL_MAX_MESSAGES_PER_CONNECTION_PROPERTY = "channel.smtp.pool.max_messages_per_connection";
+    public static final String SMTP_MAX_RECIPIENTS_PER_ENVELOPE_PROPERTY = "channel.smtp.max_recipients_per_envelope";
+    public static final String SMTP_TLS_SESSION_CACHE_SIZE_PROPERTY = "channel.smtp.tls.session_cache_size";
+    public static final String SMTP_TLS_SESSION_TIMEOUT_PROPERTY = "channel.smtp.tls.session_timeout";
+    public static final String SMTP_DOMAIN_LIMITS_PROPERTY = "channel.smtp.domain.limits";
+    public static final String SMTP_DOMAIN_BACKOFF_PROPERTY = "channel.smtp.domain.backoff";
+    public static final String SMTP_DOMAIN_WAIT_TIMEOUT_PROPERTY = "channel.smtp.domain.wait_timeout";
+    public static final String SMTP_ENABLE_8BITMIME_PROPERTY = "channel.smtp.enable_8bitmime";
+    public static final String SMTP_ENABLE_SMTPUTF8_PROPERTY = "channel.smtp.enable_smtputf8";
+    public static final String SMTP_CHUNK_SIZE_PROPERTY = "channel.smtp.chunk_size";
+
+    static final Set<String> TRANSPORT_PROPERTY_NAMES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        SMTP_HOST_PROPERTY,
+        SMTP_PORT_PROPERTY,
+        SMTP_USER_PROPERTY,
+        SMTP_PASSWORD_PROPERTY,
+        SMTP_CONNECTION_TIMEOUT_PROPERTY,
+        SMTP_TIMEOUT_PROPERTY,
+        SMTP_ENABLE_SSL_PROPERTY,
+        SMTP_ENABLE_STARTTLS_PROPERTY,
+        SMTP_NODE_NAME_PROPERTY,
+        SMTP_FILTER_PROPERTY,
+        SMTP_BATCH_SIZE_PROPERTY,
+        SMTP_POOL_MIN_SIZE_PROPERTY,
+        SMTP_POOL_MAX_SIZE_PROPERTY,
+        SMTP_POOL_ACQUIRE_TIMEOUT_PROPERTY,
+        SMTP_POOL_IDLE_TIMEOUT_PROPERTY,
+        SMTP_POOL_VALIDATION_INTERVAL_PROPERTY,
+        SMTP_POOL_MAX_MESSAGES_PER_CONNECTION_PROPERTY,
+        SMTP_MAX_RECIPIENTS_PER_ENVELOPE_PROPERTY,
+        SMTP_TLS_SESSION_CACHE_SIZE_PROPERTY,
+        SMTP_TLS_SESSION_TIMEOUT_PROPERTY,
+        SMTP_DOMAIN_LIMITS_PROPERTY,
+        SMTP_DOMAIN_BACKOFF_PROPERTY,
+        SMTP_DOMAIN_WAIT_TIMEOUT_PROPERTY,
+        SMTP_ENABLE_8BITMIME_PROPERTY,
+        SMTP_ENABLE_SMTPUTF8_PROPERTY,
+        SMTP_CHUNK_SIZE_PROPERTY
+    )));
 
     private static final Logger LOG = Logger.getLogger(SmtpChannel.class.getName());
 
-    private static final String CHARSET_UTF8 = "UTF-8";
-    private static final String HTML_MIME_TYPE = "text/html; charset=" + CHARSET_UTF8;
+    private static final String UNDISCLOSED_RECIPIENTS = "undisclosed-recipients:;";
 
     private final Config config;
     private final Session session;
-    private final BlockingQueue<Transport> transports;
+    private final SmtpMessageFactory messageFactory;
+    private final SmtpTransportPool transportPool;
+    private final SharedSSLContext sslContext;
+    private final SmtpDomainThrottle domainThrottle;
+    // The capability is only known after acquiring a connection, so messages are encoded for the capability of the last acquired connection and re-encoded if it differs
+    private volatile TransportCapability capabilityHint = TransportCapability.SEVEN_BIT;
 
     /**
      * Creates a new SMTP channel from the given configuration source.
@@ -132,25 +180,42 @@ public class SmtpChannel implements Channel<EmailNotificationRecipient<?>, Email
         }
 
         if (config.enableSsl || config.enableStartTls) {
-            setupTruststore(props);
+            sslContext = SharedSSLContext.getInstance(config.tlsSessionCacheSize, config.tlsSessionTimeout);
+            setupTruststore(props, sslContext);
+        } else {
+            sslContext = null;
         }
 
         props.setProperty("mail.smtp.timeout", Long.toString(config.timeout));
         props.setProperty("mail.smtp.connectiontimeout", Long.toString(config.connectionTimeout));
 
+        if (config.maxRecipientsPerEnvelope > 1) {
+            // Deliver a shared envelope to the accepted recipients instead of aborting the transaction when a recipient is rejected
+            props.setProperty("mail.smtp.sendpartial", "true");
+        }
+
+        if (config.chunkSize > 0) {
+            // Use BDAT if the server supports CHUNKING, which avoids dot-stuffing the message
+            props.setProperty("mail.smtp.chunksize", Integer.toString(config.chunkSize));
+        }
+
         if (config.nodeName != null) {
             props.setProperty("mail.from", config.nodeName);
         }
 
         session = Session.getInstance(props);
-        transports = new ArrayBlockingQueue<>(config.connectionPoolSize);
-        for (int i = 0; i < config.connectionPoolSize; i++) {
-            try {
-                transports.add(session.getTransport("smtp"));
-            } catch (NoSuchProviderException e) {
-                throw new RuntimeException(e);
-            }
-        }
+        messageFactory = new SmtpMessageFactory(session, config.filter);
+        transportPool = new SmtpTransportPool(
+            session,
+            this::connect,
+            Math.min(config.connectionPoolMinSize, config.connectionPoolSize),
+            config.connectionPoolSize,
+            config.connectionAcquireTimeout,
+            config.connectionIdleTimeout,
+            config.connectionValidationInterval,
+            config.maxMessagesPerConnection
+        );
+        domainThrottle = new SmtpDomainThrottle(config.domainLimits, config.domainBackoff);
         LOG.log(Level.FINEST, "SMTP transport opened");
     }
 
@@ -163,7 +228,23 @@ public class SmtpChannel implements Channel<EmailNotificationRecipient<?>, Email
             .withEnableSsl(configurationSource.getPropertyOrDefault(SMTP_ENABLE_SSL_PROPERTY, Boolean.class, Boolean::valueOf, o -> false))
             .withEnableStartTls(configurationSource.getPropertyOrDefault(SMTP_ENABLE_STARTTLS_PROPERTY, Boolean.class, Boolean::valueOf, o -> false))
             .withNodeName(configurationSource.getPropertyOrDefault(SMTP_NODE_NAME_PROPERTY, String.class, Function.identity(), o -> null))
-            .withFilter(configurationSource.getPropertyOrDefault(SMTP_FILTER_PROPERTY, SmtpChannelFilter.class, null, o -> null));
+            .withFilter(configurationSource.getPropertyOrDefault(SMTP_FILTER_PROPERTY, SmtpChannelFilter.class, null, o -> null))
+            .withBatchSize(configurationSource.getPropertyOrDefault(SMTP_BATCH_SIZE_PROPERTY, Integer.class, Integer::valueOf, o -> 50))
+            .withConnectionPoolMinSize(configurationSource.getPropertyOrDefault(SMTP_POOL_MIN_SIZE_PROPERTY, Integer.class, Integer::valueOf, o -> 1))
+            .withConnectionPoolSize(configurationSource.getPropertyOrDefault(SMTP_POOL_MAX_SIZE_PROPERTY, Integer.class, Integer::valueOf, o -> 4))
+            .withConnectionAcquireTimeout(configurationSource.getPropertyOrDefault(SMTP_POOL_ACQUIRE_TIMEOUT_PROPERTY, Long.class, Long::valueOf, o -> 30000L))
+            .withConnectionIdleTimeout(configurationSource.getPropertyOrDefault(SMTP_POOL_IDLE_TIMEOUT_PROPERTY, Long.class, Long::valueOf, o -> 60000L))
+            .withConnectionValidationInterval(configurationSource.getPropertyOrDefault(SMTP_POOL_VALIDATION_INTERVAL_PROPERTY, Long.class, Long::valueOf, o -> 30000L))
+            .withMaxMessagesPerConnection(configurationSource.getPropertyOrDefault(SMTP_POOL_MAX_MESSAGES_PER_CONNECTION_PROPERTY, Integer.class, Integer::valueOf, o -> 100))
+            .withMaxRecipientsPerEnvelope(configurationSource.getPropertyOrDefault(SMTP_MAX_RECIPIENTS_PER_ENVELOPE_PROPERTY, Integer.class, Integer::valueOf, o -> 1))
+            .withTlsSessionCacheSize(configurationSource.getPropertyOrDefault(SMTP_TLS_SESSION_CACHE_SIZE_PROPERTY, Integer.class, Integer::valueOf, o -> 1024))
+            .withTlsSessionTimeout(configurationSource.getPropertyOrDefault(SMTP_TLS_SESSION_TIMEOUT_PROPERTY, Long.class, Long::valueOf, o -> 3600000L))
+            .withDomainLimits(configurationSource.getPropertyOrDefault(SMTP_DOMAIN_LIMITS_PROPERTY, String.class, Function.identity(), o -> null))
+            .withDomainBackoff(configurationSource.getPropertyOrDefault(SMTP_DOMAIN_BACKOFF_PROPERTY, Long.class, Long::valueOf, o -> 60000L))
+            .withDomainWaitTimeout(configurationSource.getPropertyOrDefault(SMTP_DOMAIN_WAIT_TIMEOUT_PROPERTY, Long.class, Long::valueOf, o -> 1000L))
+            .withEnable8BitMime(configurationSource.getPropertyOrDefault(SMTP_ENABLE_8BITMIME_PROPERTY, Boolean.class, Boolean::valueOf, o -> true))
+            .withEnableSmtpUtf8(configurationSource.getPropertyOrDefault(SMTP_ENABLE_SMTPUTF8_PROPERTY, Boolean.class, Boolean::valueOf, o -> true))
+            .withChunkSize(configurationSource.getPropertyOrDefault(SMTP_CHUNK_SIZE_PROPERTY, Integer.class, Integer::valueOf, o -> 65536));
 
         String user = configurationSource.getPropertyOrDefault(SMTP_USER_PROPERTY, String.class, Function.identity(), o -> null);
         String password = configurationSource.getPropertyOrDefault(SMTP_PASSWORD_PROPERTY, String.class, Function.identity(), o -> null);
@@ -179,20 +260,26 @@ public class SmtpChannel implements Channel<EmailNotificationRecipient<?>, Email
 
     @Override
     public void close() {
-        Throwable firstThrowable = null;
-        for (Transport transport : transports) {
-            try {
-                transport.close();
-            } catch (MessagingException e) {
-                LOG.log(Level.WARNING, "Failed to close transport", e);
-            } catch (Throwable t) {
-                firstThrowable = firstThrowable == null ? t : firstThrowable;
-            }
-        }
+        transportPool.close();
         LOG.log(Level.FINEST, "SMTP transport closed");
-        if (firstThrowable != null) {
-            ExceptionUtils.doThrow(firstThrowable);
-        }
+    }
+
+    /**
+     * Returns the pool of SMTP connections of this channel.
+     *
+     * @return the pool of SMTP connections
+     */
+    public SmtpTransportPool getTransportPool() {
+        return transportPool;
+    }
+
+    /**
+     * Returns the statistics of the TLS handshakes of the process wide TLS context that is used by this channel.
+     *
+     * @return the handshake statistics or <code>null</code> if TLS is disabled
+     */
+    public HandshakeStatistics getHandshakeStatistics() {
+        return sslContext;
     }
 
     @Override
@@ -202,115 +289,389 @@ public class SmtpChannel implements Channel<EmailNotificationRecipient<?>, Email
 
     @Override
     public Object sendNotificationMessage(EmailNotificationRecipient<?> recipient, EmailNotificationMessage message) {
-        Transport transport;
+        SMTPMessage msg;
+        SmtpDomainThrottle.Domain domain;
+        TransportCapability capability = capabilityHint;
         try {
-            transport = transports.take();
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+            msg = messageFactory.createMessage(recipient, message, capability);
+            if (msg == null) {
+                return null;
+            }
+            domain = domainThrottle.getDomain(recipient.getEmail());
+            if (domain.isBackingOff()) {
+                throw domain.createBackOffException();
+            }
+            acquire(domain);
+        } catch (Throwable e) {
+            throw translateException(e);
+        }
+        SmtpTransportPool.PooledTransport transport;
+        try {
+            transport = transportPool.acquire();
+        } catch (Throwable e) {
+            domain.release();
+            throw translateException(e);
         }
+        boolean broken = false;
         try {
-            if (!transport.isConnected()) {
+            if (transport.getCapability() != capability) {
+                capabilityHint = transport.getCapability();
+                msg = messageFactory.createMessage(recipient, message, transport.getCapability());
+                if (msg == null) {
+                    return null;
+                }
+            }
+            return send(transport, recipient, msg);
+        } catch (Throwable e) {
+            broken = isConnectionError(e);
+            throw translateException(e, domain);
+        } finally {
+            transportPool.release(transport, broken);
+            domain.release();
+        }
+    }
+
+    @Override
+    public boolean isBatchingSupported() {
+        return true;
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return config.batchSize;
+    }
+
+    @Override
+    public Object[] sendNotificationMessages(List<? extends EmailNotificationRecipient<?>> recipients, List<? extends EmailNotificationMessage> messages) {
+        int size = recipients.size();
+        if (size != messages.size()) {
+            throw new IllegalArgumentException("The amount of recipients and messages must match!");
+        }
+        Object[] results = new Object[size];
+        List<int[]> envelopes = createEnvelopes(recipients, messages);
+        int envelopeCount = envelopes.size();
+        SMTPMessage[] smtpMessages = new SMTPMessage[envelopeCount];
+        TransportCapability[] capabilities = new TransportCapability[envelopeCount];
+        TransportCapability capability = capabilityHint;
+        for (int i = 0; i < envelopeCount; i++) {
+            int[] indices = envelopes.get(i);
+            try {
+                smtpMessages[i] = createMessage(recipients, messages, indices, capability);
+                capabilities[i] = capability;
+            } catch (Throwable e) {
+                fill(results, indices, translateException(e));
+            }
+        }
+        // Envelopes are sent in order, but envelopes for domains that are at their limit are deferred in favor of other domains
+        ArrayDeque<Integer> pending = new ArrayDeque<>(envelopeCount);
+        for (int i = 0; i < envelopeCount; i++) {
+            // Skip messages that were filtered or failed to create
+            if (smtpMessages[i] != null) {
+                pending.add(i);
+            }
+        }
+        SmtpTransportPool.PooledTransport transport = null;
+        boolean broken = false;
+        int current = -1;
+        int stalled = 0;
+        try {
+            while (!pending.isEmpty()) {
+                int i = pending.poll();
+                int[] indices = envelopes.get(i);
+                // The domain is looked up for every attempt, so that the throttle sees it as recently used
+                SmtpDomainThrottle.Domain domain = domainThrottle.getDomain(recipients.get(indices[0]).getEmail());
+                if (domain.isBackingOff()) {
+                    fill(results, indices, domain.createBackOffException());
+                    stalled = 0;
+                    continue;
+                }
+                if (!domain.tryAcquire()) {
+                    if (stalled <= pending.size()) {
+                        stalled++;
+                        pending.add(i);
+                        continue;
+                    }
+                    // Every pending envelope is blocked by the limits of its domain, so wait for the current one
+                    current = i;
+                    try {
+                        acquire(domain);
+                    } catch (JobTemporaryException e) {
+                        fill(results, indices, e);
+                        current = -1;
+                        stalled = 0;
+                        continue;
+                    }
+                }
+                stalled = 0;
+                current = i;
                 try {
-                    if (config.auth) {
-                        transport.connect(config.user, config.password);
+                    if (transport != null && transportPool.isExhausted(transport)) {
+                        transportPool.release(transport, false);
+                        transport = null;
+                    }
+                    if (transport == null) {
+                        transport = transportPool.acquire();
+                    }
+                    if (transport.getCapability() != capabilities[i]) {
+                        capabilityHint = transport.getCapability();
+                        try {
+                            smtpMessages[i] = createMessage(recipients, messages, indices, transport.getCapability());
+                            capabilities[i] = transport.getCapability();
+                        } catch (Throwable e) {
+                            fill(results, indices, translateException(e));
+                            current = -1;
+                            continue;
+                        }
+                        if (smtpMessages[i] == null) {
+                            current = -1;
+                            continue;
+                        }
+                    }
+                    if (indices.length == 1) {
+                        results[indices[0]] = send(transport, recipients.get(indices[0]), smtpMessages[i]);
                     } else {
-                        transport.connect();
+                        sendEnvelope(transport, recipients, indices, smtpMessages[i], domain, results);
                     }
-                } catch (IllegalStateException e) {
-                    // Only rethrow when we are still not connected
-                    if (!transport.isConnected()) {
-                        throw e;
+                } catch (SendFailedException e) {
+                    // Only the current envelope is affected, throttling backs off the domain so that the remaining envelopes of the domain are skipped
+                    fill(results, indices, translateException(e, domain));
+                    if (isConnectionError(e)) {
+                        // The server closed the connection, so continue with a new connection for the other domains
+                        transportPool.release(transport, true);
+                        transport = null;
                     }
+                } finally {
+                    domain.release();
                 }
+                current = -1;
+            }
+        } catch (Throwable e) {
+            // Connection level failures affect all remaining messages
+            broken = isConnectionError(e);
+            RuntimeException exception = translateException(e);
+            if (current != -1) {
+                fill(results, envelopes.get(current), exception);
+            }
+            for (Integer i : pending) {
+                fill(results, envelopes.get(i), exception);
+            }
+        } finally {
+            if (transport != null) {
+                transportPool.release(transport, broken);
             }
+        }
+        return results;
+    }
 
-            SMTPMessage msg = new SMTPMessage(session);
+    private SMTPMessage createMessage(List<? extends EmailNotificationRecipient<?>> recipients, List<? extends EmailNotificationMessage> messages, int[] indices, TransportCapability capability) throws MessagingException, UnsupportedEncodingException {
+        SMTPMessage msg = messageFactory.createMessage(recipients.get(indices[0]), messages.get(indices[0]), capability);
+        if (msg != null && indices.length > 1) {
+            // Recipients of a shared envelope must not see each other
+            msg.setHeader("To", UNDISCLOSED_RECIPIENTS);
+            // Deliver to the accepted recipients even if some are rejected
+            msg.setSendPartial(true);
+        }
+        return msg;
+    }
 
-            EmailBody textBody = message.getTextBody();
-            EmailBody htmlBody = message.getHtmlBody();
-            boolean hasAttachments = !message.getAttachments().isEmpty();
-            if (textBody != null && htmlBody != null || hasAttachments) {
-                Multipart multipart = new MimeMultipart("alternative");
-                if (textBody != null) {
-                    MimeBodyPart textPart = new MimeBodyPart();
-                    textPart.setText(textBody.getBody(), CHARSET_UTF8);
-                    multipart.addBodyPart(textPart);
+    /**
+     * Groups the indices of messages with identical content to the same recipient domain into envelopes, so that such messages are sent in a single SMTP transaction with multiple recipients.
+     * Every message gets its own envelope if merging is disabled or a filter is configured, because a filter may alter the message per recipient.
+     */
+    private List<int[]> createEnvelopes(List<? extends EmailNotificationRecipient<?>> recipients, List<? extends EmailNotificationMessage> messages) {
+        int size = messages.size();
+        List<int[]> envelopes = new ArrayList<>(size);
+        if (config.maxRecipientsPerEnvelope <= 1 || config.filter != null) {
+            for (int i = 0; i < size; i++) {
+                envelopes.add(new int[]{ i });
+            }
+            return envelopes;
+        }
+        // Envelopes must not span domains, because the limits and throttling apply per recipient domain
+        Map<String, Map<MessageContentKey, List<Integer>>> domainGroups = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            domainGroups.computeIfAbsent(SmtpDomainThrottle.getDomainName(recipients.get(i).getEmail()), k -> new LinkedHashMap<>())
+                .computeIfAbsent(new MessageContentKey(messages.get(i)), k -> new ArrayList<>())
+                .add(i);
+        }
+        List<List<Integer>> groups = new ArrayList<>();
+        for (Map<MessageContentKey, List<Integer>> contentGroups : domainGroups.values()) {
+            groups.addAll(contentGroups.values());
+        }
+        for (List<Integer> group : groups) {
+            for (int start = 0; start < group.size(); start += config.maxRecipientsPerEnvelope) {
+                int end = Math.min(group.size(), start + config.maxRecipientsPerEnvelope);
+                int[] indices = new int[end - start];
+                for (int j = start; j < end; j++) {
+                    indices[j - start] = group.get(j);
                 }
+                envelopes.add(indices);
+            }
+        }
+        return envelopes;
+    }
 
-                if (htmlBody != null) {
-                    MimeBodyPart htmlPart = new MimeBodyPart();
-                    htmlPart.setContent(htmlBody.getBody(), HTML_MIME_TYPE);
-                    multipart.addBodyPart(htmlPart);
-                }
+    private static void fill(Object[] results, int[] indices, Object value) {
+        for (int index : indices) {
+            results[index] = value;
+        }
+    }
 
-                for (Attachment attachment : message.getAttachments()) {
-                    multipart.addBodyPart(createAttachmentBodyPart(attachment.getName(), attachment.getDataSource()));
-                }
+    private void acquire(SmtpDomainThrottle.Domain domain) {
+        try {
+            if (!domain.acquire(config.domainWaitTimeout)) {
+                throw new JobTemporaryException("Timed out waiting to send to recipient domain " + domain.getName());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NotificationException("Interrupted while waiting to send to recipient domain " + domain.getName(), e);
+        }
+    }
 
-                msg.setContent(multipart);
-            } else if (textBody != null) {
-                msg.setText(textBody.getBody(), CHARSET_UTF8);
-            } else if (htmlBody != null) {
-                msg.setContent(htmlBody.getBody(), HTML_MIME_TYPE);
+    private TransportCapability connect(Transport transport) throws MessagingException {
+        if (!transport.isConnected()) {
+            try {
+                if (config.auth) {
+                    transport.connect(config.user, config.password);
+                } else {
+                    transport.connect();
+                }
+            } catch (IllegalStateException e) {
+                // Only rethrow when we are still not connected
+                if (!transport.isConnected()) {
+                    throw e;
+                }
             }
+        }
+        if (transport instanceof SMTPTransport) {
+            return getTransportCapability((SMTPTransport) transport);
+        }
+        return TransportCapability.SEVEN_BIT;
+    }
 
-            String from = message.getFrom();
-            String fromDisplayName = message.getFromDisplayName();
-            msg.setFrom(toInternetAddress(from, fromDisplayName));
+    private TransportCapability getTransportCapability(SMTPTransport transport) {
+        if (!config.enable8BitMime || !transport.supportsExtension("8BITMIME")) {
+            return TransportCapability.SEVEN_BIT;
+        }
+        if (config.enableSmtpUtf8 && transport.supportsExtension("SMTPUTF8")) {
+            return TransportCapability.UTF8;
+        }
+        return TransportCapability.EIGHT_BIT;
+    }
+
+    private String send(SmtpTransportPool.PooledTransport pooledTransport, EmailNotificationRecipient<?> recipient, SMTPMessage msg) throws MessagingException {
+        Transport transport = pooledTransport.getTransport();
+        pooledTransport.messageSent();
+        transport.sendMessage(msg, new InternetAddress[]{new InternetAddress(recipient.getEmail())});
+        String messageId = getMessageId(transport, msg);
+        if (LOG.isLoggable(Level.FINEST)) {
+            LOG.log(Level.FINEST, "SMTP notification sent to " + recipient + " with message id: " + messageId);
+        }
+        return messageId;
+    }
 
-            String replyTo = message.getReplyTo();
-            if (replyTo != null && !replyTo.isEmpty()) {
-                msg.setReplyTo(new Address[]{toInternetAddress(replyTo, message.getReplyToDisplayName())});
+    private void sendEnvelope(SmtpTransportPool.PooledTransport pooledTransport, List<? extends EmailNotificationRecipient<?>> recipients, int[] indices, SMTPMessage msg, SmtpDomainThrottle.Domain domain, Object[] results) throws MessagingException {
+        InternetAddress[] addresses = new InternetAddress[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            addresses[i] = new InternetAddress(recipients.get(indices[i]).getEmail());
+        }
+        Transport transport = pooledTransport.getTransport();
+        pooledTransport.messageSent();
+        try {
+            transport.sendMessage(msg, addresses);
+        } catch (SendFailedException e) {
+            Address[] validSentAddresses = e.getValidSentAddresses();
+            if (validSentAddresses == null || validSentAddresses.length == 0 || isConnectionError(e)) {
+                // Nothing was sent, so the failure applies to the whole envelope
+                throw e;
+            }
+            String messageId = getMessageId(transport, msg);
+            Set<Address> sentAddresses = new HashSet<>(Arrays.asList(validSentAddresses));
+            Map<Address, RuntimeException> addressFailures = getAddressFailures(e, domain);
+            for (int i = 0; i < indices.length; i++) {
+                if (sentAddresses.contains(addresses[i])) {
+                    results[indices[i]] = messageId;
+                } else {
+                    RuntimeException failure = addressFailures.get(addresses[i]);
+                    results[indices[i]] = failure == null ? new NotificationException("Recipient was not accepted", e) : failure;
+                }
             }
-            String envelopeFrom = message.getEnvelopeFrom();
-            if (envelopeFrom != null && !envelopeFrom.isEmpty()) {
-                msg.setEnvelopeFrom(envelopeFrom);
+            if (LOG.isLoggable(Level.FINEST)) {
+                LOG.log(Level.FINEST, "SMTP notification sent to " + validSentAddresses.length + " of " + indices.length + " recipients with message id: " + messageId);
             }
+            return;
+        }
+        String messageId = getMessageId(transport, msg);
+        fill(results, indices, messageId);
+        if (LOG.isLoggable(Level.FINEST)) {
+            LOG.log(Level.FINEST, "SMTP notification sent to " + indices.length + " recipients with message id: " + messageId);
+        }
+    }
 
-            msg.setHeader("To", recipient.getEmail());
-            msg.setSubject(message.getSubject().getSubject(), CHARSET_UTF8);
-
-            if (config.getFilter() == null || config.getFilter().filterSmtpMessage(recipient, message, msg)) {
-                transport.sendMessage(msg, new InternetAddress[]{new InternetAddress(recipient.getEmail())});
-                String messageId;
-                if (config.extractMessageId) {
-                    String response = getResponse(transport);
-                    messageId = response.substring(response.lastIndexOf(' ') + 1).trim();
+    private Map<Address, RuntimeException> getAddressFailures(SendFailedException e, SmtpDomainThrottle.Domain domain) {
+        Map<Address, RuntimeException> addressFailures = new HashMap<>();
+        Exception next = e.getNextException();
+        while (next instanceof MessagingException) {
+            if (next instanceof SMTPAddressFailedException) {
+                SMTPAddressFailedException addressFailedException = (SMTPAddressFailedException) next;
+                // 4xx replies are transient, so the recipient might be accepted later
+                if (addressFailedException.getReturnCode() / 100 == 4) {
+                    if (SmtpReplyCodes.isThrottling(addressFailedException.getReturnCode())) {
+                        domain.backOff();
+                    }
+                    addressFailures.put(addressFailedException.getAddress(), new JobTemporaryException(addressFailedException));
                 } else {
-                    messageId = msg.getMessageID();
-                }
-                if (LOG.isLoggable(Level.FINEST)) {
-                    LOG.log(Level.FINEST, "SMTP notification sent to " + recipient + " with message id: " + messageId);
+                    addressFailures.put(addressFailedException.getAddress(), new NotificationException(addressFailedException));
                 }
-                return messageId;
-            } else if (LOG.isLoggable(Level.FINEST)) {
-                LOG.log(Level.FINEST, "SMTP notification to " + recipient + " skipped by filter");
             }
-            return null;
-        } catch (SendFailedException e) {
-            Integer responseCode = getResponseCode(e);
+            next = ((MessagingException) next).getNextException();
+        }
+        return addressFailures;
+    }
+
+    private String getMessageId(Transport transport, SMTPMessage msg) throws MessagingException {
+        if (config.extractMessageId) {
+            String response = getResponse(transport);
+            return response.substring(response.lastIndexOf(' ') + 1).trim();
+        } else {
+            return msg.getMessageID();
+        }
+    }
+
+    private boolean isConnectionError(Throwable e) {
+        if (e instanceof SendFailedException) {
+            // 421 means the server is closing the connection, other failures only affect the current transaction
+            Integer responseCode = getResponseCode((SendFailedException) e);
+            return responseCode != null && SmtpReplyCodes.isConnectionClosing(responseCode);
+        }
+        // Any other failure during the transaction leaves the connection in an unknown state
+        return true;
+    }
+
+    private RuntimeException translateException(Throwable e, SmtpDomainThrottle.Domain domain) {
+        if (e instanceof SendFailedException) {
+            Integer responseCode = getResponseCode((SendFailedException) e);
+            if (responseCode != null && SmtpReplyCodes.isThrottling(responseCode)) {
+                // Mailbox providers throttle per recipient domain, so only back off the affected domain rather than the whole channel
+                domain.backOff();
+                LOG.log(Level.FINE, "Recipient domain " + domain.getName() + " throttled", e);
+                return new JobTemporaryException(e);
+            }
+        }
+        return translateException(e);
+    }
+
+    private RuntimeException translateException(Throwable e) {
+        if (e instanceof SendFailedException) {
+            Integer responseCode = getResponseCode((SendFailedException) e);
             if (responseCode != null) {
-                switch (responseCode) {
-                    case 421: // Too many concurrent SMTP connections
-                    case 451: // Temporary service failure
-                        LOG.log(Level.FINE, "Temporary service failure", e);
-                        throw new JobTemporaryException(e);
-                    case 454: // Throttling failure
-                        LOG.log(Level.FINE, "Rate limit exceeded", e);
-                        // TODO: parse if daily or second rate limit and adapt wait time
-                        throw new JobRateLimitException(e);
-                    default:
-                        break;
-                }
+                return SmtpReplyCodes.translate(responseCode, e);
             }
-            LOG.log(Level.SEVERE, "Failed to send email", e);
-            throw new NotificationException(e);
-        } catch (Throwable e) {
-            LOG.log(Level.SEVERE, "Failed to send email", e);
-            throw new NotificationException(e);
-        } finally {
-            transports.add(transport);
+        } else if (e instanceof JobTemporaryException || e instanceof NotificationException) {
+            return (RuntimeException) e;
         }
+        LOG.log(Level.SEVERE, "Failed to send email", e);
+        return new NotificationException(e);
     }
 
     private Integer getResponseCode(SendFailedException e) {
@@ -327,44 +688,83 @@ public class SmtpChannel implements Channel<EmailNotificationRecipient<?>, Email
         return null;
     }
 
-    private MimeBodyPart createAttachmentBodyPart(String attachmentFilename, DataSource dataSource) throws MessagingException {
-        try {
-            MimeBodyPart mimeBodyPart = new MimeBodyPart();
-            mimeBodyPart.setDisposition(MimeBodyPart.ATTACHMENT);
-            mimeBodyPart.setFileName(MimeUtility.encodeText(attachmentFilename));
-            mimeBodyPart.setDataHandler(new DataHandler(dataSource));
-            return mimeBodyPart;
-        } catch (UnsupportedEncodingException ex) {
-            throw new MessagingException("Failed to encode attachment filename", ex);
+    private static void setupTruststore(Properties props, SharedSSLContext sslContext) {
+        // The shared socket factory is also used for STARTTLS, so that sessions are resumed and handshakes are recorded in both cases
+        props.put("mail.smtp.ssl.socketFactory", sslContext.getSocketFactory());
+        TruststoreProvider truststoreProvider = sslContext.getTruststoreProvider();
+        if (truststoreProvider != null && truststoreProvider.getPolicy() == HostnameVerificationPolicy.ANY) {
+            props.setProperty("mail.smtp.ssl.trust", "*");
         }
     }
 
-    private InternetAddress toInternetAddress(String email, String displayName) throws UnsupportedEncodingException, AddressException {
-        if (email == null || "".equals(email.trim())) {
-            throw new IllegalArgumentException("Please provide a valid address", null);
-        }
-        if (displayName == null || "".equals(displayName.trim())) {
-            return new InternetAddress(email);
+    /**
+     * A key for the content of an email notification message that considers messages equal if they result in the same MIME message.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    private static final class MessageContentKey {
+
+        private final EmailNotificationMessage message;
+        private final int hashCode;
+
+        private MessageContentKey(EmailNotificationMessage message) {
+            this.message = message;
+            this.hashCode = Objects.hash(
+                message.getFrom(),
+                message.getFromDisplayName(),
+                message.getReplyTo(),
+                message.getReplyToDisplayName(),
+                message.getEnvelopeFrom(),
+                message.getSubject() == null ? null : message.getSubject().getSubject(),
+                message.getTextBody() == null ? null : message.getTextBody().getBody(),
+                message.getHtmlBody() == null ? null : message.getHtmlBody().getBody(),
+                message.getAttachments().size()
+            );
         }
-        return new InternetAddress(email, displayName, "utf-8");
-    }
 
-    private void setupTruststore(Properties props) {
-        TruststoreProvider truststoreProvider = loadTruststoreProvider();
-        JSSETruststoreConfigurator configurator = new JSSETruststoreConfigurator(truststoreProvider);
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MessageContentKey)) {
+                return false;
+            }
+            EmailNotificationMessage other = ((MessageContentKey) o).message;
+            return hashCode == ((MessageContentKey) o).hashCode
+                && Objects.equals(message.getFrom(), other.getFrom())
+                && Objects.equals(message.getFromDisplayName(), other.getFromDisplayName())
+                && Objects.equals(message.getReplyTo(), other.getReplyTo())
+                && Objects.equals(message.getReplyToDisplayName(), other.getReplyToDisplayName())
+                && Objects.equals(message.getEnvelopeFrom(), other.getEnvelopeFrom())
+                && Objects.equals(message.getSubject() == null ? null : message.getSubject().getSubject(), other.getSubject() == null ? null : other.getSubject().getSubject())
+                && Objects.equals(message.getTextBody() == null ? null : message.getTextBody().getBody(), other.getTextBody() == null ? null : other.getTextBody().getBody())
+                && Objects.equals(message.getHtmlBody() == null ? null : message.getHtmlBody().getBody(), other.getHtmlBody() == null ? null : other.getHtmlBody().getBody())
+                && sameAttachments(message.getAttachments(), other.getAttachments());
+        }
 
-        SSLSocketFactory factory = configurator.getSSLSocketFactory();
-        if (factory != null) {
-            props.put("mail.smtp.ssl.socketFactory", factory);
-            if (configurator.getProvider().getPolicy() == HostnameVerificationPolicy.ANY) {
-                props.setProperty("mail.smtp.ssl.trust", "*");
+        private static boolean sameAttachments(Collection<Attachment> attachments1, Collection<Attachment> attachments2) {
+            if (attachments1.size() != attachments2.size()) {
+                return false;
+            }
+            // Attachment data can't be compared cheaply, so only the very same attachment objects are considered equal
+            Iterator<Attachment> iterator1 = attachments1.iterator();
+            Iterator<Attachment> iterator2 = attachments2.iterator();
+            while (iterator1.hasNext()) {
+                Attachment attachment1 = iterator1.next();
+                Attachment attachment2 = iterator2.next();
+                if (attachment1 != attachment2 && (!attachment1.getName().equals(attachment2.getName()) || attachment1.getDataSource() != attachment2.getDataSource())) {
+                    return false;
+                }
             }
+            return true;
         }
-    }
 
-    private TruststoreProvider loadTruststoreProvider() {
-        Iterator<TruststoreProviderFactory> iter = ServiceLoader.load(TruststoreProviderFactory.class).iterator();
-        return iter.hasNext() ? iter.next().create() : null;
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
     }
 
     /**
@@ -387,38 +787,56 @@ public class SmtpChannel implements Channel<EmailNotificationRecipient<?>, Email
         private final int connectionPoolSize;
         private final String nodeName;
         private final SmtpChannelFilter filter;
+        private final int batchSize;
+        private final int connectionPoolMinSize;
+        private final long connectionAcquireTimeout;
+        private final long connectionIdleTimeout;
+        private final long connectionValidationInterval;
+        private final int maxMessagesPerConnection;
+        private final int maxRecipientsPerEnvelope;
+        private final int tlsSessionCacheSize;
+        private final long tlsSessionTimeout;
+        private final String domainLimits;
+        private final long domainBackoff;
+        private final long domainWaitTimeout;
+        private final boolean enable8BitMime;
+        private final boolean enableSmtpUtf8;
+        private final int chunkSize;
 
         /**
-         * Create a new config.
+         * Create a new config from the given builder.
          *
-         * @param host               The SMTP host
-         * @param port               The SMTP port
-         * @param auth               Whether to use authentication
-         * @param user               The SMTP user
-         * @param password           The SMTP password
-         * @param enableSsl          Whether to enable SSL/TLS
-         * @param enableStartTls     Whether to enable STARTTLS
-         * @param extractMessageId   Whether to try to extract the message id after a send
-         * @param timeout            The SMTP timeout in second
-         * @param connectionTimeout  The connection timeout in seconds
-         * @param connectionPoolSize The connection pool size
-         * @param nodeName           The name of this sender node
-         * @param filter             The SMTP channel filter
+         * @param builder The builder
          */
-        Config(String host, Integer port, boolean auth, String user, String password, boolean enableSsl, boolean enableStartTls, boolean extractMessageId, long timeout, long connectionTimeout, int connectionPoolSize, String nodeName, SmtpChannelFilter filter) {
-            this.host = host;
-            this.port = port;
-            this.auth = auth;
-            this.user = user;
-            this.password = password;
-            this.enableSsl = enableSsl;
-            this.enableStartTls = enableStartTls;
-            this.extractMessageId = extractMessageId;
-            this.timeout = timeout;
-            this.connectionTimeout = connectionTimeout;
-            this.connectionPoolSize = connectionPoolSize;
-            this.nodeName = nodeName;
-            this.filter = filter;
+        Config(Builder builder) {
+            this.host = builder.host;
+            this.port = builder.port;
+            this.auth = builder.auth;
+            this.user = builder.user;
+            this.password = builder.password;
+            this.enableSsl = builder.enableSsl;
+            this.enableStartTls = builder.enableStartTls;
+            this.extractMessageId = builder.extractMessageId;
+            this.timeout = builder.timeout;
+            this.connectionTimeout = builder.connectionTimeout;
+            this.connectionPoolSize = builder.connectionPoolSize;
+            this.nodeName = builder.nodeName;
+            this.filter = builder.filter;
+            this.batchSize = builder.batchSize;
+            this.connectionPoolMinSize = builder.connectionPoolMinSize;
+            this.connectionAcquireTimeout = builder.connectionAcquireTimeout;
+            this.connectionIdleTimeout = builder.connectionIdleTimeout;
+            this.connectionValidationInterval = builder.connectionValidationInterval;
+            this.maxMessagesPerConnection = builder.maxMessagesPerConnection;
+            this.maxRecipientsPerEnvelope = builder.maxRecipientsPerEnvelope;
+            this.tlsSessionCacheSize = builder.tlsSessionCacheSize;
+            this.tlsSessionTimeout = builder.tlsSessionTimeout;
+            this.domainLimits = builder.domainLimits;
+            this.domainBackoff = builder.domainBackoff;
+            this.domainWaitTimeout = builder.domainWaitTimeout;
+            this.enable8BitMime = builder.enable8BitMime;
+            this.enableSmtpUtf8 = builder.enableSmtpUtf8;
+            this.chunkSize = builder.chunkSize;
         }
 
         /**
@@ -538,6 +956,141 @@ public class SmtpChannel implements Channel<EmailNotificationRecipient<?>, Email
             return filter;
         }
 
+        /**
+         * Returns the maximum amount of messages to send over a connection at once.
+         *
+         * @return the maximum amount of messages to send over a connection at once
+         */
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        /**
+         * Returns the minimum amount of connections in the pool.
+         *
+         * @return the minimum amount of connections in the pool
+         */
+        public int getConnectionPoolMinSize() {
+            return connectionPoolMinSize;
+        }
+
+        /**
+         * Returns the maximum time in milliseconds to wait for a connection.
+         *
+         * @return the connection acquire timeout
+         */
+        public long getConnectionAcquireTimeout() {
+            return connectionAcquireTimeout;
+        }
+
+        /**
+         * Returns the time in milliseconds after which an idle connection above the minimum size is closed.
+         *
+         * @return the connection idle timeout
+         */
+        public long getConnectionIdleTimeout() {
+            return connectionIdleTimeout;
+        }
+
+        /**
+         * Returns the idle time in milliseconds after which a connection is validated with a NOOP.
+         *
+         * @return the connection validation interval
+         */
+        public long getConnectionValidationInterval() {
+            return connectionValidationInterval;
+        }
+
+        /**
+         * Returns the maximum amount of messages to send over a connection or 0 for no limit.
+         *
+         * @return the maximum amount of messages per connection
+         */
+        public int getMaxMessagesPerConnection() {
+            return maxMessagesPerConnection;
+        }
+
+        /**
+         * Returns the maximum amount of recipients of identical messages to send in a single SMTP transaction.
+         *
+         * @return the maximum amount of recipients per envelope
+         */
+        public int getMaxRecipientsPerEnvelope() {
+            return maxRecipientsPerEnvelope;
+        }
+
+        /**
+         * Returns the maximum amount of cached TLS client sessions or 0 for no limit.
+         *
+         * @return the maximum amount of cached TLS client sessions
+         */
+        public int getTlsSessionCacheSize() {
+            return tlsSessionCacheSize;
+        }
+
+        /**
+         * Returns the time in milliseconds after which cached TLS client sessions expire or 0 for no limit.
+         *
+         * @return the TLS session timeout
+         */
+        public long getTlsSessionTimeout() {
+            return tlsSessionTimeout;
+        }
+
+        /**
+         * Returns the concurrency and rate limits per recipient domain in the form <code>pattern=maxConcurrency[/maxRatePerSecond],...</code>.
+         *
+         * @return the domain limits or <code>null</code>
+         */
+        public String getDomainLimits() {
+            return domainLimits;
+        }
+
+        /**
+         * Returns the time in milliseconds to pause sending to a recipient domain after the server signalled throttling.
+         *
+         * @return the domain back off time
+         */
+        public long getDomainBackoff() {
+            return domainBackoff;
+        }
+
+        /**
+         * Returns the maximum time in milliseconds to wait for the limits of a recipient domain before the message is rescheduled.
+         *
+         * @return the domain wait timeout
+         */
+        public long getDomainWaitTimeout() {
+            return domainWaitTimeout;
+        }
+
+        /**
+         * Returns whether to send 8bit bodies if the server supports 8BITMIME.
+         *
+         * @return whether to send 8bit bodies
+         */
+        public boolean isEnable8BitMime() {
+            return enable8BitMime;
+        }
+
+        /**
+         * Returns whether to send UTF-8 headers if the server supports SMTPUTF8.
+         *
+         * @return whether to send UTF-8 headers
+         */
+        public boolean isEnableSmtpUtf8() {
+            return enableSmtpUtf8;
+        }
+
+        /**
+         * Returns the chunk size for BDAT if the server supports CHUNKING or 0 to always use DATA.
+         *
+         * @return the chunk size
+         */
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
         /**
          * Returns a new configuration builder.
          *
@@ -564,9 +1117,24 @@ public class SmtpChannel implements Channel<EmailNotificationRecipient<?>, Email
             private boolean extractMessageId;
             private long timeout = 10000;
             private long connectionTimeout = 10000;
-            private int connectionPoolSize = 1;
+            private int connectionPoolSize = 4;
             private String nodeName;
             private SmtpChannelFilter filter;
+            private int batchSize = 50;
+            private int connectionPoolMinSize = 1;
+            private long connectionAcquireTimeout = 30000;
+            private long connectionIdleTimeout = 60000;
+            private long connectionValidationInterval = 30000;
+            private int maxMessagesPerConnection = 100;
+            private int maxRecipientsPerEnvelope = 1;
+            private int tlsSessionCacheSize = 1024;
+            private long tlsSessionTimeout = 3600000;
+            private String domainLimits;
+            private long domainBackoff = 60000;
+            private long domainWaitTimeout = 1000;
+            private boolean enable8BitMime = true;
+            private boolean enableSmtpUtf8 = true;
+            private int chunkSize = 65536;
 
             /**
              * Returns the configuration.
@@ -574,7 +1142,7 @@ public class SmtpChannel implements Channel<EmailNotificationRecipient<?>, Email
              * @return the configuration
              */
             public Config build() {
-                return new Config(host, port, auth, user, password, enableSsl, enableStartTls, extractMessageId, timeout, connectionTimeout, connectionPoolSize, nodeName, filter);
+                return new Config(this);
             }
 
             /**
@@ -700,6 +1268,174 @@ public class SmtpChannel implements Channel<EmailNotificationRecipient<?>, Email
                 this.filter = filter;
                 return this;
             }
+
+            /**
+             * Sets the maximum amount of messages to send over a connection at once.
+             *
+             * @param batchSize The batch size
+             * @return <code>this</code> for chaining
+             */
+            public Builder withBatchSize(int batchSize) {
+                this.batchSize = batchSize;
+                return this;
+            }
+
+            /**
+             * Sets the given minimum amount of connections in the pool.
+             *
+             * @param connectionPoolMinSize The minimum amount of connections in the pool
+             * @return <code>this</code> for chaining
+             */
+            public Builder withConnectionPoolMinSize(int connectionPoolMinSize) {
+                this.connectionPoolMinSize = connectionPoolMinSize;
+                return this;
+            }
+
+            /**
+             * Sets the given maximum time in milliseconds to wait for a connection.
+             *
+             * @param connectionAcquireTimeout The connection acquire timeout
+             * @return <code>this</code> for chaining
+             */
+            public Builder withConnectionAcquireTimeout(long connectionAcquireTimeout) {
+                this.connectionAcquireTimeout = connectionAcquireTimeout;
+                return this;
+            }
+
+            /**
+             * Sets the given time in milliseconds after which an idle connection above the minimum size is closed.
+             *
+             * @param connectionIdleTimeout The connection idle timeout
+             * @return <code>this</code> for chaining
+             */
+            public Builder withConnectionIdleTimeout(long connectionIdleTimeout) {
+                this.connectionIdleTimeout = connectionIdleTimeout;
+                return this;
+            }
+
+            /**
+             * Sets the given idle time in milliseconds after which a connection is validated with a NOOP.
+             *
+             * @param connectionValidationInterval The connection validation interval
+             * @return <code>this</code> for chaining
+             */
+            public Builder withConnectionValidationInterval(long connectionValidationInterval) {
+                this.connectionValidationInterval = connectionValidationInterval;
+                return this;
+            }
+
+            /**
+             * Sets the given maximum amount of messages to send over a connection or 0 for no limit.
+             *
+             * @param maxMessagesPerConnection The maximum amount of messages per connection
+             * @return <code>this</code> for chaining
+             */
+            public Builder withMaxMessagesPerConnection(int maxMessagesPerConnection) {
+                this.maxMessagesPerConnection = maxMessagesPerConnection;
+                return this;
+            }
+
+            /**
+             * Sets the given maximum amount of recipients of identical messages to send in a single SMTP transaction.
+             * Recipients that share a transaction see an undisclosed recipients <code>To</code> header. A value of 1 disables merging.
+             *
+             * @param maxRecipientsPerEnvelope The maximum amount of recipients per envelope
+             * @return <code>this</code> for chaining
+             */
+            public Builder withMaxRecipientsPerEnvelope(int maxRecipientsPerEnvelope) {
+                this.maxRecipientsPerEnvelope = maxRecipientsPerEnvelope;
+                return this;
+            }
+
+            /**
+             * Sets the maximum amount of cached TLS client sessions or 0 for no limit.
+             *
+             * @param tlsSessionCacheSize The maximum amount of cached TLS client sessions
+             * @return <code>this</code> for chaining
+             */
+            public Builder withTlsSessionCacheSize(int tlsSessionCacheSize) {
+                this.tlsSessionCacheSize = tlsSessionCacheSize;
+                return this;
+            }
+
+            /**
+             * Sets the time in milliseconds after which cached TLS client sessions expire or 0 for no limit.
+             *
+             * @param tlsSessionTimeout The TLS session timeout
+             * @return <code>this</code> for chaining
+             */
+            public Builder withTlsSessionTimeout(long tlsSessionTimeout) {
+                this.tlsSessionTimeout = tlsSessionTimeout;
+                return this;
+            }
+
+            /**
+             * Sets the concurrency and rate limits per recipient domain as comma separated list of <code>pattern=maxConcurrency[/maxRatePerSecond]</code> rules,
+             * e.g. <code>gmail.com=4/10,*.yahoo.com=2,*=16</code>. The first matching rule applies and a limit of 0 means unlimited.
+             *
+             * @param domainLimits The domain limits
+             * @return <code>this</code> for chaining
+             */
+            public Builder withDomainLimits(String domainLimits) {
+                this.domainLimits = domainLimits;
+                return this;
+            }
+
+            /**
+             * Sets the time in milliseconds to pause sending to a recipient domain after the server signalled throttling.
+             *
+             * @param domainBackoff The domain back off time
+             * @return <code>this</code> for chaining
+             */
+            public Builder withDomainBackoff(long domainBackoff) {
+                this.domainBackoff = domainBackoff;
+                return this;
+            }
+
+            /**
+             * Sets the maximum time in milliseconds to wait for the limits of a recipient domain before the message is rescheduled.
+             * Waiting blocks the sending thread, so this should be short compared to the time a message takes to send.
+             *
+             * @param domainWaitTimeout The domain wait timeout
+             * @return <code>this</code> for chaining
+             */
+            public Builder withDomainWaitTimeout(long domainWaitTimeout) {
+                this.domainWaitTimeout = domainWaitTimeout;
+                return this;
+            }
+
+            /**
+             * Sets whether to send UTF-8 bodies as 8bit if the server supports 8BITMIME, rather than quoted-printable or base64 encoded.
+             *
+             * @param enable8BitMime Whether to send 8bit bodies
+             * @return <code>this</code> for chaining
+             */
+            public Builder withEnable8BitMime(boolean enable8BitMime) {
+                this.enable8BitMime = enable8BitMime;
+                return this;
+            }
+
+            /**
+             * Sets whether to send UTF-8 headers if the server supports SMTPUTF8, rather than RFC 2047 encoded words.
+             *
+             * @param enableSmtpUtf8 Whether to send UTF-8 headers
+             * @return <code>this</code> for chaining
+             */
+            public Builder withEnableSmtpUtf8(boolean enableSmtpUtf8) {
+                this.enableSmtpUtf8 = enableSmtpUtf8;
+                return this;
+            }
+
+            /**
+             * Sets the chunk size for sending messages with BDAT if the server supports CHUNKING or 0 to always use DATA.
+             *
+             * @param chunkSize The chunk size
+             * @return <code>this</code> for chaining
+             */
+            public Builder withChunkSize(int chunkSize) {
+                this.chunkSize = chunkSize;
+                return this;
+            }
         }
     }
 }
@@ -21,6 +21,8 @@ import com.blazebit.notify.ChannelFactory;
 import com.blazebit.notify.ChannelKey;
 import com.blazebit.notify.NotificationJobContext;
 
+import java.util.Set;
+
 /**
  * A factory for SMTP channels.
  *
@@ -35,6 +37,11 @@ public class SmtpChannelFactory implements ChannelFactory<SmtpChannel> {
         return SmtpChannel.KEY;
     }
 
+    @Override
+    public Set<String> getTransportPropertyNames() {
+        return SmtpChannel.TRANSPORT_PROPERTY_NAMES;
+    }
+
     @Override
     public SmtpChannel createChannel(NotificationJobContext jobContext, ConfigurationSource configurationSource) {
         return new SmtpChannel(configurationSource);
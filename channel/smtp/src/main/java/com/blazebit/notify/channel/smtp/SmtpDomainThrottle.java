@@ -0,0 +1,332 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.smtp;
+
+import com.blazebit.job.JobTemporaryException;
+import com.blazebit.notify.BoundedCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Limits the concurrency and rate of messages per recipient domain and backs off domains for which the server signalled throttling.
+ * Large mailbox providers throttle per sending IP and recipient domain, so throttling one domain must not stall messages to other domains.
+ *
+ * The limits are configured as comma separated list of rules in the form <code>pattern=maxConcurrency[/maxRatePerSecond]</code>,
+ * where <code>*</code> in a pattern matches any characters, e.g. <code>gmail.com=4/10,*.yahoo.com=2,*=16</code>.
+ * The first rule that matches a domain applies, a limit of 0 means unlimited.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+final class SmtpDomainThrottle {
+
+    private static final int MAX_TRACKED_DOMAINS = 4096;
+
+    private final List<Rule> rules;
+    private final long backoffNanos;
+    private final BoundedCache<String, Domain> domains;
+    // Evicted domains that are still in use, a new state for such a domain would allow exceeding its limits
+    private final ConcurrentMap<String, Domain> retiredDomains = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new domain throttle.
+     *
+     * @param limits The limit rules or <code>null</code>
+     * @param backoffMillis The time in milliseconds to back off a domain after the server signalled throttling
+     */
+    SmtpDomainThrottle(String limits, long backoffMillis) {
+        this.rules = parseRules(limits);
+        this.backoffNanos = TimeUnit.MILLISECONDS.toNanos(backoffMillis);
+        // Domains that were not used for longer than the back off time have no state worth keeping
+        this.domains = new BoundedCache<>(MAX_TRACKED_DOMAINS, Math.max(backoffMillis, TimeUnit.MINUTES.toMillis(1)), this::retireDomain);
+    }
+
+    private static List<Rule> parseRules(String limits) {
+        if (limits == null || limits.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Rule> rules = new ArrayList<>();
+        for (String rule : limits.split("[,;]")) {
+            rule = rule.trim();
+            if (rule.isEmpty()) {
+                continue;
+            }
+            int equalsIndex = rule.indexOf('=');
+            if (equalsIndex == -1) {
+                throw new IllegalArgumentException("Invalid domain limit rule, expected pattern=maxConcurrency[/maxRatePerSecond] but got: " + rule);
+            }
+            String pattern = rule.substring(0, equalsIndex).trim().toLowerCase(Locale.ROOT);
+            String limit = rule.substring(equalsIndex + 1).trim();
+            int slashIndex = limit.indexOf('/');
+            try {
+                int maxConcurrency = Integer.parseInt((slashIndex == -1 ? limit : limit.substring(0, slashIndex)).trim());
+                double maxRate = slashIndex == -1 ? 0d : Double.parseDouble(limit.substring(slashIndex + 1).trim());
+                rules.add(new Rule(toRegex(pattern), maxConcurrency, maxRate));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid domain limit rule, expected pattern=maxConcurrency[/maxRatePerSecond] but got: " + rule, e);
+            }
+        }
+        return rules;
+    }
+
+    private static Pattern toRegex(String glob) {
+        StringBuilder sb = new StringBuilder();
+        int start = 0;
+        int index;
+        while ((index = glob.indexOf('*', start)) != -1) {
+            sb.append(Pattern.quote(glob.substring(start, index))).append(".*");
+            start = index + 1;
+        }
+        sb.append(Pattern.quote(glob.substring(start)));
+        return Pattern.compile(sb.toString());
+    }
+
+    /**
+     * Returns the domain part of the given email address.
+     *
+     * @param email The email address
+     * @return the lower case domain
+     */
+    static String getDomainName(String email) {
+        int atIndex = email.lastIndexOf('@');
+        return email.substring(atIndex + 1).trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Returns the state of the domain of the given email address.
+     *
+     * @param email The email address
+     * @return the domain state
+     */
+    Domain getDomain(String email) {
+        return domains.get(getDomainName(email), this::createDomain);
+    }
+
+    private void retireDomain(String name, Domain domain) {
+        if (domain.isInUse()) {
+            retiredDomains.put(name, domain);
+        }
+    }
+
+    private Domain createDomain(String name) {
+        Domain domain = retiredDomains.remove(name);
+        // Drop the retired domains that are not in use anymore
+        for (Map.Entry<String, Domain> entry : retiredDomains.entrySet()) {
+            if (!entry.getValue().isInUse()) {
+                retiredDomains.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        if (domain != null) {
+            return domain;
+        }
+        for (Rule rule : rules) {
+            if (rule.pattern.matcher(name).matches()) {
+                return new Domain(name, rule.maxConcurrency, rule.maxRate, backoffNanos);
+            }
+        }
+        return new Domain(name, 0, 0d, backoffNanos);
+    }
+
+    /**
+     * A limit rule for domains matching a pattern.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    private static final class Rule {
+        private final Pattern pattern;
+        private final int maxConcurrency;
+        private final double maxRate;
+
+        Rule(Pattern pattern, int maxConcurrency, double maxRate) {
+            this.pattern = pattern;
+            this.maxConcurrency = maxConcurrency;
+            this.maxRate = maxRate;
+        }
+    }
+
+    /**
+     * The throttling state of a recipient domain.
+     * Every successful {@link #tryAcquire()} or {@link #acquire(long)} must be followed by a {@link #release()}.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    static final class Domain {
+
+        private final String name;
+        private final Semaphore permits;
+        // The amount of threads that hold or wait for a permit
+        private final AtomicInteger users = new AtomicInteger();
+        private final long nanosPerMessage;
+        private final long backoffNanos;
+        private long nextMessageNanos;
+        private volatile long backoffUntilNanos;
+        private volatile boolean backingOff;
+
+        /**
+         * Creates a new domain state.
+         *
+         * @param name The domain name
+         * @param maxConcurrency The maximum amount of concurrent messages or 0 for no limit
+         * @param maxRate The maximum amount of messages per second or 0 for no limit
+         * @param backoffNanos The time in nanoseconds to back off after the server signalled throttling
+         */
+        Domain(String name, int maxConcurrency, double maxRate, long backoffNanos) {
+            this.name = name;
+            this.permits = maxConcurrency > 0 ? new Semaphore(maxConcurrency) : null;
+            this.nanosPerMessage = maxRate > 0d ? (long) (TimeUnit.SECONDS.toNanos(1) / maxRate) : 0L;
+            this.backoffNanos = backoffNanos;
+            this.nextMessageNanos = System.nanoTime();
+        }
+
+        /**
+         * Returns the domain name.
+         *
+         * @return the domain name
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * Returns whether the domain is backing off because the server signalled throttling.
+         *
+         * @return whether the domain is backing off
+         */
+        boolean isBackingOff() {
+            if (backingOff) {
+                if (System.nanoTime() - backoffUntilNanos < 0L) {
+                    return true;
+                }
+                backingOff = false;
+            }
+            return false;
+        }
+
+        /**
+         * Backs off the domain, so that messages to the domain are rejected until the back off time elapsed.
+         */
+        void backOff() {
+            backoffUntilNanos = System.nanoTime() + backoffNanos;
+            backingOff = true;
+        }
+
+        /**
+         * Returns the exception for a message that was not sent because the domain is backing off.
+         *
+         * @return the exception
+         */
+        JobTemporaryException createBackOffException() {
+            return new JobTemporaryException("Recipient domain " + name + " is backing off after being throttled");
+        }
+
+        /**
+         * Acquires a permit to send a message to the domain if possible without waiting.
+         *
+         * @return whether the permit was acquired
+         */
+        boolean tryAcquire() {
+            users.incrementAndGet();
+            if (permits != null && !permits.tryAcquire()) {
+                users.decrementAndGet();
+                return false;
+            }
+            if (nanosPerMessage != 0L && reserve(0L) < 0L) {
+                release();
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Acquires a permit to send a message to the domain, waiting up to the given time.
+         *
+         * @param timeoutMillis The maximum time in milliseconds to wait
+         * @return whether the permit was acquired
+         * @throws InterruptedException If interrupted while waiting
+         */
+        boolean acquire(long timeoutMillis) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            users.incrementAndGet();
+            if (permits != null) {
+                boolean permitted = false;
+                try {
+                    permitted = permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+                } finally {
+                    if (!permitted) {
+                        users.decrementAndGet();
+                    }
+                }
+                if (!permitted) {
+                    return false;
+                }
+            }
+            if (nanosPerMessage != 0L) {
+                // Only reserve a slot that is reached in time, so that a timeout doesn't take the slot of another message
+                long waitNanos = reserve(deadline - System.nanoTime());
+                if (waitNanos < 0L) {
+                    release();
+                    return false;
+                }
+                if (waitNanos > 0L) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(waitNanos);
+                    } catch (InterruptedException e) {
+                        release();
+                        throw e;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Releases a permit that was acquired before.
+         */
+        void release() {
+            if (permits != null) {
+                permits.release();
+            }
+            users.decrementAndGet();
+        }
+
+        private boolean isInUse() {
+            return users.get() > 0 || isBackingOff();
+        }
+
+        private synchronized long reserve(long maxWaitNanos) {
+            long now = System.nanoTime();
+            long waitNanos = Math.max(nextMessageNanos - now, 0L);
+            if (waitNanos > maxWaitNanos) {
+                return -1L;
+            }
+            // Don't accumulate credit for idle periods beyond a single message
+            nextMessageNanos = Math.max(nextMessageNanos, now) + nanosPerMessage;
+            return waitNanos;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.smtp;
+
+import com.blazebit.notify.email.message.EmailNotificationMessage;
+import com.blazebit.notify.email.message.EmailNotificationRecipient;
+import com.blazebit.notify.email.mime.MimeContent;
+import com.blazebit.notify.email.mime.MimeMessageWriter;
+import com.blazebit.notify.email.mime.TransportCapability;
+import com.sun.mail.smtp.SMTPMessage;
+
+import javax.activation.DataHandler;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeUtility;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Creates the MIME messages for email notification messages and applies the configured {@link SmtpChannelFilter}.
+ * This is independent of the transport, so that SMTP channels with different transport implementations produce the same messages.
+ *
+ * The headers are regular JavaMail headers that can be inspected and altered by the filter,
+ * but the body is streamed by a {@link MimeMessageWriter} when the message is written rather than being assembled as JavaMail multipart.
+ * A filter can still read the body with {@link SMTPMessage#getContent()} and replace it with e.g. {@link SMTPMessage#setContent(Object, String)},
+ * in which case the message is written by the regular JavaMail serialization. Changes to a read multipart must be applied by setting it as content again.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public class SmtpMessageFactory {
+
+    private static final Logger LOG = Logger.getLogger(SmtpMessageFactory.class.getName());
+
+    private final Session session;
+    private final SmtpChannelFilter filter;
+    private final MimeMessageWriter mimeMessageWriter;
+
+    /**
+     * Creates a new message factory.
+     *
+     * @param session The session for the messages
+     * @param filter The filter to apply or <code>null</code>
+     */
+    public SmtpMessageFactory(Session session, SmtpChannelFilter filter) {
+        this(session, filter, new MimeMessageWriter());
+    }
+
+    /**
+     * Creates a new message factory.
+     *
+     * @param session The session for the messages
+     * @param filter The filter to apply or <code>null</code>
+     * @param mimeMessageWriter The writer for the message bodies
+     */
+    public SmtpMessageFactory(Session session, SmtpChannelFilter filter, MimeMessageWriter mimeMessageWriter) {
+        this.session = session;
+        this.filter = filter;
+        this.mimeMessageWriter = mimeMessageWriter;
+    }
+
+    /**
+     * Returns the filter that is applied to created messages.
+     *
+     * @return the filter or <code>null</code>
+     */
+    public SmtpChannelFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Returns the writer for the message bodies.
+     *
+     * @return the writer for the message bodies
+     */
+    public MimeMessageWriter getMimeMessageWriter() {
+        return mimeMessageWriter;
+    }
+
+    /**
+     * Creates the MIME message for the given message to the given recipient.
+     *
+     * @param recipient The recipient
+     * @param message The message
+     * @return the MIME message or <code>null</code> if the filter skipped the message
+     * @throws MessagingException If the message can't be created
+     * @throws UnsupportedEncodingException If a display name can't be encoded
+     */
+    public SMTPMessage createMessage(EmailNotificationRecipient<?> recipient, EmailNotificationMessage message) throws MessagingException, UnsupportedEncodingException {
+        return createMessage(recipient, message, TransportCapability.SEVEN_BIT);
+    }
+
+    /**
+     * Creates the MIME message for the given message to the given recipient, encoded for a server with the given capability.
+     * If the server supports 8bit bodies or UTF-8 headers, the <code>MAIL</code> command parameters that announce the encoding are set on the message.
+     *
+     * @param recipient The recipient
+     * @param message The message
+     * @param capability The encodings that the server accepts
+     * @return the MIME message or <code>null</code> if the filter skipped the message
+     * @throws MessagingException If the message can't be created
+     * @throws UnsupportedEncodingException If a display name can't be encoded
+     */
+    public SMTPMessage createMessage(EmailNotificationRecipient<?> recipient, EmailNotificationMessage message, TransportCapability capability) throws MessagingException, UnsupportedEncodingException {
+        StreamingSmtpMessage msg = new StreamingSmtpMessage(session, mimeMessageWriter.createContent(message, capability));
+
+        if (capability.isUtf8()) {
+            msg.setMailExtension("BODY=8BITMIME SMTPUTF8");
+        } else if (capability.isEightBit()) {
+            msg.setMailExtension("BODY=8BITMIME");
+        }
+
+        msg.setHeader("From", mimeMessageWriter.formatAddress(message.getFrom(), message.getFromDisplayName(), capability));
+
+        String replyTo = message.getReplyTo();
+        if (replyTo != null && !replyTo.isEmpty()) {
+            msg.setHeader("Reply-To", mimeMessageWriter.formatAddress(replyTo, message.getReplyToDisplayName(), capability));
+        }
+        String envelopeFrom = message.getEnvelopeFrom();
+        if (envelopeFrom != null && !envelopeFrom.isEmpty()) {
+            msg.setEnvelopeFrom(envelopeFrom);
+        }
+
+        msg.setHeader("To", recipient.getEmail());
+        msg.setHeader("Subject", MimeUtility.fold(9, MimeMessageWriter.encodeText(message.getSubject().getSubject(), capability)));
+
+        if (filter == null || filter.filterSmtpMessage(recipient, message, msg)) {
+            return msg;
+        } else if (LOG.isLoggable(Level.FINEST)) {
+            LOG.log(Level.FINEST, "SMTP notification to " + recipient + " skipped by filter");
+        }
+        return null;
+    }
+
+    /**
+     * A SMTP message that writes its body from a {@link MimeContent} instead of a JavaMail data handler,
+     * unless the content was replaced through a data handler.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    private static final class StreamingSmtpMessage extends SMTPMessage {
+
+        private static final byte[] CRLF = { '\r', '\n' };
+
+        private final MimeContent mimeContent;
+        private boolean contentReplaced;
+
+        StreamingSmtpMessage(Session session, MimeContent mimeContent) throws MessagingException {
+            super(session);
+            this.mimeContent = mimeContent;
+            setHeader("Content-Type", mimeContent.getContentType());
+            if (mimeContent.getTransferEncoding() != null) {
+                setHeader("Content-Transfer-Encoding", mimeContent.getTransferEncoding());
+            }
+        }
+
+        @Override
+        public void setDataHandler(DataHandler dh) throws MessagingException {
+            // All content setters end up here, so the streamed content is replaced
+            contentReplaced = true;
+            super.setDataHandler(dh);
+        }
+
+        @Override
+        protected InputStream getContentStream() throws MessagingException {
+            if (contentReplaced) {
+                return super.getContentStream();
+            }
+            // Only filters read the content, so buffering it here doesn't affect the streamed sending
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                mimeContent.writeTo(out);
+            } catch (IOException e) {
+                throw new MessagingException("Failed to write the message content", e);
+            }
+            return new ByteArrayInputStream(out.toByteArray());
+        }
+
+        @Override
+        protected void updateHeaders() throws MessagingException {
+            if (contentReplaced) {
+                super.updateHeaders();
+                return;
+            }
+            // The content headers are already set, so avoid the data handler based update of the super type
+            setHeader("MIME-Version", "1.0");
+            if (getHeader("Message-ID") == null) {
+                String[] from = getHeader("From");
+                String fromAddress = from == null ? null : from[0].replaceAll(".*<|>.*", "");
+                setHeader("Message-ID", MimeMessageWriter.createMessageId(fromAddress));
+            }
+            if (getHeader("Date") == null) {
+                setSentDate(new Date());
+            }
+        }
+
+        @Override
+        public void writeTo(OutputStream os, String[] ignoreList) throws IOException, MessagingException {
+            if (contentReplaced) {
+                super.writeTo(os, ignoreList);
+                return;
+            }
+            if (!saved) {
+                saveChanges();
+            }
+            Enumeration<String> headerLines = getNonMatchingHeaderLines(ignoreList);
+            while (headerLines.hasMoreElements()) {
+                os.write(headerLines.nextElement().getBytes(StandardCharsets.UTF_8));
+                os.write(CRLF);
+            }
+            os.write(CRLF);
+            mimeContent.writeTo(os);
+            os.flush();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.smtp;
+
+import com.blazebit.job.JobRateLimitException;
+import com.blazebit.job.JobTemporaryException;
+import com.blazebit.notify.NotificationException;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Maps SMTP reply codes of failed commands to the exceptions that are expected by the job processing.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public final class SmtpReplyCodes {
+
+    /**
+     * The server is closing the connection, e.g. because of too many concurrent connections.
+     */
+    public static final int SERVICE_NOT_AVAILABLE = 421;
+    /**
+     * A temporary failure on the server side.
+     */
+    public static final int LOCAL_ERROR = 451;
+    /**
+     * The sender is throttled.
+     */
+    public static final int THROTTLED = 454;
+
+    private static final Logger LOG = Logger.getLogger(SmtpReplyCodes.class.getName());
+
+    private SmtpReplyCodes() {
+    }
+
+    /**
+     * Returns whether the server closes the connection after sending the given reply code.
+     *
+     * @param replyCode The reply code
+     * @return whether the connection is closed
+     */
+    public static boolean isConnectionClosing(int replyCode) {
+        return replyCode == SERVICE_NOT_AVAILABLE;
+    }
+
+    /**
+     * Returns whether the given reply code signals that the server throttles the sender, usually per recipient domain.
+     *
+     * @param replyCode The reply code
+     * @return whether the sender is throttled
+     */
+    public static boolean isThrottling(int replyCode) {
+        return replyCode == SERVICE_NOT_AVAILABLE || replyCode == LOCAL_ERROR || replyCode == THROTTLED;
+    }
+
+    /**
+     * Translates the given reply code of a failed command to a {@link JobTemporaryException} if the failure is temporary,
+     * a {@link JobRateLimitException} if the sender is throttled or a {@link NotificationException} otherwise.
+     *
+     * @param replyCode The reply code
+     * @param cause The exception that carries the reply
+     * @return the translated exception
+     */
+    public static RuntimeException translate(int replyCode, Throwable cause) {
+        switch (replyCode) {
+            case SERVICE_NOT_AVAILABLE: // Too many concurrent SMTP connections
+            case LOCAL_ERROR: // Temporary service failure
+                LOG.log(Level.FINE, "Temporary service failure", cause);
+                return new JobTemporaryException(cause);
+            case THROTTLED: // Throttling failure
+                LOG.log(Level.FINE, "Rate limit exceeded", cause);
+                // TODO: parse if daily or second rate limit and adapt wait time
+                return new JobRateLimitException(cause);
+            default:
+                LOG.log(Level.SEVERE, "Failed to send email", cause);
+                return new NotificationException(cause);
+        }
+    }
+}
@@ -0,0 +1,505 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.smtp;
+
+import com.blazebit.job.JobTemporaryException;
+import com.blazebit.notify.NotificationException;
+import com.blazebit.notify.email.mime.TransportCapability;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pool of connected SMTP transports.
+ *
+ * The pool keeps at least the minimum amount of connections open and creates new connections up to the maximum amount on demand.
+ * Connections that were idle longer than the validation interval are validated with a NOOP before being handed out,
+ * connections that were idle longer than the idle timeout are closed, and connections that have sent the configured
+ * maximum amount of messages are replaced to spread the load when the relay is behind a load balancer.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public class SmtpTransportPool implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(SmtpTransportPool.class.getName());
+    private static final ScheduledExecutorService MAINTENANCE_EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "smtp-transport-pool-maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Session session;
+    private final Connector connector;
+    private final int minSize;
+    private final int maxSize;
+    private final long acquireTimeoutNanos;
+    private final long idleTimeoutNanos;
+    private final long validationIntervalNanos;
+    private final int maxMessagesPerConnection;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    // Most recently used transports are at the head so that the transports at the tail can become idle
+    private final ArrayDeque<PooledTransport> idleTransports;
+    private final ScheduledFuture<?> maintenanceTask;
+    private final AtomicInteger waitingCount = new AtomicInteger();
+    private final LongAdder acquireCount = new LongAdder();
+    private final LongAdder acquireWaitNanos = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder discardedCount = new LongAdder();
+    private int size;
+    private boolean closed;
+
+    /**
+     * Creates a new pool and starts to open the minimum amount of connections in the background.
+     *
+     * @param session The mail session to create transports from
+     * @param connector The connector that connects a transport
+     * @param minSize The minimum amount of connections
+     * @param maxSize The maximum amount of connections
+     * @param acquireTimeoutMillis The maximum time in milliseconds to wait for a connection
+     * @param idleTimeoutMillis The time in milliseconds after which an idle connection above the minimum size is closed
+     * @param validationIntervalMillis The idle time in milliseconds after which a connection is validated before use
+     * @param maxMessagesPerConnection The maximum amount of messages to send over a connection or 0 for no limit
+     */
+    SmtpTransportPool(Session session, Connector connector, int minSize, int maxSize, long acquireTimeoutMillis, long idleTimeoutMillis, long validationIntervalMillis, int maxMessagesPerConnection) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("The maximum pool size must be positive but was: " + maxSize);
+        }
+        if (minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("The minimum pool size must be between 0 and the maximum pool size " + maxSize + " but was: " + minSize);
+        }
+        this.session = session;
+        this.connector = connector;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.acquireTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMillis);
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.validationIntervalNanos = TimeUnit.MILLISECONDS.toNanos(validationIntervalMillis);
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
+        this.idleTransports = new ArrayDeque<>(maxSize);
+        long maintenanceIntervalNanos = Math.min(idleTimeoutNanos, validationIntervalNanos) / 2;
+        if (maintenanceIntervalNanos > 0L) {
+            this.maintenanceTask = MAINTENANCE_EXECUTOR.scheduleWithFixedDelay(this::maintain, maintenanceIntervalNanos, maintenanceIntervalNanos, TimeUnit.NANOSECONDS);
+        } else {
+            this.maintenanceTask = null;
+        }
+        prewarm();
+    }
+
+    /**
+     * Returns a connected transport from the pool, waiting up to the acquire timeout if all connections are busy.
+     * The transport must be returned via {@link #release(PooledTransport, boolean)}.
+     *
+     * @return a connected transport
+     * @throws MessagingException if connecting fails
+     * @throws JobTemporaryException if no transport becomes available within the acquire timeout
+     */
+    PooledTransport acquire() throws MessagingException {
+        long start = System.nanoTime();
+        PooledTransport pooledTransport;
+        lock.lock();
+        try {
+            long remainingNanos = acquireTimeoutNanos;
+            while (true) {
+                if (closed) {
+                    throw new NotificationException("The SMTP transport pool is closed");
+                }
+                pooledTransport = idleTransports.pollFirst();
+                if (pooledTransport != null) {
+                    break;
+                }
+                if (size < maxSize) {
+                    size++;
+                    break;
+                }
+                if (remainingNanos <= 0L) {
+                    acquireWaitNanos.add(System.nanoTime() - start);
+                    throw new JobTemporaryException("No SMTP connection available within " + TimeUnit.NANOSECONDS.toMillis(acquireTimeoutNanos) + "ms");
+                }
+                waitingCount.incrementAndGet();
+                try {
+                    remainingNanos = available.awaitNanos(remainingNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new NotificationException("Interrupted while waiting for an SMTP connection", e);
+                } finally {
+                    waitingCount.decrementAndGet();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        acquireCount.increment();
+        acquireWaitNanos.add(System.nanoTime() - start);
+
+        if (pooledTransport == null) {
+            return createTransport();
+        }
+        if (System.nanoTime() - pooledTransport.getLastActive() > validationIntervalNanos && !pooledTransport.transport.isConnected()) {
+            // isConnected sends a NOOP, so a connection that was closed by the server is detected here
+            try {
+                pooledTransport.capability = connector.connect(pooledTransport.transport);
+            } catch (MessagingException | RuntimeException e) {
+                discard(pooledTransport);
+                throw e;
+            }
+        }
+        return pooledTransport;
+    }
+
+    /**
+     * Returns the given transport to the pool.
+     *
+     * @param pooledTransport The transport to return
+     * @param broken Whether the transport hit a connection level error and must not be reused
+     */
+    void release(PooledTransport pooledTransport, boolean broken) {
+        if (!broken && !isExhausted(pooledTransport)) {
+            pooledTransport.lastUsed = System.nanoTime();
+            lock.lock();
+            try {
+                if (!closed) {
+                    idleTransports.addFirst(pooledTransport);
+                    available.signal();
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        discard(pooledTransport);
+    }
+
+    /**
+     * Returns whether the given transport has sent the maximum amount of messages per connection and should be released.
+     *
+     * @param pooledTransport The transport
+     * @return whether the transport is exhausted
+     */
+    boolean isExhausted(PooledTransport pooledTransport) {
+        return maxMessagesPerConnection > 0 && pooledTransport.messageCount >= maxMessagesPerConnection;
+    }
+
+    @Override
+    public void close() {
+        List<PooledTransport> transports;
+        lock.lock();
+        try {
+            closed = true;
+            transports = new ArrayList<>(idleTransports);
+            idleTransports.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (maintenanceTask != null) {
+            maintenanceTask.cancel(false);
+        }
+        // Busy transports are closed when they are released
+        for (PooledTransport transport : transports) {
+            discard(transport);
+        }
+    }
+
+    /**
+     * Returns the amount of connections that are currently in use.
+     *
+     * @return the amount of busy connections
+     */
+    public int getBusyCount() {
+        lock.lock();
+        try {
+            return size - idleTransports.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the amount of connections that are currently idle.
+     *
+     * @return the amount of idle connections
+     */
+    public int getIdleCount() {
+        lock.lock();
+        try {
+            return idleTransports.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the amount of threads that are currently waiting for a connection.
+     *
+     * @return the amount of waiting threads
+     */
+    public int getWaitingCount() {
+        return waitingCount.get();
+    }
+
+    /**
+     * Returns the amount of connections that were acquired so far.
+     *
+     * @return the amount of acquired connections
+     */
+    public long getAcquireCount() {
+        return acquireCount.sum();
+    }
+
+    /**
+     * Returns the accumulated time spent waiting for a connection in the given time unit.
+     *
+     * @param unit The time unit
+     * @return the accumulated wait time
+     */
+    public long getAcquireWaitTime(TimeUnit unit) {
+        return unit.convert(acquireWaitNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the amount of connections that were opened so far.
+     *
+     * @return the amount of opened connections
+     */
+    public long getCreatedCount() {
+        return createdCount.sum();
+    }
+
+    /**
+     * Returns the amount of connections that were closed so far because they were broken, idle or exhausted.
+     *
+     * @return the amount of closed connections
+     */
+    public long getDiscardedCount() {
+        return discardedCount.sum();
+    }
+
+    private PooledTransport createTransport() throws MessagingException {
+        try {
+            Transport transport = session.getTransport("smtp");
+            TransportCapability capability = connector.connect(transport);
+            createdCount.increment();
+            return new PooledTransport(transport, capability);
+        } catch (MessagingException | RuntimeException e) {
+            releaseSlot();
+            throw e;
+        }
+    }
+
+    private void discard(PooledTransport pooledTransport) {
+        releaseSlot();
+        discardedCount.increment();
+        try {
+            pooledTransport.transport.close();
+        } catch (MessagingException | RuntimeException e) {
+            LOG.log(Level.FINE, "Failed to close SMTP transport", e);
+        }
+    }
+
+    private void releaseSlot() {
+        lock.lock();
+        try {
+            size--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void prewarm() {
+        int count;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            count = minSize - size;
+            if (count <= 0) {
+                return;
+            }
+            size += count;
+        } finally {
+            lock.unlock();
+        }
+        // Connect in parallel, as the TLS handshakes dominate the startup time
+        ExecutorService executorService = Executors.newFixedThreadPool(count, r -> {
+            Thread thread = new Thread(r, "smtp-transport-pool-prewarm");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < count; i++) {
+            executorService.execute(() -> {
+                PooledTransport pooledTransport;
+                try {
+                    pooledTransport = createTransport();
+                } catch (MessagingException | RuntimeException e) {
+                    LOG.log(Level.WARNING, "Failed to open SMTP connection for pre-warming the pool", e);
+                    return;
+                }
+                release(pooledTransport, false);
+            });
+        }
+        executorService.shutdown();
+    }
+
+    private void returnValidated(PooledTransport pooledTransport) {
+        lock.lock();
+        try {
+            if (!closed) {
+                // Validation doesn't count as use, so the transport keeps its position and can still become idle
+                idleTransports.addLast(pooledTransport);
+                available.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        discard(pooledTransport);
+    }
+
+    private void maintain() {
+        long now = System.nanoTime();
+        List<PooledTransport> toDiscard = new ArrayList<>();
+        List<PooledTransport> toValidate = new ArrayList<>();
+        lock.lock();
+        try {
+            Iterator<PooledTransport> iterator = idleTransports.descendingIterator();
+            while (iterator.hasNext()) {
+                PooledTransport pooledTransport = iterator.next();
+                if (now - pooledTransport.lastUsed > idleTimeoutNanos && size - toDiscard.size() > minSize) {
+                    iterator.remove();
+                    toDiscard.add(pooledTransport);
+                } else if (now - pooledTransport.getLastActive() > validationIntervalNanos) {
+                    // Keep the connection alive, so the server doesn't close it due to inactivity
+                    iterator.remove();
+                    // Validated transports are returned to the tail, so the most recently used ones are returned last
+                    toValidate.add(0, pooledTransport);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (PooledTransport pooledTransport : toDiscard) {
+            discard(pooledTransport);
+        }
+        for (PooledTransport pooledTransport : toValidate) {
+            boolean valid;
+            try {
+                valid = pooledTransport.transport.isConnected();
+            } catch (RuntimeException e) {
+                valid = false;
+            }
+            if (valid) {
+                pooledTransport.lastValidated = System.nanoTime();
+                returnValidated(pooledTransport);
+            } else {
+                discard(pooledTransport);
+            }
+        }
+        // Replace connections that were found to be broken
+        prewarm();
+    }
+
+    /**
+     * Connects a transport.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    interface Connector {
+
+        /**
+         * Connects the given transport and returns the capability of the server it is connected to.
+         *
+         * @param transport The transport to connect
+         * @return the capability of the connected server
+         * @throws MessagingException if connecting fails
+         */
+        TransportCapability connect(Transport transport) throws MessagingException;
+    }
+
+    /**
+     * A transport that is managed by the pool.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    static final class PooledTransport {
+
+        private final Transport transport;
+        // Servers behind a load balancer might differ in their capabilities, so the capability is tracked per connection
+        private volatile TransportCapability capability;
+        private volatile long lastUsed;
+        private volatile long lastValidated;
+        private int messageCount;
+
+        private PooledTransport(Transport transport, TransportCapability capability) {
+            this.transport = transport;
+            this.capability = capability;
+            this.lastUsed = System.nanoTime();
+            this.lastValidated = lastUsed;
+        }
+
+        private long getLastActive() {
+            long used = lastUsed;
+            long validated = lastValidated;
+            return validated - used > 0L ? validated : used;
+        }
+
+        /**
+         * Returns the connected transport.
+         *
+         * @return the transport
+         */
+        public Transport getTransport() {
+            return transport;
+        }
+
+        /**
+         * Returns the capability of the server the transport is connected to.
+         *
+         * @return the transport capability
+         */
+        public TransportCapability getCapability() {
+            return capability;
+        }
+
+        /**
+         * Records that a message was sent over this transport.
+         */
+        public void messageSent() {
+            messageCount++;
+        }
+    }
+}
@@ -31,10 +31,10 @@ import org.junit.BeforeClass;
 import static org.apache.james.MemoryJamesServerMain.IN_MEMORY_SERVER_AGGREGATE_MODULE;
 
 public abstract class AbstractSmtpChannelIntegrationTest {
-    private final static String TEST_MAIL_SERVER_DOMAIN = "localhost";
+    protected final static String TEST_MAIL_SERVER_DOMAIN = "localhost";
     protected final static String TEST_MAIL_USER = "blaze-notify-test@" + TEST_MAIL_SERVER_DOMAIN;
     private final static String TEST_MAIL_PWD = "blaze-notify-test";
-    private final static int TEST_MAIL_SERVER_SMTP_PORT = 1025;
+    protected final static int TEST_MAIL_SERVER_SMTP_PORT = 1025;
     private final static int TEST_MAIL_SERVER_IMAP_PORT = 10143;
 
     protected static final ImapMailClient mailClient = new ImapMailClient(TEST_MAIL_USER, TEST_MAIL_PWD, TEST_MAIL_SERVER_DOMAIN, TEST_MAIL_SERVER_IMAP_PORT, false);
@@ -15,21 +15,28 @@
  */
 package com.blazebit.notify.channel.smtp;
 
+import com.blazebit.notify.NotificationException;
 import com.blazebit.notify.email.message.Attachment;
 import com.blazebit.notify.email.message.EmailBody;
 import com.blazebit.notify.email.message.EmailNotificationMessage;
 import com.blazebit.notify.email.message.EmailSubject;
+import com.blazebit.notify.email.mime.TransportCapability;
 import org.junit.Test;
 
 import javax.mail.Message;
 import javax.mail.MessagingException;
+import javax.mail.Part;
 import javax.mail.internet.MimeMultipart;
 import javax.mail.util.ByteArrayDataSource;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 public class SmtpChannelIntegrationTest extends AbstractSmtpChannelIntegrationTest {
@@ -61,4 +68,134 @@ public class SmtpChannelIntegrationTest extends AbstractSmtpChannelIntegrationTe
         assertTrue(msgContent.getBodyPart(1).getContentType().contains("name=" + attachmentName));
         assertEquals(attachmentContent, msgContent.getBodyPart(1).getContent());
     }
+
+    @Test
+    public void reuseAndRecyclePooledConnections() throws Exception {
+        String from = "no-reply@localhost";
+        SmtpChannel.Config config = SmtpChannel.Config.builder()
+                .withHost(TEST_MAIL_SERVER_DOMAIN)
+                .withPort(TEST_MAIL_SERVER_SMTP_PORT)
+                .withConnectionPoolMinSize(0)
+                .withConnectionPoolSize(1)
+                .withMaxMessagesPerConnection(2)
+                .build();
+        try (SmtpChannel channel = new SmtpChannel(config)) {
+            for (int i = 0; i < 3; i++) {
+                channel.sendNotificationMessage(
+                        new DefaultEmailNotificationRecipient(TEST_MAIL_USER),
+                        new EmailNotificationMessage(from, null, null, null, null, new EmailSubject("test subject " + i), new EmailBody("test body"), null, Collections.emptyList())
+                );
+            }
+            SmtpTransportPool transportPool = channel.getTransportPool();
+            assertEquals(3, transportPool.getAcquireCount());
+            assertEquals(2, transportPool.getCreatedCount());
+            assertEquals(1, transportPool.getDiscardedCount());
+            assertEquals(1, transportPool.getIdleCount());
+            assertEquals(0, transportPool.getBusyCount());
+        }
+
+        Message[] receivedEmails = mailClient.awaitIncomingEmails(5000, 3);
+        assertEquals(3, receivedEmails.length);
+    }
+
+    @Test
+    public void reportPerRecipientResultsOfPartiallyRejectedEnvelope() throws Exception {
+        String from = "no-reply@localhost";
+        String unknownUser = "blaze-notify-unknown@" + TEST_MAIL_SERVER_DOMAIN;
+        SmtpChannel.Config config = SmtpChannel.Config.builder()
+                .withHost(TEST_MAIL_SERVER_DOMAIN)
+                .withPort(TEST_MAIL_SERVER_SMTP_PORT)
+                .withConnectionPoolMinSize(0)
+                .withMaxRecipientsPerEnvelope(10)
+                .build();
+        EmailNotificationMessage message = new EmailNotificationMessage(from, null, null, null, null, new EmailSubject("test subject"), new EmailBody("test body"), null, Collections.emptyList());
+        Object[] results;
+        try (SmtpChannel channel = new SmtpChannel(config)) {
+            // The unknown local user is rejected by the ValidRcptHandler of the server
+            results = channel.sendNotificationMessages(
+                    Arrays.asList(
+                            new DefaultEmailNotificationRecipient(TEST_MAIL_USER),
+                            new DefaultEmailNotificationRecipient(unknownUser)
+                    ),
+                    Arrays.asList(message, message)
+            );
+            SmtpTransportPool transportPool = channel.getTransportPool();
+            assertEquals(1, transportPool.getAcquireCount());
+            assertEquals(0, transportPool.getDiscardedCount());
+        }
+
+        assertEquals(2, results.length);
+        assertTrue(results[0] instanceof String);
+        assertTrue(results[1] instanceof NotificationException);
+
+        Message[] receivedEmails = mailClient.awaitIncomingEmails(5000, 1);
+        assertEquals(1, receivedEmails.length);
+        assertEquals("test subject", receivedEmails[0].getSubject());
+    }
+
+    @Test
+    public void encodeSevenBitWith8BitMimeDisabled() throws Exception {
+        String from = "no-reply@localhost";
+        String textBody = "Gr\u00fc\u00dfe aus \u00d6sterreich \u20ac";
+        SmtpChannel.Config config = SmtpChannel.Config.builder()
+                .withHost(TEST_MAIL_SERVER_DOMAIN)
+                .withPort(TEST_MAIL_SERVER_SMTP_PORT)
+                .withConnectionPoolMinSize(0)
+                .withEnable8BitMime(false)
+                .build();
+        try (SmtpChannel channel = new SmtpChannel(config)) {
+            channel.sendNotificationMessage(
+                    new DefaultEmailNotificationRecipient(TEST_MAIL_USER),
+                    new EmailNotificationMessage(from, null, null, null, null, new EmailSubject("test subject"), new EmailBody(textBody), null, Collections.emptyList())
+            );
+            SmtpTransportPool.PooledTransport transport = channel.getTransportPool().acquire();
+            try {
+                assertEquals(TransportCapability.SEVEN_BIT, transport.getCapability());
+            } finally {
+                channel.getTransportPool().release(transport, false);
+            }
+        }
+
+        Message[] receivedEmails = mailClient.awaitIncomingEmails(5000, 1);
+        assertEquals(1, receivedEmails.length);
+        Part textPart = receivedEmails[0];
+        while (textPart.getContent() instanceof MimeMultipart) {
+            textPart = ((MimeMultipart) textPart.getContent()).getBodyPart(0);
+        }
+        String[] transferEncoding = textPart.getHeader("Content-Transfer-Encoding");
+        assertNotNull(transferEncoding);
+        assertNotEquals("8bit", transferEncoding[0].toLowerCase());
+        assertEquals(textBody, ((String) textPart.getContent()).trim());
+    }
+
+    @Test
+    public void shrinkIdleConnectionsToMinSize() throws Exception {
+        SmtpChannel.Config config = SmtpChannel.Config.builder()
+                .withHost(TEST_MAIL_SERVER_DOMAIN)
+                .withPort(TEST_MAIL_SERVER_SMTP_PORT)
+                .withConnectionPoolMinSize(1)
+                .withConnectionPoolSize(3)
+                .withConnectionIdleTimeout(500L)
+                // Validating more often than the idle timeout must not keep the connections alive
+                .withConnectionValidationInterval(100L)
+                .build();
+        try (SmtpChannel channel = new SmtpChannel(config)) {
+            SmtpTransportPool transportPool = channel.getTransportPool();
+            List<SmtpTransportPool.PooledTransport> transports = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                transports.add(transportPool.acquire());
+            }
+            for (SmtpTransportPool.PooledTransport transport : transports) {
+                transportPool.release(transport, false);
+            }
+            assertEquals(3, transportPool.getIdleCount());
+
+            long deadline = System.currentTimeMillis() + 5000L;
+            while (transportPool.getIdleCount() > 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50L);
+            }
+            assertEquals(1, transportPool.getIdleCount());
+            assertEquals(0, transportPool.getBusyCount());
+        }
+    }
 }
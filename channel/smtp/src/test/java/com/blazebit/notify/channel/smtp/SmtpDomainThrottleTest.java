@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.smtp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SmtpDomainThrottleTest {
+
+    @Test
+    public void limitConcurrencyPerDomain() {
+        SmtpDomainThrottle throttle = new SmtpDomainThrottle("gmail.com=2,*.yahoo.com=1", 60000L);
+        SmtpDomainThrottle.Domain gmail = throttle.getDomain("user@gmail.com");
+        assertTrue(gmail.tryAcquire());
+        assertTrue(gmail.tryAcquire());
+        assertFalse(gmail.tryAcquire());
+        gmail.release();
+        assertTrue(gmail.tryAcquire());
+
+        SmtpDomainThrottle.Domain yahoo = throttle.getDomain("user@mail.yahoo.com");
+        assertTrue(yahoo.tryAcquire());
+        assertFalse(yahoo.tryAcquire());
+
+        // Domains without a matching rule are unlimited
+        SmtpDomainThrottle.Domain other = throttle.getDomain("user@example.com");
+        for (int i = 0; i < 100; i++) {
+            assertTrue(other.tryAcquire());
+        }
+    }
+
+    @Test
+    public void timeoutDoesNotTakeRateSlot() throws Exception {
+        SmtpDomainThrottle throttle = new SmtpDomainThrottle("example.com=0/5", 60000L);
+        SmtpDomainThrottle.Domain domain = throttle.getDomain("user@example.com");
+        assertTrue(domain.tryAcquire());
+        domain.release();
+        // The next slot is 200ms away
+        assertFalse(domain.tryAcquire());
+        assertFalse(domain.acquire(10L));
+        Thread.sleep(250L);
+        // The failed attempts must not have moved the next slot further
+        assertTrue(domain.tryAcquire());
+        domain.release();
+    }
+
+    @Test
+    public void acquireWaitsForRateSlot() throws Exception {
+        SmtpDomainThrottle throttle = new SmtpDomainThrottle("example.com=1/10", 60000L);
+        SmtpDomainThrottle.Domain domain = throttle.getDomain("user@example.com");
+        assertTrue(domain.acquire(1000L));
+        domain.release();
+        long start = System.nanoTime();
+        assertTrue(domain.acquire(1000L));
+        domain.release();
+        assertTrue(System.nanoTime() - start >= 50_000_000L);
+    }
+
+    @Test
+    public void keepEvictedDomainsThatAreInUse() {
+        SmtpDomainThrottle throttle = new SmtpDomainThrottle("*=1", 60000L);
+        SmtpDomainThrottle.Domain used = throttle.getDomain("user@used.com");
+        SmtpDomainThrottle.Domain unused = throttle.getDomain("user@unused.com");
+        assertTrue(used.tryAcquire());
+        // Evict both domains by tracking many other domains
+        for (int i = 0; i < 5000; i++) {
+            throttle.getDomain("user@domain" + i + ".com");
+        }
+
+        // The domain with an outstanding permit must keep its state, so that the limit is not exceeded
+        assertSame(used, throttle.getDomain("user@used.com"));
+        assertFalse(throttle.getDomain("user@used.com").tryAcquire());
+        assertNotSame(unused, throttle.getDomain("user@unused.com"));
+        used.release();
+        assertTrue(throttle.getDomain("user@used.com").tryAcquire());
+    }
+
+    @Test
+    public void backOffThrottledDomain() {
+        SmtpDomainThrottle throttle = new SmtpDomainThrottle(null, 60000L);
+        SmtpDomainThrottle.Domain domain = throttle.getDomain("user@example.com");
+        assertFalse(domain.isBackingOff());
+        domain.backOff();
+        assertTrue(throttle.getDomain("user@example.com").isBackingOff());
+        assertFalse(throttle.getDomain("user@other.com").isBackingOff());
+    }
+}
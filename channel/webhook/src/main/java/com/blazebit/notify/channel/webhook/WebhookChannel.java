@@ -0,0 +1,600 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.webhook;
+
+import com.blazebit.job.ConfigurationSource;
+import com.blazebit.job.JobRateLimitException;
+import com.blazebit.job.JobTemporaryException;
+import com.blazebit.notify.Channel;
+import com.blazebit.notify.ChannelKey;
+import com.blazebit.notify.NotificationException;
+import com.blazebit.notify.NotificationRecipient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A channel that posts the body of notification messages to a HTTP endpoint.
+ * <p>
+ * Requests are sent asynchronously on a pool of threads that reuse the keep-alive connections of the JDK HTTP client,
+ * and the amount of requests in flight is bounded per host, also across channels.
+ * If the endpoint declares that it accepts batches via {@link #WEBHOOK_BATCH_SIZE_PROPERTY}, the JSON bodies of multiple messages are posted as one JSON array.
+ * <p>
+ * A response with status 429 is translated to a {@link JobRateLimitException} and a response with status 503 to a {@link JobTemporaryException}.
+ * If the response has a <code>Retry-After</code> header, further requests to the host fail fast with the same exception until that time passed.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public class WebhookChannel implements Channel<NotificationRecipient<?>, WebhookNotificationMessage> {
+
+    /**
+     * The key for which the channel is registered.
+     */
+    public static final ChannelKey<WebhookChannel> KEY = ChannelKey.of("webhook", WebhookChannel.class);
+
+    /**
+     * The configuration property for the URL of the endpoint.
+     */
+    public static final String WEBHOOK_URL_PROPERTY = "channel.webhook.url";
+    /**
+     * The configuration property for the value of the <code>Authorization</code> header.
+     */
+    public static final String WEBHOOK_AUTHORIZATION_PROPERTY = "channel.webhook.authorization";
+    /**
+     * The configuration property for the maximum amount of requests in flight to the host of the endpoint.
+     */
+    public static final String WEBHOOK_MAX_IN_FLIGHT_PROPERTY = "channel.webhook.max_in_flight";
+    /**
+     * The configuration property for the maximum time in milliseconds to wait for a request in flight to complete when the limit is reached.
+     */
+    public static final String WEBHOOK_IN_FLIGHT_TIMEOUT_PROPERTY = "channel.webhook.in_flight_timeout";
+    /**
+     * The configuration property for the connection timeout in milliseconds.
+     */
+    public static final String WEBHOOK_CONNECTION_TIMEOUT_PROPERTY = "channel.webhook.connection_timeout";
+    /**
+     * The configuration property for the read timeout in milliseconds.
+     */
+    public static final String WEBHOOK_TIMEOUT_PROPERTY = "channel.webhook.timeout";
+    /**
+     * The configuration property for the maximum amount of JSON messages that the endpoint accepts as JSON array in one request or 1 if it doesn't accept batches.
+     */
+    public static final String WEBHOOK_BATCH_SIZE_PROPERTY = "channel.webhook.batch_size";
+
+    static final Set<String> TRANSPORT_PROPERTY_NAMES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        WEBHOOK_URL_PROPERTY,
+        WEBHOOK_AUTHORIZATION_PROPERTY,
+        WEBHOOK_MAX_IN_FLIGHT_PROPERTY,
+        WEBHOOK_IN_FLIGHT_TIMEOUT_PROPERTY,
+        WEBHOOK_CONNECTION_TIMEOUT_PROPERTY,
+        WEBHOOK_TIMEOUT_PROPERTY,
+        WEBHOOK_BATCH_SIZE_PROPERTY
+    )));
+
+    private static final Logger LOG = Logger.getLogger(WebhookChannel.class.getName());
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    private static final int MAX_ERROR_BODY_LENGTH = 512;
+
+    private final URL url;
+    private final String authorization;
+    private final int connectionTimeout;
+    private final int timeout;
+    private final int maxInFlight;
+    private final int batchSize;
+    private final WebhookHost host;
+    private final ExecutorService executorService;
+
+    /**
+     * Creates a new webhook channel from the given configuration source.
+     *
+     * @param configurationSource The configuration source
+     */
+    public WebhookChannel(ConfigurationSource configurationSource) {
+        this(fromConfigurationSource(configurationSource));
+    }
+
+    /**
+     * Creates a new webhook channel from the given config.
+     *
+     * @param config The config
+     */
+    public WebhookChannel(Config config) {
+        if (config.url == null) {
+            throw new IllegalArgumentException("No URL given for webhook channel!");
+        }
+        try {
+            this.url = new URL(config.url);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid URL given for webhook channel: " + config.url, e);
+        }
+        this.authorization = config.authorization;
+        this.connectionTimeout = (int) config.connectionTimeout;
+        this.timeout = (int) config.timeout;
+        this.maxInFlight = config.maxInFlight;
+        this.batchSize = Math.max(1, config.batchSize);
+        this.host = WebhookHost.get(url, config.maxInFlight, config.inFlightTimeout);
+        // Requests are only started when the in flight limiter allows it, so this many threads are enough
+        this.executorService = Executors.newFixedThreadPool(config.maxInFlight, r -> {
+            Thread thread = new Thread(r, "blaze-notify-webhook-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        LOG.log(Level.FINEST, "Webhook channel opened");
+    }
+
+    private static Config fromConfigurationSource(ConfigurationSource configurationSource) {
+        return Config.builder()
+            .withUrl(configurationSource.getPropertyOrFail(WEBHOOK_URL_PROPERTY, String.class, Function.identity()))
+            .withAuthorization(configurationSource.getPropertyOrDefault(WEBHOOK_AUTHORIZATION_PROPERTY, String.class, Function.identity(), o -> null))
+            .withMaxInFlight(configurationSource.getPropertyOrDefault(WEBHOOK_MAX_IN_FLIGHT_PROPERTY, Integer.class, Integer::valueOf, o -> 10))
+            .withInFlightTimeout(configurationSource.getPropertyOrDefault(WEBHOOK_IN_FLIGHT_TIMEOUT_PROPERTY, Long.class, Long::valueOf, o -> 10000L))
+            .withConnectionTimeout(configurationSource.getPropertyOrDefault(WEBHOOK_CONNECTION_TIMEOUT_PROPERTY, Long.class, Long::valueOf, o -> 5000L))
+            .withTimeout(configurationSource.getPropertyOrDefault(WEBHOOK_TIMEOUT_PROPERTY, Long.class, Long::valueOf, o -> 30000L))
+            .withBatchSize(configurationSource.getPropertyOrDefault(WEBHOOK_BATCH_SIZE_PROPERTY, Integer.class, Integer::valueOf, o -> 1))
+            .build();
+    }
+
+    @Override
+    public void close() {
+        executorService.shutdown();
+    }
+
+    @Override
+    public Class<WebhookNotificationMessage> getNotificationMessageType() {
+        return WebhookNotificationMessage.class;
+    }
+
+    @Override
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    @Override
+    public boolean isBatchingSupported() {
+        return batchSize > 1;
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return batchSize * maxInFlight;
+    }
+
+    @Override
+    public Object sendNotificationMessage(NotificationRecipient<?> recipient, WebhookNotificationMessage message) {
+        try {
+            return sendNotificationMessageAsync(recipient, message).toCompletableFuture().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new NotificationException(e.getCause());
+        }
+    }
+
+    @Override
+    public CompletionStage<Object> sendNotificationMessageAsync(NotificationRecipient<?> recipient, WebhookNotificationMessage message) {
+        return post(message.getContentType(), message.getBody());
+    }
+
+    @Override
+    public Object[] sendNotificationMessages(List<? extends NotificationRecipient<?>> recipients, List<? extends WebhookNotificationMessage> messages) {
+        if (batchSize == 1) {
+            return Channel.super.sendNotificationMessages(recipients, messages);
+        }
+        int size = messages.size();
+        if (size != recipients.size()) {
+            throw new IllegalArgumentException("The amount of recipients and messages must match!");
+        }
+        Object[] results = new Object[size];
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        List<Integer> batch = new ArrayList<>(batchSize);
+        try {
+            for (int i = 0; i < size; i++) {
+                WebhookNotificationMessage message = messages.get(i);
+                if (message.isJson()) {
+                    batch.add(i);
+                    if (batch.size() == batchSize) {
+                        futures.add(postBatch(messages, batch, results));
+                        batch = new ArrayList<>(batchSize);
+                    }
+                } else {
+                    futures.add(record(post(message.getContentType(), message.getBody()), results, Collections.singletonList(i)));
+                }
+            }
+            if (!batch.isEmpty()) {
+                futures.add(postBatch(messages, batch, results));
+            }
+        } catch (RuntimeException e) {
+            // The host is unavailable or asked to defer requests, so there is no point in trying the remaining messages
+            for (int i = 0; i < size; i++) {
+                if (results[i] == null) {
+                    results[i] = e;
+                }
+            }
+        }
+        for (CompletableFuture<?> future : futures) {
+            // The futures record their results and never complete exceptionally
+            future.join();
+        }
+        return results;
+    }
+
+    private CompletableFuture<Void> postBatch(List<? extends WebhookNotificationMessage> messages, List<Integer> indices, Object[] results) {
+        StringBuilder sb = new StringBuilder();
+        sb.append('[');
+        for (int i = 0; i < indices.size(); i++) {
+            if (i != 0) {
+                sb.append(',');
+            }
+            sb.append(messages.get(indices.get(i)).getBody());
+        }
+        sb.append(']');
+        return record(post(WebhookNotificationMessage.JSON_CONTENT_TYPE, sb.toString()), results, indices);
+    }
+
+    private static CompletableFuture<Void> record(CompletionStage<Object> stage, Object[] results, List<Integer> indices) {
+        return stage.toCompletableFuture().handle((result, throwable) -> {
+            Object value = throwable == null ? result : throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+            for (Integer index : indices) {
+                results[index] = value;
+            }
+            return null;
+        });
+    }
+
+    private CompletionStage<Object> post(String contentType, String body) {
+        host.checkAvailable();
+        return host.getInFlightLimiter().submit(() -> CompletableFuture.supplyAsync(() -> execute(contentType, body), executorService));
+    }
+
+    private Object execute(String contentType, String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setUseCaches(false);
+            connection.setConnectTimeout(connectionTimeout);
+            connection.setReadTimeout(timeout);
+            connection.setFixedLengthStreamingMode(bytes.length);
+            connection.setRequestProperty("Content-Type", contentType.contains("charset=") ? contentType : contentType + "; charset=UTF-8");
+            if (authorization != null) {
+                connection.setRequestProperty("Authorization", authorization);
+            }
+            try (OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(bytes);
+            }
+            int status = connection.getResponseCode();
+            if (status >= 200 && status < 300) {
+                // The response must be consumed completely so that the connection can be reused
+                readBody(connection.getInputStream(), 0);
+                return connection.getHeaderField("Location");
+            }
+            String errorBody = readBody(connection.getErrorStream(), MAX_ERROR_BODY_LENGTH);
+            throw translateStatus(status, connection.getHeaderField("Retry-After"), errorBody);
+        } catch (IOException e) {
+            if (connection != null) {
+                connection.disconnect();
+            }
+            LOG.log(Level.FINE, "Failed to send webhook notification", e);
+            throw new JobTemporaryException(e);
+        }
+    }
+
+    private RuntimeException translateStatus(int status, String retryAfter, String errorBody) {
+        String message = "Webhook endpoint " + url + " responded with status " + status + ": " + errorBody;
+        long retryAfterMillis = parseRetryAfter(retryAfter);
+        switch (status) {
+            case 429:
+                LOG.log(Level.FINE, message);
+                if (retryAfterMillis > 0L) {
+                    host.defer(retryAfterMillis, true);
+                }
+                return new JobRateLimitException(message);
+            case 503:
+                if (retryAfterMillis > 0L) {
+                    host.defer(retryAfterMillis, false);
+                }
+                // fall through
+            case 408:
+            case 500:
+            case 502:
+            case 504:
+                LOG.log(Level.FINE, message);
+                return new JobTemporaryException(message);
+            default:
+                LOG.log(Level.SEVERE, message);
+                return new NotificationException(message);
+        }
+    }
+
+    /**
+     * Returns the time in milliseconds that is requested by the given <code>Retry-After</code> header value, which is either in seconds or a HTTP date.
+     *
+     * @param retryAfter The header value
+     * @return the time in milliseconds or -1 if the value is absent or invalid
+     */
+    static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null || retryAfter.isEmpty()) {
+            return -1L;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime date = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0L, date.toInstant().toEpochMilli() - System.currentTimeMillis());
+            } catch (DateTimeParseException ex) {
+                LOG.log(Level.FINE, "Ignoring invalid Retry-After header: " + retryAfter);
+                return -1L;
+            }
+        }
+    }
+
+    private static String readBody(InputStream inputStream, int maxLength) throws IOException {
+        if (inputStream == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        try (InputStream is = inputStream) {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                if (sb.length() < maxLength) {
+                    sb.append(new String(buffer, 0, Math.min(read, maxLength - sb.length()), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The configuration for the webhook channel.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    public static class Config {
+        private final String url;
+        private final String authorization;
+        private final int maxInFlight;
+        private final long inFlightTimeout;
+        private final long connectionTimeout;
+        private final long timeout;
+        private final int batchSize;
+
+        /**
+         * Create a new config.
+         *
+         * @param url               The URL of the endpoint
+         * @param authorization     The value of the <code>Authorization</code> header
+         * @param maxInFlight       The maximum amount of requests in flight to the host of the endpoint
+         * @param inFlightTimeout   The maximum time in milliseconds to wait for a request in flight to complete when the limit is reached
+         * @param connectionTimeout The connection timeout in milliseconds
+         * @param timeout           The read timeout in milliseconds
+         * @param batchSize         The maximum amount of JSON messages that the endpoint accepts in one request
+         */
+        Config(String url, String authorization, int maxInFlight, long inFlightTimeout, long connectionTimeout, long timeout, int batchSize) {
+            this.url = url;
+            this.authorization = authorization;
+            this.maxInFlight = maxInFlight;
+            this.inFlightTimeout = inFlightTimeout;
+            this.connectionTimeout = connectionTimeout;
+            this.timeout = timeout;
+            this.batchSize = batchSize;
+        }
+
+        /**
+         * Returns the URL of the endpoint.
+         *
+         * @return the URL
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * Returns the value of the <code>Authorization</code> header.
+         *
+         * @return the authorization
+         */
+        public String getAuthorization() {
+            return authorization;
+        }
+
+        /**
+         * Returns the maximum amount of requests in flight to the host of the endpoint.
+         *
+         * @return the maximum amount of requests in flight
+         */
+        public int getMaxInFlight() {
+            return maxInFlight;
+        }
+
+        /**
+         * Returns the maximum time in milliseconds to wait for a request in flight to complete when the limit is reached.
+         *
+         * @return the in flight timeout
+         */
+        public long getInFlightTimeout() {
+            return inFlightTimeout;
+        }
+
+        /**
+         * Returns the connection timeout in milliseconds.
+         *
+         * @return the connection timeout
+         */
+        public long getConnectionTimeout() {
+            return connectionTimeout;
+        }
+
+        /**
+         * Returns the read timeout in milliseconds.
+         *
+         * @return the read timeout
+         */
+        public long getTimeout() {
+            return timeout;
+        }
+
+        /**
+         * Returns the maximum amount of JSON messages that the endpoint accepts as JSON array in one request.
+         *
+         * @return the batch size
+         */
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        /**
+         * Returns a new configuration builder.
+         *
+         * @return a new configuration builder
+         */
+        public static Builder builder() {
+            return new Builder();
+        }
+
+        /**
+         * The configuration builder.
+         *
+         * @author Christian Beikov
+         * @since 1.0.0
+         */
+        public static class Builder {
+            private String url;
+            private String authorization;
+            private int maxInFlight = 10;
+            private long inFlightTimeout = 10000L;
+            private long connectionTimeout = 5000L;
+            private long timeout = 30000L;
+            private int batchSize = 1;
+
+            /**
+             * Returns the configuration.
+             *
+             * @return the configuration
+             */
+            public Config build() {
+                return new Config(url, authorization, maxInFlight, inFlightTimeout, connectionTimeout, timeout, batchSize);
+            }
+
+            /**
+             * Sets the given URL of the endpoint.
+             *
+             * @param url The URL
+             * @return <code>this</code> for chaining
+             */
+            public Builder withUrl(String url) {
+                this.url = url;
+                return this;
+            }
+
+            /**
+             * Sets the given value of the <code>Authorization</code> header.
+             *
+             * @param authorization The authorization
+             * @return <code>this</code> for chaining
+             */
+            public Builder withAuthorization(String authorization) {
+                this.authorization = authorization;
+                return this;
+            }
+
+            /**
+             * Sets the given maximum amount of requests in flight to the host of the endpoint.
+             *
+             * @param maxInFlight The maximum amount of requests in flight
+             * @return <code>this</code> for chaining
+             */
+            public Builder withMaxInFlight(int maxInFlight) {
+                this.maxInFlight = maxInFlight;
+                return this;
+            }
+
+            /**
+             * Sets the given maximum time in milliseconds to wait for a request in flight to complete when the limit is reached.
+             *
+             * @param inFlightTimeout The in flight timeout
+             * @return <code>this</code> for chaining
+             */
+            public Builder withInFlightTimeout(long inFlightTimeout) {
+                this.inFlightTimeout = inFlightTimeout;
+                return this;
+            }
+
+            /**
+             * Sets the given connection timeout in milliseconds.
+             *
+             * @param connectionTimeout The connection timeout
+             * @return <code>this</code> for chaining
+             */
+            public Builder withConnectionTimeout(long connectionTimeout) {
+                this.connectionTimeout = connectionTimeout;
+                return this;
+            }
+
+            /**
+             * Sets the given read timeout in milliseconds.
+             *
+             * @param timeout The read timeout
+             * @return <code>this</code> for chaining
+             */
+            public Builder withTimeout(long timeout) {
+                this.timeout = timeout;
+                return this;
+            }
+
+            /**
+             * Sets the given maximum amount of JSON messages that the endpoint accepts as JSON array in one request or 1 if it doesn't accept batches.
+             *
+             * @param batchSize The batch size
+             * @return <code>this</code> for chaining
+             */
+            public Builder withBatchSize(int batchSize) {
+                this.batchSize = batchSize;
+                return this;
+            }
+        }
+    }
+}
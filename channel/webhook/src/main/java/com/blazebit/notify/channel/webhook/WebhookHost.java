@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.webhook;
+
+import com.blazebit.job.JobRateLimitException;
+import com.blazebit.job.JobTemporaryException;
+import com.blazebit.notify.InFlightLimiter;
+
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The state of a HTTP host that is shared by all webhook channels of the JVM that send to the host.
+ * It bounds the amount of requests in flight to the host and remembers until when the host asked to defer requests via <code>Retry-After</code>.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+final class WebhookHost {
+
+    private static final ConcurrentMap<String, WebhookHost> HOSTS = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final InFlightLimiter inFlightLimiter;
+    // The time until which requests are deferred and whether the host was overloaded or rate limited us, guarded by this
+    private long deferredUntilNanos;
+    private boolean rateLimited;
+
+    private WebhookHost(String name, int maxInFlight, long inFlightTimeout) {
+        this.name = name;
+        this.inFlightLimiter = new InFlightLimiter(maxInFlight, inFlightTimeout);
+        this.deferredUntilNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns the host state for the host of the given URL.
+     * The in flight limit of the first channel that sends to a host applies.
+     *
+     * @param url The URL
+     * @param maxInFlight The maximum amount of requests in flight to the host
+     * @param inFlightTimeout The maximum time in milliseconds to wait for a request in flight to complete when the limit is reached
+     * @return the host state
+     */
+    static WebhookHost get(URL url, int maxInFlight, long inFlightTimeout) {
+        String name = url.getProtocol() + "://" + url.getHost() + ":" + (url.getPort() == -1 ? url.getDefaultPort() : url.getPort());
+        return HOSTS.computeIfAbsent(name, k -> new WebhookHost(k, maxInFlight, inFlightTimeout));
+    }
+
+    /**
+     * Returns the limiter for requests in flight to the host.
+     *
+     * @return the in flight limiter
+     */
+    InFlightLimiter getInFlightLimiter() {
+        return inFlightLimiter;
+    }
+
+    /**
+     * Fails if the host asked to defer requests for a time that did not pass yet.
+     *
+     * @throws JobRateLimitException If the host rate limited a previous request
+     * @throws JobTemporaryException If the host was unavailable for a previous request
+     */
+    synchronized void checkAvailable() {
+        long remainingNanos = deferredUntilNanos - System.nanoTime();
+        if (remainingNanos > 0L) {
+            String message = "Host " + name + " asked to retry after " + TimeUnit.NANOSECONDS.toMillis(remainingNanos) + "ms";
+            if (rateLimited) {
+                throw new JobRateLimitException(message);
+            }
+            throw new JobTemporaryException(message);
+        }
+    }
+
+    /**
+     * Defers requests to the host for the given time.
+     *
+     * @param retryAfterMillis The time in milliseconds to defer requests
+     * @param rateLimited Whether the host rate limited the request rather than being unavailable
+     */
+    synchronized void defer(long retryAfterMillis, boolean rateLimited) {
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryAfterMillis);
+        if (until - deferredUntilNanos > 0L) {
+            deferredUntilNanos = until;
+            this.rateLimited = rateLimited;
+        }
+    }
+}
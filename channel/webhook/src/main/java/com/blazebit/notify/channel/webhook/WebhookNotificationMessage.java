@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.webhook;
+
+import com.blazebit.notify.NotificationMessage;
+
+/**
+ * A notification message that is posted as request body to a HTTP endpoint.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public class WebhookNotificationMessage implements NotificationMessage {
+
+    /**
+     * The content type for JSON request bodies.
+     */
+    public static final String JSON_CONTENT_TYPE = "application/json";
+
+    private final String contentType;
+    private final String body;
+
+    /**
+     * Creates a new message with a JSON body.
+     *
+     * @param body The JSON body
+     */
+    public WebhookNotificationMessage(String body) {
+        this(JSON_CONTENT_TYPE, body);
+    }
+
+    /**
+     * Creates a new message.
+     *
+     * @param contentType The content type of the body
+     * @param body The body
+     */
+    public WebhookNotificationMessage(String contentType, String body) {
+        this.contentType = contentType;
+        this.body = body;
+    }
+
+    /**
+     * Returns the content type of the body.
+     *
+     * @return the content type
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Returns the body.
+     *
+     * @return the body
+     */
+    public String getBody() {
+        return body;
+    }
+
+    /**
+     * Returns whether the body is JSON and can be combined with the bodies of other JSON messages into a JSON array.
+     *
+     * @return whether the body is JSON
+     */
+    public boolean isJson() {
+        return contentType != null && (contentType.equals(JSON_CONTENT_TYPE) || contentType.startsWith(JSON_CONTENT_TYPE + ";"));
+    }
+
+    @Override
+    public String toString() {
+        return body;
+    }
+}
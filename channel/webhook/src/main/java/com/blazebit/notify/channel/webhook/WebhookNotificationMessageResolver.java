@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.webhook;
+
+import com.blazebit.job.ConfigurationSource;
+import com.blazebit.notify.Notification;
+import com.blazebit.notify.NotificationException;
+import com.blazebit.notify.NotificationJobContext;
+import com.blazebit.notify.NotificationMessageResolver;
+import com.blazebit.notify.NotificationMessageModel;
+import com.blazebit.notify.NotificationMessageResolverModelCustomizer;
+import com.blazebit.notify.template.api.TemplateContext;
+import com.blazebit.notify.template.api.TemplateProcessor;
+import com.blazebit.notify.template.api.TemplateProcessorFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.function.Function;
+
+/**
+ * A message resolver for webhook notification messages that renders the request body, usually JSON, with a template processor.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public class WebhookNotificationMessageResolver implements NotificationMessageResolver<WebhookNotificationMessage> {
+
+    /**
+     * The configuration property for the content type of the request body.
+     */
+    public static final String WEBHOOK_MESSAGE_CONTENT_TYPE_PROPERTY = "message.webhook.content_type";
+    /**
+     * The configuration property for the webhook {@link ResourceBundle}.
+     */
+    public static final String WEBHOOK_MESSAGE_RESOURCE_BUNDLE_PROPERTY = "message.webhook.resource_bundle";
+    /**
+     * The configuration property for the {@link TemplateContext} to use for the body property.
+     */
+    public static final String WEBHOOK_TEMPLATE_CONTEXT_PROPERTY = "message.webhook.template_context";
+    /**
+     * The configuration property for the {@link TemplateProcessorFactory} to use for the body property.
+     */
+    public static final String WEBHOOK_TEMPLATE_PROCESSOR_FACTORY_PROPERTY = "message.webhook.template_processor_factory";
+    /**
+     * The configuration property for the request body.
+     */
+    public static final String WEBHOOK_MESSAGE_BODY_PROPERTY = "message.webhook.body";
+
+    private final NotificationJobContext notificationJobContext;
+    private final String contentType;
+    private final Function<Locale, ResourceBundle> resourceBundleAccessor;
+    private final TemplateProcessor<String> bodyTemplateProcessor;
+    private final List<NotificationMessageResolverModelCustomizer> modelCustomizers;
+
+    /**
+     * Creates a new message resolver from the given notification job context and configuration source.
+     *
+     * @param jobContext           The notification job context
+     * @param configurationSource  The configuration source
+     * @param modelCustomizers     A list of model customizers
+     */
+    public WebhookNotificationMessageResolver(NotificationJobContext jobContext, ConfigurationSource configurationSource, List<NotificationMessageResolverModelCustomizer> modelCustomizers) {
+        this.notificationJobContext = jobContext;
+        this.contentType = configurationSource.getPropertyOrDefault(WEBHOOK_MESSAGE_CONTENT_TYPE_PROPERTY, String.class, Function.identity(), o -> WebhookNotificationMessage.JSON_CONTENT_TYPE);
+        this.resourceBundleAccessor = configurationSource.getPropertyOrDefault(WEBHOOK_MESSAGE_RESOURCE_BUNDLE_PROPERTY, Function.class, s -> resourceBundleByName(s), o -> null);
+        TemplateContext templateContext = configurationSource.getPropertyOrDefault(WEBHOOK_TEMPLATE_CONTEXT_PROPERTY, TemplateContext.class, null, o -> jobContext.getService(TemplateContext.class));
+        TemplateProcessorFactory templateProcessorFactory = configurationSource.getPropertyOrDefault(WEBHOOK_TEMPLATE_PROCESSOR_FACTORY_PROPERTY, TemplateProcessorFactory.class, s -> {
+            if (templateContext == null) {
+                throw new NotificationException("No template context given!");
+            }
+            return templateContext.getTemplateProcessorFactory(s, String.class);
+        }, o -> null);
+        this.bodyTemplateProcessor = configurationSource.getPropertyOrFail(WEBHOOK_MESSAGE_BODY_PROPERTY, TemplateProcessor.class, s -> templateProcessorByName(templateContext, templateProcessorFactory, configurationSource, s));
+        this.modelCustomizers = modelCustomizers == null ? Collections.emptyList() : modelCustomizers;
+    }
+
+    /**
+     * Creates a new message resolver.
+     *
+     * @param jobContext            The notification job context
+     * @param contentType           The content type of the request body
+     * @param resourceBundleName    The resource bundle name
+     * @param bodyTemplateProcessor The body template processor
+     * @param modelCustomizers      A list of model customizers
+     */
+    public WebhookNotificationMessageResolver(NotificationJobContext jobContext, String contentType, String resourceBundleName, TemplateProcessor<String> bodyTemplateProcessor,
+                                              List<NotificationMessageResolverModelCustomizer> modelCustomizers) {
+        this.notificationJobContext = jobContext;
+        this.contentType = contentType == null ? WebhookNotificationMessage.JSON_CONTENT_TYPE : contentType;
+        this.resourceBundleAccessor = resourceBundleName == null ? null : resourceBundleByName(resourceBundleName);
+        this.bodyTemplateProcessor = bodyTemplateProcessor;
+        this.modelCustomizers = modelCustomizers == null ? Collections.emptyList() : modelCustomizers;
+    }
+
+    private static Function<Locale, ResourceBundle> resourceBundleByName(String name) {
+        return locale -> ResourceBundle.getBundle(name, locale);
+    }
+
+    private static TemplateProcessor<String> templateProcessorByName(TemplateContext templateContext, TemplateProcessorFactory<String> templateProcessorFactory, ConfigurationSource configurationSource, String string) {
+        if (templateContext == null) {
+            throw new NotificationException("No template context given!");
+        }
+        if (templateProcessorFactory == null) {
+            throw new NotificationException("No template processor factory given!");
+        }
+        return templateContext.getTemplateProcessor(templateProcessorFactory, key -> {
+            if ("template".equals(key)) {
+                return string;
+            } else {
+                return configurationSource.getProperty(key);
+            }
+        });
+    }
+
+    @Override
+    public WebhookNotificationMessage resolveNotificationMessage(Notification<?> notification) {
+        // The model is built once and shared by all message parts
+        NotificationMessageModel model = NotificationMessageModel.of(notification, resourceBundleAccessor);
+        for (NotificationMessageResolverModelCustomizer modelCustomizer : modelCustomizers) {
+            modelCustomizer.customize(model, notification, notificationJobContext);
+        }
+        model.readOnly();
+
+        return new WebhookNotificationMessage(contentType, bodyTemplateProcessor.processTemplate(model));
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.channel.webhook;
+
+import com.blazebit.job.JobRateLimitException;
+import com.blazebit.job.JobTemporaryException;
+import com.blazebit.notify.NotificationException;
+import com.blazebit.notify.NotificationRecipient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WebhookChannelTest {
+
+    private static final NotificationRecipient<?> RECIPIENT = NotificationRecipient.of(1L, Locale.ENGLISH);
+
+    private final List<String> bodies = new CopyOnWriteArrayList<>();
+    private volatile int status = 200;
+    private volatile String retryAfter;
+    private HttpServer server;
+    private WebhookChannel channel;
+
+    @Before
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (channel != null) {
+            channel.close();
+        }
+        server.stop(0);
+    }
+
+    @Test
+    public void postJsonMessagesAsArrayWhenBatchingIsDeclared() {
+        channel = createChannel(10);
+        List<NotificationRecipient<?>> recipients = new ArrayList<>();
+        List<WebhookNotificationMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            recipients.add(RECIPIENT);
+            messages.add(new WebhookNotificationMessage("{\"id\":" + i + "}"));
+        }
+        recipients.add(RECIPIENT);
+        messages.add(new WebhookNotificationMessage("text/plain", "plain"));
+
+        Object[] results = channel.sendNotificationMessages(recipients, messages);
+
+        for (Object result : results) {
+            assertTrue(String.valueOf(result), !(result instanceof Throwable));
+        }
+        List<Integer> batchSizes = new ArrayList<>();
+        for (String body : bodies) {
+            if (body.startsWith("[")) {
+                batchSizes.add(body.split(",").length);
+            } else {
+                assertEquals("plain", body);
+            }
+        }
+        Collections.sort(batchSizes);
+        assertEquals("[5, 10, 10]", batchSizes.toString());
+        assertEquals(4, bodies.size());
+    }
+
+    @Test
+    public void deferRequestsToHostAfterRetryAfter() {
+        channel = createChannel(1);
+        status = 429;
+        retryAfter = "60";
+        try {
+            channel.sendNotificationMessage(RECIPIENT, new WebhookNotificationMessage("{}"));
+            fail("Expected rate limit");
+        } catch (JobRateLimitException expected) {
+        }
+        status = 200;
+        try {
+            channel.sendNotificationMessage(RECIPIENT, new WebhookNotificationMessage("{}"));
+            fail("Expected rate limit");
+        } catch (JobRateLimitException expected) {
+        }
+        // The second send is rejected without a request
+        assertEquals(1, bodies.size());
+    }
+
+    @Test
+    public void translateServerErrors() {
+        channel = createChannel(1);
+        status = 503;
+        try {
+            channel.sendNotificationMessage(RECIPIENT, new WebhookNotificationMessage("{}"));
+            fail("Expected temporary failure");
+        } catch (JobTemporaryException expected) {
+        }
+        status = 400;
+        try {
+            channel.sendNotificationMessage(RECIPIENT, new WebhookNotificationMessage("{}"));
+            fail("Expected failure");
+        } catch (NotificationException expected) {
+        }
+        assertEquals(2, bodies.size());
+    }
+
+    @Test
+    public void parseRetryAfter() {
+        assertEquals(120000L, WebhookChannel.parseRetryAfter("120"));
+        assertEquals(-1L, WebhookChannel.parseRetryAfter("soon"));
+        assertEquals(0L, WebhookChannel.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+    }
+
+    private WebhookChannel createChannel(int batchSize) {
+        return new WebhookChannel(WebhookChannel.Config.builder()
+                .withUrl("http://localhost:" + server.getAddress().getPort() + "/hook")
+                .withBatchSize(batchSize)
+                .build());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (InputStream is = exchange.getRequestBody()) {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                baos.write(buffer, 0, read);
+            }
+        }
+        bodies.add(new String(baos.toByteArray(), StandardCharsets.UTF_8));
+        if (retryAfter != null) {
+            exchange.getResponseHeaders().add("Retry-After", retryAfter);
+        }
+        byte[] response = "{}".getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, response.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(response);
+        }
+    }
+}
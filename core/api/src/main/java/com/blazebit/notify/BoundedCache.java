@@ -0,0 +1,315 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.blazebit.notify;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A cache that is bounded by size and evicts entries that were not accessed for a configurable idle time.
+ * When the cache is full, the least recently accessed entry is evicted. Evicted values are passed to an eviction listener.
+ * Since a value might still be in use by another thread when it is evicted, the listener must not release resources that are needed for using the value.
+ *
+ * Values are created outside of the locks of the underlying map, so a slow creation only blocks lookups for the same key.
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public class BoundedCache<K, V> implements CacheStatistics {
+
+    private static final Logger LOG = Logger.getLogger(BoundedCache.class.getName());
+
+    private final int maxSize;
+    private final long idleTimeoutNanos;
+    private final BiConsumer<? super K, ? super V> evictionListener;
+    private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final AtomicLong nextIdleSweep;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize The maximum amount of entries
+     * @param idleTimeoutMillis The time in milliseconds after which an entry that was not accessed is evicted or 0 to disable idle eviction
+     * @param evictionListener The listener to invoke with evicted values
+     */
+    public BoundedCache(int maxSize, long idleTimeoutMillis, Consumer<? super V> evictionListener) {
+        this(maxSize, idleTimeoutMillis, (BiConsumer<K, V>) (key, value) -> evictionListener.accept(value));
+    }
+
+    /**
+     * Creates a new cache with an eviction listener that also receives the key of an evicted value.
+     *
+     * @param maxSize The maximum amount of entries
+     * @param idleTimeoutMillis The time in milliseconds after which an entry that was not accessed is evicted or 0 to disable idle eviction
+     * @param evictionListener The listener to invoke with the keys and values of evicted entries
+     */
+    public BoundedCache(int maxSize, long idleTimeoutMillis, BiConsumer<? super K, ? super V> evictionListener) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("The maximum cache size must be positive but was: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.evictionListener = evictionListener;
+        this.nextIdleSweep = new AtomicLong(System.nanoTime() + idleTimeoutNanos);
+    }
+
+    /**
+     * Returns the value for the given key, creating it with the given loader if there is none.
+     * Concurrent lookups for the same key wait for the creation, while lookups for other keys are not affected.
+     *
+     * @param key The key
+     * @param loader The loader to create a value for the key
+     * @return the value
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        long now = System.nanoTime();
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            Entry<V> newEntry = new Entry<>(now);
+            entry = entries.putIfAbsent(key, newEntry);
+            if (entry == null) {
+                misses.increment();
+                V value = load(key, newEntry, loader);
+                evictEntries(now);
+                return value;
+            }
+        }
+        hits.increment();
+        entry.lastAccess = now;
+        sweepIdleEntries(now);
+        return entry.getValue();
+    }
+
+    /**
+     * Returns the value for the given key or <code>null</code> if there is none or it is still being created.
+     *
+     * @param key The key
+     * @return the value or <code>null</code>
+     */
+    public V getIfPresent(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null || !entry.future.isDone() || entry.future.isCompletedExceptionally()) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        entry.lastAccess = System.nanoTime();
+        return entry.future.getNow(null);
+    }
+
+    /**
+     * Caches the given value for the given key, replacing an existing value without passing it to the eviction listener,
+     * and evicts the least recently accessed entry if the cache is full.
+     *
+     * @param key The key
+     * @param value The value
+     */
+    public void put(K key, V value) {
+        long now = System.nanoTime();
+        Entry<V> entry = new Entry<>(now);
+        entry.future.complete(value);
+        if (entries.put(key, entry) == null) {
+            evictEntries(now);
+        }
+    }
+
+    /**
+     * Removes the entry for the given key and returns its value without passing it to the eviction listener.
+     *
+     * @param key The key
+     * @return the removed value or <code>null</code> if there is none or it is still being created
+     */
+    public V remove(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null || !entry.future.isDone() || entry.future.isCompletedExceptionally() || !entries.remove(key, entry)) {
+            return null;
+        }
+        return entry.future.getNow(null);
+    }
+
+    /**
+     * Evicts the entries that were not accessed for the idle time, at most every half idle time.
+     * Lookups do this on their own, so this is only needed for caches that are rarely queried.
+     */
+    public void evictIdleEntries() {
+        sweepIdleEntries(System.nanoTime());
+    }
+
+    /**
+     * Removes the entry for the given key without passing the value to the eviction listener, because the value is known to be invalid.
+     *
+     * @param key The key
+     */
+    public void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Removes all entries and passes the values to the eviction listener.
+     */
+    public void clear() {
+        for (Map.Entry<K, Entry<V>> entry : entries.entrySet()) {
+            if (entries.remove(entry.getKey(), entry.getValue())) {
+                notifyListener(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return entries.size();
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private V load(K key, Entry<V> entry, Function<? super K, ? extends V> loader) {
+        V value;
+        try {
+            value = loader.apply(key);
+        } catch (RuntimeException | Error e) {
+            entries.remove(key, entry);
+            entry.future.completeExceptionally(e);
+            throw e;
+        }
+        if (value == null) {
+            // Don't cache absent values
+            entries.remove(key, entry);
+        }
+        entry.future.complete(value);
+        return value;
+    }
+
+    private void evictEntries(long now) {
+        if (idleTimeoutNanos > 0L) {
+            evictIdleEntries(now);
+        }
+        while (entries.size() > maxSize) {
+            K eldestKey = null;
+            Entry<V> eldestEntry = null;
+            for (Map.Entry<K, Entry<V>> entry : entries.entrySet()) {
+                Entry<V> value = entry.getValue();
+                if (value.future.isDone() && (eldestEntry == null || value.lastAccess - eldestEntry.lastAccess < 0L)) {
+                    eldestKey = entry.getKey();
+                    eldestEntry = value;
+                }
+            }
+            if (eldestEntry == null) {
+                // Only entries that are still being created remain
+                break;
+            }
+            if (entries.remove(eldestKey, eldestEntry)) {
+                evict(eldestKey, eldestEntry);
+            }
+        }
+    }
+
+    private void sweepIdleEntries(long now) {
+        if (idleTimeoutNanos > 0L) {
+            long nextSweep = nextIdleSweep.get();
+            if (now - nextSweep >= 0L && nextIdleSweep.compareAndSet(nextSweep, now + idleTimeoutNanos / 2)) {
+                evictIdleEntries(now);
+            }
+        }
+    }
+
+    private void evictIdleEntries(long now) {
+        for (Map.Entry<K, Entry<V>> entry : entries.entrySet()) {
+            Entry<V> value = entry.getValue();
+            if (value.future.isDone() && now - value.lastAccess > idleTimeoutNanos && entries.remove(entry.getKey(), value)) {
+                evict(entry.getKey(), value);
+            }
+        }
+    }
+
+    private void evict(K key, Entry<V> entry) {
+        evictions.increment();
+        notifyListener(key, entry);
+    }
+
+    private void notifyListener(K key, Entry<V> entry) {
+        if (entry.future.isDone() && !entry.future.isCompletedExceptionally()) {
+            V value = entry.future.getNow(null);
+            if (value != null) {
+                try {
+                    evictionListener.accept(key, value);
+                } catch (RuntimeException e) {
+                    LOG.log(Level.WARNING, "Failed to release evicted cache value: " + value, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A cache entry.
+     *
+     * @param <V> The value type
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    private static final class Entry<V> {
+
+        private final CompletableFuture<V> future = new CompletableFuture<>();
+        private volatile long lastAccess;
+
+        private Entry(long lastAccess) {
+            this.lastAccess = lastAccess;
+        }
+
+        public V getValue() {
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new NotificationException(cause);
+            }
+        }
+    }
+}
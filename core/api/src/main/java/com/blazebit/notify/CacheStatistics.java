@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.blazebit.notify;
+
+/**
+ * Statistics of a cache.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public interface CacheStatistics {
+
+    /**
+     * Returns the amount of entries that are currently cached.
+     *
+     * @return the amount of cached entries
+     */
+    int getSize();
+
+    /**
+     * Returns the amount of lookups that were served by an existing entry.
+     *
+     * @return the hit count
+     */
+    long getHitCount();
+
+    /**
+     * Returns the amount of lookups that had to create a new entry.
+     *
+     * @return the miss count
+     */
+    long getMissCount();
+
+    /**
+     * Returns the amount of entries that were evicted because the cache was full or because they were idle for too long.
+     *
+     * @return the eviction count
+     */
+    long getEvictionCount();
+}
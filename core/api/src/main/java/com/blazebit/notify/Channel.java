@@ -16,6 +16,13 @@
 
 package com.blazebit.notify;
 
+import com.blazebit.job.JobTemporaryException;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
 /**
  * A channel is a protocol specific implementation for sending notification messages.
  * The recipient and the message interfaces are dictated by the protocol.
@@ -46,4 +53,114 @@ public interface Channel<R extends NotificationRecipient<?>, M extends Notificat
      */
     Object sendNotificationMessage(R recipient, M message);
 
+    /**
+     * Sends the given message to the given recipient without blocking on I/O, if the channel supports that.
+     * The returned stage completes with the send identifier as returned by {@link #sendNotificationMessage(NotificationRecipient, NotificationMessage)}
+     * or exceptionally with the same exceptions. Channels must bound the amount of sends in flight to {@link #getMaxInFlight()},
+     * which usually means this method blocks the caller until a previously started send completes.
+     *
+     * The default implementation sends synchronously and returns a completed stage.
+     *
+     * @param recipient The recipient
+     * @param message The message
+     * @return The completion stage for the send identifier
+     */
+    default CompletionStage<Object> sendNotificationMessageAsync(R recipient, M message) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        try {
+            future.complete(sendNotificationMessage(recipient, message));
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Returns the maximum amount of sends started via {@link #sendNotificationMessageAsync(NotificationRecipient, NotificationMessage)} that may be in flight at once.
+     *
+     * @return the maximum amount of sends in flight
+     */
+    default int getMaxInFlight() {
+        return 1;
+    }
+
+    /**
+     * Returns whether the channel natively supports sending multiple messages at once via {@link #sendNotificationMessages(List, List)}.
+     * Channels that don't support batching fall back to sending the messages one by one.
+     *
+     * @return whether the channel natively supports batching
+     */
+    default boolean isBatchingSupported() {
+        return false;
+    }
+
+    /**
+     * Returns the maximum amount of messages that should be passed to {@link #sendNotificationMessages(List, List)} at once.
+     *
+     * @return the maximum batch size
+     */
+    default int getMaxBatchSize() {
+        return 1;
+    }
+
+    /**
+     * Sends the given messages to the respective recipients at the same list index.
+     * The returned array contains at the index of a message either the send identifier as returned by {@link #sendNotificationMessage(NotificationRecipient, NotificationMessage)}
+     * or the {@link Throwable} that occurred while sending that message. A failure for one message does not affect the other messages,
+     * except for {@link JobTemporaryException} which is recorded for all remaining messages that have not been sent yet.
+     * If the channel allows more than one send in flight, the default implementation starts all sends via {@link #sendNotificationMessageAsync(NotificationRecipient, NotificationMessage)}
+     * before waiting for the results, otherwise it sends the messages one by one.
+     *
+     * @param recipients The recipients
+     * @param messages The messages
+     * @return The send identifiers or exceptions per message
+     */
+    default Object[] sendNotificationMessages(List<? extends R> recipients, List<? extends M> messages) {
+        int size = recipients.size();
+        if (size != messages.size()) {
+            throw new IllegalArgumentException("The amount of recipients and messages must match!");
+        }
+        Object[] results = new Object[size];
+        if (getMaxInFlight() > 1) {
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[size];
+            for (int i = 0; i < size; i++) {
+                try {
+                    futures[i] = sendNotificationMessageAsync(recipients.get(i), messages.get(i)).toCompletableFuture();
+                } catch (JobTemporaryException e) {
+                    // The channel is unavailable for now, so there is no point in trying the remaining messages
+                    for (; i < size; i++) {
+                        results[i] = e;
+                    }
+                } catch (RuntimeException e) {
+                    results[i] = e;
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                if (futures[i] != null) {
+                    try {
+                        results[i] = futures[i].join();
+                    } catch (CompletionException e) {
+                        results[i] = e.getCause() == null ? e : e.getCause();
+                    } catch (RuntimeException e) {
+                        results[i] = e;
+                    }
+                }
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                try {
+                    results[i] = sendNotificationMessage(recipients.get(i), messages.get(i));
+                } catch (JobTemporaryException e) {
+                    // The channel is unavailable for now, so there is no point in trying the remaining messages
+                    for (; i < size; i++) {
+                        results[i] = e;
+                    }
+                } catch (RuntimeException e) {
+                    results[i] = e;
+                }
+            }
+        }
+        return results;
+    }
+
 }
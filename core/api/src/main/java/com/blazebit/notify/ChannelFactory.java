@@ -17,6 +17,8 @@ package com.blazebit.notify;
 
 import com.blazebit.job.ConfigurationSource;
 
+import java.util.Set;
+
 /**
  * A factory for channels of a specific type.
  *
@@ -33,6 +35,18 @@ public interface ChannelFactory<C extends Channel<? extends NotificationRecipien
      */
     ChannelKey<C> getChannelType();
 
+    /**
+     * Returns the names of the configuration properties that are used to create a channel.
+     * Channels are shared between all configuration sources that have the same values for these properties,
+     * so message level properties of a configuration source don't cause the creation of separate channels.
+     * Returns <code>null</code> if the properties are unknown, in which case a channel is created per configuration source.
+     *
+     * @return the names of the configuration properties that are used to create a channel or <code>null</code>
+     */
+    default Set<String> getTransportPropertyNames() {
+        return null;
+    }
+
     /**
      * Creates a channel for the given notification job context and the given configuration source.
      *
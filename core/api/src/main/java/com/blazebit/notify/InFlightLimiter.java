@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.blazebit.notify;
+
+import com.blazebit.job.JobTemporaryException;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Bounds the amount of asynchronous operations of a channel that are in flight at the same time.
+ * A caller that submits an operation while the limit is reached waits until a previous operation completes.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public class InFlightLimiter {
+
+    private final int maxInFlight;
+    private final long acquireTimeoutMillis;
+    private final Semaphore semaphore;
+
+    /**
+     * Creates a new limiter.
+     *
+     * @param maxInFlight The maximum amount of operations in flight
+     * @param acquireTimeoutMillis The maximum time in milliseconds to wait for an operation to complete when the limit is reached
+     */
+    public InFlightLimiter(int maxInFlight, long acquireTimeoutMillis) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("The maximum amount of in flight operations must be positive but was: " + maxInFlight);
+        }
+        this.maxInFlight = maxInFlight;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.semaphore = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Starts the operation provided by the given supplier as soon as the in flight limit allows it.
+     *
+     * @param operation The supplier that starts the operation
+     * @param <T> The result type
+     * @return The completion stage of the operation
+     * @throws JobTemporaryException if the limit does not allow to start the operation within the acquire timeout
+     */
+    public <T> CompletionStage<T> submit(Supplier<? extends CompletionStage<T>> operation) {
+        try {
+            if (!semaphore.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new JobTemporaryException("Could not start operation within " + acquireTimeoutMillis + "ms because " + maxInFlight + " operations are in flight");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NotificationException("Interrupted while waiting for in flight operations", e);
+        }
+        CompletionStage<T> stage;
+        try {
+            stage = operation.get();
+        } catch (RuntimeException | Error e) {
+            semaphore.release();
+            throw e;
+        }
+        return stage.whenComplete((result, throwable) -> semaphore.release());
+    }
+
+    /**
+     * Returns the maximum amount of operations in flight.
+     *
+     * @return the maximum amount of operations in flight
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Returns the amount of operations that are currently in flight.
+     *
+     * @return the amount of operations that are currently in flight
+     */
+    public int getInFlight() {
+        return maxInFlight - semaphore.availablePermits();
+    }
+}
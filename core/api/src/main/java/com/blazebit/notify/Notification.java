@@ -40,4 +40,14 @@ public interface Notification<ID> extends JobInstance<ID> {
      */
     NotificationRecipient<?> getRecipient();
 
+    /**
+     * Returns the id of the notification job instance that produced this notification or <code>null</code> if the notification is not job based.
+     * Message resolvers may share a rendered message between the notifications of a job instance if it does not depend on the recipient.
+     *
+     * @return The notification job instance id or <code>null</code>
+     */
+    default Object getNotificationJobInstanceId() {
+        return null;
+    }
+
 }
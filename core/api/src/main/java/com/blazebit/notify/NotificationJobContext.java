@@ -43,7 +43,8 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A closable context in which notification jobs and normal jobs can run.
@@ -53,6 +54,32 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public interface NotificationJobContext extends JobContext {
 
+    /**
+     * The configuration property for the maximum amount of cached channels.
+     */
+    String CHANNEL_CACHE_MAX_SIZE_PROPERTY = "notification.channel_cache.max_size";
+    /**
+     * The configuration property for the time in milliseconds after which an unused cached channel is evicted.
+     */
+    String CHANNEL_CACHE_IDLE_TIMEOUT_PROPERTY = "notification.channel_cache.idle_timeout";
+    /**
+     * The configuration property for the time in milliseconds after which an evicted channel is closed if it is not looked up again.
+     * Evicted channels might still be in use, so at most as many as the channel cache holds are kept open for this grace time.
+     */
+    String CHANNEL_CACHE_CLOSE_DELAY_PROPERTY = "notification.channel_cache.close_delay";
+    /**
+     * The configuration property for the maximum amount of cached notification message resolvers.
+     */
+    String MESSAGE_RESOLVER_CACHE_MAX_SIZE_PROPERTY = "notification.message_resolver_cache.max_size";
+    /**
+     * The configuration property for the time in milliseconds after which an unused cached notification message resolver is evicted.
+     */
+    String MESSAGE_RESOLVER_CACHE_IDLE_TIMEOUT_PROPERTY = "notification.message_resolver_cache.idle_timeout";
+    /**
+     * The configuration property for the time in milliseconds after which an evicted notification message resolver is closed if it is not looked up again.
+     */
+    String MESSAGE_RESOLVER_CACHE_CLOSE_DELAY_PROPERTY = "notification.message_resolver_cache.close_delay";
+
     /**
      * Returns the resolver for recipients of a notification job instance.
      *
@@ -132,6 +159,20 @@ public interface NotificationJobContext extends JobContext {
      */
     <T extends Channel<? extends NotificationRecipient<?>, ? extends NotificationMessage>> T getChannel(ChannelKey<T> channelKey, ConfigurationSource configurationSource);
 
+    /**
+     * Returns the statistics of the channel cache.
+     *
+     * @return the statistics of the channel cache
+     */
+    CacheStatistics getChannelCacheStatistics();
+
+    /**
+     * Returns the statistics of the notification message resolver cache.
+     *
+     * @return the statistics of the notification message resolver cache
+     */
+    CacheStatistics getMessageResolverCacheStatistics();
+
     /**
      * Returns a builder for a notification job context.
      *
@@ -546,8 +587,11 @@ public interface NotificationJobContext extends JobContext {
             private final Map<String, ChannelFactory<?>> channelFactories;
             private final Map<Class<? extends NotificationMessage>, NotificationMessageResolverFactory<?>> messageResolverFactories;
             private final Map<String, PartitionKey> channelPartitionKeys;
-            private final Map<ChannelMapKey, Channel<?, ?>> channels = new ConcurrentHashMap<>();
-            private final Map<MessageResolverMapKey, NotificationMessageResolver<?>> messageResolvers = new ConcurrentHashMap<>();
+            private final BoundedCache<ChannelMapKey, Channel<?, ?>> channels;
+            private final BoundedCache<MessageResolverMapKey, NotificationMessageResolver<?>> messageResolvers;
+            // Evicted values might still be in use by other threads, so they are retired for a grace time before closing and revived on the next lookup
+            private final BoundedCache<ChannelMapKey, Channel<?, ?>> retiredChannels;
+            private final BoundedCache<MessageResolverMapKey, NotificationMessageResolver<?>> retiredMessageResolvers;
 
             protected DefaultNotificationJobContext(TransactionSupport transactionSupport, JobManagerFactory jobManagerFactory, ActorContext actorContext, ScheduleFactory scheduleFactory, JobSchedulerFactory jobSchedulerFactory, JobProcessorFactory jobProcessorFactory,
                                                     JobInstanceProcessorFactory jobInstanceProcessorFactory, Map<PartitionKey, Integer> partitionKeyEntries, PartitionKeyProvider partitionKeyProvider, List<JobTriggerListener> jobTriggerListeners, List<JobInstanceListener> jobInstanceListeners,
@@ -559,9 +603,77 @@ public interface NotificationJobContext extends JobContext {
                 this.channelFactories = channelFactories;
                 this.messageResolverFactories = messageResolverFactories;
                 this.channelPartitionKeys = channelPartitionKeys;
+                int channelCacheMaxSize = getPropertyOrDefault(CHANNEL_CACHE_MAX_SIZE_PROPERTY, Integer.class, Integer::valueOf, o -> 64);
+                int messageResolverCacheMaxSize = getPropertyOrDefault(MESSAGE_RESOLVER_CACHE_MAX_SIZE_PROPERTY, Integer.class, Integer::valueOf, o -> 256);
+                this.retiredChannels = new BoundedCache<>(
+                    channelCacheMaxSize,
+                    getPropertyOrDefault(CHANNEL_CACHE_CLOSE_DELAY_PROPERTY, Long.class, Long::valueOf, o -> 60_000L),
+                    DefaultNotificationJobContext::close
+                );
+                this.retiredMessageResolvers = new BoundedCache<>(
+                    messageResolverCacheMaxSize,
+                    getPropertyOrDefault(MESSAGE_RESOLVER_CACHE_CLOSE_DELAY_PROPERTY, Long.class, Long::valueOf, o -> 60_000L),
+                    DefaultNotificationJobContext::close
+                );
+                this.channels = new BoundedCache<>(
+                    channelCacheMaxSize,
+                    getPropertyOrDefault(CHANNEL_CACHE_IDLE_TIMEOUT_PROPERTY, Long.class, Long::valueOf, o -> 600_000L),
+                    retiredChannels::put
+                );
+                this.messageResolvers = new BoundedCache<>(
+                    messageResolverCacheMaxSize,
+                    getPropertyOrDefault(MESSAGE_RESOLVER_CACHE_IDLE_TIMEOUT_PROPERTY, Long.class, Long::valueOf, o -> 600_000L),
+                    retiredMessageResolvers::put
+                );
                 start();
             }
 
+            @Override
+            public void stop() {
+                try {
+                    super.stop();
+                } finally {
+                    closeAll();
+                }
+            }
+
+            @Override
+            public void stop(long timeout, TimeUnit unit) throws InterruptedException {
+                try {
+                    super.stop(timeout, unit);
+                } finally {
+                    closeAll();
+                }
+            }
+
+            private void closeAll() {
+                // Clearing the caches retires all values, so clearing the retired caches afterwards closes them
+                channels.clear();
+                messageResolvers.clear();
+                retiredChannels.clear();
+                retiredMessageResolvers.clear();
+            }
+
+            private static void close(Object object) {
+                if (object instanceof AutoCloseable) {
+                    try {
+                        ((AutoCloseable) object).close();
+                    } catch (Exception e) {
+                        throw new NotificationException("Failed to close " + object, e);
+                    }
+                }
+            }
+
+            @Override
+            public CacheStatistics getChannelCacheStatistics() {
+                return channels;
+            }
+
+            @Override
+            public CacheStatistics getMessageResolverCacheStatistics() {
+                return messageResolvers;
+            }
+
             @Override
             protected void afterConstruct() {
                 // Wait until we are done with our construction
@@ -611,9 +723,14 @@ public interface NotificationJobContext extends JobContext {
 
             @Override
             public <T extends NotificationMessage> NotificationMessageResolver<T> getNotificationMessageResolver(Class<T> notificationMessageClass, ConfigurationSource configurationSource) {
-                return (NotificationMessageResolver<T>) messageResolvers.computeIfAbsent(
+                retiredMessageResolvers.evictIdleEntries();
+                return (NotificationMessageResolver<T>) messageResolvers.get(
                     new MessageResolverMapKey(notificationMessageClass, configurationSource),
                     k -> {
+                        NotificationMessageResolver<?> retiredMessageResolver = retiredMessageResolvers.remove(k);
+                        if (retiredMessageResolver != null) {
+                            return retiredMessageResolver;
+                        }
                         NotificationMessageResolverFactory<?> notificationMessageResolverFactory = messageResolverFactories.get(notificationMessageClass);
                         if (notificationMessageResolverFactory == null) {
                             throw new NotificationException("No notification message resolver factory for notification message class available: " + notificationMessageClass.getName());
@@ -643,18 +760,74 @@ public interface NotificationJobContext extends JobContext {
                 if (channelKey == null) {
                     throw new IllegalArgumentException("Illegal null channel key!");
                 }
-                return (T) channels.computeIfAbsent(
-                    new ChannelMapKey(channelKey, configurationSource),
+                ChannelFactory<?> channelFactory = channelFactories.get(channelKey);
+                if (channelFactory == null) {
+                    throw new NotificationException("No channel factory for channel key available: " + channelKey);
+                }
+                Set<String> transportPropertyNames = channelFactory.getTransportPropertyNames();
+                ConfigurationSource channelConfigurationSource;
+                if (transportPropertyNames == null) {
+                    channelConfigurationSource = configurationSource;
+                } else {
+                    // Share channels between all configuration sources with the same transport configuration
+                    channelConfigurationSource = new TransportConfigurationSource(transportPropertyNames, configurationSource, this);
+                }
+                retiredChannels.evictIdleEntries();
+                return (T) channels.get(
+                    new ChannelMapKey(channelKey, channelConfigurationSource),
                     k -> {
-                        ChannelFactory<?> channelFactory = channelFactories.get(channelKey);
-                        if (channelFactory == null) {
-                            throw new NotificationException("No channel factory for channel key available: " + channelKey);
-                        }
-                        return channelFactory.createChannel(this, configurationSource);
+                        Channel<?, ?> retiredChannel = retiredChannels.remove(k);
+                        return retiredChannel == null ? channelFactory.createChannel(this, channelConfigurationSource) : retiredChannel;
                     }
                 );
             }
 
+            /**
+             * A snapshot of the transport properties of a configuration source that falls back to the context properties.
+             *
+             * @author Christian Beikov
+             * @since 1.0.0
+             */
+            private static class TransportConfigurationSource implements ConfigurationSource {
+
+                private final Map<String, Object> properties;
+
+                public TransportConfigurationSource(Set<String> propertyNames, ConfigurationSource configurationSource, ConfigurationSource fallbackConfigurationSource) {
+                    Map<String, Object> properties = new HashMap<>(propertyNames.size());
+                    for (String propertyName : propertyNames) {
+                        Object value = configurationSource.getProperty(propertyName);
+                        if (value == null && configurationSource != fallbackConfigurationSource) {
+                            value = fallbackConfigurationSource.getProperty(propertyName);
+                        }
+                        if (value != null) {
+                            properties.put(propertyName, value);
+                        }
+                    }
+                    this.properties = properties;
+                }
+
+                @Override
+                public Object getProperty(String property) {
+                    return properties.get(property);
+                }
+
+                @Override
+                public boolean equals(Object o) {
+                    if (this == o) {
+                        return true;
+                    }
+                    if (!(o instanceof TransportConfigurationSource)) {
+                        return false;
+                    }
+                    return properties.equals(((TransportConfigurationSource) o).properties);
+                }
+
+                @Override
+                public int hashCode() {
+                    return properties.hashCode();
+                }
+            }
+
             /**
              * A map key for a channel.
              *
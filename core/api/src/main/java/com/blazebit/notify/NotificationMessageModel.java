@@ -0,0 +1,254 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify;
+
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A layered model for resolving notification messages that is built once per notification and shared by all message parts.
+ * <p>
+ * The job parameters are not copied, but form the bottom layer, on top of which the entries put by the message resolver and
+ * the {@link NotificationMessageResolverModelCustomizer}s are layered. Customizers can contribute entries that are expensive to compute,
+ * like database lookups, via {@link #putLazy(String, Supplier)}, so that they are only computed if a template accesses them.
+ * After building, the model is made read-only via {@link #readOnly()}.
+ * <p>
+ * Iterating over the entries computes all lazy entries, so consumers should prefer looking up entries by key.
+ * The entries that are accessed after the model was made read-only are tracked, so that message resolvers can determine
+ * via {@link #isIndependentOfEntriesExcept(Collection)} whether a rendered message only depends on the job parameters.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public class NotificationMessageModel extends AbstractMap<String, Object> {
+
+    /**
+     * The model key for the {@link ResourceBundle}.
+     */
+    public static final String RESOURCE_BUNDLE_KEY = "resourceBundle";
+    /**
+     * The model key for the {@link Locale}.
+     */
+    public static final String LOCALE_KEY = "locale";
+    /**
+     * The model key for the {@link NotificationRecipient}.
+     */
+    public static final String RECIPIENT_KEY = "recipient";
+
+    private static final Object REMOVED = new Object();
+
+    private final Map<String, ?> parameters;
+    private final Map<String, Object> entries = new HashMap<>();
+    private final Set<Object> accessedEntryKeys = new HashSet<>();
+    private volatile boolean readOnly;
+    private boolean accessedAll;
+
+    /**
+     * Creates a new model on top of the given parameters.
+     *
+     * @param parameters The parameters
+     */
+    public NotificationMessageModel(Map<String, ?> parameters) {
+        this.parameters = parameters == null ? Collections.emptyMap() : parameters;
+    }
+
+    /**
+     * Creates a new model for the given notification on top of its job parameters, with entries for the recipient, its locale and the resource bundle for the locale.
+     *
+     * @param notification           The notification
+     * @param resourceBundleAccessor The accessor for the resource bundle of a locale or <code>null</code>
+     * @return the model
+     */
+    public static NotificationMessageModel of(Notification<?> notification, Function<Locale, ResourceBundle> resourceBundleAccessor) {
+        NotificationMessageModel model = new NotificationMessageModel(notification.getJobConfiguration().getParameters());
+        NotificationRecipient<?> notificationRecipient = notification.getRecipient();
+        Locale locale = notificationRecipient.getLocale();
+        if (resourceBundleAccessor != null) {
+            model.put(RESOURCE_BUNDLE_KEY, resourceBundleAccessor.apply(locale));
+        }
+        model.put(LOCALE_KEY, locale);
+        model.put(RECIPIENT_KEY, notificationRecipient);
+        return model;
+    }
+
+    /**
+     * Adds an entry for the given key whose value is computed by the given supplier when it is accessed for the first time.
+     *
+     * @param key      The key
+     * @param supplier The supplier for the value
+     * @throws UnsupportedOperationException If the model is read-only
+     */
+    public void putLazy(String key, Supplier<?> supplier) {
+        checkWritable();
+        entries.put(key, new LazyValue(supplier));
+    }
+
+    /**
+     * Makes this model read-only and returns it.
+     *
+     * @return <code>this</code>
+     */
+    public NotificationMessageModel readOnly() {
+        // Accesses of customizers while building the model don't count
+        accessedEntryKeys.clear();
+        accessedAll = false;
+        readOnly = true;
+        return this;
+    }
+
+    /**
+     * Returns whether no entries other than the job parameters and the given entries were accessed since the model was made read-only.
+     * If so, everything that was rendered with the model only depends on the job parameters and the values of the given entries.
+     *
+     * @param keys The keys of the entries that may have been accessed
+     * @return whether no other entries were accessed
+     */
+    public boolean isIndependentOfEntriesExcept(Collection<String> keys) {
+        return !accessedAll && keys.containsAll(accessedEntryKeys);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        checkWritable();
+        Object previous = entries.put(key, value);
+        if (previous == null) {
+            return parameters.get(key);
+        }
+        // Don't compute a lazy value just to return it
+        return previous instanceof LazyValue || previous == REMOVED ? null : previous;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        checkWritable();
+        Object value = get(key);
+        entries.put((String) key, REMOVED);
+        return value;
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("The model can't be cleared");
+    }
+
+    @Override
+    public Object get(Object key) {
+        Object value = entries.get(key);
+        if (value != null) {
+            accessedEntryKeys.add(key);
+            return value == REMOVED ? null : unwrap(value, key);
+        }
+        if (entries.containsKey(key)) {
+            accessedEntryKeys.add(key);
+            return null;
+        }
+        return parameters.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        Object value = entries.get(key);
+        if (value != null) {
+            accessedEntryKeys.add(key);
+            return value != REMOVED;
+        }
+        if (entries.containsKey(key)) {
+            accessedEntryKeys.add(key);
+            return true;
+        }
+        return parameters.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        int size = parameters.size();
+        for (Map.Entry<String, Object> entry : entries.entrySet()) {
+            boolean parameter = parameters.containsKey(entry.getKey());
+            if (entry.getValue() == REMOVED) {
+                if (parameter) {
+                    size--;
+                }
+            } else if (!parameter) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        accessedAll = true;
+        Map<String, Object> map = new HashMap<>(parameters);
+        for (Map.Entry<String, Object> entry : entries.entrySet()) {
+            if (entry.getValue() == REMOVED) {
+                map.remove(entry.getKey());
+            } else {
+                map.put(entry.getKey(), unwrap(entry.getValue(), entry.getKey()));
+            }
+        }
+        return Collections.unmodifiableMap(map).entrySet();
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("The model is read-only");
+        }
+    }
+
+    private static Object unwrap(Object value, Object key) {
+        if (value instanceof LazyValue) {
+            return ((LazyValue) value).get(key);
+        }
+        return value == REMOVED ? null : value;
+    }
+
+    /**
+     * A value that is computed on first access.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    private static final class LazyValue {
+
+        private Supplier<?> supplier;
+        private Object value;
+
+        private LazyValue(Supplier<?> supplier) {
+            this.supplier = supplier;
+        }
+
+        public synchronized Object get(Object key) {
+            if (supplier != null) {
+                try {
+                    value = supplier.get();
+                } catch (RuntimeException e) {
+                    throw new NotificationException("Could not compute model entry " + key, e);
+                }
+                supplier = null;
+            }
+            return value;
+        }
+    }
+}
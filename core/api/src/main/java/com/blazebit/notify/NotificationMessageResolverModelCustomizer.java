@@ -28,6 +28,8 @@ public interface NotificationMessageResolverModelCustomizer {
     /**
      * This method is invoked by the {@link NotificationMessageResolver} for each notification before finalizing the model
      * and resolving a notification message for it.
+     * The built-in message resolvers pass a {@link NotificationMessageModel}, to which entries that are expensive to compute
+     * can be contributed via {@link NotificationMessageModel#putLazy(String, java.util.function.Supplier)}.
      *
      * @param model The model
      * @param notification the notification that is currently being resolved
@@ -18,9 +18,14 @@ package com.blazebit.notify;
 import com.blazebit.job.JobInstanceProcessingContext;
 import com.blazebit.job.JobInstanceProcessor;
 
+import java.util.concurrent.CompletionStage;
+
 /**
  * A processor for notifications.
  *
+ * The processing result handed to the job processor is the {@link CompletionStage} of the notification,
+ * so that the processing thread is not held while a notification is sent.
+ *
  * @param <N> The notification type
  * @author Christian Beikov
  * @since 1.0.0
@@ -29,15 +34,16 @@ public interface NotificationProcessor<N extends Notification<?>> extends JobIns
 
     @Override
     default Object process(N jobInstance, JobInstanceProcessingContext<Object> context) {
-        process(jobInstance, (NotificationJobContext) context.getJobContext());
-        return null;
+        return process(jobInstance, (NotificationJobContext) context.getJobContext());
     }
 
     /**
      * Processes the notification with the given notification job instance context.
+     * The returned stage completes after the notification was marked as done or exceptionally if sending failed.
      *
      * @param notification The notification to process
      * @param context The job instance context
+     * @return the completion stage of the notification
      */
-    void process(N notification, NotificationJobContext context);
+    CompletionStage<Void> process(N notification, NotificationJobContext context);
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.security;
+
+/**
+ * Statistics of the TLS handshakes of a {@link SharedSSLContext}.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public interface HandshakeStatistics {
+
+    /**
+     * Returns the amount of completed handshakes.
+     *
+     * @return the handshake count
+     */
+    long getHandshakeCount();
+
+    /**
+     * Returns the amount of completed handshakes that resumed a cached session instead of doing a full handshake.
+     *
+     * @return the resumed handshake count
+     */
+    long getResumedHandshakeCount();
+
+    /**
+     * Returns the total time in nanoseconds that was spent in completed handshakes.
+     *
+     * @return the total handshake time
+     */
+    long getHandshakeTimeNanos();
+}
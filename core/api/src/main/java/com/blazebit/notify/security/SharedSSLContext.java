@@ -0,0 +1,279 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.security;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A process wide {@link SSLContext} for a trust store provider and client session cache configuration.
+ * Sharing the context allows connections to resume cached TLS sessions instead of doing a full handshake for every connection,
+ * which makes reconnecting many connections at once, e.g. after a relay restart, a lot cheaper.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public final class SharedSSLContext implements HandshakeStatistics {
+
+    private static final ConcurrentMap<Key, SharedSSLContext> CONTEXTS = new ConcurrentHashMap<>();
+    private static volatile TruststoreProviderFactory<?> defaultTruststoreProviderFactory;
+    private static volatile boolean defaultTruststoreProviderFactoryLoaded;
+
+    private final TruststoreProvider truststoreProvider;
+    private final SSLContext sslContext;
+    private final SSLSocketFactory socketFactory;
+    private final LongAdder handshakeCount = new LongAdder();
+    private final LongAdder resumedHandshakeCount = new LongAdder();
+    private final LongAdder handshakeTimeNanos = new LongAdder();
+
+    private SharedSSLContext(TruststoreProvider truststoreProvider, int sessionCacheSize, long sessionTimeoutMillis) {
+        this.truststoreProvider = truststoreProvider;
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            // Without a trust store provider, the trust managers are null which means the default trust managers are used
+            context.init(null, new JSSETruststoreConfigurator(truststoreProvider).getTrustManagers(), null);
+            context.getClientSessionContext().setSessionCacheSize(sessionCacheSize);
+            context.getClientSessionContext().setSessionTimeout((int) TimeUnit.MILLISECONDS.toSeconds(sessionTimeoutMillis));
+            this.sslContext = context;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to initialize SSLContext: ", e);
+        }
+        this.socketFactory = new HandshakeTrackingSSLSocketFactory(sslContext.getSocketFactory());
+    }
+
+    /**
+     * Returns the shared context for the {@link TruststoreProvider} of the first {@link TruststoreProviderFactory} registered via {@link ServiceLoader},
+     * or for the default trust managers if there is none.
+     *
+     * @param sessionCacheSize The maximum amount of cached client sessions or 0 for no limit
+     * @param sessionTimeoutMillis The time in milliseconds after which cached client sessions expire or 0 for no limit
+     * @return the shared context
+     */
+    public static SharedSSLContext getInstance(int sessionCacheSize, long sessionTimeoutMillis) {
+        return getInstance(getDefaultTruststoreProviderFactory(), sessionCacheSize, sessionTimeoutMillis);
+    }
+
+    /**
+     * Returns the shared context for the {@link TruststoreProvider} of the given factory.
+     *
+     * @param truststoreProviderFactory The trust store provider factory or <code>null</code> to use the default trust managers
+     * @param sessionCacheSize The maximum amount of cached client sessions or 0 for no limit
+     * @param sessionTimeoutMillis The time in milliseconds after which cached client sessions expire or 0 for no limit
+     * @return the shared context
+     */
+    public static SharedSSLContext getInstance(TruststoreProviderFactory<?> truststoreProviderFactory, int sessionCacheSize, long sessionTimeoutMillis) {
+        Key key = new Key(truststoreProviderFactory == null ? null : truststoreProviderFactory.getClass(), sessionCacheSize, sessionTimeoutMillis);
+        return CONTEXTS.computeIfAbsent(key, k -> new SharedSSLContext(truststoreProviderFactory == null ? null : truststoreProviderFactory.create(), sessionCacheSize, sessionTimeoutMillis));
+    }
+
+    private static TruststoreProviderFactory<?> getDefaultTruststoreProviderFactory() {
+        if (!defaultTruststoreProviderFactoryLoaded) {
+            synchronized (SharedSSLContext.class) {
+                if (!defaultTruststoreProviderFactoryLoaded) {
+                    Iterator<TruststoreProviderFactory> iter = ServiceLoader.load(TruststoreProviderFactory.class).iterator();
+                    defaultTruststoreProviderFactory = iter.hasNext() ? iter.next() : null;
+                    defaultTruststoreProviderFactoryLoaded = true;
+                }
+            }
+        }
+        return defaultTruststoreProviderFactory;
+    }
+
+    /**
+     * Returns the trust store provider of this context.
+     *
+     * @return the trust store provider or <code>null</code> if the default trust managers are used
+     */
+    public TruststoreProvider getTruststoreProvider() {
+        return truststoreProvider;
+    }
+
+    /**
+     * Returns the SSL context.
+     *
+     * @return the SSL context
+     */
+    public SSLContext getSSLContext() {
+        return sslContext;
+    }
+
+    /**
+     * Returns a socket factory for the SSL context that records the handshakes of the created sockets.
+     *
+     * @return the socket factory
+     */
+    public SSLSocketFactory getSocketFactory() {
+        return socketFactory;
+    }
+
+    /**
+     * Records a completed handshake that was started at the given time.
+     * Handshakes of sockets created through {@link #getSocketFactory()} are recorded automatically,
+     * users of {@link javax.net.ssl.SSLEngine}s have to record the handshakes themselves.
+     *
+     * @param startNanos The value of {@link System#nanoTime()} when the handshake started
+     * @param startMillis The value of {@link System#currentTimeMillis()} when the handshake started
+     * @param session The session that was established
+     */
+    public void recordHandshake(long startNanos, long startMillis, SSLSession session) {
+        handshakeCount.increment();
+        handshakeTimeNanos.add(System.nanoTime() - startNanos);
+        // A session that was created before the handshake started was resumed
+        if (session.getCreationTime() < startMillis) {
+            resumedHandshakeCount.increment();
+        }
+    }
+
+    @Override
+    public long getHandshakeCount() {
+        return handshakeCount.sum();
+    }
+
+    @Override
+    public long getResumedHandshakeCount() {
+        return resumedHandshakeCount.sum();
+    }
+
+    @Override
+    public long getHandshakeTimeNanos() {
+        return handshakeTimeNanos.sum();
+    }
+
+    /**
+     * A socket factory that records the first handshake of the created sockets.
+     * The handshake time of sockets that are not layered over an existing connection includes the time to connect.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    private final class HandshakeTrackingSSLSocketFactory extends SSLSocketFactory {
+
+        private final SSLSocketFactory delegate;
+
+        HandshakeTrackingSSLSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        private Socket track(Socket socket) {
+            if (socket instanceof SSLSocket) {
+                long startNanos = System.nanoTime();
+                long startMillis = System.currentTimeMillis();
+                SSLSocket sslSocket = (SSLSocket) socket;
+                sslSocket.addHandshakeCompletedListener(new HandshakeCompletedListener() {
+                    @Override
+                    public void handshakeCompleted(HandshakeCompletedEvent event) {
+                        // Ignore renegotiations
+                        sslSocket.removeHandshakeCompletedListener(this);
+                        recordHandshake(startNanos, startMillis, event.getSession());
+                    }
+                });
+            }
+            return socket;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return track(delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+            return track(delegate.createSocket(s, host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return track(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return track(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return track(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return track(delegate.createSocket(address, port, localAddress, localPort));
+        }
+    }
+
+    /**
+     * The key of a shared context.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    private static final class Key {
+
+        private final Class<?> truststoreProviderFactoryClass;
+        private final int sessionCacheSize;
+        private final long sessionTimeoutMillis;
+
+        Key(Class<?> truststoreProviderFactoryClass, int sessionCacheSize, long sessionTimeoutMillis) {
+            this.truststoreProviderFactoryClass = truststoreProviderFactoryClass;
+            this.sessionCacheSize = sessionCacheSize;
+            this.sessionTimeoutMillis = sessionTimeoutMillis;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return sessionCacheSize == key.sessionCacheSize
+                && sessionTimeoutMillis == key.sessionTimeoutMillis
+                && Objects.equals(truststoreProviderFactoryClass, key.truststoreProviderFactoryClass);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(truststoreProviderFactoryClass, sessionCacheSize, sessionTimeoutMillis);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BoundedCacheTest {
+
+    @Test
+    public void evictLeastRecentlyAccessedEntry() throws Exception {
+        List<String> evicted = Collections.synchronizedList(new ArrayList<>());
+        BoundedCache<String, String> cache = new BoundedCache<>(2, 0L, (key, value) -> evicted.add(key + "=" + value));
+        cache.get("a", String::toUpperCase);
+        Thread.sleep(2L);
+        cache.get("b", String::toUpperCase);
+        Thread.sleep(2L);
+        // Accessing a makes b the least recently accessed entry
+        cache.get("a", String::toUpperCase);
+        Thread.sleep(2L);
+        cache.get("c", String::toUpperCase);
+
+        assertEquals(Arrays.asList("b=B"), evicted);
+        assertEquals(2, cache.getSize());
+        assertEquals(1L, cache.getEvictionCount());
+        // a and c are still cached, b is loaded again
+        AtomicInteger loads = new AtomicInteger();
+        cache.get("a", k -> k + loads.incrementAndGet());
+        cache.get("c", k -> k + loads.incrementAndGet());
+        assertEquals(0, loads.get());
+    }
+
+    @Test
+    public void evictIdleEntries() throws Exception {
+        List<String> evicted = Collections.synchronizedList(new ArrayList<>());
+        BoundedCache<String, String> cache = new BoundedCache<>(10, 50L, (key, value) -> evicted.add(value));
+        cache.get("a", String::toUpperCase);
+        Thread.sleep(100L);
+        // Loading another entry sweeps the idle entries
+        cache.get("b", String::toUpperCase);
+
+        assertEquals(Arrays.asList("A"), evicted);
+        assertEquals(1, cache.getSize());
+        assertEquals(1L, cache.getEvictionCount());
+    }
+
+    @Test
+    public void failingLoaderIsNotCached() {
+        BoundedCache<String, String> cache = new BoundedCache<>(10, 0L, (key, value) -> { });
+        try {
+            cache.get("a", k -> {
+                throw new IllegalStateException("fail");
+            });
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            assertEquals("fail", e.getMessage());
+        }
+        assertEquals(0, cache.getSize());
+        assertEquals("A", cache.get("a", String::toUpperCase));
+        assertEquals(2L, cache.getMissCount());
+    }
+
+    @Test
+    public void nullValuesAreNotCached() {
+        BoundedCache<String, String> cache = new BoundedCache<>(10, 0L, (key, value) -> { });
+        assertNull(cache.get("a", k -> null));
+        assertEquals(0, cache.getSize());
+        assertEquals("A", cache.get("a", String::toUpperCase));
+    }
+
+    @Test
+    public void countHitsAndMisses() {
+        BoundedCache<String, String> cache = new BoundedCache<>(10, 0L, (key, value) -> { });
+        cache.get("a", String::toUpperCase);
+        cache.get("a", String::toUpperCase);
+        cache.get("a", String::toUpperCase);
+        cache.get("b", String::toUpperCase);
+
+        assertEquals(2L, cache.getHitCount());
+        assertEquals(2L, cache.getMissCount());
+        assertEquals(0L, cache.getEvictionCount());
+        assertEquals(2, cache.getSize());
+    }
+
+    @Test
+    public void invalidateAndClear() {
+        List<String> evicted = Collections.synchronizedList(new ArrayList<>());
+        BoundedCache<String, String> cache = new BoundedCache<>(10, 0L, (key, value) -> evicted.add(value));
+        cache.get("a", String::toUpperCase);
+        cache.get("b", String::toUpperCase);
+        // Invalidated values are known to be invalid, so they are not passed to the listener
+        cache.invalidate("a");
+        assertEquals(Collections.emptyList(), evicted);
+        assertEquals(1, cache.getSize());
+
+        cache.clear();
+        assertEquals(Arrays.asList("B"), evicted);
+        assertEquals(0, cache.getSize());
+        assertEquals(0L, cache.getEvictionCount());
+    }
+
+    @Test
+    public void putAndGetIfPresent() throws Exception {
+        List<String> evicted = Collections.synchronizedList(new ArrayList<>());
+        BoundedCache<String, String> cache = new BoundedCache<>(2, 0L, (key, value) -> evicted.add(value));
+        assertNull(cache.getIfPresent("a"));
+        cache.put("a", "A");
+        Thread.sleep(2L);
+        cache.put("b", "B");
+        Thread.sleep(2L);
+        // Replaced values are not evicted
+        cache.put("a", "A2");
+        assertEquals("A2", cache.getIfPresent("a"));
+        Thread.sleep(2L);
+        cache.put("c", "C");
+
+        assertEquals(Arrays.asList("B"), evicted);
+        assertNull(cache.getIfPresent("b"));
+        assertEquals("C", cache.get("c", String::toUpperCase));
+        assertEquals(2L, cache.getHitCount());
+        assertEquals(2L, cache.getMissCount());
+    }
+
+    @Test
+    public void concurrentLookupsLoadOnce() throws Exception {
+        BoundedCache<String, Object> cache = new BoundedCache<>(10, 0L, (key, value) -> { });
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Object>> futures = new ArrayList<>();
+            futures.add(executor.submit(() -> cache.get("a", k -> {
+                loads.incrementAndGet();
+                loading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new Object();
+            })));
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                futures.add(executor.submit(() -> cache.get("a", k -> {
+                    loads.incrementAndGet();
+                    return new Object();
+                })));
+            }
+            release.countDown();
+            Object value = futures.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<Object> future : futures) {
+                assertSame(value, future.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void removeDoesNotNotifyListener() {
+        List<String> evicted = Collections.synchronizedList(new ArrayList<>());
+        BoundedCache<String, String> cache = new BoundedCache<>(10, 0L, (key, value) -> evicted.add(value));
+        cache.put("a", "A");
+
+        assertEquals("A", cache.remove("a"));
+        assertNull(cache.remove("a"));
+        assertEquals(0, cache.getSize());
+        assertTrue(evicted.isEmpty());
+    }
+
+    @Test
+    public void closeRetiredEntriesAfterGraceTime() throws Exception {
+        // Mirrors the notification job context, which retires evicted values for a grace time before closing them
+        List<String> closed = Collections.synchronizedList(new ArrayList<>());
+        BoundedCache<String, String> retired = new BoundedCache<>(2, 50L, (key, value) -> closed.add(value));
+        BoundedCache<String, String> cache = new BoundedCache<>(1, 0L, (key, value) -> retired.put(key, value));
+        for (String key : Arrays.asList("a", "b", "c", "d")) {
+            cache.get(key, String::toUpperCase);
+            Thread.sleep(2L);
+        }
+
+        // The retired set is bounded, so the value retired first is closed right away
+        assertEquals(Arrays.asList("A"), closed);
+        assertEquals(2, retired.getSize());
+        // A retired value is revived instead of being closed
+        assertEquals("C", retired.remove("c"));
+        Thread.sleep(100L);
+        retired.evictIdleEntries();
+
+        assertEquals(Arrays.asList("A", "B"), closed);
+        assertEquals(0, retired.getSize());
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify;
+
+import com.blazebit.job.JobTemporaryException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InFlightLimiterTest {
+
+    @Test
+    public void releasePermitOnCompletion() {
+        InFlightLimiter limiter = new InFlightLimiter(1, 0L);
+        CompletableFuture<String> operation = new CompletableFuture<>();
+
+        CompletionStage<String> stage = limiter.submit(() -> operation);
+        assertEquals(1, limiter.getInFlight());
+        operation.complete("done");
+
+        assertEquals("done", stage.toCompletableFuture().join());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void releasePermitOnExceptionalCompletion() {
+        InFlightLimiter limiter = new InFlightLimiter(1, 0L);
+        CompletableFuture<String> operation = new CompletableFuture<>();
+
+        CompletionStage<String> stage = limiter.submit(() -> operation);
+        operation.completeExceptionally(new NotificationException("send failed"));
+
+        assertTrue(stage.toCompletableFuture().isCompletedExceptionally());
+        assertEquals(0, limiter.getInFlight());
+        // The released permit can be used for the next operation
+        assertEquals("next", limiter.submit(() -> CompletableFuture.completedFuture("next")).toCompletableFuture().join());
+    }
+
+    @Test
+    public void releasePermitWhenOperationFailsToStart() {
+        InFlightLimiter limiter = new InFlightLimiter(1, 0L);
+
+        try {
+            limiter.submit(() -> {
+                throw new NotificationException("connection refused");
+            });
+            fail("Expected NotificationException");
+        } catch (NotificationException e) {
+            assertEquals("connection refused", e.getMessage());
+        }
+
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void throwTemporaryExceptionWhenAcquireTimesOut() {
+        InFlightLimiter limiter = new InFlightLimiter(1, 50L);
+        CompletableFuture<String> operation = new CompletableFuture<>();
+        limiter.submit(() -> operation);
+        AtomicInteger started = new AtomicInteger();
+
+        long start = System.nanoTime();
+        try {
+            limiter.submit(() -> {
+                started.incrementAndGet();
+                return CompletableFuture.completedFuture("second");
+            });
+            fail("Expected JobTemporaryException");
+        } catch (JobTemporaryException e) {
+            // Expected
+        }
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50L);
+        assertEquals(0, started.get());
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    @Test
+    public void respectMaxInFlight() throws Exception {
+        int maxInFlight = 3;
+        InFlightLimiter limiter = new InFlightLimiter(maxInFlight, 5_000L);
+        List<CompletableFuture<Integer>> operations = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            operations.add(new CompletableFuture<>());
+        }
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxObserved = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(maxInFlight);
+        ExecutorService executorService = Executors.newFixedThreadPool(operations.size());
+        try {
+            List<Future<CompletionStage<Integer>>> submissions = new ArrayList<>();
+            for (int i = 0; i < operations.size(); i++) {
+                CompletableFuture<Integer> operation = operations.get(i);
+                submissions.add(executorService.submit(() -> limiter.submit(() -> {
+                    maxObserved.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    started.countDown();
+                    return operation.whenComplete((result, throwable) -> inFlight.decrementAndGet());
+                })));
+            }
+
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Thread.sleep(50L);
+            // The other submitters wait for a permit
+            assertEquals(maxInFlight, limiter.getInFlight());
+            assertEquals(maxInFlight, inFlight.get());
+            for (int i = 0; i < operations.size(); i++) {
+                operations.get(i).complete(i);
+            }
+            for (Future<CompletionStage<Integer>> submission : submissions) {
+                assertFalse(submission.get(5, TimeUnit.SECONDS).toCompletableFuture().isCompletedExceptionally());
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        assertEquals(maxInFlight, maxObserved.get());
+        assertEquals(0, limiter.getInFlight());
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.security;
+
+import org.junit.Test;
+
+import java.security.KeyStore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SharedSSLContextTest {
+
+    // The contexts are process wide, so every test uses session cache sizes that no other test uses
+
+    @Test
+    public void shareContextForSameSettings() {
+        SharedSSLContext first = SharedSSLContext.getInstance(null, 101, 60_000L);
+        SharedSSLContext second = SharedSSLContext.getInstance(null, 101, 60_000L);
+
+        assertSame(first, second);
+        assertSame(first.getSSLContext(), second.getSSLContext());
+        assertSame(first.getSocketFactory(), second.getSocketFactory());
+        assertNull(first.getTruststoreProvider());
+        assertEquals(101, first.getSSLContext().getClientSessionContext().getSessionCacheSize());
+        assertEquals(60, first.getSSLContext().getClientSessionContext().getSessionTimeout());
+    }
+
+    @Test
+    public void createContextPerSessionCacheSettings() {
+        SharedSSLContext context = SharedSSLContext.getInstance(null, 102, 60_000L);
+        SharedSSLContext otherCacheSize = SharedSSLContext.getInstance(null, 103, 60_000L);
+        SharedSSLContext otherTimeout = SharedSSLContext.getInstance(null, 102, 120_000L);
+
+        assertNotSame(context, otherCacheSize);
+        assertNotSame(context, otherTimeout);
+        assertNotSame(context.getSSLContext(), otherCacheSize.getSSLContext());
+        assertNotSame(context.getSSLContext(), otherTimeout.getSSLContext());
+        assertEquals(103, otherCacheSize.getSSLContext().getClientSessionContext().getSessionCacheSize());
+        assertEquals(120, otherTimeout.getSSLContext().getClientSessionContext().getSessionTimeout());
+    }
+
+    @Test
+    public void createContextPerTruststoreProviderFactory() {
+        CountingTruststoreProviderFactory factory = new CountingTruststoreProviderFactory();
+        CountingTruststoreProviderFactory sameFactoryType = new CountingTruststoreProviderFactory();
+        OtherTruststoreProviderFactory otherFactory = new OtherTruststoreProviderFactory();
+
+        SharedSSLContext context = SharedSSLContext.getInstance(factory, 104, 60_000L);
+        SharedSSLContext sameFactoryTypeContext = SharedSSLContext.getInstance(sameFactoryType, 104, 60_000L);
+        SharedSSLContext otherFactoryContext = SharedSSLContext.getInstance(otherFactory, 104, 60_000L);
+        SharedSSLContext defaultContext = SharedSSLContext.getInstance(null, 104, 60_000L);
+
+        // Factories of the same type create equivalent trust store providers, so the provider is only created once
+        assertSame(context, sameFactoryTypeContext);
+        assertEquals(1, factory.created.get() + sameFactoryType.created.get());
+        assertNotSame(context, otherFactoryContext);
+        assertNotSame(context, defaultContext);
+        assertNotSame(otherFactoryContext, defaultContext);
+        assertSame(otherFactory.provider, otherFactoryContext.getTruststoreProvider());
+    }
+
+    private static class CountingTruststoreProviderFactory implements TruststoreProviderFactory<TruststoreProvider> {
+
+        private final AtomicInteger created = new AtomicInteger();
+
+        @Override
+        public TruststoreProvider create() {
+            created.incrementAndGet();
+            return new DefaultTruststoreProvider();
+        }
+    }
+
+    private static class OtherTruststoreProviderFactory implements TruststoreProviderFactory<TruststoreProvider> {
+
+        private final TruststoreProvider provider = new DefaultTruststoreProvider();
+
+        @Override
+        public TruststoreProvider create() {
+            return provider;
+        }
+    }
+
+    private static class DefaultTruststoreProvider implements TruststoreProvider {
+
+        @Override
+        public HostnameVerificationPolicy getPolicy() {
+            return HostnameVerificationPolicy.WILDCARD;
+        }
+
+        @Override
+        public KeyStore getTruststore() {
+            // Null makes the trust manager factory use the default trust store
+            return null;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.blazebit.notify.impl;
+
+import com.blazebit.job.ConfigurationSource;
+import com.blazebit.notify.Channel;
+import com.blazebit.notify.Notification;
+import com.blazebit.notify.NotificationException;
+import com.blazebit.notify.NotificationJobContext;
+import com.blazebit.notify.NotificationMessage;
+import com.blazebit.notify.NotificationRecipient;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A notification processor that groups the notifications which are processed concurrently for the same channel
+ * and hands them to the channel via {@link Channel#sendNotificationMessages(List, List)}.
+ *
+ * The first thread that arrives for a channel becomes the leader and sends the pending notifications in batches,
+ * while the other threads wait for the result of their notification. Notifications that arrive while a batch is in flight
+ * form the next batch, so batching does not introduce additional latency unless a linger time is configured.
+ * Channels that don't batch natively but allow multiple sends in flight are batched as well,
+ * so that a single leader thread keeps up to {@link Channel#getMaxInFlight()} asynchronous sends in flight.
+ * The notification is still marked as done by the thread that processes it, so the returned stage is already completed for batched notifications.
+ *
+ * @param <N> The notification type
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public class BatchingNotificationProcessor<N extends Notification<?>> extends NotificationProcessorImpl<N> {
+
+    private final long lingerNanos;
+    private final ConcurrentMap<Channel<?, ?>, ChannelBatcher> batchers = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a batching notification processor.
+     *
+     * @param lingerMillis The time in milliseconds a leader waits for more notifications before sending a batch that is not full
+     */
+    public BatchingNotificationProcessor(long lingerMillis) {
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+    }
+
+    @Override
+    public CompletionStage<Void> process(N notification, NotificationJobContext context) {
+        ConfigurationSource configurationSource = getConfigurationSource(notification, context);
+        Channel<NotificationRecipient<?>, NotificationMessage> channel = context.getChannel(notification.getChannelType(), configurationSource);
+        NotificationRecipient<?> recipient = getRecipient(notification);
+        NotificationMessage notificationMessage = resolveNotificationMessage(notification, channel, configurationSource, context);
+        if (channel.isBatchingSupported() && channel.getMaxBatchSize() > 1 || channel.getMaxInFlight() > 1) {
+            notification.markDone(batchers.computeIfAbsent(channel, k -> new ChannelBatcher(channel)).send(recipient, notificationMessage));
+            return CompletableFuture.completedFuture(null);
+        } else {
+            return channel.sendNotificationMessageAsync(recipient, notificationMessage).thenAccept(notification::markDone);
+        }
+    }
+
+    /**
+     * Collects the notifications for a channel and sends them in batches.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    private final class ChannelBatcher {
+
+        private final Channel<NotificationRecipient<?>, NotificationMessage> channel;
+        private final int maxBatchSize;
+        private final ArrayDeque<PendingNotification> pending = new ArrayDeque<>();
+        private boolean sending;
+
+        private ChannelBatcher(Channel<NotificationRecipient<?>, NotificationMessage> channel) {
+            this.channel = channel;
+            this.maxBatchSize = Math.max(channel.isBatchingSupported() ? channel.getMaxBatchSize() : 1, channel.getMaxInFlight());
+        }
+
+        public Object send(NotificationRecipient<?> recipient, NotificationMessage message) {
+            PendingNotification pendingNotification = new PendingNotification(recipient, message);
+            boolean interrupted = false;
+            boolean leader = false;
+            synchronized (this) {
+                pending.add(pendingNotification);
+                if (pending.size() >= maxBatchSize) {
+                    // Wake up a lingering leader
+                    notifyAll();
+                }
+                while (!pendingNotification.done) {
+                    if (!sending) {
+                        sending = true;
+                        leader = true;
+                        break;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // We must not give up, as the notification might be sent by the leader concurrently
+                        interrupted = true;
+                    }
+                }
+            }
+
+            if (leader) {
+                try {
+                    interrupted |= lead(pendingNotification);
+                } finally {
+                    synchronized (this) {
+                        sending = false;
+                        if (pending.isEmpty()) {
+                            batchers.remove(channel, this);
+                        }
+                        notifyAll();
+                    }
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return pendingNotification.getResult();
+        }
+
+        private boolean lead(PendingNotification ownNotification) {
+            boolean interrupted = false;
+            while (true) {
+                List<PendingNotification> batch;
+                synchronized (this) {
+                    if (ownNotification.done) {
+                        return interrupted;
+                    }
+                    if (lingerNanos > 0L) {
+                        long deadline = System.nanoTime() + lingerNanos;
+                        long remaining;
+                        while (pending.size() < maxBatchSize && (remaining = deadline - System.nanoTime()) > 0L) {
+                            try {
+                                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                            } catch (InterruptedException e) {
+                                interrupted = true;
+                            }
+                        }
+                    }
+                    int size = Math.min(pending.size(), maxBatchSize);
+                    batch = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        batch.add(pending.poll());
+                    }
+                }
+                sendBatch(batch);
+            }
+        }
+
+        private void sendBatch(List<PendingNotification> batch) {
+            int size = batch.size();
+            List<NotificationRecipient<?>> recipients = new ArrayList<>(size);
+            List<NotificationMessage> messages = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                PendingNotification pendingNotification = batch.get(i);
+                recipients.add(pendingNotification.recipient);
+                messages.add(pendingNotification.message);
+            }
+            Object[] results;
+            try {
+                results = channel.sendNotificationMessages(recipients, messages);
+                if (results == null || results.length != size) {
+                    throw new NotificationException("The channel " + channel + " returned an invalid amount of results for a batch of size " + size);
+                }
+            } catch (RuntimeException | Error e) {
+                results = new Object[size];
+                for (int i = 0; i < size; i++) {
+                    results[i] = e;
+                }
+            }
+            synchronized (this) {
+                for (int i = 0; i < size; i++) {
+                    PendingNotification pendingNotification = batch.get(i);
+                    pendingNotification.result = results[i];
+                    pendingNotification.done = true;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * A notification that waits for being sent.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    private static final class PendingNotification {
+
+        private final NotificationRecipient<?> recipient;
+        private final NotificationMessage message;
+        private Object result;
+        private boolean done;
+
+        private PendingNotification(NotificationRecipient<?> recipient, NotificationMessage message) {
+            this.recipient = recipient;
+            this.message = message;
+        }
+
+        public Object getResult() {
+            if (result instanceof RuntimeException) {
+                throw (RuntimeException) result;
+            } else if (result instanceof Error) {
+                throw (Error) result;
+            } else if (result instanceof Throwable) {
+                throw new NotificationException((Throwable) result);
+            }
+            return result;
+        }
+    }
+}
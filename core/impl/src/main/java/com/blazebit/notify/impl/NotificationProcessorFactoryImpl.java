@@ -25,8 +25,32 @@ import com.blazebit.notify.NotificationProcessorFactory;
 @ServiceProvider(NotificationProcessorFactory.class)
 public class NotificationProcessorFactoryImpl implements NotificationProcessorFactory {
 
+    /**
+     * The configuration property for enabling the {@link BatchingNotificationProcessor}.
+     */
+    public static final String NOTIFICATION_PROCESSOR_BATCHING_PROPERTY = "notification.processor.batching";
+    /**
+     * The configuration property for the time in milliseconds to wait for more notifications before sending a batch that is not full.
+     */
+    public static final String NOTIFICATION_PROCESSOR_BATCH_LINGER_PROPERTY = "notification.processor.batch_linger";
+
+    private volatile BatchingNotificationProcessor<?> batchingNotificationProcessor;
+
     @Override
     public <N extends Notification<?>> NotificationProcessor<N> createNotificationProcessor(NotificationJobContext jobContext, N notification) {
+        if (jobContext.getPropertyOrDefault(NOTIFICATION_PROCESSOR_BATCHING_PROPERTY, Boolean.class, Boolean::valueOf, o -> false)) {
+            BatchingNotificationProcessor<?> processor = batchingNotificationProcessor;
+            if (processor == null) {
+                synchronized (this) {
+                    processor = batchingNotificationProcessor;
+                    if (processor == null) {
+                        long lingerMillis = jobContext.getPropertyOrDefault(NOTIFICATION_PROCESSOR_BATCH_LINGER_PROPERTY, Long.class, Long::valueOf, o -> 0L);
+                        batchingNotificationProcessor = processor = new BatchingNotificationProcessor<>(lingerMillis);
+                    }
+                }
+            }
+            return (NotificationProcessor<N>) processor;
+        }
         return (NotificationProcessor<N>) NotificationProcessorImpl.INSTANCE;
     }
 }
@@ -16,6 +16,7 @@
 
 package com.blazebit.notify.impl;
 
+import com.blazebit.job.ConfigurationSource;
 import com.blazebit.notify.Channel;
 import com.blazebit.notify.ConfigurationSourceProvider;
 import com.blazebit.notify.Notification;
@@ -26,6 +27,8 @@ import com.blazebit.notify.NotificationMessageResolver;
 import com.blazebit.notify.NotificationProcessor;
 import com.blazebit.notify.NotificationRecipient;
 
+import java.util.concurrent.CompletionStage;
+
 public class NotificationProcessorImpl<N extends Notification<?>> implements NotificationProcessor<N> {
 
     public static final NotificationProcessorImpl<Notification<?>> INSTANCE = new NotificationProcessorImpl<>();
@@ -34,19 +37,57 @@ public class NotificationProcessorImpl<N extends Notification<?>> implements Not
     }
 
     @Override
-    public void process(N notification, NotificationJobContext context) {
-        Channel<NotificationRecipient<?>, NotificationMessage> channel = context.getChannel(notification.getChannelType());
-        NotificationRecipient<?> recipient = notification.getRecipient();
+    public CompletionStage<Void> process(N notification, NotificationJobContext context) {
+        ConfigurationSource configurationSource = getConfigurationSource(notification, context);
+        Channel<NotificationRecipient<?>, NotificationMessage> channel = context.getChannel(notification.getChannelType(), configurationSource);
+        NotificationRecipient<?> recipient = getRecipient(notification);
+        NotificationMessage notificationMessage = resolveNotificationMessage(notification, channel, configurationSource, context);
+        return channel.sendNotificationMessageAsync(recipient, notificationMessage).thenAccept(notification::markDone);
+    }
+
+    /**
+     * Returns the configuration source of the given notification or the context if the notification provides none.
+     * Only the transport properties of the configuration source are used to determine the channel,
+     * so notifications with different message properties share the same channel.
+     *
+     * @param notification The notification
+     * @param context The notification job context
+     * @return the configuration source
+     */
+    protected ConfigurationSource getConfigurationSource(N notification, NotificationJobContext context) {
+        if (notification instanceof ConfigurationSourceProvider) {
+            return ((ConfigurationSourceProvider) notification).getConfigurationSource(context);
+        }
+        return context;
+    }
 
+    /**
+     * Returns the recipient of the given notification or throws an exception if there is none.
+     *
+     * @param notification The notification
+     * @return the recipient
+     * @throws NotificationException if no recipient can be resolved
+     */
+    protected NotificationRecipient<?> getRecipient(N notification) {
+        NotificationRecipient<?> recipient = notification.getRecipient();
         if (recipient == null) {
             throw new NotificationException("No recipient can be resolved from: " + notification);
         }
-        NotificationMessageResolver<NotificationMessage> notificationMessageResolver;
-        if (notification instanceof ConfigurationSourceProvider) {
-            notificationMessageResolver = context.getNotificationMessageResolver((Class<NotificationMessage>) channel.getNotificationMessageType(), ((ConfigurationSourceProvider) notification).getConfigurationSource(context));
-        } else {
-            notificationMessageResolver = context.getNotificationMessageResolver((Class<NotificationMessage>) channel.getNotificationMessageType());
-        }
+        return recipient;
+    }
+
+    /**
+     * Resolves the notification message for the given notification that should be sent through the given channel.
+     *
+     * @param notification The notification
+     * @param channel The channel through which the message is sent
+     * @param configurationSource The configuration source of the notification
+     * @param context The notification job context
+     * @return the notification message
+     * @throws NotificationException if no notification message can be resolved
+     */
+    protected NotificationMessage resolveNotificationMessage(N notification, Channel<NotificationRecipient<?>, NotificationMessage> channel, ConfigurationSource configurationSource, NotificationJobContext context) {
+        NotificationMessageResolver<NotificationMessage> notificationMessageResolver = context.getNotificationMessageResolver((Class<NotificationMessage>) channel.getNotificationMessageType(), configurationSource);
         NotificationMessage notificationMessage;
         if (notificationMessageResolver == null) {
             if (notification instanceof NotificationMessage) {
@@ -60,7 +101,6 @@ public class NotificationProcessorImpl<N extends Notification<?>> implements Not
         if (notificationMessage == null) {
             throw new NotificationException("No notification message can be resolved from: " + notification);
         }
-        Object result = channel.sendNotificationMessage(recipient, notificationMessage);
-        notification.markDone(result);
+        return notificationMessage;
     }
 }
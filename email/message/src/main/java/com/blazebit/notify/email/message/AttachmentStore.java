@@ -0,0 +1,488 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.email.message;
+
+import com.blazebit.job.JobInstance;
+import com.blazebit.job.JobInstanceListener;
+import com.blazebit.job.JobInstanceProcessingContext;
+import com.blazebit.notify.BoundedCache;
+import com.blazebit.notify.CacheStatistics;
+import com.blazebit.notify.Notification;
+import com.blazebit.notify.NotificationException;
+
+import javax.activation.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A content addressed store for attachments that is shared between the messages of a notification job.
+ * The content of an attachment is spooled once to a file named by the SHA-256 hash of the content, which is memory mapped along with a file
+ * containing the base64 transfer encoded form of the content. The {@link StoredAttachment}s handed out by the store refer to these mappings,
+ * so channels can write the encoded content of an attachment that is sent to many recipients without reading and encoding it again.
+ *
+ * Attachments are additionally looked up by the identity of their {@link DataSource}, so an attachment that is returned by an attachment processor
+ * for every message is only read once. The store can be registered as service of the notification job context to be picked up by {@link EmailNotificationMessageResolver}.
+ *
+ * The resolver retains the stored attachments of a message for the notification it is resolved for. The store must also be registered as {@link JobInstanceListener},
+ * so that the attachments are released when the notification completes or fails. Contents that were not used for the idle timeout are evicted,
+ * but the spooled files of an evicted content are only deleted when no notification retains it anymore. The mappings are then only referenced
+ * by the messages that still hold the stored attachments and are unmapped when these are garbage collected.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public class AttachmentStore implements AutoCloseable, JobInstanceListener {
+
+    /**
+     * The default time in milliseconds after which a content that was not used is evicted.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 60_000L;
+    private static final Logger LOG = Logger.getLogger(AttachmentStore.class.getName());
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Path directory;
+    private final boolean deleteDirectory;
+    private final BoundedCache<String, StoredContent> contents;
+    private final BoundedCache<DataSource, StoredContent> dataSources;
+    private final ConcurrentMap<Object, List<StoredContent>> retainedContents = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new attachment store in a new temporary directory that is deleted on close.
+     *
+     * @param maxAttachments The maximum amount of attachment contents to retain
+     * @throws IOException If the directory can't be created
+     */
+    public AttachmentStore(int maxAttachments) throws IOException {
+        this(maxAttachments, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Creates a new attachment store in a new temporary directory that is deleted on close.
+     *
+     * @param maxAttachments The maximum amount of attachment contents to retain
+     * @param idleTimeoutMillis The time in milliseconds after which a content that was not used is evicted or 0 to disable idle eviction
+     * @throws IOException If the directory can't be created
+     */
+    public AttachmentStore(int maxAttachments, long idleTimeoutMillis) throws IOException {
+        this(Files.createTempDirectory("blaze-notify-attachments"), maxAttachments, idleTimeoutMillis, true);
+    }
+
+    /**
+     * Creates a new attachment store that spools attachments into the given directory.
+     *
+     * @param directory The directory to spool attachments to
+     * @param maxAttachments The maximum amount of attachment contents to retain
+     * @throws IOException If the directory can't be created
+     */
+    public AttachmentStore(Path directory, int maxAttachments) throws IOException {
+        this(directory, maxAttachments, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Creates a new attachment store that spools attachments into the given directory.
+     *
+     * @param directory The directory to spool attachments to
+     * @param maxAttachments The maximum amount of attachment contents to retain
+     * @param idleTimeoutMillis The time in milliseconds after which a content that was not used is evicted or 0 to disable idle eviction
+     * @throws IOException If the directory can't be created
+     */
+    public AttachmentStore(Path directory, int maxAttachments, long idleTimeoutMillis) throws IOException {
+        this(Files.createDirectories(directory), maxAttachments, idleTimeoutMillis, false);
+    }
+
+    private AttachmentStore(Path directory, int maxAttachments, long idleTimeoutMillis, boolean deleteDirectory) {
+        this.directory = directory;
+        this.deleteDirectory = deleteDirectory;
+        this.contents = new BoundedCache<>(maxAttachments, idleTimeoutMillis, StoredContent::evict);
+        this.dataSources = new BoundedCache<>(maxAttachments, idleTimeoutMillis, content -> { });
+    }
+
+    /**
+     * Returns the statistics of the attachment contents.
+     *
+     * @return the statistics of the attachment contents
+     */
+    public CacheStatistics getStatistics() {
+        return contents;
+    }
+
+    /**
+     * Returns a stored attachment for the given attachment, spooling its content if it is not yet stored.
+     *
+     * @param attachment The attachment
+     * @return the stored attachment
+     * @throws NotificationException If the content of the attachment can't be stored
+     */
+    public StoredAttachment store(Attachment attachment) {
+        if (attachment instanceof StoredAttachment) {
+            return (StoredAttachment) attachment;
+        }
+        DataSource dataSource = attachment.getDataSource();
+        StoredContent content;
+        try {
+            content = dataSources.get(dataSource, ds -> {
+                try {
+                    return spool(ds);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            if (content.isDeleted()) {
+                // The content was evicted and released since it was looked up for the data source
+                dataSources.invalidate(dataSource);
+                content = dataSources.get(dataSource, ds -> {
+                    try {
+                        return spool(ds);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        } catch (UncheckedIOException e) {
+            throw new NotificationException("Could not store attachment " + attachment.getName(), e.getCause());
+        }
+        return new StoredAttachment(attachment.getName(), new StoredDataSource(attachment.getName(), dataSource.getContentType(), content), content);
+    }
+
+    /**
+     * Retains the contents of the given stored attachments for the notification with the given id until it is released.
+     * Contents that were retained for the notification before are released, so that a notification that is processed again
+     * only retains the contents of its latest message.
+     *
+     * @param notificationId The id of the notification
+     * @param attachments The attachments of the message of the notification
+     */
+    public void retain(Object notificationId, Collection<Attachment> attachments) {
+        List<StoredContent> retained = new ArrayList<>(attachments.size());
+        for (Attachment attachment : attachments) {
+            // A content that is already deleted stays usable through the mappings of the attachment
+            if (attachment instanceof StoredAttachment && ((StoredAttachment) attachment).getStoredContent().retain()) {
+                retained.add(((StoredAttachment) attachment).getStoredContent());
+            }
+        }
+        List<StoredContent> previous = retained.isEmpty() ? retainedContents.remove(notificationId) : retainedContents.put(notificationId, retained);
+        release(previous);
+    }
+
+    /**
+     * Releases the contents that were retained for the notification with the given id.
+     *
+     * @param notificationId The id of the notification
+     */
+    public void release(Object notificationId) {
+        release(retainedContents.remove(notificationId));
+        evictIdleEntries();
+    }
+
+    private static void release(List<StoredContent> retained) {
+        if (retained != null) {
+            for (StoredContent content : retained) {
+                content.release();
+            }
+        }
+    }
+
+    /**
+     * Evicts the contents that were not used for the idle timeout.
+     */
+    public void evictIdleEntries() {
+        contents.evictIdleEntries();
+        dataSources.evictIdleEntries();
+    }
+
+    @Override
+    public void onJobInstanceChunkSuccess(JobInstance<?> jobInstance, JobInstanceProcessingContext<?> context) {
+    }
+
+    @Override
+    public void onJobInstanceError(JobInstance<?> jobInstance, JobInstanceProcessingContext<?> context) {
+        if (jobInstance instanceof Notification<?>) {
+            release(jobInstance.getId());
+        }
+    }
+
+    @Override
+    public void onJobInstanceSuccess(JobInstance<?> jobInstance, JobInstanceProcessingContext<?> context) {
+        if (jobInstance instanceof Notification<?>) {
+            release(jobInstance.getId());
+        }
+    }
+
+    private StoredContent spool(DataSource dataSource) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+        Path temporaryFile = Files.createTempFile(directory, "spool", ".tmp");
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream in = dataSource.getInputStream(); OutputStream out = Files.newOutputStream(temporaryFile)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                }
+            }
+            String hash = toHex(digest.digest());
+            return contents.get(hash, h -> {
+                try {
+                    return createContent(h, temporaryFile);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } finally {
+            // The file was moved if the content was not stored yet
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    private StoredContent createContent(String hash, Path temporaryFile) throws IOException {
+        Path file = directory.resolve(hash + ".bin");
+        Path encodedFile = directory.resolve(hash + ".b64");
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+        MappedByteBuffer content = map(file);
+        try (OutputStream out = Base64.getMimeEncoder().wrap(Files.newOutputStream(encodedFile))) {
+            ByteBuffer source = content.duplicate();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (source.hasRemaining()) {
+                int length = Math.min(buffer.length, source.remaining());
+                source.get(buffer, 0, length);
+                out.write(buffer, 0, length);
+            }
+        }
+        return new StoredContent(hash, file, content, encodedFile, map(encodedFile));
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+            chars[i * 2 + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Removes all stored contents and deletes the spool directory if it was created by the store.
+     */
+    @Override
+    public void close() {
+        dataSources.clear();
+        contents.clear();
+        // The contents are evicted now, so releasing them deletes the files of contents that are still retained
+        for (Object notificationId : retainedContents.keySet()) {
+            release(retainedContents.remove(notificationId));
+        }
+        if (deleteDirectory) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Files.deleteIfExists(file);
+                }
+                Files.deleteIfExists(directory);
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Could not delete attachment spool directory " + directory, e);
+            }
+        }
+    }
+
+    /**
+     * The spooled content of an attachment.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    static final class StoredContent {
+
+        private final String hash;
+        private final Path file;
+        private final MappedByteBuffer content;
+        private final Path encodedFile;
+        private final MappedByteBuffer encodedContent;
+        private int references;
+        private boolean evicted;
+        private boolean deleted;
+
+        /**
+         * Creates the stored content for the given spooled files.
+         *
+         * @param hash The hex encoded SHA-256 hash of the content
+         * @param file The file of the raw content
+         * @param content The mapped raw content
+         * @param encodedFile The file of the base64 encoded content
+         * @param encodedContent The mapped base64 encoded content
+         */
+        StoredContent(String hash, Path file, MappedByteBuffer content, Path encodedFile, MappedByteBuffer encodedContent) {
+            this.hash = hash;
+            this.file = file;
+            this.content = content;
+            this.encodedFile = encodedFile;
+            this.encodedContent = encodedContent;
+        }
+
+        String getHash() {
+            return hash;
+        }
+
+        ByteBuffer getContent() {
+            return content.asReadOnlyBuffer();
+        }
+
+        ByteBuffer getEncodedContent() {
+            return encodedContent.asReadOnlyBuffer();
+        }
+
+        /**
+         * Retains the content, so that the spooled files are not deleted when it is evicted.
+         *
+         * @return <code>false</code> if the spooled files are already deleted
+         */
+        synchronized boolean retain() {
+            if (deleted) {
+                return false;
+            }
+            references++;
+            return true;
+        }
+
+        /**
+         * Releases the content and deletes the spooled files if it was evicted and is not retained anymore.
+         */
+        synchronized void release() {
+            if (--references == 0 && evicted) {
+                delete();
+            }
+        }
+
+        /**
+         * Marks the content as evicted and deletes the spooled files if it is not retained.
+         */
+        synchronized void evict() {
+            evicted = true;
+            if (references == 0) {
+                delete();
+            }
+        }
+
+        /**
+         * Returns whether the spooled files are deleted.
+         *
+         * @return whether the spooled files are deleted
+         */
+        synchronized boolean isDeleted() {
+            return deleted;
+        }
+
+        private void delete() {
+            deleted = true;
+            // Mappings stay valid after deleting the files, so messages that are still being sent are not affected
+            try {
+                Files.deleteIfExists(file);
+                Files.deleteIfExists(encodedFile);
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Could not delete spooled attachment " + hash, e);
+            }
+        }
+    }
+
+    /**
+     * A data source that reads the spooled content.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    private static final class StoredDataSource implements DataSource {
+
+        private final String name;
+        private final String contentType;
+        private final StoredContent content;
+
+        StoredDataSource(String name, String contentType, StoredContent content) {
+            this.name = name;
+            this.contentType = contentType;
+            this.content = content;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            ByteBuffer buffer = content.getContent();
+            return new InputStream() {
+                @Override
+                public int read() {
+                    return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    if (!buffer.hasRemaining()) {
+                        return -1;
+                    }
+                    int length = Math.min(len, buffer.remaining());
+                    buffer.get(b, off, length);
+                    return length;
+                }
+
+                @Override
+                public int available() {
+                    return buffer.remaining();
+                }
+            };
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            throw new IOException("Stored attachments are read only");
+        }
+
+        @Override
+        public String getContentType() {
+            return contentType;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+}
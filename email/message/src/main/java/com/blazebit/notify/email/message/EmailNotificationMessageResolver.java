@@ -16,12 +16,14 @@
 package com.blazebit.notify.email.message;
 
 import com.blazebit.job.ConfigurationSource;
+import com.blazebit.notify.BoundedCache;
+import com.blazebit.notify.CacheStatistics;
 import com.blazebit.notify.Notification;
 import com.blazebit.notify.NotificationException;
 import com.blazebit.notify.NotificationJobContext;
 import com.blazebit.notify.NotificationMessageResolver;
+import com.blazebit.notify.NotificationMessageModel;
 import com.blazebit.notify.NotificationMessageResolverModelCustomizer;
-import com.blazebit.notify.NotificationRecipient;
 import com.blazebit.notify.template.api.TemplateContext;
 import com.blazebit.notify.template.api.TemplateProcessor;
 import com.blazebit.notify.template.api.TemplateProcessorFactory;
@@ -30,10 +32,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
+import java.util.Objects;
 import java.util.ResourceBundle;
 import java.util.function.Function;
 
@@ -95,6 +96,23 @@ public class EmailNotificationMessageResolver implements NotificationMessageReso
      * The configuration property for the E-Mail attachment processors.
      */
     public static final String EMAIL_MESSAGE_ATTACHMENT_PROCESSORS_PROPERTY = "message.email.attachment_processors";
+    /**
+     * The configuration property for the {@link AttachmentStore} to store the attachments of messages in.
+     * The store must also be registered as job instance listener, so that it can release the attachments of completed notifications.
+     */
+    public static final String EMAIL_MESSAGE_ATTACHMENT_STORE_PROPERTY = "message.email.attachment_store";
+    /**
+     * The configuration property for the maximum amount of messages that are shared between the recipients of a job instance per locale or 0 to disable sharing.
+     */
+    public static final String EMAIL_MESSAGE_CACHE_MAX_SIZE_PROPERTY = "message.email.cache.max_size";
+    /**
+     * The configuration property for the time in milliseconds after which a shared message that was not used is evicted.
+     */
+    public static final String EMAIL_MESSAGE_CACHE_IDLE_TIMEOUT_PROPERTY = "message.email.cache.idle_timeout";
+
+    private static final int DEFAULT_MESSAGE_CACHE_MAX_SIZE = 256;
+    private static final long DEFAULT_MESSAGE_CACHE_IDLE_TIMEOUT = 600_000L;
+    private static final List<String> RECIPIENT_INDEPENDENT_KEYS = Arrays.asList(NotificationMessageModel.LOCALE_KEY, NotificationMessageModel.RESOURCE_BUNDLE_KEY);
 
     private final NotificationJobContext notificationJobContext;
     private final String from;
@@ -107,7 +125,9 @@ public class EmailNotificationMessageResolver implements NotificationMessageReso
     private final TemplateProcessor<String> textBodyTemplateProcessor;
     private final TemplateProcessor<String> htmlBodyTemplateProcessor;
     private final Collection<TemplateProcessor> attachmentProcessors;
+    private final AttachmentStore attachmentStore;
     private final List<NotificationMessageResolverModelCustomizer> modelCustomizers;
+    private final BoundedCache<MessageKey, SharedMessage> messages;
 
     /**
      * Creates a new message resolver from the given notification job context and configuration source.
@@ -134,6 +154,7 @@ public class EmailNotificationMessageResolver implements NotificationMessageReso
         this.subjectTemplateProcessor = configurationSource.getPropertyOrDefault(EMAIL_MESSAGE_SUBJECT_PROPERTY, TemplateProcessor.class, templateProcessorFunction, o -> null);
         this.textBodyTemplateProcessor = configurationSource.getPropertyOrDefault(EMAIL_MESSAGE_TEXT_PROPERTY, TemplateProcessor.class, templateProcessorFunction, o -> null);
         this.htmlBodyTemplateProcessor = configurationSource.getPropertyOrDefault(EMAIL_MESSAGE_HTML_PROPERTY, TemplateProcessor.class, templateProcessorFunction, o -> null);
+        this.attachmentStore = configurationSource.getPropertyOrDefault(EMAIL_MESSAGE_ATTACHMENT_STORE_PROPERTY, AttachmentStore.class, null, o -> jobContext.getService(AttachmentStore.class));
         Object o = configurationSource.getProperty(EMAIL_MESSAGE_ATTACHMENT_PROCESSORS_PROPERTY);
         List<TemplateProcessor> attachmentProcessors = Collections.emptyList();
         if (o instanceof Collection<?>) {
@@ -155,6 +176,10 @@ public class EmailNotificationMessageResolver implements NotificationMessageReso
         }
         this.attachmentProcessors = attachmentProcessors;
         this.modelCustomizers = modelCustomizers == null ? Collections.emptyList() : modelCustomizers;
+        this.messages = createMessageCache(
+            configurationSource.getPropertyOrDefault(EMAIL_MESSAGE_CACHE_MAX_SIZE_PROPERTY, Integer.class, Integer::valueOf, x -> DEFAULT_MESSAGE_CACHE_MAX_SIZE),
+            configurationSource.getPropertyOrDefault(EMAIL_MESSAGE_CACHE_IDLE_TIMEOUT_PROPERTY, Long.class, Long::valueOf, x -> DEFAULT_MESSAGE_CACHE_IDLE_TIMEOUT)
+        );
     }
 
     /**
@@ -166,7 +191,7 @@ public class EmailNotificationMessageResolver implements NotificationMessageReso
      * @param replyTo                   The reply to address
      * @param replyToDisplayName        The reply to display name
      * @param envelopeFrom              The envelop from address
-     * @param resourceBundleName        The resource bundle name
+     * @param resourceBundleName        The resource bundle name or <code>null</code>
      * @param subjectTemplateProcessor  The subject template processor
      * @param textBodyTemplateProcessor The text body template processor
      * @param htmlBodyTemplateProcessor The html body template processor
@@ -184,12 +209,27 @@ public class EmailNotificationMessageResolver implements NotificationMessageReso
         this.replyTo = replyTo;
         this.replyToDisplayName = replyToDisplayName;
         this.envelopeFrom = envelopeFrom;
-        this.resourceBundleAccessor = resourceBundleByName(resourceBundleName);
+        this.resourceBundleAccessor = resourceBundleName == null ? null : resourceBundleByName(resourceBundleName);
         this.subjectTemplateProcessor = subjectTemplateProcessor;
         this.textBodyTemplateProcessor = textBodyTemplateProcessor;
         this.htmlBodyTemplateProcessor = htmlBodyTemplateProcessor;
         this.attachmentProcessors = attachmentProcessors == null ? Collections.emptyList() : attachmentProcessors;
+        this.attachmentStore = jobContext == null ? null : jobContext.getService(AttachmentStore.class);
         this.modelCustomizers = modelCustomizers == null ? Collections.emptyList() : modelCustomizers;
+        this.messages = createMessageCache(DEFAULT_MESSAGE_CACHE_MAX_SIZE, DEFAULT_MESSAGE_CACHE_IDLE_TIMEOUT);
+    }
+
+    private static BoundedCache<MessageKey, SharedMessage> createMessageCache(int maxSize, long idleTimeout) {
+        return maxSize < 1 ? null : new BoundedCache<>(maxSize, idleTimeout, m -> { });
+    }
+
+    /**
+     * Returns the statistics of the cache for messages that are shared between the recipients of a job instance or <code>null</code> if sharing is disabled.
+     *
+     * @return the cache statistics or <code>null</code>
+     */
+    public CacheStatistics getMessageCacheStatistics() {
+        return messages;
     }
 
     private static Function<Locale, ResourceBundle> resourceBundleByName(String name) {
@@ -203,7 +243,7 @@ public class EmailNotificationMessageResolver implements NotificationMessageReso
         if (templateProcessorFactory == null) {
             throw new NotificationException("No template processor factory given!");
         }
-        return templateProcessorFactory.createTemplateProcessor(templateContext, key -> {
+        return templateContext.getTemplateProcessor(templateProcessorFactory, key -> {
             if ("template".equals(key)) {
                 return string;
             } else {
@@ -214,20 +254,49 @@ public class EmailNotificationMessageResolver implements NotificationMessageReso
 
     @Override
     public EmailNotificationMessage resolveNotificationMessage(Notification<?> notification) {
-        Map<String, Object> model = new HashMap<>(notification.getJobConfiguration().getParameters());
-        NotificationRecipient<?> notificationRecipient = notification.getRecipient();
-        Locale locale = notificationRecipient.getLocale();
-        if (resourceBundleAccessor != null) {
-            ResourceBundle resourceBundle = resourceBundleAccessor.apply(locale);
-            model.put("resourceBundle", resourceBundle);
+        EmailNotificationMessage message = resolveMessage(notification);
+        if (attachmentStore != null && !message.getAttachments().isEmpty()) {
+            // The stored attachments are released by the store when the notification completes
+            attachmentStore.retain(notification.getId(), message.getAttachments());
+        }
+        return message;
+    }
+
+    private EmailNotificationMessage resolveMessage(Notification<?> notification) {
+        Object jobInstanceId = notification.getNotificationJobInstanceId();
+        if (messages == null || jobInstanceId == null) {
+            return resolveNotificationMessage(createModel(notification));
+        }
+        // The first notification of a job instance and locale determines whether the message depends on the recipient
+        EmailNotificationMessage[] recipientMessage = new EmailNotificationMessage[1];
+        SharedMessage sharedMessage = messages.get(new MessageKey(jobInstanceId, notification.getRecipient().getLocale()), k -> {
+            NotificationMessageModel model = createModel(notification);
+            EmailNotificationMessage message = resolveNotificationMessage(model);
+            if (model.isIndependentOfEntriesExcept(RECIPIENT_INDEPENDENT_KEYS)) {
+                return new SharedMessage(message);
+            }
+            recipientMessage[0] = message;
+            return new SharedMessage(null);
+        });
+        if (sharedMessage.message != null) {
+            return sharedMessage.message;
+        }
+        if (recipientMessage[0] != null) {
+            return recipientMessage[0];
         }
-        model.put("locale", locale);
-        model.put("recipient", notificationRecipient);
+        return resolveNotificationMessage(createModel(notification));
+    }
+
+    private NotificationMessageModel createModel(Notification<?> notification) {
+        // The model is built once and shared by all message parts
+        NotificationMessageModel model = NotificationMessageModel.of(notification, resourceBundleAccessor);
         for (NotificationMessageResolverModelCustomizer modelCustomizer : modelCustomizers) {
             modelCustomizer.customize(model, notification, notificationJobContext);
         }
-        model = Collections.unmodifiableMap(model);
+        return model.readOnly();
+    }
 
+    private EmailNotificationMessage resolveNotificationMessage(NotificationMessageModel model) {
         String subjectString = subjectTemplateProcessor == null ? null : subjectTemplateProcessor.processTemplate(model);
         String textBodyString = textBodyTemplateProcessor == null ? null : textBodyTemplateProcessor.processTemplate(model);
         String htmlBodyString = htmlBodyTemplateProcessor == null ? null : htmlBodyTemplateProcessor.processTemplate(model);
@@ -240,13 +309,69 @@ public class EmailNotificationMessageResolver implements NotificationMessageReso
             if (collectionOrAttachment != null) {
                 if (collectionOrAttachment instanceof Collection) {
                     for (Object attachment : (Collection) collectionOrAttachment) {
-                        attachments.add((Attachment) attachment);
+                        attachments.add(storeAttachment((Attachment) attachment));
                     }
                 } else {
-                    attachments.add((Attachment) collectionOrAttachment);
+                    attachments.add(storeAttachment((Attachment) collectionOrAttachment));
                 }
             }
         }
         return new EmailNotificationMessage(from, fromDisplayName, replyTo, replyToDisplayName, envelopeFrom, subject, textBody, htmlBody, attachments);
     }
+
+    private Attachment storeAttachment(Attachment attachment) {
+        if (attachmentStore == null) {
+            return attachment;
+        }
+        return attachmentStore.store(attachment);
+    }
+
+    /**
+     * The key for messages that are shared between the recipients of a job instance.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    private static final class MessageKey {
+
+        private final Object jobInstanceId;
+        private final Locale locale;
+
+        private MessageKey(Object jobInstanceId, Locale locale) {
+            this.jobInstanceId = jobInstanceId;
+            this.locale = locale;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MessageKey)) {
+                return false;
+            }
+            MessageKey that = (MessageKey) o;
+            return jobInstanceId.equals(that.jobInstanceId) && Objects.equals(locale, that.locale);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * jobInstanceId.hashCode() + Objects.hashCode(locale);
+        }
+    }
+
+    /**
+     * A message that is shared between the recipients of a job instance, or <code>null</code> if the message depends on the recipient.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    private static final class SharedMessage {
+
+        private final EmailNotificationMessage message;
+
+        private SharedMessage(EmailNotificationMessage message) {
+            this.message = message;
+        }
+    }
 }
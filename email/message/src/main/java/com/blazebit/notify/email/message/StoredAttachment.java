@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.email.message;
+
+import javax.activation.DataSource;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An attachment whose content is held by an {@link AttachmentStore}, along with its base64 transfer encoded form.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public class StoredAttachment extends Attachment {
+
+    private final AttachmentStore.StoredContent content;
+
+    /**
+     * Creates a new stored attachment.
+     *
+     * @param name The attachment name
+     * @param dataSource The original data source
+     * @param content The stored content
+     */
+    StoredAttachment(String name, DataSource dataSource, AttachmentStore.StoredContent content) {
+        super(name, dataSource);
+        this.content = content;
+    }
+
+    /**
+     * Returns the stored content.
+     *
+     * @return the stored content
+     */
+    AttachmentStore.StoredContent getStoredContent() {
+        return content;
+    }
+
+    /**
+     * Returns the hex encoded SHA-256 hash of the content.
+     *
+     * @return the content hash
+     */
+    public String getContentHash() {
+        return content.getHash();
+    }
+
+    /**
+     * Returns the size of the content in bytes.
+     *
+     * @return the size of the content
+     */
+    public long getSize() {
+        return content.getContent().remaining();
+    }
+
+    /**
+     * Returns a read only view of the base64 transfer encoded content, split into lines of 76 characters, without a trailing line break.
+     *
+     * @return the encoded content
+     */
+    public ByteBuffer getEncodedContent() {
+        return content.getEncodedContent();
+    }
+
+    /**
+     * Writes the base64 transfer encoded content to the given output stream using the given buffer.
+     *
+     * @param out The output stream
+     * @param buffer The buffer to copy the content through
+     * @throws IOException If writing fails
+     */
+    public void writeEncodedContent(OutputStream out, byte[] buffer) throws IOException {
+        ByteBuffer encodedContent = content.getEncodedContent();
+        while (encodedContent.hasRemaining()) {
+            int length = Math.min(buffer.length, encodedContent.remaining());
+            encodedContent.get(buffer, 0, length);
+            out.write(buffer, 0, length);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.email.message;
+
+import com.blazebit.notify.Notification;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.activation.DataSource;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AttachmentStoreTest {
+
+    private static final long IDLE_TIMEOUT = 50L;
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("attachment-store-test");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    public void spoolContentOnceForAllNotifications() throws Exception {
+        Attachment attachment = new Attachment("report.pdf", new BytesDataSource(content(10_000)));
+        try (AttachmentStore store = new AttachmentStore(directory, 16, IDLE_TIMEOUT)) {
+            StoredAttachment first = store.store(attachment);
+            StoredAttachment second = store.store(attachment);
+            store.retain(1L, Collections.singletonList(first));
+            store.retain(2L, Collections.singletonList(second));
+
+            assertEquals(first.getContentHash(), second.getContentHash());
+            assertEquals(1, store.getStatistics().getSize());
+            // The raw and the base64 encoded content
+            assertEquals(2, countFiles());
+            assertArrayEquals(Base64.getMimeEncoder().encode(content(10_000)), toArray(first.getEncodedContent()));
+        }
+    }
+
+    @Test
+    public void releaseFilesAfterJobCompletion() throws Exception {
+        try (AttachmentStore store = new AttachmentStore(directory, 16, IDLE_TIMEOUT)) {
+            StoredAttachment attachment = store.store(new Attachment("report.pdf", new BytesDataSource(content(10_000))));
+            store.retain(1L, Collections.singletonList(attachment));
+            store.retain(2L, Collections.singletonList(attachment));
+
+            store.onJobInstanceSuccess(notification(1L), null);
+            Thread.sleep(IDLE_TIMEOUT * 2);
+            store.evictIdleEntries();
+            // The content is evicted, but the second notification is still in flight and needs the files
+            assertEquals(0, store.getStatistics().getSize());
+            assertEquals(2, countFiles());
+
+            store.onJobInstanceSuccess(notification(2L), null);
+            assertEquals(0, countFiles());
+            assertTrue(attachment.getStoredContent().isDeleted());
+            // Messages that are still being written can use the mapping after the files are deleted
+            assertArrayEquals(Base64.getMimeEncoder().encode(content(10_000)), toArray(attachment.getEncodedContent()));
+
+            // The mappings are unmapped when the last attachment referring to them is garbage collected
+            WeakReference<AttachmentStore.StoredContent> content = new WeakReference<>(attachment.getStoredContent());
+            attachment = null;
+            awaitCollection(content);
+        }
+    }
+
+    @Test
+    public void releaseFilesAfterJobFailure() throws Exception {
+        try (AttachmentStore store = new AttachmentStore(directory, 1, 0L)) {
+            StoredAttachment failing = store.store(new Attachment("report.pdf", new BytesDataSource(content(10_000))));
+            store.retain(1L, Collections.singletonList(failing));
+            // Storing another content evicts the retained content of the failing notification
+            StoredAttachment other = store.store(new Attachment("other.pdf", new BytesDataSource(content(20_000))));
+            store.retain(2L, Collections.singletonList(other));
+            assertEquals(4, countFiles());
+
+            store.onJobInstanceError(notification(1L), null);
+
+            assertEquals(2, countFiles());
+            assertTrue(failing.getStoredContent().isDeleted());
+            assertFalse(other.getStoredContent().isDeleted());
+            WeakReference<AttachmentStore.StoredContent> content = new WeakReference<>(failing.getStoredContent());
+            failing = null;
+            awaitCollection(content);
+        }
+    }
+
+    @Test
+    public void releasePreviousContentsWhenRetainingAgain() throws Exception {
+        try (AttachmentStore store = new AttachmentStore(directory, 1, 0L)) {
+            StoredAttachment first = store.store(new Attachment("report.pdf", new BytesDataSource(content(10_000))));
+            store.retain(1L, Collections.singletonList(first));
+            StoredAttachment retry = store.store(new Attachment("report.pdf", new BytesDataSource(content(20_000))));
+
+            // A notification that is processed again only retains the attachments of its latest message
+            store.retain(1L, Collections.singletonList(retry));
+
+            assertTrue(first.getStoredContent().isDeleted());
+            assertEquals(2, countFiles());
+        }
+    }
+
+    @Test
+    public void spoolContentAgainAfterRelease() throws Exception {
+        Attachment attachment = new Attachment("report.pdf", new BytesDataSource(content(10_000)));
+        try (AttachmentStore store = new AttachmentStore(directory, 16, IDLE_TIMEOUT)) {
+            StoredAttachment first = store.store(attachment);
+            store.retain(1L, Collections.singletonList(first));
+            store.onJobInstanceSuccess(notification(1L), null);
+            Thread.sleep(IDLE_TIMEOUT * 2);
+            store.evictIdleEntries();
+            assertEquals(0, countFiles());
+
+            StoredAttachment second = store.store(attachment);
+
+            assertNotSame(first.getStoredContent(), second.getStoredContent());
+            assertFalse(second.getStoredContent().isDeleted());
+            assertEquals(2, countFiles());
+        }
+    }
+
+    @Test
+    public void deleteFilesOfRetainedContentsOnClose() throws Exception {
+        AttachmentStore store = new AttachmentStore(directory, 16, 0L);
+        StoredAttachment attachment = store.store(new Attachment("report.pdf", new BytesDataSource(content(10_000))));
+        store.retain(1L, Collections.singletonList(attachment));
+
+        store.close();
+
+        assertEquals(0, countFiles());
+        assertTrue(attachment.getStoredContent().isDeleted());
+    }
+
+    private int countFiles() throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void awaitCollection(WeakReference<?> reference) throws InterruptedException {
+        for (int i = 0; i < 100 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10L);
+        }
+        assertNull("Expected the store to release all references to the content", reference.get());
+    }
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        Arrays.fill(content, (byte) size);
+        for (int i = 0; i < size; i += 7) {
+            content[i] = (byte) i;
+        }
+        return content;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static Notification<?> notification(Object id) {
+        return (Notification<?>) Proxy.newProxyInstance(AttachmentStoreTest.class.getClassLoader(), new Class<?>[]{ Notification.class },
+            (proxy, method, args) -> "getId".equals(method.getName()) ? id : null);
+    }
+
+    private static class BytesDataSource implements DataSource {
+
+        private final byte[] bytes;
+
+        public BytesDataSource(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            throw new IOException("Read only");
+        }
+
+        @Override
+        public String getContentType() {
+            return "application/octet-stream";
+        }
+
+        @Override
+        public String getName() {
+            return "bytes";
+        }
+    }
+}
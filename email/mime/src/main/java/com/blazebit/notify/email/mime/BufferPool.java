@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.email.mime;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of fixed size byte arrays that are used as scratch and output buffers when writing MIME messages.
+ * Buffers that are released while the pool is full are left to the garbage collector.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public class BufferPool {
+
+    /**
+     * The default size of the buffers.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final int bufferSize;
+    private final int maxPooledBuffers;
+    private final Queue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledBuffers = new AtomicInteger();
+
+    /**
+     * Creates a new buffer pool.
+     *
+     * @param bufferSize The size of the buffers
+     * @param maxPooledBuffers The maximum amount of buffers to retain
+     */
+    public BufferPool(int bufferSize, int maxPooledBuffers) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("The buffer size must be positive but was: " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+        this.maxPooledBuffers = maxPooledBuffers;
+    }
+
+    /**
+     * Returns the size of the buffers.
+     *
+     * @return the size of the buffers
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Returns a buffer from the pool or a new buffer if the pool is empty.
+     *
+     * @return the buffer
+     */
+    public byte[] acquire() {
+        byte[] buffer = buffers.poll();
+        if (buffer == null) {
+            return new byte[bufferSize];
+        }
+        pooledBuffers.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Returns the given buffer to the pool. The buffer must not be used by the caller afterwards.
+     *
+     * @param buffer The buffer
+     */
+    public void release(byte[] buffer) {
+        if (buffer.length == bufferSize && pooledBuffers.incrementAndGet() <= maxPooledBuffers) {
+            buffers.add(buffer);
+        } else {
+            pooledBuffers.decrementAndGet();
+        }
+    }
+}
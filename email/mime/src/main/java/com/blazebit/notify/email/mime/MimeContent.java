@@ -0,0 +1,51 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.email.mime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The body of a MIME message along with the content headers that describe it.
+ * The body is rendered on demand, so that it can be streamed directly into the target, possibly multiple times.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public interface MimeContent {
+
+    /**
+     * Returns the value of the <code>Content-Type</code> header.
+     *
+     * @return the content type
+     */
+    String getContentType();
+
+    /**
+     * Returns the value of the <code>Content-Transfer-Encoding</code> header or <code>null</code> if the header must be omitted.
+     *
+     * @return the transfer encoding or <code>null</code>
+     */
+    String getTransferEncoding();
+
+    /**
+     * Writes the encoded body to the given output stream.
+     *
+     * @param out The output stream
+     * @throws IOException If writing fails
+     */
+    void writeTo(OutputStream out) throws IOException;
+}
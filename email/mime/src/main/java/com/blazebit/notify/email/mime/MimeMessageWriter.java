@@ -0,0 +1,898 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.email.mime;
+
+import com.blazebit.notify.BoundedCache;
+import com.blazebit.notify.CacheStatistics;
+import com.blazebit.notify.email.message.Attachment;
+import com.blazebit.notify.email.message.EmailBody;
+import com.blazebit.notify.email.message.EmailNotificationMessage;
+import com.blazebit.notify.email.message.EmailNotificationRecipient;
+import com.blazebit.notify.email.message.StoredAttachment;
+
+import javax.activation.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes email notification messages as MIME messages in a single pass.
+ * Bodies are encoded straight into the target stream and scratch buffers are taken from a {@link BufferPool},
+ * so that no intermediate representation of the message is created.
+ * The formatted sender addresses are cached, as they are usually the same for all messages of a message resolver.
+ * Encoded text bodies are cached by the SHA-256 hash of their content, so that a body that is sent to many recipients is only encoded once
+ * and only the per-recipient headers are written for every message.
+ *
+ * The produced structure is a <code>multipart/alternative</code> message if the message has a text and a HTML body or attachments,
+ * otherwise a <code>text/plain</code> or <code>text/html</code> message.
+ *
+ * Text bodies are sent as is if they consist of short ASCII lines or if the {@link TransportCapability} allows 8bit bodies.
+ * Otherwise the smaller of quoted-printable and base64 is chosen based on the amount of bytes that quoted-printable would have to escape,
+ * which favors quoted-printable for mostly Latin text and base64 for e.g. Japanese text.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public class MimeMessageWriter {
+
+    private static final String CHARSET_UTF8 = "UTF-8";
+    private static final String TEXT_MIME_TYPE = "text/plain; charset=" + CHARSET_UTF8;
+    private static final String HTML_MIME_TYPE = "text/html; charset=" + CHARSET_UTF8;
+    private static final String ENCODING_7BIT = "7bit";
+    private static final String ENCODING_8BIT = "8bit";
+    private static final String ENCODING_QUOTED_PRINTABLE = "quoted-printable";
+    private static final String ENCODING_BASE64 = "base64";
+    private static final byte[] CRLF = { '\r', '\n' };
+    // RFC 5322 limits lines to 998 characters, longer lines must be encoded
+    private static final int MAX_LINE_LENGTH = 998;
+    // RFC 5322 recommends folding header lines that are longer than 78 characters
+    private static final int MAX_HEADER_LINE_LENGTH = 78;
+    // Both quoted-printable and base64 lines are at most 76 characters long
+    private static final int MAX_ENCODED_LINE_LENGTH = 76;
+    // The amount of UTF-8 bytes per encoded word, so that an encoded word fits into a folded header line
+    private static final int MAX_ENCODED_WORD_BYTES = 39;
+    private static final String TSPECIALS = "()<>@,;:\\\"/[]?=";
+    // Encoding short bodies is cheaper than hashing them and they are likely personalized anyway
+    private static final int MIN_CACHED_PART_LENGTH = 1024;
+    private static final String ADDRESS_SPECIALS = "()<>[]:;@\\,.\"";
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final BufferPool bufferPool;
+    private final BoundedCache<AddressKey, String> addressCache;
+    private final BoundedCache<PartKey, byte[]> encodedPartCache;
+
+    /**
+     * Creates a new writer with a default buffer pool.
+     */
+    public MimeMessageWriter() {
+        this(new BufferPool(BufferPool.DEFAULT_BUFFER_SIZE, 64), 64, 32);
+    }
+
+    /**
+     * Creates a new writer.
+     *
+     * @param bufferPool The buffer pool to use for scratch and output buffers
+     * @param maxCachedAddresses The maximum amount of formatted addresses to cache
+     * @param maxCachedParts The maximum amount of encoded body parts to cache
+     */
+    public MimeMessageWriter(BufferPool bufferPool, int maxCachedAddresses, int maxCachedParts) {
+        this.bufferPool = bufferPool;
+        this.addressCache = new BoundedCache<>(maxCachedAddresses, 0L, value -> { });
+        this.encodedPartCache = new BoundedCache<>(maxCachedParts, 0L, value -> { });
+    }
+
+    /**
+     * Returns the buffer pool of this writer.
+     *
+     * @return the buffer pool
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Returns the statistics of the encoded body part cache.
+     *
+     * @return the statistics of the encoded body part cache
+     */
+    public CacheStatistics getEncodedPartCacheStatistics() {
+        return encodedPartCache;
+    }
+
+    /**
+     * Writes the given message for the given recipient into a new {@link PooledOutputStream}, which must be closed by the caller.
+     *
+     * @param recipient The recipient
+     * @param message The message
+     * @return the output stream containing the message
+     * @throws IOException If reading an attachment fails
+     */
+    public PooledOutputStream writeMessage(EmailNotificationRecipient<?> recipient, EmailNotificationMessage message) throws IOException {
+        return writeMessage(recipient, message, TransportCapability.SEVEN_BIT);
+    }
+
+    /**
+     * Writes the given message for the given recipient into a new {@link PooledOutputStream}, which must be closed by the caller.
+     *
+     * @param recipient The recipient
+     * @param message The message
+     * @param capability The encodings that the transport accepts
+     * @return the output stream containing the message
+     * @throws IOException If reading an attachment fails
+     */
+    public PooledOutputStream writeMessage(EmailNotificationRecipient<?> recipient, EmailNotificationMessage message, TransportCapability capability) throws IOException {
+        PooledOutputStream out = new PooledOutputStream(bufferPool);
+        try {
+            writeMessage(out, recipient, message, capability);
+            return out;
+        } catch (IOException | RuntimeException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the given message for the given recipient to the given output stream.
+     *
+     * @param out The output stream
+     * @param recipient The recipient
+     * @param message The message
+     * @throws IOException If writing fails or reading an attachment fails
+     */
+    public void writeMessage(OutputStream out, EmailNotificationRecipient<?> recipient, EmailNotificationMessage message) throws IOException {
+        writeMessage(out, recipient, message, TransportCapability.SEVEN_BIT);
+    }
+
+    /**
+     * Writes the given message for the given recipient to the given output stream.
+     *
+     * @param out The output stream
+     * @param recipient The recipient
+     * @param message The message
+     * @param capability The encodings that the transport accepts
+     * @throws IOException If writing fails or reading an attachment fails
+     */
+    public void writeMessage(OutputStream out, EmailNotificationRecipient<?> recipient, EmailNotificationMessage message, TransportCapability capability) throws IOException {
+        boolean utf8 = capability.isUtf8();
+        writeHeader(out, "Date", DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now()), false);
+        writeHeader(out, "From", formatAddress(message.getFrom(), message.getFromDisplayName(), capability), utf8);
+        String replyTo = message.getReplyTo();
+        if (replyTo != null && !replyTo.isEmpty()) {
+            writeHeader(out, "Reply-To", formatAddress(replyTo, message.getReplyToDisplayName(), capability), utf8);
+        }
+        // Recipient addresses are rarely repeated, so they are not cached to keep the cache for the sender addresses
+        writeHeader(out, "To", createAddress(new AddressKey(validateAddress(recipient.getEmail()), null, utf8)), utf8);
+        writeHeader(out, "Message-ID", createMessageId(message.getFrom()), utf8);
+        writeHeader(out, "Subject", encodeText(message.getSubject().getSubject(), capability), utf8);
+        writeHeader(out, "MIME-Version", "1.0", false);
+        MimeContent content = createContent(message, capability);
+        writeHeader(out, "Content-Type", content.getContentType(), utf8);
+        if (content.getTransferEncoding() != null) {
+            writeHeader(out, "Content-Transfer-Encoding", content.getTransferEncoding(), false);
+        }
+        out.write(CRLF);
+        content.writeTo(out);
+    }
+
+    /**
+     * Returns the content of the given message.
+     *
+     * @param message The message
+     * @return the content
+     */
+    public MimeContent createContent(EmailNotificationMessage message) {
+        return createContent(message, TransportCapability.SEVEN_BIT);
+    }
+
+    /**
+     * Returns the content of the given message encoded for a transport with the given capability.
+     *
+     * @param message The message
+     * @param capability The encodings that the transport accepts
+     * @return the content
+     */
+    public MimeContent createContent(EmailNotificationMessage message, TransportCapability capability) {
+        EmailBody textBody = message.getTextBody();
+        EmailBody htmlBody = message.getHtmlBody();
+        Collection<Attachment> attachments = message.getAttachments();
+        if (textBody != null && htmlBody != null || !attachments.isEmpty()) {
+            List<MimeContent> parts = new ArrayList<>(attachments.size() + 2);
+            if (textBody != null) {
+                parts.add(new TextContent(TEXT_MIME_TYPE, textBody.getBody(), capability));
+            }
+            if (htmlBody != null) {
+                parts.add(new TextContent(HTML_MIME_TYPE, htmlBody.getBody(), capability));
+            }
+            for (Attachment attachment : attachments) {
+                parts.add(new AttachmentContent(attachment, capability));
+            }
+            return new MultipartContent("alternative", parts, capability);
+        } else if (textBody != null) {
+            return new TextContent(TEXT_MIME_TYPE, textBody.getBody(), capability);
+        } else if (htmlBody != null) {
+            return new TextContent(HTML_MIME_TYPE, htmlBody.getBody(), capability);
+        }
+        return new TextContent(TEXT_MIME_TYPE, "", capability);
+    }
+
+    /**
+     * Returns the given address with the given display name formatted for an address header.
+     * The result is cached, so repeated calls with the same address and display name are cheap.
+     *
+     * @param email The email address
+     * @param displayName The display name or <code>null</code>
+     * @return the formatted address
+     * @throws IllegalArgumentException If the address is empty or contains characters that are not allowed
+     */
+    public String formatAddress(String email, String displayName) {
+        return formatAddress(email, displayName, TransportCapability.SEVEN_BIT);
+    }
+
+    /**
+     * Returns the given address with the given display name formatted for an address header of a transport with the given capability.
+     * The result is cached, so repeated calls with the same address and display name are cheap.
+     * This is meant for sender addresses like <code>From</code> or <code>Reply-To</code>, because caching per recipient addresses would evict them.
+     *
+     * @param email The email address
+     * @param displayName The display name or <code>null</code>
+     * @param capability The encodings that the transport accepts
+     * @return the formatted address
+     * @throws IllegalArgumentException If the address is empty or contains characters that are not allowed
+     */
+    public String formatAddress(String email, String displayName, TransportCapability capability) {
+        if (displayName == null || "".equals(displayName.trim())) {
+            displayName = null;
+        }
+        return addressCache.get(new AddressKey(validateAddress(email), displayName, capability.isUtf8()), MimeMessageWriter::createAddress);
+    }
+
+    /**
+     * Returns the given text as header value, using RFC 2047 encoded words if the text is not printable ASCII.
+     *
+     * @param text The text
+     * @return the header value
+     */
+    public static String encodeText(String text) {
+        return encodeText(text, TransportCapability.SEVEN_BIT);
+    }
+
+    /**
+     * Returns the given text as header value for a transport with the given capability,
+     * using RFC 2047 encoded words if the text is not printable ASCII and the transport doesn't support UTF-8 headers.
+     *
+     * @param text The text
+     * @param capability The encodings that the transport accepts
+     * @return the header value
+     */
+    public static String encodeText(String text, TransportCapability capability) {
+        if (isPrintable(text, capability.isUtf8())) {
+            return text;
+        }
+        return encodeWords(text);
+    }
+
+    /**
+     * Creates a new unique <code>Message-ID</code> header value for a message from the given address.
+     *
+     * @param from The from address
+     * @return the message id
+     */
+    public static String createMessageId(String from) {
+        String domain = "localhost";
+        if (from != null) {
+            int atIndex = from.lastIndexOf('@');
+            if (atIndex != -1 && atIndex < from.length() - 1) {
+                domain = from.substring(atIndex + 1).trim();
+            }
+        }
+        return "<" + Long.toHexString(ThreadLocalRandom.current().nextLong()) + "." + SEQUENCE.incrementAndGet() + "." + System.currentTimeMillis() + "@" + domain + ">";
+    }
+
+    private static String validateAddress(String email) {
+        if (email == null || "".equals(email.trim())) {
+            throw new IllegalArgumentException("Please provide a valid address", null);
+        }
+        return email;
+    }
+
+    private static String createAddress(AddressKey key) {
+        String email = key.email.trim();
+        for (int i = 0; i < email.length(); i++) {
+            char c = email.charAt(i);
+            if (c < 33 || c > 126 && (!key.utf8 || c == 127) || c == '<' || c == '>' || c == ',' || c == ';') {
+                throw new IllegalArgumentException("Invalid character in address: " + email);
+            }
+        }
+        if (key.displayName == null) {
+            return email;
+        }
+        String displayName = key.displayName;
+        if (!isPrintable(displayName, key.utf8)) {
+            return encodeWords(displayName) + " <" + email + ">";
+        }
+        boolean needsQuoting = false;
+        for (int i = 0; i < displayName.length(); i++) {
+            if (ADDRESS_SPECIALS.indexOf(displayName.charAt(i)) != -1) {
+                needsQuoting = true;
+                break;
+            }
+        }
+        if (needsQuoting) {
+            return quote(displayName) + " <" + email + ">";
+        }
+        return displayName + " <" + email + ">";
+    }
+
+    private static boolean isPrintable(String text, boolean utf8) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if ((c < 32 && c != '\t') || c == 127 || c > 127 && (!utf8 || Character.isISOControl(c))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String quote(String text) {
+        StringBuilder sb = new StringBuilder(text.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        sb.append('"');
+        return sb.toString();
+    }
+
+    private static String encodeWords(String text) {
+        StringBuilder sb = new StringBuilder(text.length() * 2);
+        Base64.Encoder encoder = Base64.getEncoder();
+        byte[] bytes = new byte[MAX_ENCODED_WORD_BYTES + 4];
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int codePoint = text.codePointAt(i);
+            if (Character.isSupplementaryCodePoint(codePoint)) {
+                i++;
+            }
+            // Never split the bytes of a character over multiple encoded words
+            if (length + utf8Length(codePoint) > MAX_ENCODED_WORD_BYTES) {
+                appendEncodedWord(sb, encoder, bytes, length);
+                length = 0;
+            }
+            length = putUtf8(bytes, length, codePoint);
+        }
+        appendEncodedWord(sb, encoder, bytes, length);
+        return sb.toString();
+    }
+
+    private static void appendEncodedWord(StringBuilder sb, Base64.Encoder encoder, byte[] bytes, int length) {
+        if (sb.length() != 0) {
+            // Folding whitespace between encoded words is ignored by readers
+            sb.append("\r\n ");
+        }
+        byte[] word = new byte[length];
+        System.arraycopy(bytes, 0, word, 0, length);
+        sb.append("=?").append(CHARSET_UTF8).append("?B?").append(encoder.encodeToString(word)).append("?=");
+    }
+
+    private static int utf8Length(int codePoint) {
+        if (codePoint < 0x80) {
+            return 1;
+        } else if (codePoint < 0x800) {
+            return 2;
+        } else if (codePoint < 0x10000) {
+            return 3;
+        }
+        return 4;
+    }
+
+    private static int putUtf8(byte[] bytes, int position, int codePoint) {
+        if (codePoint < 0x80) {
+            bytes[position++] = (byte) codePoint;
+        } else if (codePoint < 0x800) {
+            bytes[position++] = (byte) (0xC0 | (codePoint >> 6));
+            bytes[position++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else if (codePoint < 0x10000) {
+            if (Character.isSurrogate((char) codePoint)) {
+                // Unpaired surrogate
+                bytes[position++] = '?';
+            } else {
+                bytes[position++] = (byte) (0xE0 | (codePoint >> 12));
+                bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            }
+        } else {
+            bytes[position++] = (byte) (0xF0 | (codePoint >> 18));
+            bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            bytes[position++] = (byte) (0x80 | (codePoint & 0x3F));
+        }
+        return position;
+    }
+
+    private static void writeHeader(OutputStream out, String name, String value, boolean utf8) throws IOException {
+        writeAscii(out, name);
+        out.write(':');
+        out.write(' ');
+        value = fold(value, name.length() + 2);
+        if (utf8) {
+            out.write(value.getBytes(StandardCharsets.UTF_8));
+        } else {
+            writeAscii(out, value);
+        }
+        out.write(CRLF);
+    }
+
+    private static String fold(String value, int offset) {
+        StringBuilder sb = null;
+        int lineStart = 0;
+        int lineOffset = offset;
+        int foldPosition = -1;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\r' || c == '\n') {
+                // The value is already folded here
+                lineStart = i + 1;
+                lineOffset = 0;
+                foldPosition = -1;
+            } else if ((c == ' ' || c == '\t') && i > lineStart && value.charAt(i - 1) != ' ' && value.charAt(i - 1) != '\t') {
+                // Only fold before the first whitespace of a run, so that no line consists of whitespace only
+                if (foldPosition != -1 && lineOffset + i - lineStart > MAX_HEADER_LINE_LENGTH) {
+                    sb = fold(sb, value, foldPosition);
+                    lineStart = foldPosition;
+                    lineOffset = 0;
+                }
+                foldPosition = i;
+            }
+        }
+        if (foldPosition != -1 && lineOffset + value.length() - lineStart > MAX_HEADER_LINE_LENGTH) {
+            sb = fold(sb, value, foldPosition);
+        }
+        if (sb == null) {
+            return value;
+        }
+        return sb.toString();
+    }
+
+    private static StringBuilder fold(StringBuilder sb, String value, int foldPosition) {
+        if (sb == null) {
+            sb = new StringBuilder(value.length() + 16);
+            sb.append(value);
+        }
+        // Folding inserts a line break before whitespace, which is removed again by unfolding
+        sb.insert(foldPosition + sb.length() - value.length(), "\r\n");
+        return sb;
+    }
+
+    private static void writeAscii(OutputStream out, String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            out.write(c > 127 ? '?' : c);
+        }
+    }
+
+    private static String formatParameter(String name, String value, TransportCapability capability) {
+        String encodedValue = encodeText(value, capability);
+        for (int i = 0; i < encodedValue.length(); i++) {
+            char c = encodedValue.charAt(i);
+            if (c <= ' ' || TSPECIALS.indexOf(c) != -1) {
+                return name + "=" + quote(encodedValue.replace("\r\n ", " "));
+            }
+        }
+        return name + "=" + encodedValue;
+    }
+
+    /**
+     * A text body part that is sent as is when it consists of short ASCII lines or the transport supports 8bit bodies,
+     * otherwise quoted-printable or base64 encoded, whichever is estimated to be smaller.
+     * Line breaks are normalized to <code>CRLF</code> in either case.
+     */
+    private final class TextContent implements MimeContent {
+
+        private final String contentType;
+        private final String text;
+        private final String transferEncoding;
+
+        TextContent(String contentType, String text, TransportCapability capability) {
+            this.contentType = contentType;
+            this.text = text;
+            this.transferEncoding = selectTransferEncoding(text, capability);
+        }
+
+        @Override
+        public String getContentType() {
+            return contentType;
+        }
+
+        @Override
+        public String getTransferEncoding() {
+            return transferEncoding;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            if (text.length() < MIN_CACHED_PART_LENGTH) {
+                encode(out);
+            } else {
+                out.write(encodedPartCache.get(new PartKey(contentType, transferEncoding, digest()), key -> {
+                    try (PooledOutputStream encoded = new PooledOutputStream(bufferPool)) {
+                        encode(encoded);
+                        return encoded.toByteArray();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            }
+        }
+
+        private byte[] digest() {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not supported", e);
+            }
+            // Hashing the UTF-16 code units is enough to identify the text and avoids encoding it
+            byte[] buffer = bufferPool.acquire();
+            try {
+                int position = 0;
+                int limit = buffer.length - 2;
+                for (int i = 0; i < text.length(); i++) {
+                    if (position > limit) {
+                        digest.update(buffer, 0, position);
+                        position = 0;
+                    }
+                    char c = text.charAt(i);
+                    buffer[position++] = (byte) (c >> 8);
+                    buffer[position++] = (byte) c;
+                }
+                digest.update(buffer, 0, position);
+            } finally {
+                bufferPool.release(buffer);
+            }
+            return digest.digest();
+        }
+
+        private void encode(OutputStream out) throws IOException {
+            QuotedPrintableOutputStream qpOut = null;
+            OutputStream target;
+            if (ENCODING_QUOTED_PRINTABLE.equals(transferEncoding)) {
+                target = qpOut = new QuotedPrintableOutputStream(out);
+            } else if (ENCODING_BASE64.equals(transferEncoding)) {
+                target = Base64.getMimeEncoder().wrap(new NonClosingOutputStream(out));
+            } else {
+                target = out;
+            }
+            byte[] buffer = bufferPool.acquire();
+            try {
+                int position = 0;
+                int limit = buffer.length - 4;
+                for (int i = 0; i < text.length(); i++) {
+                    if (position > limit) {
+                        target.write(buffer, 0, position);
+                        position = 0;
+                    }
+                    char c = text.charAt(i);
+                    if (c == '\r' || c == '\n') {
+                        if (c == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n') {
+                            i++;
+                        }
+                        buffer[position++] = '\r';
+                        buffer[position++] = '\n';
+                    } else if (c < 0x80) {
+                        buffer[position++] = (byte) c;
+                    } else {
+                        int codePoint = text.codePointAt(i);
+                        if (Character.isSupplementaryCodePoint(codePoint)) {
+                            i++;
+                        }
+                        position = putUtf8(buffer, position, codePoint);
+                    }
+                }
+                target.write(buffer, 0, position);
+            } finally {
+                bufferPool.release(buffer);
+            }
+            if (qpOut != null) {
+                qpOut.finish();
+            } else if (target != out) {
+                // Writes the final base64 quantum
+                target.close();
+            }
+        }
+
+        private String selectTransferEncoding(String text, TransportCapability capability) {
+            long size = 0;
+            long quotedPrintableSize = 0;
+            int lineLength = 0;
+            int quotedPrintableLineLength = 0;
+            boolean nonAscii = false;
+            boolean requiresEncoding = false;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '\r' || c == '\n') {
+                    if (c == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n') {
+                        i++;
+                    }
+                    size += 2;
+                    quotedPrintableSize += 2;
+                    lineLength = 0;
+                    quotedPrintableLineLength = 0;
+                    continue;
+                }
+                int length;
+                int encodedLength;
+                if (c < 0x80) {
+                    length = 1;
+                    encodedLength = c == '=' || c < ' ' && c != '\t' || c == 127 ? 3 : 1;
+                    if (c == 0) {
+                        // NUL is not allowed in 7bit or 8bit data
+                        requiresEncoding = true;
+                    }
+                } else {
+                    int codePoint = text.codePointAt(i);
+                    if (Character.isSupplementaryCodePoint(codePoint)) {
+                        i++;
+                    }
+                    length = utf8Length(codePoint);
+                    encodedLength = length * 3;
+                    nonAscii = true;
+                }
+                size += length;
+                lineLength += length;
+                if (lineLength > MAX_LINE_LENGTH) {
+                    requiresEncoding = true;
+                }
+                // Quoted-printable lines are wrapped with a soft line break, which is an equals sign at the end of the line
+                quotedPrintableLineLength += encodedLength;
+                if (quotedPrintableLineLength > MAX_ENCODED_LINE_LENGTH - 1) {
+                    quotedPrintableSize += 3;
+                    quotedPrintableLineLength = encodedLength;
+                }
+                quotedPrintableSize += encodedLength;
+            }
+            if (!requiresEncoding && (!nonAscii || capability.isEightBit())) {
+                return nonAscii ? ENCODING_8BIT : ENCODING_7BIT;
+            }
+            long base64Size = (size + 2) / 3 * 4;
+            base64Size += base64Size / MAX_ENCODED_LINE_LENGTH * 2;
+            return quotedPrintableSize <= base64Size ? ENCODING_QUOTED_PRINTABLE : ENCODING_BASE64;
+        }
+    }
+
+    /**
+     * An attachment body part that is sent base64 encoded.
+     * The encoded form of a {@link StoredAttachment} is copied from the store instead of encoding the content again.
+     */
+    private final class AttachmentContent implements MimeContent {
+
+        private final Attachment attachment;
+        private final String name;
+        private final DataSource dataSource;
+        private final TransportCapability capability;
+
+        AttachmentContent(Attachment attachment, TransportCapability capability) {
+            this.attachment = attachment;
+            this.capability = capability;
+            this.name = attachment.getName();
+            this.dataSource = attachment.getDataSource();
+        }
+
+        @Override
+        public String getContentType() {
+            String contentType = dataSource.getContentType();
+            if (contentType == null) {
+                contentType = "application/octet-stream";
+            }
+            return contentType + "; " + formatParameter("name", name, capability);
+        }
+
+        @Override
+        public String getTransferEncoding() {
+            return ENCODING_BASE64;
+        }
+
+        String getDisposition() {
+            return "attachment; " + formatParameter("filename", name, capability);
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            if (attachment instanceof StoredAttachment) {
+                byte[] buffer = bufferPool.acquire();
+                try {
+                    ((StoredAttachment) attachment).writeEncodedContent(out, buffer);
+                } finally {
+                    bufferPool.release(buffer);
+                }
+                return;
+            }
+            byte[] buffer = bufferPool.acquire();
+            try (InputStream in = dataSource.getInputStream();
+                 OutputStream base64Out = Base64.getMimeEncoder().wrap(new NonClosingOutputStream(out))) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    base64Out.write(buffer, 0, read);
+                }
+            } finally {
+                bufferPool.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * A multipart body that writes its parts separated by a random boundary.
+     */
+    private static final class MultipartContent implements MimeContent {
+
+        private final String subtype;
+        private final List<MimeContent> parts;
+        private final boolean utf8;
+        private final String boundary;
+
+        MultipartContent(String subtype, List<MimeContent> parts, TransportCapability capability) {
+            this.subtype = subtype;
+            this.parts = parts;
+            this.utf8 = capability.isUtf8();
+            this.boundary = "----=_Part_" + SEQUENCE.incrementAndGet() + "_" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        }
+
+        @Override
+        public String getContentType() {
+            return "multipart/" + subtype + "; boundary=\"" + boundary + "\"";
+        }
+
+        @Override
+        public String getTransferEncoding() {
+            return null;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            for (MimeContent part : parts) {
+                out.write('-');
+                out.write('-');
+                writeAscii(out, boundary);
+                out.write(CRLF);
+                writeHeader(out, "Content-Type", part.getContentType(), utf8);
+                writeHeader(out, "Content-Transfer-Encoding", part.getTransferEncoding(), false);
+                if (part instanceof AttachmentContent) {
+                    writeHeader(out, "Content-Disposition", ((AttachmentContent) part).getDisposition(), utf8);
+                }
+                out.write(CRLF);
+                part.writeTo(out);
+                out.write(CRLF);
+            }
+            out.write('-');
+            out.write('-');
+            writeAscii(out, boundary);
+            out.write('-');
+            out.write('-');
+            out.write(CRLF);
+        }
+    }
+
+    /**
+     * Shields the target stream from being closed when the base64 encoding stream is closed to write its final bytes.
+     */
+    private static final class NonClosingOutputStream extends OutputStream {
+
+        private final OutputStream out;
+
+        NonClosingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * The cache key for encoded body parts.
+     */
+    private static final class PartKey {
+
+        private final String contentType;
+        private final String transferEncoding;
+        private final byte[] digest;
+        private final int hash;
+
+        PartKey(String contentType, String transferEncoding, byte[] digest) {
+            this.contentType = contentType;
+            this.transferEncoding = transferEncoding;
+            this.digest = digest;
+            this.hash = 31 * (31 * contentType.hashCode() + transferEncoding.hashCode()) + Arrays.hashCode(digest);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PartKey)) {
+                return false;
+            }
+            PartKey that = (PartKey) o;
+            return contentType.equals(that.contentType) && transferEncoding.equals(that.transferEncoding) && Arrays.equals(digest, that.digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * The cache key for formatted addresses.
+     */
+    private static final class AddressKey {
+
+        private final String email;
+        private final String displayName;
+        private final boolean utf8;
+
+        AddressKey(String email, String displayName, boolean utf8) {
+            this.email = email;
+            this.displayName = displayName;
+            this.utf8 = utf8;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof AddressKey)) {
+                return false;
+            }
+            AddressKey that = (AddressKey) o;
+            return utf8 == that.utf8 && email.equals(that.email) && Objects.equals(displayName, that.displayName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * email.hashCode() + Objects.hashCode(displayName)) + (utf8 ? 1 : 0);
+        }
+    }
+}
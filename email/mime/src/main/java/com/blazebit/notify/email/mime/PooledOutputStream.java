@@ -0,0 +1,142 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.email.mime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An output stream that collects the written bytes in buffers of a {@link BufferPool}.
+ * In contrast to a {@link java.io.ByteArrayOutputStream}, growing does not copy the already written bytes,
+ * so the bytes are only copied once when the exact sized result is created.
+ * The buffers are returned to the pool on {@link #close()}.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public class PooledOutputStream extends OutputStream {
+
+    private final BufferPool bufferPool;
+    private final List<byte[]> buffers = new ArrayList<>();
+    private byte[] current;
+    private int position;
+    private int size;
+
+    /**
+     * Creates a new output stream.
+     *
+     * @param bufferPool The buffer pool
+     */
+    public PooledOutputStream(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public void write(int b) {
+        if (current == null || position == current.length) {
+            nextBuffer();
+        }
+        current[position++] = (byte) b;
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            if (current == null || position == current.length) {
+                nextBuffer();
+            }
+            int length = Math.min(len, current.length - position);
+            System.arraycopy(b, off, current, position, length);
+            position += length;
+            size += length;
+            off += length;
+            len -= length;
+        }
+    }
+
+    private void nextBuffer() {
+        current = bufferPool.acquire();
+        buffers.add(current);
+        position = 0;
+    }
+
+    /**
+     * Returns the amount of written bytes.
+     *
+     * @return the amount of written bytes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a new array with exactly the written bytes.
+     *
+     * @return the written bytes
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[size];
+        int offset = 0;
+        for (byte[] buffer : buffers) {
+            int length = Math.min(buffer.length, size - offset);
+            System.arraycopy(buffer, 0, bytes, offset, length);
+            offset += length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns a new heap buffer with exactly the written bytes.
+     *
+     * @return the written bytes
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(toByteArray());
+    }
+
+    /**
+     * Writes the written bytes to the given output stream.
+     *
+     * @param out The output stream
+     * @throws IOException If writing fails
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        int remaining = size;
+        for (byte[] buffer : buffers) {
+            int length = Math.min(buffer.length, remaining);
+            out.write(buffer, 0, length);
+            remaining -= length;
+        }
+    }
+
+    /**
+     * Returns the buffers to the pool. The written bytes are not accessible afterwards.
+     */
+    @Override
+    public void close() {
+        for (byte[] buffer : buffers) {
+            bufferPool.release(buffer);
+        }
+        buffers.clear();
+        current = null;
+        position = 0;
+        size = 0;
+    }
+}
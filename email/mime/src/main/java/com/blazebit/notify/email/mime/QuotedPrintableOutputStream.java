@@ -0,0 +1,144 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.email.mime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream that applies the quoted-printable transfer encoding as defined in RFC 2045.
+ * A <code>CRLF</code> sequence in the input is written as hard line break, trailing whitespace before it is encoded.
+ * {@link #finish()} must be invoked after the content was written, closing the stream does not close the underlying stream.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public class QuotedPrintableOutputStream extends OutputStream {
+
+    private static final int MAX_LINE_LENGTH = 76;
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+
+    private final OutputStream out;
+    private int lineLength;
+    private int pendingWhitespace = -1;
+    private boolean pendingCr;
+
+    /**
+     * Creates a new quoted-printable stream writing to the given output stream.
+     *
+     * @param out The underlying output stream
+     */
+    public QuotedPrintableOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        b &= 0xFF;
+        if (pendingCr) {
+            pendingCr = false;
+            if (b == '\n') {
+                if (pendingWhitespace != -1) {
+                    writeEncoded(pendingWhitespace);
+                    pendingWhitespace = -1;
+                }
+                out.write('\r');
+                out.write('\n');
+                lineLength = 0;
+                return;
+            }
+            flushWhitespace();
+            writeEncoded('\r');
+        }
+        if (b == '\r') {
+            pendingCr = true;
+        } else if (b == ' ' || b == '\t') {
+            flushWhitespace();
+            pendingWhitespace = b;
+        } else {
+            flushWhitespace();
+            if (b < 32 || b > 126 || b == '=') {
+                writeEncoded(b);
+            } else {
+                softBreak(1);
+                out.write(b);
+                lineLength++;
+            }
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        for (int i = off, end = off + len; i < end; i++) {
+            write(b[i]);
+        }
+    }
+
+    /**
+     * Writes pending state to the underlying stream without terminating the last line.
+     *
+     * @throws IOException If writing fails
+     */
+    public void finish() throws IOException {
+        if (pendingCr) {
+            pendingCr = false;
+            flushWhitespace();
+            writeEncoded('\r');
+        }
+        if (pendingWhitespace != -1) {
+            writeEncoded(pendingWhitespace);
+            pendingWhitespace = -1;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        flush();
+    }
+
+    private void flushWhitespace() throws IOException {
+        if (pendingWhitespace != -1) {
+            softBreak(1);
+            out.write(pendingWhitespace);
+            lineLength++;
+            pendingWhitespace = -1;
+        }
+    }
+
+    private void writeEncoded(int b) throws IOException {
+        softBreak(3);
+        out.write('=');
+        out.write(HEX[b >> 4]);
+        out.write(HEX[b & 0xF]);
+        lineLength += 3;
+    }
+
+    private void softBreak(int length) throws IOException {
+        // Leave room for the '=' of the soft line break
+        if (lineLength + length > MAX_LINE_LENGTH - 1) {
+            out.write('=');
+            out.write('\r');
+            out.write('\n');
+            lineLength = 0;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.email.mime;
+
+/**
+ * The encodings a transport accepts for a message, which determine how bodies and headers are encoded by the {@link MimeMessageWriter}.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public enum TransportCapability {
+
+    /**
+     * Only 7bit ASCII lines are accepted, so non-ASCII bodies are quoted-printable or base64 encoded and headers use RFC 2047 encoded words.
+     */
+    SEVEN_BIT,
+    /**
+     * The transport supports 8bit bodies as defined by RFC 6152 (<code>8BITMIME</code>), so UTF-8 text bodies are sent without transfer encoding.
+     */
+    EIGHT_BIT,
+    /**
+     * The transport supports 8bit bodies and UTF-8 headers as defined by RFC 6531 (<code>SMTPUTF8</code>),
+     * so headers are sent as UTF-8 without encoded words and addresses may contain non-ASCII characters.
+     */
+    UTF8;
+
+    /**
+     * Returns whether 8bit bodies are supported.
+     *
+     * @return whether 8bit bodies are supported
+     */
+    public boolean isEightBit() {
+        return this != SEVEN_BIT;
+    }
+
+    /**
+     * Returns whether UTF-8 headers are supported.
+     *
+     * @return whether UTF-8 headers are supported
+     */
+    public boolean isUtf8() {
+        return this == UTF8;
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2018 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.email.mime;
+
+import com.blazebit.notify.CacheStatistics;
+import com.blazebit.notify.email.message.Attachment;
+import com.blazebit.notify.email.message.EmailBody;
+import com.blazebit.notify.email.message.EmailNotificationMessage;
+import com.blazebit.notify.email.message.EmailNotificationRecipient;
+import com.blazebit.notify.email.message.EmailSubject;
+import org.junit.Test;
+
+import javax.mail.BodyPart;
+import javax.mail.Part;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.util.ByteArrayDataSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Properties;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MimeMessageWriterTest {
+
+    private static final Session SESSION = createSession();
+
+    @Test
+    public void roundTripNonAsciiSubject() throws Exception {
+        String subject = "Gr\u00fc\u00dfe aus K\u00f6ln \u2013 \u65e5\u672c\u8a9e\u306e\u304a\u77e5\u3089\u305b \ud83c\udf89";
+        MimeMessageWriter writer = new MimeMessageWriter();
+
+        for (TransportCapability capability : TransportCapability.values()) {
+            MimeMessage message = parse(write(writer, recipient("alice@example.com"), textMessage(subject, "Hello"), capability));
+
+            assertEquals(capability.name(), subject, message.getSubject());
+        }
+    }
+
+    @Test
+    public void foldLongAsciiSubject() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            sb.append("word").append(i).append(' ');
+        }
+        String subject = sb.toString().trim();
+        MimeMessageWriter writer = new MimeMessageWriter();
+
+        byte[] bytes = write(writer, recipient("alice@example.com"), textMessage(subject, "Hello"), TransportCapability.SEVEN_BIT);
+
+        for (String line : headerLines(bytes)) {
+            assertTrue("Header line too long: " + line, line.length() <= 78);
+        }
+        assertEquals(subject, parse(bytes).getSubject());
+    }
+
+    @Test
+    public void roundTripDisplayNamesWithSpecials() throws Exception {
+        MimeMessageWriter writer = new MimeMessageWriter();
+        EmailNotificationMessage notificationMessage = new EmailNotificationMessage("news@example.com", "Doe, John \"JD\" (News)", "support@example.com", "J\u00fcrgen M\u00fcller",
+            null, new EmailSubject("Hello"), new EmailBody("Hello"), null, Collections.emptyList());
+
+        MimeMessage message = parse(write(writer, recipient("alice@example.com"), notificationMessage, TransportCapability.SEVEN_BIT));
+
+        InternetAddress from = (InternetAddress) message.getFrom()[0];
+        assertEquals("news@example.com", from.getAddress());
+        assertEquals("Doe, John \"JD\" (News)", from.getPersonal());
+        InternetAddress replyTo = (InternetAddress) message.getReplyTo()[0];
+        assertEquals("support@example.com", replyTo.getAddress());
+        assertEquals("J\u00fcrgen M\u00fcller", replyTo.getPersonal());
+        assertEquals("alice@example.com", ((InternetAddress) message.getAllRecipients()[0]).getAddress());
+    }
+
+    @Test
+    public void roundTripMultipartWithAttachments() throws Exception {
+        byte[] pdf = new byte[10_000];
+        for (int i = 0; i < pdf.length; i++) {
+            pdf[i] = (byte) i;
+        }
+        Collection<Attachment> attachments = Arrays.asList(
+            new Attachment("annual report.pdf", new ByteArrayDataSource(pdf, "application/pdf")),
+            new Attachment("notes.txt", new ByteArrayDataSource("Some notes", "text/plain"))
+        );
+        EmailNotificationMessage notificationMessage = new EmailNotificationMessage("news@example.com", null, null, null, null,
+            new EmailSubject("Report"), new EmailBody("Text f\u00fcr alle"), new EmailBody("<p>HTML f\u00fcr alle</p>"), attachments);
+
+        MimeMessage message = parse(write(new MimeMessageWriter(), recipient("alice@example.com"), notificationMessage, TransportCapability.SEVEN_BIT));
+
+        MimeMultipart multipart = (MimeMultipart) message.getContent();
+        assertEquals(4, multipart.getCount());
+        assertEquals("Text f\u00fcr alle", multipart.getBodyPart(0).getContent());
+        assertTrue(multipart.getBodyPart(0).isMimeType("text/plain"));
+        assertEquals("<p>HTML f\u00fcr alle</p>", multipart.getBodyPart(1).getContent());
+        assertTrue(multipart.getBodyPart(1).isMimeType("text/html"));
+        BodyPart report = multipart.getBodyPart(2);
+        assertEquals(Part.ATTACHMENT, report.getDisposition());
+        assertEquals("annual report.pdf", report.getFileName());
+        assertTrue(report.isMimeType("application/pdf"));
+        assertArrayEquals(pdf, readAll(report.getInputStream()));
+        BodyPart notes = multipart.getBodyPart(3);
+        assertEquals("notes.txt", notes.getFileName());
+        assertArrayEquals("Some notes".getBytes(StandardCharsets.UTF_8), readAll(notes.getInputStream()));
+    }
+
+    @Test
+    public void encodeLinesLongerThan998Characters() throws Exception {
+        char[] chars = new char[2000];
+        Arrays.fill(chars, 'a');
+        String text = new String(chars) + "\r\nshort line";
+
+        for (TransportCapability capability : TransportCapability.values()) {
+            byte[] bytes = write(new MimeMessageWriter(), recipient("alice@example.com"), textMessage("Long lines", text), capability);
+            MimeMessage message = parse(bytes);
+
+            assertNotEquals(capability.name(), "7bit", message.getEncoding());
+            assertNotEquals(capability.name(), "8bit", message.getEncoding());
+            for (String line : new String(bytes, StandardCharsets.UTF_8).split("\r\n")) {
+                assertTrue(capability.name(), line.length() <= 998);
+            }
+            assertEquals(capability.name(), text, message.getContent());
+        }
+    }
+
+    @Test
+    public void cacheEncodedBodiesSentToManyRecipients() throws Exception {
+        MimeMessageWriter writer = new MimeMessageWriter();
+        EmailNotificationMessage notificationMessage = textMessage("News", longText("Neuigkeiten f\u00fcr alle", 1));
+
+        MimeMessage first = parse(write(writer, recipient("alice@example.com"), notificationMessage, TransportCapability.SEVEN_BIT));
+        MimeMessage second = parse(write(writer, recipient("bob@example.com"), notificationMessage, TransportCapability.SEVEN_BIT));
+
+        CacheStatistics statistics = writer.getEncodedPartCacheStatistics();
+        assertEquals(1, statistics.getSize());
+        assertEquals(1L, statistics.getMissCount());
+        assertEquals(1L, statistics.getHitCount());
+        // The cached body is shared, but the recipient specific headers are not
+        assertEquals(first.getContent(), second.getContent());
+        assertEquals("bob@example.com", ((InternetAddress) second.getAllRecipients()[0]).getAddress());
+    }
+
+    @Test
+    public void cacheOnlyBodiesOf1024CharactersOrMore() throws Exception {
+        MimeMessageWriter writer = new MimeMessageWriter();
+        String shortText = longText("x", 1).substring(0, 1023);
+
+        write(writer, recipient("alice@example.com"), textMessage("Short", shortText), TransportCapability.SEVEN_BIT);
+        write(writer, recipient("bob@example.com"), textMessage("Short", shortText), TransportCapability.SEVEN_BIT);
+        assertEquals(0, writer.getEncodedPartCacheStatistics().getSize());
+
+        write(writer, recipient("alice@example.com"), textMessage("Long", shortText + "x"), TransportCapability.SEVEN_BIT);
+        assertEquals(1, writer.getEncodedPartCacheStatistics().getSize());
+    }
+
+    @Test
+    public void cacheEncodedBodiesPerContentHashAndEncoding() throws Exception {
+        MimeMessageWriter writer = new MimeMessageWriter();
+        String text = longText("Neuigkeiten f\u00fcr alle", 1);
+
+        write(writer, recipient("alice@example.com"), textMessage("News", text), TransportCapability.SEVEN_BIT);
+        write(writer, recipient("alice@example.com"), textMessage("News", new String(text.toCharArray())), TransportCapability.SEVEN_BIT);
+        // 8bit transports get the body without transfer encoding, which is a different cache entry
+        write(writer, recipient("alice@example.com"), textMessage("News", text), TransportCapability.EIGHT_BIT);
+
+        assertEquals(1L, writer.getEncodedPartCacheStatistics().getHitCount());
+        assertEquals(2, writer.getEncodedPartCacheStatistics().getSize());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedEncodedBodies() throws Exception {
+        MimeMessageWriter writer = new MimeMessageWriter(new BufferPool(BufferPool.DEFAULT_BUFFER_SIZE, 4), 4, 2);
+
+        for (int i = 0; i < 3; i++) {
+            write(writer, recipient("alice@example.com"), textMessage("News", longText("Body " + i, i)), TransportCapability.SEVEN_BIT);
+            Thread.sleep(2L);
+        }
+
+        CacheStatistics statistics = writer.getEncodedPartCacheStatistics();
+        assertEquals(2, statistics.getSize());
+        assertEquals(1L, statistics.getEvictionCount());
+        // The first body was evicted, so it is encoded again
+        write(writer, recipient("alice@example.com"), textMessage("News", longText("Body 0", 0)), TransportCapability.SEVEN_BIT);
+        assertEquals(0L, statistics.getHitCount());
+        assertEquals(4L, statistics.getMissCount());
+    }
+
+    private static Session createSession() {
+        Properties properties = new Properties();
+        // Parse the UTF-8 headers that are written for SMTPUTF8 transports
+        properties.setProperty("mail.mime.allowutf8", "true");
+        return Session.getInstance(properties);
+    }
+
+    private static String longText(String line, int seed) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 2048) {
+            sb.append(line).append(' ').append(seed).append("\r\n");
+        }
+        return sb.toString();
+    }
+
+    private static EmailNotificationRecipient<String> recipient(String email) {
+        return EmailNotificationRecipient.of(email, Locale.ENGLISH, email);
+    }
+
+    private static EmailNotificationMessage textMessage(String subject, String text) {
+        return new EmailNotificationMessage("news@example.com", subject, text);
+    }
+
+    private static byte[] write(MimeMessageWriter writer, EmailNotificationRecipient<?> recipient, EmailNotificationMessage message, TransportCapability capability) throws Exception {
+        try (PooledOutputStream out = writer.writeMessage(recipient, message, capability)) {
+            return out.toByteArray();
+        }
+    }
+
+    private static MimeMessage parse(byte[] bytes) throws Exception {
+        return new MimeMessage(SESSION, new ByteArrayInputStream(bytes));
+    }
+
+    private static String[] headerLines(byte[] bytes) {
+        String message = new String(bytes, StandardCharsets.UTF_8);
+        return message.substring(0, message.indexOf("\r\n\r\n")).split("\r\n");
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        try (InputStream in = inputStream) {
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+}
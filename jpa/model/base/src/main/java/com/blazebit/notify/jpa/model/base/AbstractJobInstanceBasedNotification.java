@@ -24,6 +24,7 @@ import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.MappedSuperclass;
 import javax.persistence.Table;
+import javax.persistence.Transient;
 
 /**
  * An abstract mapped superclass implementing the {@link com.blazebit.notify.Notification} interface that is based on a {@link NotificationJobInstance}.
@@ -73,6 +74,12 @@ public abstract class AbstractJobInstanceBasedNotification<ID extends AbstractNo
         }
     }
 
+    @Override
+    @Transient
+    public Object getNotificationJobInstanceId() {
+        return id().getNotificationJobInstanceId();
+    }
+
     /**
      * Returns the notification job instance.
      *
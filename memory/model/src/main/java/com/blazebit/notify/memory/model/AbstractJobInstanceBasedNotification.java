@@ -64,6 +64,11 @@ public abstract class AbstractJobInstanceBasedNotification<ID extends AbstractNo
         }
     }
 
+    @Override
+    public Object getNotificationJobInstanceId() {
+        return id().getNotificationJobInstanceId();
+    }
+
     /**
      * Returns the notification job instance.
      *
@@ -98,6 +98,7 @@ public class JobBasedEmailNotification extends AbstractEmailNotification<JobBase
         this.recipientId = recipientId;
     }
 
+    @Override
     @Column(name = "notification_job_instance_id", nullable = false, insertable = false, updatable = false)
     public Long getNotificationJobInstanceId() {
         return notificationJobInstanceId;
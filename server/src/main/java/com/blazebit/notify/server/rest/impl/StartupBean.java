@@ -17,13 +17,25 @@
 package com.blazebit.notify.server.rest.impl;
 
 import com.blazebit.notify.NotificationJobContext;
+import com.blazebit.notify.email.model.jpa.AbstractEmailNotification;
 import com.blazebit.notify.email.model.jpa.FromEmail;
+import com.blazebit.notify.server.model.EmailNotificationJobTrigger;
+import com.blazebit.notify.template.freemarker.FreemarkerConfigurations;
+import com.blazebit.notify.template.freemarker.FreemarkerTemplateProcessor;
 
 import javax.annotation.PostConstruct;
 import javax.ejb.Singleton;
 import javax.ejb.Startup;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * @author Christian Beikov
@@ -33,6 +45,13 @@ import javax.persistence.EntityManager;
 @Startup
 public class StartupBean {
 
+    /**
+     * The configuration property for a comma separated list of language tags for which the templates of all job triggers are parsed on startup.
+     */
+    public static final String PREPARSE_LOCALES_PROPERTY = "template.preparse_locales";
+
+    private static final Logger LOG = Logger.getLogger(StartupBean.class.getName());
+
     @Inject
     EntityManager entityManager;
 
@@ -47,6 +66,36 @@ public class StartupBean {
         fromEmail.setReplyToName(fromEmail.getName());
         fromEmail.setReplyToEmail(fromEmail.getEmail());
         entityManager.persist(fromEmail);
+        preparseTemplates();
         notificationJobContext.triggerNotificationScan(0L);
     }
+
+    private void preparseTemplates() {
+        String languageTags = notificationJobContext.getPropertyOrDefault(PREPARSE_LOCALES_PROPERTY, String.class, null, o -> null);
+        if (languageTags == null || languageTags.isEmpty()) {
+            return;
+        }
+        List<Locale> locales = new ArrayList<>();
+        for (String languageTag : languageTags.split(",")) {
+            locales.add(Locale.forLanguageTag(languageTag.trim()));
+        }
+        Set<String> templateNames = new HashSet<>();
+        List<EmailNotificationJobTrigger> triggers = entityManager.createQuery("SELECT t FROM EmailNotificationJobTrigger t", EmailNotificationJobTrigger.class).getResultList();
+        for (EmailNotificationJobTrigger trigger : triggers) {
+            Map<String, ?> parameters = trigger.getJobConfiguration().getParameters();
+            if (FreemarkerTemplateProcessor.KEY.getTemplateProcessorType().equals(parameters.get(AbstractEmailNotification.TEMPLATE_PROCESSOR_TYPE_PARAMETER_NAME))) {
+                addTemplateName(templateNames, parameters.get(AbstractEmailNotification.SUBJECT_PARAMETER_NAME));
+                addTemplateName(templateNames, parameters.get(AbstractEmailNotification.BODY_TEXT_PARAMETER_NAME));
+                addTemplateName(templateNames, parameters.get(AbstractEmailNotification.BODY_HTML_PARAMETER_NAME));
+            }
+        }
+        int count = FreemarkerConfigurations.preparse(notificationJobContext::getProperty, templateNames, locales);
+        LOG.log(Level.INFO, "Parsed {0} templates of {1} job triggers for locales {2}", new Object[]{ count, triggers.size(), locales });
+    }
+
+    private static void addTemplateName(Set<String> templateNames, Object templateName) {
+        if (templateName instanceof String) {
+            templateNames.add((String) templateName);
+        }
+    }
 }
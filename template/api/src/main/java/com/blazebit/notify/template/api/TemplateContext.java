@@ -18,6 +18,7 @@ package com.blazebit.notify.template.api;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.ServiceLoader;
 import java.util.Set;
@@ -49,6 +50,20 @@ public interface TemplateContext {
      */
     <T> TemplateProcessorFactory<T> getTemplateProcessorFactory(TemplateProcessorKey<T> key);
 
+    /**
+     * Returns a {@link TemplateProcessor} created by the given factory for the given configuration source.
+     * The template processor is shared with other configuration sources that have the same values for the {@link TemplateProcessorFactory#getConfigurationPropertyNames()},
+     * so that templates are only parsed once. If the factory does not declare configuration property names, a new template processor is created.
+     *
+     * @param templateProcessorFactory The template processor factory
+     * @param configurationSource      The configuration source
+     * @param <T>                      The result type
+     * @return a {@link TemplateProcessor}
+     */
+    default <T> TemplateProcessor<T> getTemplateProcessor(TemplateProcessorFactory<T> templateProcessorFactory, ConfigurationSource configurationSource) {
+        return templateProcessorFactory.createTemplateProcessor(this, configurationSource);
+    }
+
     /**
      * Returns a builder for a template context.
      *
@@ -68,7 +83,13 @@ public interface TemplateContext {
      */
     static class Builder {
 
+        /**
+         * The default maximum amount of shared template processors held by a template context.
+         */
+        public static final int DEFAULT_MAX_TEMPLATE_PROCESSORS = 128;
+
         private final Set<TemplateProcessorFactory<?>> templateProcessorFactories = new HashSet<>();
+        private int maxTemplateProcessors = DEFAULT_MAX_TEMPLATE_PROCESSORS;
 
         private void loadDefaults() {
             for (TemplateProcessorFactory templateProcessorFactory : ServiceLoader.load(TemplateProcessorFactory.class)) {
@@ -96,13 +117,36 @@ public interface TemplateContext {
             return this;
         }
 
+        /**
+         * Returns the maximum amount of shared template processors.
+         *
+         * @return the maximum amount of shared template processors
+         */
+        public int getMaxTemplateProcessors() {
+            return maxTemplateProcessors;
+        }
+
+        /**
+         * Sets the maximum amount of shared template processors after which the least recently used one is dropped.
+         *
+         * @param maxTemplateProcessors The maximum amount of shared template processors
+         * @return this for chaining
+         */
+        public Builder withMaxTemplateProcessors(int maxTemplateProcessors) {
+            if (maxTemplateProcessors < 1) {
+                throw new IllegalArgumentException("The maximum amount of template processors must be positive but was " + maxTemplateProcessors);
+            }
+            this.maxTemplateProcessors = maxTemplateProcessors;
+            return this;
+        }
+
         /**
          * Returns a new template context.
          *
          * @return a new template context
          */
         public TemplateContext createContext() {
-            return new DefaultContext(templateProcessorFactories);
+            return new DefaultContext(templateProcessorFactories, maxTemplateProcessors);
         }
 
         /**
@@ -114,8 +158,9 @@ public interface TemplateContext {
         private static class DefaultContext implements TemplateContext {
 
             private final Map<Class<?>, Map<String, TemplateProcessorFactory<?>>> templateProcessorFactories;
+            private final Map<TemplateProcessorMapKey, TemplateProcessor<?>> templateProcessors;
 
-            private DefaultContext(Collection<TemplateProcessorFactory<?>> templateProcessorFactories) {
+            private DefaultContext(Collection<TemplateProcessorFactory<?>> templateProcessorFactories, int maxTemplateProcessors) {
                 Map<Class<?>, Map<String, TemplateProcessorFactory<?>>> map = new HashMap<>();
                 for (TemplateProcessorFactory<?> templateProcessorFactory : templateProcessorFactories) {
                     TemplateProcessorKey<?> templateProcessorKey = templateProcessorFactory.getTemplateProcessorKey();
@@ -124,6 +169,12 @@ public interface TemplateContext {
                 }
 
                 this.templateProcessorFactories = map;
+                this.templateProcessors = new LinkedHashMap<TemplateProcessorMapKey, TemplateProcessor<?>>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<TemplateProcessorMapKey, TemplateProcessor<?>> eldest) {
+                        return size() > maxTemplateProcessors;
+                    }
+                };
             }
 
             @Override
@@ -139,6 +190,71 @@ public interface TemplateContext {
             public <T> TemplateProcessorFactory<T> getTemplateProcessorFactory(TemplateProcessorKey<T> key) {
                 return getTemplateProcessorFactory(key.getTemplateProcessorType(), key.getTemplateProcessorResultType());
             }
+
+            @Override
+            public <T> TemplateProcessor<T> getTemplateProcessor(TemplateProcessorFactory<T> templateProcessorFactory, ConfigurationSource configurationSource) {
+                Set<String> configurationPropertyNames = templateProcessorFactory.getConfigurationPropertyNames();
+                if (configurationPropertyNames == null) {
+                    return templateProcessorFactory.createTemplateProcessor(this, configurationSource);
+                }
+                Map<String, Object> properties = new HashMap<>(configurationPropertyNames.size());
+                for (String propertyName : configurationPropertyNames) {
+                    Object value = configurationSource.getProperty(propertyName);
+                    if (value != null) {
+                        properties.put(propertyName, value);
+                    }
+                }
+                TemplateProcessorMapKey key = new TemplateProcessorMapKey(templateProcessorFactory, properties);
+                TemplateProcessor<?> templateProcessor;
+                synchronized (templateProcessors) {
+                    templateProcessor = templateProcessors.get(key);
+                }
+                if (templateProcessor == null) {
+                    // Create the processor outside of the map lock, as template processors might parse templates eagerly
+                    templateProcessor = templateProcessorFactory.createTemplateProcessor(this, properties::get);
+                    synchronized (templateProcessors) {
+                        TemplateProcessor<?> existing = templateProcessors.putIfAbsent(key, templateProcessor);
+                        if (existing != null) {
+                            templateProcessor = existing;
+                        }
+                    }
+                }
+                return (TemplateProcessor<T>) templateProcessor;
+            }
+
+            /**
+             * The key for shared template processors.
+             *
+             * @author Christian Beikov
+             * @since 1.0.0
+             */
+            private static final class TemplateProcessorMapKey {
+
+                private final TemplateProcessorFactory<?> templateProcessorFactory;
+                private final Map<String, Object> properties;
+
+                private TemplateProcessorMapKey(TemplateProcessorFactory<?> templateProcessorFactory, Map<String, Object> properties) {
+                    this.templateProcessorFactory = templateProcessorFactory;
+                    this.properties = properties;
+                }
+
+                @Override
+                public boolean equals(Object o) {
+                    if (this == o) {
+                        return true;
+                    }
+                    if (!(o instanceof TemplateProcessorMapKey)) {
+                        return false;
+                    }
+                    TemplateProcessorMapKey that = (TemplateProcessorMapKey) o;
+                    return templateProcessorFactory == that.templateProcessorFactory && properties.equals(that.properties);
+                }
+
+                @Override
+                public int hashCode() {
+                    return 31 * System.identityHashCode(templateProcessorFactory) + properties.hashCode();
+                }
+            }
         }
     }
 }
@@ -15,6 +15,8 @@
  */
 package com.blazebit.notify.template.api;
 
+import java.util.Set;
+
 /**
  * A factory for template processors of a specific type.
  *
@@ -39,4 +41,15 @@ public interface TemplateProcessorFactory<R> {
      * @return the template processor
      */
     TemplateProcessor<R> createTemplateProcessor(TemplateContext templateContext, ConfigurationSource configurationSource);
+
+    /**
+     * Returns the names of the configuration properties that determine the template processors created by this factory
+     * or <code>null</code> if template processors must not be shared.
+     * Configuration sources with the same values for these properties share a template processor via {@link TemplateContext#getTemplateProcessor(TemplateProcessorFactory, ConfigurationSource)}.
+     *
+     * @return the configuration property names or <code>null</code>
+     */
+    default Set<String> getConfigurationPropertyNames() {
+        return null;
+    }
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.template.api;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class TemplateContextTest {
+
+    @Test
+    public void shareTemplateProcessorForSameConfigurationProperties() {
+        CountingTemplateProcessorFactory factory = new CountingTemplateProcessorFactory(Collections.singleton("template"));
+        TemplateContext context = TemplateContext.builder().withTemplateProcessorFactory(factory).createContext();
+
+        // Properties that the factory does not declare don't prevent sharing
+        TemplateProcessor<String> first = context.getTemplateProcessor(factory, source("template", "news", "subject", "a"));
+        TemplateProcessor<String> second = context.getTemplateProcessor(factory, source("template", "news", "subject", "b"));
+
+        assertSame(first, second);
+        assertEquals(1, factory.createdCount.get());
+    }
+
+    @Test
+    public void createTemplateProcessorPerConfigurationPropertyValues() {
+        CountingTemplateProcessorFactory factory = new CountingTemplateProcessorFactory(Collections.singleton("template"));
+        TemplateContext context = TemplateContext.builder().withTemplateProcessorFactory(factory).createContext();
+
+        TemplateProcessor<String> news = context.getTemplateProcessor(factory, source("template", "news"));
+        TemplateProcessor<String> invoice = context.getTemplateProcessor(factory, source("template", "invoice"));
+
+        assertNotSame(news, invoice);
+        assertEquals(2, factory.createdCount.get());
+        assertEquals("news", news.processTemplate(Collections.emptyMap()));
+        assertEquals("invoice", invoice.processTemplate(Collections.emptyMap()));
+    }
+
+    @Test
+    public void createTemplateProcessorEveryTimeIfFactoryDoesNotDeclareConfigurationProperties() {
+        CountingTemplateProcessorFactory factory = new CountingTemplateProcessorFactory(null);
+        TemplateContext context = TemplateContext.builder().withTemplateProcessorFactory(factory).createContext();
+
+        TemplateProcessor<String> first = context.getTemplateProcessor(factory, source("template", "news"));
+        TemplateProcessor<String> second = context.getTemplateProcessor(factory, source("template", "news"));
+
+        assertNotSame(first, second);
+        assertEquals(2, factory.createdCount.get());
+    }
+
+    @Test
+    public void dropLeastRecentlyUsedTemplateProcessor() {
+        CountingTemplateProcessorFactory factory = new CountingTemplateProcessorFactory(Collections.singleton("template"));
+        TemplateContext context = TemplateContext.builder().withTemplateProcessorFactory(factory).withMaxTemplateProcessors(2).createContext();
+
+        TemplateProcessor<String> news = context.getTemplateProcessor(factory, source("template", "news"));
+        TemplateProcessor<String> invoice = context.getTemplateProcessor(factory, source("template", "invoice"));
+        assertSame(news, context.getTemplateProcessor(factory, source("template", "news")));
+        context.getTemplateProcessor(factory, source("template", "reminder"));
+        assertEquals(3, factory.createdCount.get());
+
+        // The invoice processor was used least recently, so it was dropped
+        assertSame(news, context.getTemplateProcessor(factory, source("template", "news")));
+        assertNotSame(invoice, context.getTemplateProcessor(factory, source("template", "invoice")));
+        assertEquals(4, factory.createdCount.get());
+    }
+
+    @Test
+    public void rejectNonPositiveMaxTemplateProcessors() {
+        try {
+            TemplateContext.builder().withMaxTemplateProcessors(0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    private static ConfigurationSource source(String... keyValues) {
+        Map<String, Object> properties = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            properties.put(keyValues[i], keyValues[i + 1]);
+        }
+        return properties::get;
+    }
+
+    private static class CountingTemplateProcessorFactory implements TemplateProcessorFactory<String> {
+
+        private final Set<String> configurationPropertyNames;
+        private final AtomicInteger createdCount = new AtomicInteger();
+
+        public CountingTemplateProcessorFactory(Set<String> configurationPropertyNames) {
+            this.configurationPropertyNames = configurationPropertyNames;
+        }
+
+        @Override
+        public TemplateProcessorKey<String> getTemplateProcessorKey() {
+            return TemplateProcessorKey.of("counting", String.class);
+        }
+
+        @Override
+        public TemplateProcessor<String> createTemplateProcessor(TemplateContext templateContext, ConfigurationSource configurationSource) {
+            createdCount.incrementAndGet();
+            String template = (String) configurationSource.getProperty("template");
+            return model -> template;
+        }
+
+        @Override
+        public Set<String> getConfigurationPropertyNames() {
+            return configurationPropertyNames;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.template.compiled;
+
+import com.blazebit.notify.template.api.TemplateException;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * A template that is compiled into a tree of renderers. A compiled template is immutable and can be rendered concurrently.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public final class CompiledTemplate implements Serializable {
+
+    private final String source;
+    private final boolean escapeHtml;
+    private transient volatile TemplateNodes.TemplateNode root;
+
+    private CompiledTemplate(String source, boolean escapeHtml, TemplateNodes.TemplateNode root) {
+        this.source = source;
+        this.escapeHtml = escapeHtml;
+        this.root = root;
+    }
+
+    /**
+     * Compiles the given template source.
+     *
+     * @param source The template source
+     * @param escapeHtml Whether variables and messages are HTML escaped
+     * @return the compiled template
+     * @throws TemplateException If the template has a syntax error
+     */
+    public static CompiledTemplate compile(String source, boolean escapeHtml) {
+        return new CompiledTemplate(source, escapeHtml, CompiledTemplateParser.parse(source, escapeHtml));
+    }
+
+    /**
+     * Returns whether variables and messages are HTML escaped.
+     *
+     * @return whether HTML is escaped
+     */
+    public boolean isEscapeHtml() {
+        return escapeHtml;
+    }
+
+    /**
+     * Renders the template with the given model and messages into the given appendable or the buffer of the render context.
+     *
+     * @param context The acquired render context
+     * @param model The model
+     * @param out The appendable or <code>null</code>
+     * @param messages The message bundle or <code>null</code>
+     */
+    void render(RenderContext context, Object model, Appendable out, MessageBundle messages) {
+        TemplateNodes.TemplateNode root = this.root;
+        if (root == null) {
+            // Recompile after deserialization
+            root = this.root = CompiledTemplateParser.parse(source, escapeHtml);
+        }
+        context.begin(model, out, messages);
+        try {
+            root.render(context);
+        } catch (IOException e) {
+            throw new TemplateException(e);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.template.compiled;
+
+import java.io.Serializable;
+import java.util.Locale;
+
+/**
+ * A lookup for localized compiled templates.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public interface CompiledTemplateLookup extends Serializable {
+
+    /**
+     * Returns the compiled template for the given locale.
+     *
+     * @param locale The locale
+     * @return the template
+     */
+    public CompiledTemplate findTemplate(Locale locale);
+}
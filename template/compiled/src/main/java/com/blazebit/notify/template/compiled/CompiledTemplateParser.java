@@ -0,0 +1,230 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.template.compiled;
+
+import com.blazebit.notify.template.api.TemplateException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the template syntax into a tree of {@link TemplateNodes.TemplateNode}s.
+ *
+ * The syntax is a subset of Mustache:
+ * <ul>
+ *     <li><code>{{name}}</code> writes a variable, escaped if HTML escaping is enabled</li>
+ *     <li><code>{{{name}}}</code> or <code>{{&amp; name}}</code> writes a variable unescaped</li>
+ *     <li><code>{{#name}}...{{/name}}</code> renders a section for every element or for a truthy value</li>
+ *     <li><code>{{^name}}...{{/name}}</code> renders a section for a falsy value</li>
+ *     <li><code>{{! comment}}</code> is ignored</li>
+ *     <li><code>{{msg "key" arg1 "literal"}}</code> writes a message of the resource bundle like the <code>msg</code> method of the Freemarker templates</li>
+ * </ul>
+ * Section and comment tags that are the only content of a line don't produce output for that line.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+final class CompiledTemplateParser {
+
+    private static final String OPEN = "{{";
+    private static final String CLOSE = "}}";
+    private static final String MESSAGE_TAG = "msg";
+
+    private final String source;
+    private final boolean escape;
+    private int position;
+
+    private CompiledTemplateParser(String source, boolean escape) {
+        this.source = source;
+        this.escape = escape;
+    }
+
+    /**
+     * Parses the given template source.
+     *
+     * @param source The template source
+     * @param escape Whether variables and messages are HTML escaped
+     * @return the root node
+     */
+    static TemplateNodes.TemplateNode parse(String source, boolean escape) {
+        CompiledTemplateParser parser = new CompiledTemplateParser(source, escape);
+        return parser.parseBlock(null);
+    }
+
+    private TemplateNodes.TemplateNode parseBlock(String section) {
+        List<TemplateNodes.TemplateNode> nodes = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        while (position < source.length()) {
+            int tagStart = source.indexOf(OPEN, position);
+            if (tagStart == -1) {
+                text.append(source, position, source.length());
+                position = source.length();
+                break;
+            }
+            text.append(source, position, tagStart);
+            boolean triple = source.startsWith("{", tagStart + OPEN.length());
+            int contentStart = tagStart + OPEN.length() + (triple ? 1 : 0);
+            String close = triple ? "}" + CLOSE : CLOSE;
+            int tagEnd = source.indexOf(close, contentStart);
+            if (tagEnd == -1) {
+                throw error("Unclosed tag", tagStart);
+            }
+            String content = source.substring(contentStart, tagEnd).trim();
+            position = tagEnd + close.length();
+            if (content.isEmpty()) {
+                throw error("Empty tag", tagStart);
+            }
+            char type = triple ? '{' : content.charAt(0);
+            if (type == '#' || type == '^' || type == '/' || type == '!') {
+                stripStandaloneLine(text, tagStart);
+            }
+            switch (type) {
+                case '!':
+                    break;
+                case '#':
+                case '^':
+                    String name = content.substring(1).trim();
+                    flushText(nodes, text);
+                    TemplateNodes.TemplateNode body = parseBlock(name);
+                    nodes.add(new TemplateNodes.SectionNode(path(name, tagStart), type == '^', body));
+                    break;
+                case '/':
+                    String closedName = content.substring(1).trim();
+                    if (!closedName.equals(section)) {
+                        throw error(section == null ? "Unexpected end of section " + closedName : "Expected end of section " + section + " but was " + closedName, tagStart);
+                    }
+                    flushText(nodes, text);
+                    return block(nodes);
+                case '&':
+                case '{':
+                    flushText(nodes, text);
+                    String rawName = type == '&' ? content.substring(1).trim() : content;
+                    nodes.add(new TemplateNodes.VariableNode(path(rawName, tagStart), false));
+                    break;
+                default:
+                    flushText(nodes, text);
+                    if (content.startsWith(MESSAGE_TAG) && content.length() > MESSAGE_TAG.length() && Character.isWhitespace(content.charAt(MESSAGE_TAG.length()))) {
+                        nodes.add(parseMessage(content.substring(MESSAGE_TAG.length()), tagStart));
+                    } else {
+                        nodes.add(new TemplateNodes.VariableNode(path(content, tagStart), escape));
+                    }
+                    break;
+            }
+        }
+        if (section != null) {
+            throw error("Unclosed section " + section, source.length());
+        }
+        flushText(nodes, text);
+        return block(nodes);
+    }
+
+    private TemplateNodes.TemplateNode parseMessage(String content, int tagStart) {
+        List<Object> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < content.length()) {
+            char c = content.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '"') {
+                StringBuilder literal = new StringBuilder();
+                i++;
+                while (i < content.length() && content.charAt(i) != '"') {
+                    if (content.charAt(i) == '\\' && i + 1 < content.length()) {
+                        i++;
+                    }
+                    literal.append(content.charAt(i++));
+                }
+                if (i == content.length()) {
+                    throw error("Unclosed string literal", tagStart);
+                }
+                i++;
+                tokens.add(literal.toString());
+            } else {
+                int start = i;
+                while (i < content.length() && !Character.isWhitespace(content.charAt(i))) {
+                    i++;
+                }
+                tokens.add(path(content.substring(start, i), tagStart));
+            }
+        }
+        if (tokens.isEmpty() || !(tokens.get(0) instanceof String)) {
+            throw error("Expected a message key literal", tagStart);
+        }
+        Object[] arguments = tokens.subList(1, tokens.size()).toArray();
+        return new TemplateNodes.MessageNode((String) tokens.get(0), arguments, escape);
+    }
+
+    private void stripStandaloneLine(StringBuilder text, int tagStart) {
+        // The tag is standalone if only whitespace precedes it on its line and only whitespace follows it up to the line end
+        int lineStart = tagStart;
+        while (lineStart > 0 && isInlineWhitespace(source.charAt(lineStart - 1))) {
+            lineStart--;
+        }
+        if (lineStart > 0 && source.charAt(lineStart - 1) != '\n') {
+            return;
+        }
+        int lineEnd = position;
+        while (lineEnd < source.length() && isInlineWhitespace(source.charAt(lineEnd))) {
+            lineEnd++;
+        }
+        if (lineEnd == source.length()) {
+            position = lineEnd;
+        } else if (source.charAt(lineEnd) == '\n') {
+            position = lineEnd + 1;
+        } else if (source.startsWith("\r\n", lineEnd)) {
+            position = lineEnd + 2;
+        } else {
+            return;
+        }
+        text.setLength(text.length() - (tagStart - lineStart));
+    }
+
+    private static boolean isInlineWhitespace(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    private TemplateNodes.Path path(String name, int tagStart) {
+        try {
+            return new TemplateNodes.Path(name);
+        } catch (IllegalArgumentException e) {
+            throw error(e.getMessage(), tagStart);
+        }
+    }
+
+    private static void flushText(List<TemplateNodes.TemplateNode> nodes, StringBuilder text) {
+        if (text.length() != 0) {
+            nodes.add(new TemplateNodes.TextNode(text.toString()));
+            text.setLength(0);
+        }
+    }
+
+    private static TemplateNodes.TemplateNode block(List<TemplateNodes.TemplateNode> nodes) {
+        if (nodes.size() == 1) {
+            return nodes.get(0);
+        }
+        return new TemplateNodes.BlockNode(nodes);
+    }
+
+    private TemplateException error(String message, int index) {
+        int line = 1;
+        for (int i = 0; i < index && i < source.length(); i++) {
+            if (source.charAt(i) == '\n') {
+                line++;
+            }
+        }
+        return new TemplateException(message + " at line " + line);
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.template.compiled;
+
+import com.blazebit.notify.template.api.ConfigurationSource;
+import com.blazebit.notify.template.api.TemplateProcessor;
+import com.blazebit.notify.template.api.TemplateProcessorKey;
+import com.blazebit.notify.template.api.TemplateResourceBundleLookup;
+
+import java.io.Serializable;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.ResourceBundle;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * A template processor for templates that are compiled into trees of renderers.
+ * Rendering writes directly into the output and reuses pooled buffers, so that rendering a template
+ * allocates little more than the resulting string. Messages are formatted like the <code>msg</code> method of the Freemarker templates,
+ * so the same resource bundles can be used.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public class CompiledTemplateProcessor implements TemplateProcessor<String>, Serializable {
+
+    /**
+     * The key for which the template processor is registered.
+     */
+    public static final TemplateProcessorKey<String> KEY = TemplateProcessorKey.of("compiled", String.class);
+    /**
+     * The configuration property for the {@link CompiledTemplate}, given as class path resource name.
+     */
+    public static final String TEMPLATE_PROPERTY = "template";
+    /**
+     * The configuration property for the template encoding, UTF-8 by default.
+     */
+    public static final String ENCODING_PROPERTY = "encoding";
+    /**
+     * The configuration property for the escaping of variables and messages, either <code>html</code> or <code>none</code>.
+     * By default, templates with the extension <code>.html</code> or <code>.htm</code> are HTML escaped.
+     */
+    public static final String ESCAPE_PROPERTY = "escape";
+
+    /**
+     * The configuration property for the {@link ResourceBundle}.
+     */
+    public static final String RESOURCE_BUNDLE_KEY = "resourceBundle";
+    /**
+     * The configuration property for the {@link Locale}.
+     */
+    public static final String LOCALE_KEY = "locale";
+
+    private static final int MAX_POOLED_RENDER_CONTEXTS = Runtime.getRuntime().availableProcessors() * 2;
+
+    private final CompiledTemplateLookup templateLookup;
+
+    private final TemplateResourceBundleLookup resourceBundleLookup;
+
+    private transient volatile ConcurrentMap<Locale, MessageBundle> messageBundles;
+
+    private transient volatile Queue<RenderContext> renderContexts;
+
+    /**
+     * Creates a new compiled template processor from the given configuration source.
+     *
+     * @param configurationSource The configuration source
+     */
+    public CompiledTemplateProcessor(ConfigurationSource configurationSource) {
+        String encoding = configurationSource.getPropertyOrDefault(ENCODING_PROPERTY, String.class, Function.identity(), o -> "UTF-8");
+        String escape = configurationSource.getPropertyOrDefault(ESCAPE_PROPERTY, String.class, Function.identity(), o -> null);
+        Function<String, CompiledTemplateLookup> templateAccessor = name -> new ResourceTemplateLookup(name, encoding, isEscapeHtml(name, escape));
+        this.templateLookup = configurationSource.getPropertyOrFail(TEMPLATE_PROPERTY, CompiledTemplateLookup.class, templateAccessor);
+        Function<String, TemplateResourceBundleLookup> resourceBundleAccessor = name -> (Locale locale) -> ResourceBundle.getBundle(name, locale);
+        this.resourceBundleLookup = configurationSource.getPropertyOrDefault(RESOURCE_BUNDLE_KEY, TemplateResourceBundleLookup.class, resourceBundleAccessor, o -> locale -> null);
+    }
+
+    /**
+     * Creates a new compiled template processor from the given template.
+     *
+     * @param template The template
+     * @param resourceBundle The resource bundle
+     */
+    public CompiledTemplateProcessor(CompiledTemplate template, ResourceBundle resourceBundle) {
+        this.templateLookup = locale -> template;
+        this.resourceBundleLookup = locale -> resourceBundle;
+    }
+
+    /**
+     * Creates a new compiled template processor from the given locale aware template function.
+     *
+     * @param templateLookup The locale aware template function
+     * @param resourceBundleLookup The locale aware resource bundle function
+     */
+    public CompiledTemplateProcessor(CompiledTemplateLookup templateLookup, TemplateResourceBundleLookup resourceBundleLookup) {
+        this.templateLookup = templateLookup;
+        this.resourceBundleLookup = resourceBundleLookup;
+    }
+
+    private static boolean isEscapeHtml(String name, String escape) {
+        if (escape == null) {
+            String lowerName = name.toLowerCase(Locale.ROOT);
+            return lowerName.endsWith(".html") || lowerName.endsWith(".htm");
+        }
+        switch (escape) {
+            case "html":
+                return true;
+            case "none":
+                return false;
+            default:
+                throw new IllegalArgumentException("Invalid value for " + ESCAPE_PROPERTY + ": " + escape);
+        }
+    }
+
+    @Override
+    public String processTemplate(Map<String, Object> model) {
+        RenderContext context = acquireRenderContext();
+        try {
+            render(context, model, null);
+            return context.getBuffer().toString();
+        } finally {
+            releaseRenderContext(context);
+        }
+    }
+
+    /**
+     * Renders the template with the given model into the given appendable, which avoids creating an intermediate string.
+     *
+     * @param model The model
+     * @param out The appendable to render into
+     */
+    public void processTemplate(Map<String, Object> model, Appendable out) {
+        RenderContext context = acquireRenderContext();
+        try {
+            render(context, model, out);
+        } finally {
+            releaseRenderContext(context);
+        }
+    }
+
+    private RenderContext acquireRenderContext() {
+        Queue<RenderContext> contexts = renderContexts;
+        if (contexts == null) {
+            contexts = renderContexts = new ArrayBlockingQueue<>(MAX_POOLED_RENDER_CONTEXTS);
+        }
+        RenderContext context = contexts.poll();
+        return context == null ? new RenderContext() : context;
+    }
+
+    private void releaseRenderContext(RenderContext context) {
+        context.release();
+        // The pool belongs to the processor rather than to the thread, so pooled contexts don't outlive the processor
+        renderContexts.offer(context);
+    }
+
+    private void render(RenderContext context, Map<String, Object> model, Appendable out) {
+        Locale locale = (Locale) model.get(LOCALE_KEY);
+        ResourceBundle resourceBundle = resourceBundleLookup.findResourceBundle(locale);
+        if (resourceBundle == null) {
+            resourceBundle = (ResourceBundle) model.get(RESOURCE_BUNDLE_KEY);
+        }
+        MessageBundle messageBundle = null;
+        if (resourceBundle != null) {
+            if (locale == null) {
+                locale = resourceBundle.getLocale();
+            }
+            messageBundle = getMessageBundle(locale == null ? Locale.ROOT : locale, resourceBundle);
+        }
+        templateLookup.findTemplate(locale).render(context, model, out, messageBundle);
+    }
+
+    private MessageBundle getMessageBundle(Locale locale, ResourceBundle resourceBundle) {
+        ConcurrentMap<Locale, MessageBundle> bundles = messageBundles;
+        if (bundles == null) {
+            bundles = messageBundles = new ConcurrentHashMap<>();
+        }
+        MessageBundle bundle = bundles.get(locale);
+        if (bundle == null || bundle.getResourceBundle() != resourceBundle) {
+            // The bundle caches the compiled messages of the resource bundle, so it is reused as long as the resource bundle is the same
+            bundle = new MessageBundle(resourceBundle, locale);
+            bundles.put(locale, bundle);
+        }
+        return bundle;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.template.compiled;
+
+import com.blazebit.apt.service.ServiceProvider;
+import com.blazebit.notify.template.api.ConfigurationSource;
+import com.blazebit.notify.template.api.TemplateContext;
+import com.blazebit.notify.template.api.TemplateProcessor;
+import com.blazebit.notify.template.api.TemplateProcessorFactory;
+import com.blazebit.notify.template.api.TemplateProcessorKey;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A factory for {@link CompiledTemplateProcessor}.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+@ServiceProvider(TemplateProcessorFactory.class)
+public class CompiledTemplateProcessorFactory implements TemplateProcessorFactory<String> {
+
+    private static final Set<String> CONFIGURATION_PROPERTY_NAMES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        CompiledTemplateProcessor.TEMPLATE_PROPERTY,
+        CompiledTemplateProcessor.ENCODING_PROPERTY,
+        CompiledTemplateProcessor.ESCAPE_PROPERTY,
+        CompiledTemplateProcessor.RESOURCE_BUNDLE_KEY
+    )));
+
+    @Override
+    public TemplateProcessorKey<String> getTemplateProcessorKey() {
+        return CompiledTemplateProcessor.KEY;
+    }
+
+    @Override
+    public TemplateProcessor<String> createTemplateProcessor(TemplateContext templateContext, ConfigurationSource configurationSource) {
+        return new CompiledTemplateProcessor(configurationSource);
+    }
+
+    @Override
+    public Set<String> getConfigurationPropertyNames() {
+        return CONFIGURATION_PROPERTY_NAMES;
+    }
+}
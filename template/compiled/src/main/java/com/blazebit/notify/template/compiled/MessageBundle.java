@@ -0,0 +1,143 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.template.compiled;
+
+import java.text.MessageFormat;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The compiled messages of a resource bundle for a locale.
+ * Messages are looked up and resolved the same way as by the Freemarker <code>msg</code> method,
+ * i.e. <code>${key}</code> references to other messages are replaced and the result is formatted as {@link MessageFormat} pattern.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+final class MessageBundle {
+
+    private static final int MAX_RESOLVED_ARGUMENTS = 1024;
+
+    private final ResourceBundle resourceBundle;
+    private final Locale locale;
+    private final ConcurrentMap<String, CompiledMessage> messages = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> resolvedArguments = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a message bundle.
+     *
+     * @param resourceBundle The resource bundle
+     * @param locale The locale for formatting
+     */
+    MessageBundle(ResourceBundle resourceBundle, Locale locale) {
+        this.resourceBundle = resourceBundle;
+        this.locale = locale;
+    }
+
+    ResourceBundle getResourceBundle() {
+        return resourceBundle;
+    }
+
+    /**
+     * Returns the compiled message for the given key.
+     *
+     * @param key The message key
+     * @return the compiled message
+     */
+    CompiledMessage getMessage(String key) {
+        CompiledMessage message = messages.get(key);
+        if (message == null) {
+            message = messages.computeIfAbsent(key, k -> {
+                String pattern = resolveVariables(resourceBundle.getString(k));
+                if (pattern.indexOf('{') == -1 && pattern.indexOf('\'') == -1) {
+                    return new CompiledMessage(pattern, null);
+                }
+                return new CompiledMessage(null, new MessageFormat(pattern, locale));
+            });
+        }
+        return message;
+    }
+
+    /**
+     * Resolves the <code>${key}</code> references in the given message argument.
+     *
+     * @param argument The argument
+     * @return the resolved argument
+     */
+    String resolveArgument(String argument) {
+        if (argument.indexOf("${") == -1) {
+            return argument;
+        }
+        String resolved = resolvedArguments.get(argument);
+        if (resolved == null) {
+            resolved = resolveVariables(argument);
+            // Arguments might be dynamic, so stop caching at some point
+            if (resolvedArguments.size() < MAX_RESOLVED_ARGUMENTS) {
+                resolvedArguments.putIfAbsent(argument, resolved);
+            }
+        }
+        return resolved;
+    }
+
+    private String resolveVariables(String text) {
+        int start = text.indexOf("${");
+        if (start == -1) {
+            return text;
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        int end = 0;
+        do {
+            int close = text.indexOf('}', start + 2);
+            if (close == -1) {
+                break;
+            }
+            sb.append(text, end, start);
+            sb.append(resourceBundle.getString(text.substring(start + 2, close)));
+            end = close + 1;
+            start = text.indexOf("${", end);
+        } while (start != -1);
+        sb.append(text, end, text.length());
+        return sb.toString();
+    }
+
+    /**
+     * An immutable message that is either a constant text or a prototype {@link MessageFormat},
+     * of which every render context keeps its own copy as message formats are not thread safe.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    static final class CompiledMessage {
+
+        private final String text;
+        private final MessageFormat format;
+
+        private CompiledMessage(String text, MessageFormat format) {
+            this.text = text;
+            this.format = format;
+        }
+
+        String getText() {
+            return text;
+        }
+
+        MessageFormat getFormat() {
+            return format;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.template.compiled;
+
+import java.io.IOException;
+import java.text.FieldPosition;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The mutable state of a render, i.e. the output, the stack of context objects and buffers for message formatting.
+ * Render contexts are pooled by the template processor, so that a render does not have to allocate its state.
+ * A render context must only be used by one thread at a time.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+final class RenderContext {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final int MAX_MESSAGE_FORMATS = 1024;
+
+    private final StringBuilder buffer = new StringBuilder(INITIAL_CAPACITY);
+    private final StringBuffer messageBuffer = new StringBuffer(128);
+    private final FieldPosition fieldPosition = new FieldPosition(0);
+    private final Map<MessageBundle.CompiledMessage, MessageFormat> messageFormats = new IdentityHashMap<>();
+    private Object[][] arguments = new Object[4][];
+    private Object[] stack = new Object[8];
+    private int depth;
+    private Appendable out;
+    private StringBuilder builder;
+    private MessageBundle messages;
+    private MessageBundle formattedMessages;
+
+    /**
+     * Resets the context to render the given model into the given appendable.
+     *
+     * @param model The root context object
+     * @param out The appendable or <code>null</code> to render into the buffer of the context
+     * @param messages The message bundle or <code>null</code>
+     */
+    void begin(Object model, Appendable out, MessageBundle messages) {
+        if (out == null) {
+            buffer.setLength(0);
+            this.out = buffer;
+        } else {
+            this.out = out;
+        }
+        this.builder = this.out instanceof StringBuilder ? (StringBuilder) this.out : null;
+        this.messages = messages;
+        if (messages != null && messages != formattedMessages) {
+            // The formats of another bundle won't be used anymore, so don't retain them
+            messageFormats.clear();
+            formattedMessages = messages;
+        }
+        this.depth = 0;
+        push(model);
+    }
+
+    /**
+     * Returns the buffer of the context that holds the output if no appendable was given.
+     *
+     * @return the buffer
+     */
+    StringBuilder getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Releases the state of the render, so that the context can be reused for the next render.
+     */
+    void release() {
+        Arrays.fill(stack, 0, depth, null);
+        depth = 0;
+        out = null;
+        builder = null;
+        messages = null;
+        if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+            buffer.setLength(0);
+            buffer.trimToSize();
+            buffer.ensureCapacity(INITIAL_CAPACITY);
+        }
+    }
+
+    /**
+     * Pushes the given object on the stack of context objects.
+     *
+     * @param object The context object
+     */
+    void push(Object object) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = object;
+    }
+
+    /**
+     * Removes the innermost context object from the stack.
+     */
+    void pop() {
+        stack[--depth] = null;
+    }
+
+    /**
+     * Returns the amount of context objects on the stack.
+     *
+     * @return the stack depth
+     */
+    int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Returns the context object at the given stack index, 0 being the model.
+     *
+     * @param index The stack index
+     * @return the context object
+     */
+    Object getFrame(int index) {
+        return stack[index];
+    }
+
+    /**
+     * Returns the innermost context object.
+     *
+     * @return the innermost context object
+     */
+    Object peek() {
+        return stack[depth - 1];
+    }
+
+    MessageBundle getMessages() {
+        return messages;
+    }
+
+    /**
+     * Returns a reusable array for the given amount of message arguments.
+     *
+     * @param length The amount of arguments
+     * @return the array
+     */
+    Object[] getArguments(int length) {
+        if (length >= arguments.length) {
+            arguments = Arrays.copyOf(arguments, length + 1);
+        }
+        Object[] array = arguments[length];
+        if (array == null) {
+            array = arguments[length] = new Object[length];
+        }
+        return array;
+    }
+
+    /**
+     * Writes the given text.
+     *
+     * @param text The text
+     * @throws IOException If writing fails
+     */
+    void write(String text) throws IOException {
+        out.append(text);
+    }
+
+    /**
+     * Writes the given value as text.
+     *
+     * @param value The value
+     * @param escape Whether to escape HTML special characters
+     * @throws IOException If writing fails
+     */
+    void writeValue(Object value, boolean escape) throws IOException {
+        if (value == null) {
+            return;
+        }
+        // Numbers never need to be escaped
+        if (builder != null) {
+            if (value instanceof Integer) {
+                builder.append(((Integer) value).intValue());
+                return;
+            } else if (value instanceof Long) {
+                builder.append(((Long) value).longValue());
+                return;
+            }
+        }
+        CharSequence text = value instanceof CharSequence ? (CharSequence) value : value.toString();
+        if (escape) {
+            writeEscaped(text);
+        } else {
+            out.append(text);
+        }
+    }
+
+    private void writeEscaped(CharSequence text) throws IOException {
+        int length = text.length();
+        int start = 0;
+        while (start < length && !needsEscaping(text.charAt(start))) {
+            start++;
+        }
+        if (start == length) {
+            // Most values contain no special characters, so copy them in bulk
+            out.append(text);
+            return;
+        }
+        out.append(text, 0, start);
+        for (int i = start; i < length; i++) {
+            String replacement;
+            switch (text.charAt(i)) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '"':
+                    replacement = "&quot;";
+                    break;
+                case '\'':
+                    replacement = "&#39;";
+                    break;
+                default:
+                    continue;
+            }
+            out.append(text, start, i);
+            out.append(replacement);
+            start = i + 1;
+        }
+        out.append(text, start, length);
+    }
+
+    private static boolean needsEscaping(char c) {
+        return c == '&' || c == '<' || c == '>' || c == '"' || c == '\'';
+    }
+
+    /**
+     * Formats the given message with the given arguments.
+     *
+     * @param message The message
+     * @param arguments The arguments
+     * @param escape Whether to escape HTML special characters
+     * @throws IOException If writing fails
+     */
+    void writeMessage(MessageBundle.CompiledMessage message, Object[] arguments, boolean escape) throws IOException {
+        if (message.getText() != null) {
+            if (escape) {
+                writeEscaped(message.getText());
+            } else {
+                out.append(message.getText());
+            }
+            return;
+        }
+        MessageFormat format = messageFormats.get(message);
+        if (format == null) {
+            if (messageFormats.size() == MAX_MESSAGE_FORMATS) {
+                messageFormats.clear();
+            }
+            format = (MessageFormat) message.getFormat().clone();
+            messageFormats.put(message, format);
+        }
+        messageBuffer.setLength(0);
+        format.format(arguments, messageBuffer, fieldPosition);
+        if (escape) {
+            writeEscaped(messageBuffer);
+        } else {
+            out.append(messageBuffer);
+        }
+    }
+}
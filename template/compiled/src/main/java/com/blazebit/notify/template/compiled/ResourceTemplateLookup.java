@@ -0,0 +1,109 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.template.compiled;
+
+import com.blazebit.notify.template.api.TemplateException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Loads and compiles templates from class path resources, once per locale.
+ * For a template <code>mail.html</code> and the locale <code>de_AT</code>, the resources <code>mail_de_AT.html</code>, <code>mail_de.html</code> and <code>mail.html</code> are tried in that order.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+final class ResourceTemplateLookup implements CompiledTemplateLookup {
+
+    private final String name;
+    private final String encoding;
+    private final boolean escapeHtml;
+    private transient volatile ConcurrentMap<Locale, CompiledTemplate> templates;
+
+    /**
+     * Creates a lookup for the template resource with the given name.
+     *
+     * @param name The resource name
+     * @param encoding The encoding of the resource
+     * @param escapeHtml Whether variables and messages are HTML escaped
+     */
+    ResourceTemplateLookup(String name, String encoding, boolean escapeHtml) {
+        this.name = name.startsWith("/") ? name.substring(1) : name;
+        this.encoding = encoding;
+        this.escapeHtml = escapeHtml;
+    }
+
+    @Override
+    public CompiledTemplate findTemplate(Locale locale) {
+        ConcurrentMap<Locale, CompiledTemplate> templates = this.templates;
+        if (templates == null) {
+            templates = this.templates = new ConcurrentHashMap<>();
+        }
+        return templates.computeIfAbsent(locale == null ? Locale.ROOT : locale, this::loadTemplate);
+    }
+
+    private CompiledTemplate loadTemplate(Locale locale) {
+        int extensionIndex = name.lastIndexOf('.');
+        if (extensionIndex < name.lastIndexOf('/')) {
+            extensionIndex = -1;
+        }
+        String baseName = extensionIndex == -1 ? name : name.substring(0, extensionIndex);
+        String extension = extensionIndex == -1 ? "" : name.substring(extensionIndex);
+        ClassLoader classLoader = ResourceTemplateLookup.class.getClassLoader();
+        List<String> candidates = new ArrayList<>(4);
+        if (!locale.getLanguage().isEmpty()) {
+            String language = baseName + "_" + locale.getLanguage();
+            if (!locale.getCountry().isEmpty()) {
+                if (!locale.getVariant().isEmpty()) {
+                    candidates.add(language + "_" + locale.getCountry() + "_" + locale.getVariant() + extension);
+                }
+                candidates.add(language + "_" + locale.getCountry() + extension);
+            }
+            candidates.add(language + extension);
+        }
+        candidates.add(name);
+        for (String candidate : candidates) {
+            InputStream inputStream = classLoader.getResourceAsStream(candidate);
+            if (inputStream != null) {
+                return CompiledTemplate.compile(read(candidate, inputStream), escapeHtml);
+            }
+        }
+        throw new TemplateException("Template not found: " + name);
+    }
+
+    private String read(String resource, InputStream inputStream) {
+        try (Reader reader = new InputStreamReader(inputStream, Charset.forName(encoding))) {
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, read);
+            }
+            return sb.toString();
+        } catch (IOException e) {
+            throw new TemplateException("Could not read template " + resource, e);
+        }
+    }
+}
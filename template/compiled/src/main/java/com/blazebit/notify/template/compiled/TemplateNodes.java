@@ -0,0 +1,446 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.template.compiled;
+
+import com.blazebit.notify.template.api.TemplateException;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.MissingResourceException;
+import java.util.RandomAccess;
+
+/**
+ * The nodes a template is compiled to. Every node renders itself directly into the output of the render context.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+final class TemplateNodes {
+
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
+    private TemplateNodes() {
+    }
+
+    /**
+     * A node of a compiled template.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    interface TemplateNode {
+
+        /**
+         * Renders this node with the given context.
+         *
+         * @param context The render context
+         * @throws IOException If writing fails
+         */
+        void render(RenderContext context) throws IOException;
+    }
+
+    /**
+     * A node for constant text.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    static final class TextNode implements TemplateNode {
+
+        private final String text;
+
+        /**
+         * Creates a text node.
+         *
+         * @param text The text
+         */
+        TextNode(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public void render(RenderContext context) throws IOException {
+            context.write(text);
+        }
+    }
+
+    /**
+     * A node for a sequence of nodes.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    static final class BlockNode implements TemplateNode {
+
+        private final TemplateNode[] nodes;
+
+        /**
+         * Creates a block node.
+         *
+         * @param nodes The nodes of the block
+         */
+        BlockNode(List<TemplateNode> nodes) {
+            this.nodes = nodes.toArray(new TemplateNode[0]);
+        }
+
+        @Override
+        public void render(RenderContext context) throws IOException {
+            for (TemplateNode node : nodes) {
+                node.render(context);
+            }
+        }
+    }
+
+    /**
+     * A node that writes the value of a variable.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    static final class VariableNode implements TemplateNode {
+
+        private final Path path;
+        private final boolean escape;
+
+        /**
+         * Creates a variable node.
+         *
+         * @param path The path of the variable
+         * @param escape Whether to escape HTML special characters
+         */
+        VariableNode(Path path, boolean escape) {
+            this.path = path;
+            this.escape = escape;
+        }
+
+        @Override
+        public void render(RenderContext context) throws IOException {
+            context.writeValue(path.resolve(context), escape);
+        }
+    }
+
+    /**
+     * A node that renders its body for every element of a collection, once for a truthy value or, if inverted, once for a falsy value.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    static final class SectionNode implements TemplateNode {
+
+        private final Path path;
+        private final boolean inverted;
+        private final TemplateNode body;
+
+        /**
+         * Creates a section node.
+         *
+         * @param path The path of the section value
+         * @param inverted Whether the body is rendered for a falsy value
+         * @param body The body
+         */
+        SectionNode(Path path, boolean inverted, TemplateNode body) {
+            this.path = path;
+            this.inverted = inverted;
+            this.body = body;
+        }
+
+        @Override
+        public void render(RenderContext context) throws IOException {
+            Object value = path.resolve(context);
+            if (inverted) {
+                if (!isTruthy(value)) {
+                    body.render(context);
+                }
+            } else if (value instanceof Boolean) {
+                if ((Boolean) value) {
+                    body.render(context);
+                }
+            } else if (value instanceof List<?> && value instanceof RandomAccess) {
+                List<?> list = (List<?>) value;
+                for (int i = 0; i < list.size(); i++) {
+                    renderWith(context, list.get(i));
+                }
+            } else if (value instanceof Iterable<?>) {
+                for (Iterator<?> iterator = ((Iterable<?>) value).iterator(); iterator.hasNext(); ) {
+                    renderWith(context, iterator.next());
+                }
+            } else if (value != null && value.getClass().isArray()) {
+                int length = Array.getLength(value);
+                for (int i = 0; i < length; i++) {
+                    renderWith(context, Array.get(value, i));
+                }
+            } else if (isTruthy(value)) {
+                renderWith(context, value);
+            }
+        }
+
+        private void renderWith(RenderContext context, Object object) throws IOException {
+            context.push(object);
+            try {
+                body.render(context);
+            } finally {
+                context.pop();
+            }
+        }
+
+        private static boolean isTruthy(Object value) {
+            if (value == null) {
+                return false;
+            } else if (value instanceof Boolean) {
+                return (Boolean) value;
+            } else if (value instanceof CharSequence) {
+                return ((CharSequence) value).length() != 0;
+            } else if (value instanceof Collection<?>) {
+                return !((Collection<?>) value).isEmpty();
+            } else if (value instanceof Iterable<?>) {
+                return ((Iterable<?>) value).iterator().hasNext();
+            } else if (value.getClass().isArray()) {
+                return Array.getLength(value) != 0;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A node that writes a message of the resource bundle, formatted with the given arguments.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    static final class MessageNode implements TemplateNode {
+
+        private final String key;
+        private final Object[] arguments;
+        private final boolean escape;
+
+        /**
+         * Creates a message node.
+         *
+         * @param key The message key
+         * @param arguments The arguments, either literal strings or paths
+         * @param escape Whether to escape HTML special characters
+         */
+        MessageNode(String key, Object[] arguments, boolean escape) {
+            this.key = key;
+            this.arguments = arguments;
+            this.escape = escape;
+        }
+
+        @Override
+        public void render(RenderContext context) throws IOException {
+            MessageBundle messages = context.getMessages();
+            if (messages == null) {
+                throw new TemplateException("No resource bundle available for message: " + key);
+            }
+            Object[] values = context.getArguments(arguments.length);
+            try {
+                for (int i = 0; i < arguments.length; i++) {
+                    Object argument = arguments[i];
+                    Object value = argument instanceof Path ? ((Path) argument).resolve(context) : argument;
+                    // resolve any remaining ${} expressions
+                    values[i] = value instanceof String ? messages.resolveArgument((String) value) : value;
+                }
+                context.writeMessage(messages.getMessage(key), values, escape);
+            } catch (MissingResourceException e) {
+                throw new TemplateException("Missing message: " + key, e);
+            } finally {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * A dotted path to a value that is looked up in the context stack, from the innermost to the outermost context object.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    static final class Path {
+
+        private final String path;
+        private final String[] names;
+        private final PropertyAccess[] accesses;
+
+        /**
+         * Creates a path for the given expression, <code>.</code> refers to the innermost context object.
+         *
+         * @param path The path expression
+         */
+        Path(String path) {
+            this.path = path;
+            this.names = ".".equals(path) ? new String[0] : path.split("\\.");
+            this.accesses = new PropertyAccess[names.length];
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].isEmpty()) {
+                    throw new IllegalArgumentException("Invalid path: " + path);
+                }
+                accesses[i] = new PropertyAccess(names[i]);
+            }
+        }
+
+        /**
+         * Returns the value of this path for the context objects of the given render context.
+         *
+         * @param context The render context
+         * @return the value or <code>null</code>
+         */
+        Object resolve(RenderContext context) {
+            if (names.length == 0) {
+                return context.peek();
+            }
+            Object value = null;
+            boolean found = false;
+            for (int i = context.getDepth() - 1; i >= 0; i--) {
+                Object frame = context.getFrame(i);
+                if (frame instanceof Map<?, ?>) {
+                    Map<?, ?> map = (Map<?, ?>) frame;
+                    value = map.get(names[0]);
+                    found = value != null || map.containsKey(names[0]);
+                } else if (frame != null) {
+                    Method method = accesses[0].getMethod(frame.getClass());
+                    if (method != null) {
+                        value = invoke(method, frame);
+                        found = true;
+                    }
+                }
+                if (found) {
+                    break;
+                }
+            }
+            for (int i = 1; i < names.length && value != null; i++) {
+                if (value instanceof Map<?, ?>) {
+                    value = ((Map<?, ?>) value).get(names[i]);
+                } else {
+                    Method method = accesses[i].getMethod(value.getClass());
+                    value = method == null ? null : invoke(method, value);
+                }
+            }
+            return value;
+        }
+
+        private Object invoke(Method method, Object object) {
+            try {
+                return method.invoke(object, NO_ARGUMENTS);
+            } catch (IllegalAccessException e) {
+                throw new TemplateException("Could not access " + path, e);
+            } catch (InvocationTargetException e) {
+                throw new TemplateException("Could not resolve " + path, e.getCause());
+            }
+        }
+
+        @Override
+        public String toString() {
+            return path;
+        }
+    }
+
+    /**
+     * Resolves the getter for a property name and caches it for the last seen class.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    static final class PropertyAccess {
+
+        private final String name;
+        private volatile ResolvedMethod resolved;
+
+        /**
+         * Creates a property access.
+         *
+         * @param name The property name
+         */
+        PropertyAccess(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Returns the public getter of the property for the given class.
+         *
+         * @param clazz The class
+         * @return the getter or <code>null</code> if the class has no such property
+         */
+        Method getMethod(Class<?> clazz) {
+            ResolvedMethod resolved = this.resolved;
+            if (resolved == null || resolved.clazz != clazz) {
+                resolved = new ResolvedMethod(clazz, findMethod(clazz));
+                this.resolved = resolved;
+            }
+            return resolved.method;
+        }
+
+        private Method findMethod(Class<?> clazz) {
+            String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+            for (String methodName : new String[]{ "get" + capitalized, "is" + capitalized, name }) {
+                Method method = findAccessibleMethod(clazz, methodName);
+                if (method != null && method.getReturnType() != void.class) {
+                    return method;
+                }
+            }
+            return null;
+        }
+
+        private static Method findAccessibleMethod(Class<?> clazz, String methodName) {
+            if (clazz == null) {
+                return null;
+            }
+            if (Modifier.isPublic(clazz.getModifiers())) {
+                try {
+                    Method method = clazz.getMethod(methodName);
+                    if (!Modifier.isStatic(method.getModifiers())) {
+                        return method;
+                    }
+                } catch (NoSuchMethodException e) {
+                    // Fall through to look in the super types
+                }
+            }
+            // Methods of non-public classes, like anonymous implementations, can only be invoked through a public super type
+            for (Class<?> interfaceClass : clazz.getInterfaces()) {
+                Method method = findAccessibleMethod(interfaceClass, methodName);
+                if (method != null) {
+                    return method;
+                }
+            }
+            return findAccessibleMethod(clazz.getSuperclass(), methodName);
+        }
+    }
+
+    /**
+     * A getter resolved for a class.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    private static final class ResolvedMethod {
+
+        private final Class<?> clazz;
+        private final Method method;
+
+        private ResolvedMethod(Class<?> clazz, Method method) {
+            this.clazz = clazz;
+            this.method = method;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.template.compiled;
+
+import com.blazebit.notify.template.api.TemplateProcessor;
+import com.blazebit.notify.template.freemarker.FreemarkerTemplateProcessor;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ListResourceBundle;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+
+/**
+ * Compares the throughput and the allocation rate of the compiled template processor with the Freemarker template processor
+ * for an equivalent template. Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.blazebit.notify.template.compiled.CompiledTemplateBenchmark</code>.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public class CompiledTemplateBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 50_000;
+    private static final int ITERATIONS = 200_000;
+
+    private static final ResourceBundle MESSAGES = new ListResourceBundle() {
+        @Override
+        protected Object[][] getContents() {
+            return new Object[][]{
+                { "app", "Blaze" },
+                { "welcome", "Welcome to ${app}, {0}!" }
+            };
+        }
+    };
+
+    private static final String COMPILED_TEMPLATE = "<h1>{{msg \"welcome\" user.name}}</h1>\n"
+        + "<ul>\n"
+        + "{{#items}}\n"
+        + "<li>{{name}}{{#active}} (active){{/active}} {{count}}</li>\n"
+        + "{{/items}}\n"
+        + "</ul>\n";
+
+    private static final String FREEMARKER_TEMPLATE = "<#ftl output_format=\"HTML\"><h1>${msg(\"welcome\", user.name)}</h1>\n"
+        + "<ul>\n"
+        + "<#list items as item>\n"
+        + "<li>${item.name}<#if item.active> (active)</#if> ${count}</li>\n"
+        + "</#list>\n"
+        + "</ul>\n";
+
+    private CompiledTemplateBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, Object> model = new HashMap<>();
+        List<CompiledTemplateProcessorTest.User> items = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            items.add(new CompiledTemplateProcessorTest.User("Item <" + i + ">", i % 2 == 0));
+        }
+        model.put("user", new CompiledTemplateProcessorTest.User("Max", true));
+        model.put("items", items);
+        model.put("count", 42);
+        model.put(CompiledTemplateProcessor.LOCALE_KEY, Locale.ENGLISH);
+
+        Configuration configuration = new Configuration(Configuration.VERSION_2_3_28);
+        Template freemarkerTemplate = new Template("benchmark", new StringReader(FREEMARKER_TEMPLATE), configuration);
+        TemplateProcessor<String> freemarker = new FreemarkerTemplateProcessor(freemarkerTemplate, MESSAGES);
+        CompiledTemplateProcessor compiled = new CompiledTemplateProcessor(CompiledTemplate.compile(COMPILED_TEMPLATE, true), MESSAGES);
+        StringBuilder out = new StringBuilder(1024);
+
+        run("freemarker", () -> freemarker.processTemplate(model));
+        run("compiled (string)", () -> compiled.processTemplate(model));
+        run("compiled (appendable)", () -> {
+            out.setLength(0);
+            compiled.processTemplate(model, out);
+        });
+    }
+
+    private static void run(String name, Runnable renderer) {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            renderer.run();
+        }
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            renderer.run();
+        }
+        long nanos = System.nanoTime() - start;
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        System.out.printf("%-22s %8d ns/op %8d bytes/op%n", name, nanos / ITERATIONS, allocated / ITERATIONS);
+    }
+}
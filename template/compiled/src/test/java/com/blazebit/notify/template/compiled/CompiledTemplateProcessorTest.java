@@ -0,0 +1,199 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.template.compiled;
+
+import com.blazebit.notify.template.api.ConfigurationSource;
+import com.blazebit.notify.template.api.TemplateException;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ListResourceBundle;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public class CompiledTemplateProcessorTest {
+
+    private static final ResourceBundle MESSAGES = new ListResourceBundle() {
+        @Override
+        protected Object[][] getContents() {
+            return new Object[][]{
+                { "app", "Blaze" },
+                { "greeting", "Hello {0}" },
+                { "welcome", "Welcome to ${app}, {0}!" },
+                { "count", "{0} of {1}" },
+                { "plain", "It''s plain" }
+            };
+        }
+    };
+
+    private static volatile Object sink;
+
+    @Test
+    public void testVariables() {
+        Map<String, Object> model = new HashMap<>();
+        model.put("name", "World");
+        model.put("user", new User("Max", true));
+        assertEquals("Hello World, Max true!", render("Hello {{name}}, {{user.name}} {{user.active}}!", false, model));
+    }
+
+    @Test
+    public void testMissingVariable() {
+        assertEquals("[]", render("[{{missing}}{{missing.nested}}]", false, new HashMap<>()));
+    }
+
+    @Test
+    public void testSections() {
+        Map<String, Object> model = new HashMap<>();
+        model.put("items", Arrays.asList(new User("A", true), new User("B", false)));
+        model.put("title", "List");
+        String template = "{{title}}\n{{#items}}\n- {{name}}{{#active}} (active){{/active}} in {{title}}\n{{/items}}\n{{^empty}}\nno empty\n{{/empty}}\n";
+        assertEquals("List\n- A (active) in List\n- B in List\nno empty\n", render(template, false, model));
+    }
+
+    @Test
+    public void testInvertedSection() {
+        Map<String, Object> model = new HashMap<>();
+        model.put("items", Collections.emptyList());
+        assertEquals("none", render("{{#items}}item{{/items}}{{^items}}none{{/items}}", false, model));
+    }
+
+    @Test
+    public void testCurrentElement() {
+        Map<String, Object> model = new HashMap<>();
+        model.put("items", new String[]{ "a", "b" });
+        assertEquals("a,b,", render("{{#items}}{{.}},{{/items}}", false, model));
+    }
+
+    @Test
+    public void testEscaping() {
+        Map<String, Object> model = new HashMap<>();
+        model.put("value", "<a href=\"x\">&'</a>");
+        assertEquals("&lt;a href=&quot;x&quot;&gt;&amp;&#39;&lt;/a&gt;|<a href=\"x\">&'</a>|<a href=\"x\">&'</a>",
+            render("{{value}}|{{{value}}}|{{& value}}", true, model));
+        assertEquals("<a href=\"x\">&'</a>", render("{{value}}", false, model));
+    }
+
+    @Test
+    public void testMessages() {
+        Map<String, Object> model = new HashMap<>();
+        model.put("name", "<Max>");
+        model.put("count", 3);
+        assertEquals("Welcome to Blaze, &lt;Max&gt;! 3 of 5 It&#39;s plain",
+            render("{{msg \"welcome\" name}} {{msg \"count\" count \"5\"}} {{msg \"plain\"}}", true, model));
+    }
+
+    @Test(expected = TemplateException.class)
+    public void testUnclosedSection() {
+        CompiledTemplate.compile("{{#items}}\n{{name}}", false);
+    }
+
+    @Test(expected = TemplateException.class)
+    public void testMismatchedSection() {
+        CompiledTemplate.compile("{{#items}}{{/other}}", false);
+    }
+
+    @Test
+    public void testConfiguredTemplate() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(CompiledTemplateProcessor.TEMPLATE_PROPERTY, "templates/greeting.html");
+        ConfigurationSource configurationSource = properties::get;
+        CompiledTemplateProcessor processor = new CompiledTemplateProcessor(configurationSource);
+        Map<String, Object> model = new HashMap<>();
+        model.put("name", "<Max>");
+        model.put(CompiledTemplateProcessor.RESOURCE_BUNDLE_KEY, MESSAGES);
+        model.put(CompiledTemplateProcessor.LOCALE_KEY, Locale.ENGLISH);
+        assertEquals("<p>Hello &lt;Max&gt;</p>\n", processor.processTemplate(model));
+        model.put(CompiledTemplateProcessor.LOCALE_KEY, Locale.GERMANY);
+        assertEquals("<p>Hallo &lt;Max&gt;</p>\n", processor.processTemplate(model));
+    }
+
+    @Test
+    public void testAllocationOfRendering() {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled());
+
+        CompiledTemplateProcessor processor = new CompiledTemplateProcessor(CompiledTemplate.compile(
+            "<ul>\n{{#items}}\n<li>{{name}}{{#active}} (active){{/active}} in {{title}}</li>\n{{/items}}\n</ul>\n", true), MESSAGES);
+        Map<String, Object> model = new HashMap<>();
+        List<User> items = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            items.add(new User("Item <" + i + ">", i % 2 == 0));
+        }
+        model.put("items", items);
+        model.put("title", "List");
+        StringBuilder result = new StringBuilder(processor.processTemplate(model));
+
+        // Copying the result is measured the same way, so that JIT and agent effects apply to both measurements
+        long stringBytes = allocatedBytesPerRun(allocationBean, result::toString);
+        long renderBytes = allocatedBytesPerRun(allocationBean, () -> processor.processTemplate(model));
+
+        // Rendering writes into a pooled buffer, so it allocates little more than the resulting string
+        assertTrue("Allocated " + renderBytes + " bytes per render for a string of " + stringBytes + " bytes", renderBytes < 2 * stringBytes);
+    }
+
+    private static long allocatedBytesPerRun(com.sun.management.ThreadMXBean allocationBean, Supplier<?> supplier) {
+        int iterations = 10_000;
+        for (int i = 0; i < iterations; i++) {
+            sink = supplier.get();
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = allocationBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            sink = supplier.get();
+        }
+        return (allocationBean.getThreadAllocatedBytes(threadId) - before) / iterations;
+    }
+
+    private static String render(String template, boolean escapeHtml, Map<String, Object> model) {
+        return new CompiledTemplateProcessor(CompiledTemplate.compile(template, escapeHtml), MESSAGES).processTemplate(model);
+    }
+
+    public static class User {
+
+        private final String name;
+        private final boolean active;
+
+        public User(String name, boolean active) {
+            this.name = name;
+            this.active = active;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+    }
+}
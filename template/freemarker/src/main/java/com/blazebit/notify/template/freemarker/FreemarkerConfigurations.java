@@ -0,0 +1,190 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.template.freemarker;
+
+import com.blazebit.notify.template.api.ConfigurationSource;
+import freemarker.cache.MruCacheStorage;
+import freemarker.cache.URLTemplateLoader;
+import freemarker.template.Configuration;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds the Freemarker {@link Configuration} objects that are shared between all template processors with the same settings.
+ * A configuration caches the parsed templates per name, locale and encoding, so sharing it means that a template is only parsed once
+ * instead of once per template processor or even once per rendering.
+ * The configurations are held per class loader which is only weakly referenced, so that a redeployed class loader can be collected.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+public final class FreemarkerConfigurations {
+
+    /**
+     * The default maximum amount of parsed templates that are strongly referenced by a configuration.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    private static final Logger LOG = Logger.getLogger(FreemarkerConfigurations.class.getName());
+    private static final Map<ClassLoader, ConcurrentMap<ConfigurationKey, Configuration>> CONFIGURATIONS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private FreemarkerConfigurations() {
+    }
+
+    /**
+     * Returns the configuration as given via {@link FreemarkerTemplateProcessor#FREEMARKER_CONFIGURATION_PROPERTY}
+     * or the shared configuration for the encoding, update delay and cache size properties of the given configuration source.
+     *
+     * @param configurationSource The configuration source
+     * @return the configuration
+     */
+    public static Configuration getConfiguration(ConfigurationSource configurationSource) {
+        return configurationSource.getPropertyOrDefault(FreemarkerTemplateProcessor.FREEMARKER_CONFIGURATION_PROPERTY, Configuration.class, null, o -> getConfiguration(
+            FreemarkerConfigurations.class.getClassLoader(),
+            configurationSource.getPropertyOrDefault(FreemarkerTemplateProcessor.FREEMARKER_ENCODING_PROPERTY, String.class, Function.identity(), x -> null),
+            configurationSource.getPropertyOrDefault(FreemarkerTemplateProcessor.FREEMARKER_UPDATE_DELAY_PROPERTY, Long.class, Long::valueOf, x -> -1L),
+            configurationSource.getPropertyOrDefault(FreemarkerTemplateProcessor.FREEMARKER_CACHE_SIZE_PROPERTY, Integer.class, Integer::valueOf, x -> DEFAULT_CACHE_SIZE)
+        ));
+    }
+
+    /**
+     * Returns the shared configuration that loads templates from the given class loader.
+     *
+     * @param classLoader The class loader to load templates from
+     * @param encoding    The default template encoding or <code>null</code> for the platform default
+     * @param updateDelay The time in milliseconds after which a cached template is checked for changes or a negative value to never check
+     * @param cacheSize   The maximum amount of parsed templates that are strongly referenced, more are only softly referenced
+     * @return the configuration
+     */
+    public static Configuration getConfiguration(ClassLoader classLoader, String encoding, long updateDelay, int cacheSize) {
+        ConcurrentMap<ConfigurationKey, Configuration> configurations = CONFIGURATIONS.computeIfAbsent(classLoader, k -> new ConcurrentHashMap<>());
+        ConfigurationKey key = new ConfigurationKey(encoding, updateDelay, cacheSize);
+        Configuration configuration = configurations.get(key);
+        if (configuration == null) {
+            configuration = configurations.computeIfAbsent(key, k -> {
+                Configuration c = new Configuration(Configuration.DEFAULT_INCOMPATIBLE_IMPROVEMENTS);
+                // The configuration is strongly referenced by the map, so it must not strongly reference the class loader
+                c.setTemplateLoader(new ClassLoaderTemplateLoader(classLoader));
+                if (encoding != null) {
+                    c.setDefaultEncoding(encoding);
+                }
+                c.setTemplateUpdateDelayMilliseconds(updateDelay < 0L ? Long.MAX_VALUE : updateDelay);
+                c.setCacheStorage(new MruCacheStorage(cacheSize, cacheSize));
+                return c;
+            });
+        }
+        return configuration;
+    }
+
+    /**
+     * Parses the given templates for all given locales into the template cache of the configuration of the given configuration source,
+     * so that the first rendering of a template does not have to pay for parsing it.
+     * Templates that fail to parse are logged and skipped, as the failure will surface again when the template is rendered.
+     *
+     * @param configurationSource The configuration source
+     * @param templateNames       The template names
+     * @param locales             The locales
+     * @return the amount of parsed templates
+     */
+    public static int preparse(ConfigurationSource configurationSource, Iterable<String> templateNames, Iterable<Locale> locales) {
+        Configuration configuration = getConfiguration(configurationSource);
+        String encoding = configurationSource.getPropertyOrDefault(FreemarkerTemplateProcessor.FREEMARKER_ENCODING_PROPERTY, String.class, Function.identity(), o -> null);
+        int count = 0;
+        for (String templateName : templateNames) {
+            for (Locale locale : locales) {
+                try {
+                    configuration.getTemplate(templateName, locale, encoding);
+                    count++;
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Failed to parse template " + templateName + " for locale " + locale, e);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * A template loader that loads templates from a weakly referenced class loader.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    private static final class ClassLoaderTemplateLoader extends URLTemplateLoader {
+
+        private final WeakReference<ClassLoader> classLoader;
+
+        private ClassLoaderTemplateLoader(ClassLoader classLoader) {
+            this.classLoader = new WeakReference<>(classLoader);
+        }
+
+        @Override
+        protected URL getURL(String name) {
+            ClassLoader cl = classLoader.get();
+            return cl == null ? null : cl.getResource(name);
+        }
+    }
+
+    /**
+     * The key for shared configurations.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    private static final class ConfigurationKey {
+
+        private final String encoding;
+        private final long updateDelay;
+        private final int cacheSize;
+
+        private ConfigurationKey(String encoding, long updateDelay, int cacheSize) {
+            this.encoding = encoding;
+            this.updateDelay = updateDelay;
+            this.cacheSize = cacheSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ConfigurationKey)) {
+                return false;
+            }
+            ConfigurationKey that = (ConfigurationKey) o;
+            return updateDelay == that.updateDelay && cacheSize == that.cacheSize && Objects.equals(encoding, that.encoding);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = encoding != null ? encoding.hashCode() : 0;
+            result = 31 * result + Long.hashCode(updateDelay);
+            result = 31 * result + cacheSize;
+            return result;
+        }
+    }
+}
@@ -20,16 +20,18 @@ import com.blazebit.notify.template.api.TemplateException;
 import com.blazebit.notify.template.api.TemplateProcessor;
 import com.blazebit.notify.template.api.TemplateProcessorKey;
 import com.blazebit.notify.template.api.TemplateResourceBundleLookup;
+import freemarker.core.Environment;
 import freemarker.template.Configuration;
 import freemarker.template.Template;
 
 import java.io.IOException;
 import java.io.Serializable;
 import java.io.StringWriter;
-import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Function;
 
 /**
@@ -56,6 +58,16 @@ public class FreemarkerTemplateProcessor implements TemplateProcessor<String>, S
      * The configuration property for the Freemarker {@link Template}.
      */
     public static final String FREEMARKER_TEMPLATE_PROPERTY = "template";
+    /**
+     * The configuration property for the time in milliseconds after which a cached template is checked for changes, or -1 to never check which is the default.
+     * Only used if no {@link #FREEMARKER_CONFIGURATION_PROPERTY} is given.
+     */
+    public static final String FREEMARKER_UPDATE_DELAY_PROPERTY = "update_delay";
+    /**
+     * The configuration property for the maximum amount of parsed templates that are strongly referenced by the template cache.
+     * Only used if no {@link #FREEMARKER_CONFIGURATION_PROPERTY} is given.
+     */
+    public static final String FREEMARKER_CACHE_SIZE_PROPERTY = "cache_size";
 
     /**
      * The configuration property for the {@link ResourceBundle}.
@@ -70,6 +82,8 @@ public class FreemarkerTemplateProcessor implements TemplateProcessor<String>, S
 
     private final TemplateResourceBundleLookup resourceBundleLookup;
 
+    private transient volatile ConcurrentMap<Locale, MessageFormatterMethod> messageFormatterMethods;
+
     /**
      * Creates a new Freemarker template processor from the given configuration source.
      *
@@ -77,11 +91,8 @@ public class FreemarkerTemplateProcessor implements TemplateProcessor<String>, S
      */
     public FreemarkerTemplateProcessor(ConfigurationSource configurationSource) {
         Function<String, FreemarkerTemplateLookup> templateAccessor = name -> (Locale locale) -> {
-            Configuration configuration = configurationSource.getPropertyOrDefault(FREEMARKER_CONFIGURATION_PROPERTY, Configuration.class, null, o -> {
-                Configuration c = new Configuration();
-                c.setClassLoaderForTemplateLoading(getClass().getClassLoader(), "");
-                return c;
-            });
+            // The configuration is shared, so the template is parsed only once per locale
+            Configuration configuration = FreemarkerConfigurations.getConfiguration(configurationSource);
             String templateEncoding = configurationSource.getPropertyOrDefault(FREEMARKER_ENCODING_PROPERTY, String.class, Function.identity(), o -> null);
             try {
                 return configuration.getTemplate(name, locale, templateEncoding);
@@ -123,20 +134,40 @@ public class FreemarkerTemplateProcessor implements TemplateProcessor<String>, S
         if (resourceBundle == null) {
             resourceBundle = (ResourceBundle) model.get(RESOURCE_BUNDLE_KEY);
         }
+        MessageFormatterMethod messageFormatterMethod = null;
         if (resourceBundle != null) {
-            model = new HashMap<>(model);
             if (locale == null) {
                 locale = resourceBundle.getLocale();
             }
-            model.put("msg", new MessageFormatterMethod(locale, resourceBundle));
+            messageFormatterMethod = getMessageFormatterMethod(locale, resourceBundle);
         }
 
         StringWriter stringWriter = new StringWriter();
         try {
-            freemarkerTemplateLookup.findTemplate(locale).process(model, stringWriter);
+            Template template = freemarkerTemplateLookup.findTemplate(locale);
+            Environment environment = template.createProcessingEnvironment(new MapHashModel(model, template.getObjectWrapper()), stringWriter);
+            if (messageFormatterMethod != null) {
+                // Shadows a msg entry of the model without having to copy it
+                environment.setGlobalVariable("msg", messageFormatterMethod);
+            }
+            environment.process();
         } catch (freemarker.template.TemplateException | IOException e) {
             throw new TemplateException(e);
         }
         return stringWriter.toString();
     }
+
+    private MessageFormatterMethod getMessageFormatterMethod(Locale locale, ResourceBundle resourceBundle) {
+        ConcurrentMap<Locale, MessageFormatterMethod> methods = messageFormatterMethods;
+        if (methods == null) {
+            methods = messageFormatterMethods = new ConcurrentHashMap<>();
+        }
+        MessageFormatterMethod method = methods.get(locale);
+        if (method == null || method.getResourceBundle() != resourceBundle) {
+            // The method caches the compiled messages of the resource bundle, so it is reused as long as the bundle is the same
+            method = new MessageFormatterMethod(locale, resourceBundle);
+            methods.put(locale, method);
+        }
+        return method;
+    }
 }
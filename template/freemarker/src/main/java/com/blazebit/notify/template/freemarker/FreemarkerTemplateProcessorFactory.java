@@ -22,6 +22,11 @@ import com.blazebit.notify.template.api.TemplateProcessor;
 import com.blazebit.notify.template.api.TemplateProcessorFactory;
 import com.blazebit.notify.template.api.TemplateProcessorKey;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * A factory for {@link FreemarkerTemplateProcessor}.
  *
@@ -31,6 +36,15 @@ import com.blazebit.notify.template.api.TemplateProcessorKey;
 @ServiceProvider(TemplateProcessorFactory.class)
 public class FreemarkerTemplateProcessorFactory implements TemplateProcessorFactory<String> {
 
+    private static final Set<String> CONFIGURATION_PROPERTY_NAMES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        FreemarkerTemplateProcessor.FREEMARKER_CONFIGURATION_PROPERTY,
+        FreemarkerTemplateProcessor.FREEMARKER_ENCODING_PROPERTY,
+        FreemarkerTemplateProcessor.FREEMARKER_TEMPLATE_PROPERTY,
+        FreemarkerTemplateProcessor.FREEMARKER_UPDATE_DELAY_PROPERTY,
+        FreemarkerTemplateProcessor.FREEMARKER_CACHE_SIZE_PROPERTY,
+        FreemarkerTemplateProcessor.RESOURCE_BUNDLE_KEY
+    )));
+
     @Override
     public TemplateProcessorKey<String> getTemplateProcessorKey() {
         return FreemarkerTemplateProcessor.KEY;
@@ -40,4 +54,9 @@ public class FreemarkerTemplateProcessorFactory implements TemplateProcessorFact
     public TemplateProcessor<String> createTemplateProcessor(TemplateContext templateContext, ConfigurationSource configurationSource) {
         return new FreemarkerTemplateProcessor(configurationSource);
     }
+
+    @Override
+    public Set<String> getConfigurationPropertyNames() {
+        return CONFIGURATION_PROPERTY_NAMES;
+    }
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.template.freemarker;
+
+import freemarker.template.ObjectWrapper;
+import freemarker.template.SimpleCollection;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateHashModelEx;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+
+import java.util.Map;
+
+/**
+ * A Freemarker hash model that looks up the entries of a map on access and wraps only the accessed values.
+ * Freemarker would otherwise copy the whole data model into a {@link freemarker.template.SimpleHash}, which also computes lazy entries.
+ *
+ * @author Christian Beikov
+ * @since 1.0.0
+ */
+final class MapHashModel implements TemplateHashModelEx {
+
+    private final Map<String, Object> map;
+    private final ObjectWrapper objectWrapper;
+
+    /**
+     * Creates a hash model for the given map.
+     *
+     * @param map The map
+     * @param objectWrapper The object wrapper for the values
+     */
+    MapHashModel(Map<String, Object> map, ObjectWrapper objectWrapper) {
+        this.map = map;
+        this.objectWrapper = objectWrapper;
+    }
+
+    @Override
+    public TemplateModel get(String key) throws TemplateModelException {
+        return objectWrapper.wrap(map.get(key));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public TemplateCollectionModel keys() {
+        return new SimpleCollection(map.keySet(), objectWrapper);
+    }
+
+    @Override
+    public TemplateCollectionModel values() {
+        return new SimpleCollection(map.values(), objectWrapper);
+    }
+}
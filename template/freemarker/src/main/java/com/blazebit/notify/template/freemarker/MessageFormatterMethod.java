@@ -5,20 +5,27 @@ import freemarker.template.TemplateMethodModelEx;
 import freemarker.template.TemplateModelException;
 
 import java.text.MessageFormat;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A Freemarker method for easy internationalization.
+ * The messages of the resource bundle are compiled on first use and cached, so the method should be reused for the same locale and resource bundle.
  *
  * @author Christian Beikov
  * @since 1.0.0
  */
 public class MessageFormatterMethod implements TemplateMethodModelEx {
+
+    private static final int MAX_RESOLVED_ARGUMENTS = 1024;
+
     private final ResourceBundle messages;
     private final Locale locale;
+    private final ConcurrentMap<String, CompiledMessage> compiledMessages = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> resolvedArguments = new ConcurrentHashMap<>();
 
     /**
      * Creates the method.
@@ -31,30 +38,92 @@ public class MessageFormatterMethod implements TemplateMethodModelEx {
         this.messages = messages;
     }
 
+    /**
+     * Returns the resource bundle.
+     *
+     * @return the resource bundle
+     */
+    public ResourceBundle getResourceBundle() {
+        return messages;
+    }
+
     @Override
     public Object exec(List list) throws TemplateModelException {
         if (list.size() >= 1) {
-            // resolve any remaining ${} expressions
-            List<Object> resolved = resolve(list.subList(1, list.size()));
             String key = list.get(0).toString();
-            return new MessageFormat(messages.getString(key), locale).format(resolved.toArray());
+            CompiledMessage message = compiledMessages.get(key);
+            if (message == null) {
+                message = compiledMessages.computeIfAbsent(key, this::compile);
+            }
+            return message.format(resolve(list));
         } else {
             return null;
         }
     }
 
-    private List<Object> resolve(List<Object> list) {
-        ArrayList<Object> result = new ArrayList<>();
-        for (Object item : list) {
+    private CompiledMessage compile(String key) {
+        // Flatten ${} references to other messages once, instead of on every invocation
+        String pattern = TemplatingUtil.resolveVariables(messages.getString(key), messages);
+        if (pattern.indexOf('{') == -1 && pattern.indexOf('\'') == -1) {
+            return new CompiledMessage(pattern, null);
+        }
+        return new CompiledMessage(null, new MessageFormat(pattern, locale));
+    }
+
+    private Object[] resolve(List<?> list) {
+        Object[] result = new Object[list.size() - 1];
+        for (int i = 1; i < list.size(); i++) {
+            Object item = list.get(i);
             if (item instanceof SimpleScalar) {
                 item = ((SimpleScalar) item).getAsString();
             }
             if (item instanceof String) {
-                result.add(TemplatingUtil.resolveVariables((String) item, messages));
+                // resolve any remaining ${} expressions
+                result[i - 1] = resolveArgument((String) item);
             } else {
-                result.add(item);
+                result[i - 1] = item;
             }
         }
         return result;
     }
+
+    private String resolveArgument(String argument) {
+        if (!argument.contains("${")) {
+            return argument;
+        }
+        String resolved = resolvedArguments.get(argument);
+        if (resolved == null) {
+            resolved = TemplatingUtil.resolveVariables(argument, messages);
+            // Arguments might be dynamic, so stop caching at some point
+            if (resolvedArguments.size() < MAX_RESOLVED_ARGUMENTS) {
+                resolvedArguments.putIfAbsent(argument, resolved);
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * An immutable compiled message that is either a constant text or formatted with a {@link MessageFormat}.
+     *
+     * @author Christian Beikov
+     * @since 1.0.0
+     */
+    private static final class CompiledMessage {
+
+        private final String text;
+        private final MessageFormat format;
+
+        private CompiledMessage(String text, MessageFormat format) {
+            this.text = text;
+            this.format = format;
+        }
+
+        public String format(Object[] arguments) {
+            if (text != null) {
+                return text;
+            }
+            // MessageFormat is not thread safe, but cloning the parsed format is much cheaper than parsing the pattern again
+            return ((MessageFormat) format.clone()).format(arguments);
+        }
+    }
 }
\ No newline at end of file
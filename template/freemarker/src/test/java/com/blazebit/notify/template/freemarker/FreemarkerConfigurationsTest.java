@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.template.freemarker;
+
+import com.blazebit.notify.template.api.ConfigurationSource;
+import com.blazebit.notify.template.api.TemplateContext;
+import com.blazebit.notify.template.api.TemplateProcessor;
+import freemarker.template.Configuration;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class FreemarkerConfigurationsTest {
+
+    private static final String TEMPLATE = "templates/greeting.ftl";
+
+    @Test
+    public void shareConfigurationForSameSettings() {
+        ClassLoader classLoader = FreemarkerConfigurationsTest.class.getClassLoader();
+        Configuration configuration = FreemarkerConfigurations.getConfiguration(classLoader, "UTF-8", -1L, 16);
+
+        assertSame(configuration, FreemarkerConfigurations.getConfiguration(classLoader, "UTF-8", -1L, 16));
+        assertNotSame(configuration, FreemarkerConfigurations.getConfiguration(classLoader, "ISO-8859-1", -1L, 16));
+        assertNotSame(configuration, FreemarkerConfigurations.getConfiguration(classLoader, "UTF-8", 1000L, 16));
+        assertNotSame(configuration, FreemarkerConfigurations.getConfiguration(classLoader, "UTF-8", -1L, 32));
+    }
+
+    @Test
+    public void shareConfigurationBetweenConfigurationSources() {
+        Configuration configuration = FreemarkerConfigurations.getConfiguration(source(FreemarkerTemplateProcessor.FREEMARKER_ENCODING_PROPERTY, "UTF-8"));
+
+        assertSame(configuration, FreemarkerConfigurations.getConfiguration(source(FreemarkerTemplateProcessor.FREEMARKER_ENCODING_PROPERTY, "UTF-8")));
+        assertSame(configuration, FreemarkerConfigurations.getConfiguration(FreemarkerConfigurations.class.getClassLoader(), "UTF-8", -1L, FreemarkerConfigurations.DEFAULT_CACHE_SIZE));
+    }
+
+    @Test
+    public void useGivenConfiguration() {
+        Configuration configuration = new Configuration(Configuration.VERSION_2_3_28);
+
+        assertSame(configuration, FreemarkerConfigurations.getConfiguration(source(FreemarkerTemplateProcessor.FREEMARKER_CONFIGURATION_PROPERTY, configuration)));
+    }
+
+    @Test
+    public void parseTemplateOnlyOnce() throws Exception {
+        Configuration configuration = FreemarkerConfigurations.getConfiguration(FreemarkerConfigurationsTest.class.getClassLoader(), "UTF-8", -1L, 16);
+
+        assertSame(configuration.getTemplate(TEMPLATE, Locale.ENGLISH, "UTF-8"), configuration.getTemplate(TEMPLATE, Locale.ENGLISH, "UTF-8"));
+    }
+
+    @Test
+    public void preparseTemplatesForAllLocales() throws Exception {
+        ConfigurationSource configurationSource = source(FreemarkerTemplateProcessor.FREEMARKER_ENCODING_PROPERTY, "UTF-8", FreemarkerTemplateProcessor.FREEMARKER_CACHE_SIZE_PROPERTY, 8);
+
+        int count = FreemarkerConfigurations.preparse(configurationSource, Arrays.asList(TEMPLATE, "templates/missing.ftl"), Arrays.asList(Locale.ENGLISH, Locale.GERMAN));
+
+        // Missing templates are skipped
+        assertEquals(2, count);
+    }
+
+    @Test
+    public void shareTemplateProcessorsOfTemplateContext() {
+        FreemarkerTemplateProcessorFactory factory = new FreemarkerTemplateProcessorFactory();
+        TemplateContext context = TemplateContext.builder().withTemplateProcessorFactory(factory).createContext();
+
+        TemplateProcessor<String> first = context.getTemplateProcessor(factory, source(FreemarkerTemplateProcessor.FREEMARKER_TEMPLATE_PROPERTY, TEMPLATE));
+        TemplateProcessor<String> second = context.getTemplateProcessor(factory, source(FreemarkerTemplateProcessor.FREEMARKER_TEMPLATE_PROPERTY, TEMPLATE));
+
+        assertSame(first, second);
+        Map<String, Object> model = new HashMap<>();
+        model.put("name", "Alice");
+        model.put(FreemarkerTemplateProcessor.LOCALE_KEY, Locale.ENGLISH);
+        assertEquals("Hello Alice", first.processTemplate(model));
+    }
+
+    @Test
+    public void releaseClassLoaderOfSharedConfiguration() throws Exception {
+        WeakReference<ClassLoader> classLoaderReference = createConfigurationForNewClassLoader();
+
+        for (int i = 0; i < 10 && classLoaderReference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10L);
+        }
+
+        assertNull(classLoaderReference.get());
+    }
+
+    private static WeakReference<ClassLoader> createConfigurationForNewClassLoader() {
+        ClassLoader classLoader = new URLClassLoader(new URL[0], null);
+        FreemarkerConfigurations.getConfiguration(classLoader, "UTF-8", -1L, 16);
+        return new WeakReference<>(classLoader);
+    }
+
+    private static ConfigurationSource source(Object... keyValues) {
+        Map<String, Object> properties = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            properties.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return properties::get;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.template.freemarker;
+
+import freemarker.template.SimpleScalar;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MessageFormatterMethodTest {
+
+    @Test
+    public void formatCompiledMessageWithDifferentArguments() throws Exception {
+        CountingResourceBundle messages = new CountingResourceBundle("greeting", "Hello {0}, you have {1} new messages");
+        MessageFormatterMethod method = new MessageFormatterMethod(Locale.ENGLISH, messages);
+
+        assertEquals("Hello Alice, you have 3 new messages", method.exec(Arrays.asList("greeting", new SimpleScalar("Alice"), 3)));
+        assertEquals("Hello Bob, you have 5 new messages", method.exec(Arrays.asList("greeting", new SimpleScalar("Bob"), 5)));
+
+        // The message is only looked up and compiled on first use
+        assertEquals(1, messages.lookupCount.get());
+    }
+
+    @Test
+    public void returnMessageWithoutPlaceholdersAsIs() throws Exception {
+        CountingResourceBundle messages = new CountingResourceBundle("welcome", "Welcome", "quoted", "It''s {0}");
+        MessageFormatterMethod method = new MessageFormatterMethod(Locale.ENGLISH, messages);
+
+        assertEquals("Welcome", method.exec(Arrays.asList("welcome", "ignored")));
+        // Quotes are MessageFormat syntax, so such messages are formatted even without arguments
+        assertEquals("It's Alice", method.exec(Arrays.asList("quoted", "Alice")));
+    }
+
+    @Test
+    public void resolveReferencedMessagesOnlyOnce() throws Exception {
+        CountingResourceBundle messages = new CountingResourceBundle("brand", "Notify", "greeting", "${brand} says hello to {0}");
+        MessageFormatterMethod method = new MessageFormatterMethod(Locale.ENGLISH, messages);
+
+        assertEquals("Notify says hello to Alice", method.exec(Arrays.asList("greeting", "Alice")));
+        assertEquals("Notify says hello to Bob", method.exec(Arrays.asList("greeting", "Bob")));
+
+        assertEquals(2, messages.lookupCount.get());
+    }
+
+    @Test
+    public void resolveMessageReferencesInArguments() throws Exception {
+        CountingResourceBundle messages = new CountingResourceBundle("brand", "Notify", "greeting", "Hello from {0}");
+        MessageFormatterMethod method = new MessageFormatterMethod(Locale.ENGLISH, messages);
+
+        assertEquals("Hello from Notify", method.exec(Arrays.asList("greeting", new SimpleScalar("${brand}"))));
+        assertEquals("Hello from Notify", method.exec(Arrays.asList("greeting", new SimpleScalar("${brand}"))));
+
+        // The resolved argument is cached as well
+        assertEquals(2, messages.lookupCount.get());
+    }
+
+    @Test
+    public void returnNullWithoutMessageKey() throws Exception {
+        MessageFormatterMethod method = new MessageFormatterMethod(Locale.ENGLISH, new CountingResourceBundle());
+
+        assertNull(method.exec(Collections.emptyList()));
+    }
+
+    @Test
+    public void formatCompiledMessageConcurrently() throws Exception {
+        CountingResourceBundle messages = new CountingResourceBundle("greeting", "Hello {0}, you have {1} new messages");
+        MessageFormatterMethod method = new MessageFormatterMethod(Locale.ENGLISH, messages);
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                String name = "User" + t;
+                futures.add(executorService.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        assertEquals("Hello " + name + ", you have " + i + " new messages", method.exec(Arrays.asList("greeting", name, i)));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private static class CountingResourceBundle extends ResourceBundle {
+
+        private final Map<String, String> messages = new HashMap<>();
+        private final AtomicInteger lookupCount = new AtomicInteger();
+
+        public CountingResourceBundle(String... keyValues) {
+            for (int i = 0; i < keyValues.length; i += 2) {
+                messages.put(keyValues[i], keyValues[i + 1]);
+            }
+        }
+
+        @Override
+        protected Object handleGetObject(String key) {
+            lookupCount.incrementAndGet();
+            return messages.get(key);
+        }
+
+        @Override
+        public Enumeration<String> getKeys() {
+            return Collections.enumeration(messages.keySet());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 - 2022 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.testsuite;
+
+import com.blazebit.job.ConfigurationSource;
+import com.blazebit.notify.Channel;
+import com.blazebit.notify.ChannelFactory;
+import com.blazebit.notify.ChannelKey;
+import com.blazebit.notify.NotificationJobContext;
+import com.blazebit.notify.channel.memory.MemoryChannel;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class ChannelSharingTest extends AbstractNotificationJobTest<SimpleNotificationRecipient, SimpleNotificationMessage> {
+
+    private static final String TRANSPORT_CHANNEL_TYPE = "transport";
+    private static final String HOST_PROPERTY = "channel.transport.host";
+    private static final String FROM_PROPERTY = "message.email.from";
+
+    @Test
+    public void shareChannelBetweenSourcesDifferingInMessageProperties() {
+        CountingChannelFactory channelFactory = new CountingChannelFactory(Collections.singleton(HOST_PROPERTY));
+        this.jobContext = builder().withChannelFactory(channelFactory).createContext();
+
+        Channel<?, ?> first = jobContext.getChannel(TRANSPORT_CHANNEL_TYPE, source(HOST_PROPERTY, "smtp.example.com", FROM_PROPERTY, "news@example.com"));
+        Channel<?, ?> second = jobContext.getChannel(TRANSPORT_CHANNEL_TYPE, source(HOST_PROPERTY, "smtp.example.com", FROM_PROPERTY, "billing@example.com"));
+
+        assertSame(first, second);
+        assertEquals(1, channelFactory.createdCount.get());
+    }
+
+    @Test
+    public void createChannelWhenTransportPropertyDiffers() {
+        CountingChannelFactory channelFactory = new CountingChannelFactory(Collections.singleton(HOST_PROPERTY));
+        this.jobContext = builder().withChannelFactory(channelFactory).createContext();
+
+        Channel<?, ?> first = jobContext.getChannel(TRANSPORT_CHANNEL_TYPE, source(HOST_PROPERTY, "smtp.example.com", FROM_PROPERTY, "news@example.com"));
+        Channel<?, ?> second = jobContext.getChannel(TRANSPORT_CHANNEL_TYPE, source(HOST_PROPERTY, "relay.example.com", FROM_PROPERTY, "news@example.com"));
+
+        assertNotSame(first, second);
+        assertEquals(2, channelFactory.createdCount.get());
+    }
+
+    @Test
+    public void fallBackToContextTransportProperties() {
+        CountingChannelFactory channelFactory = new CountingChannelFactory(Collections.singleton(HOST_PROPERTY));
+        this.jobContext = builder().withChannelFactory(channelFactory).withProperty(HOST_PROPERTY, "smtp.example.com").createContext();
+
+        Channel<?, ?> first = jobContext.getChannel(TRANSPORT_CHANNEL_TYPE, source(FROM_PROPERTY, "news@example.com"));
+        Channel<?, ?> second = jobContext.getChannel(TRANSPORT_CHANNEL_TYPE, source(HOST_PROPERTY, "smtp.example.com", FROM_PROPERTY, "billing@example.com"));
+
+        assertSame(first, second);
+        assertEquals(1, channelFactory.createdCount.get());
+    }
+
+    @Test
+    public void createChannelPerSourceWithoutTransportPropertyNames() {
+        CountingChannelFactory channelFactory = new CountingChannelFactory(null);
+        this.jobContext = builder().withChannelFactory(channelFactory).createContext();
+
+        Channel<?, ?> first = jobContext.getChannel(TRANSPORT_CHANNEL_TYPE, source(HOST_PROPERTY, "smtp.example.com"));
+        Channel<?, ?> second = jobContext.getChannel(TRANSPORT_CHANNEL_TYPE, source(HOST_PROPERTY, "smtp.example.com"));
+
+        assertNotSame(first, second);
+        assertEquals(2, channelFactory.createdCount.get());
+    }
+
+    private static ConfigurationSource source(String... keyValues) {
+        Map<String, Object> properties = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            properties.put(keyValues[i], keyValues[i + 1]);
+        }
+        return properties::get;
+    }
+
+    private static class CountingChannelFactory implements ChannelFactory<Channel<SimpleNotificationRecipient, SimpleNotificationMessage>> {
+
+        private final Set<String> transportPropertyNames;
+        private final AtomicInteger createdCount = new AtomicInteger();
+
+        public CountingChannelFactory(Set<String> transportPropertyNames) {
+            this.transportPropertyNames = transportPropertyNames;
+        }
+
+        @Override
+        public ChannelKey<Channel<SimpleNotificationRecipient, SimpleNotificationMessage>> getChannelType() {
+            return ChannelKey.of(TRANSPORT_CHANNEL_TYPE, null);
+        }
+
+        @Override
+        public Set<String> getTransportPropertyNames() {
+            return transportPropertyNames;
+        }
+
+        @Override
+        public Channel<SimpleNotificationRecipient, SimpleNotificationMessage> createChannel(NotificationJobContext jobContext, ConfigurationSource configurationSource) {
+            createdCount.incrementAndGet();
+            return new MemoryChannel<>();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018 Blazebit.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blazebit.notify.testsuite;
+
+import com.blazebit.notify.NotificationMessageModel;
+import com.blazebit.notify.NotificationMessageResolverModelCustomizer;
+import com.blazebit.notify.email.message.Attachment;
+import com.blazebit.notify.email.message.EmailNotificationMessage;
+import com.blazebit.notify.email.message.EmailNotificationMessageResolver;
+import com.blazebit.notify.template.api.TemplateProcessor;
+import org.junit.Test;
+
+import javax.activation.FileDataSource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class EmailNotificationMessageResolverTest {
+
+    @Test
+    public void shareMessageIndependentOfRecipient() {
+        AtomicInteger renderCount = new AtomicInteger();
+        EmailNotificationMessageResolver resolver = createResolver(model -> {
+            renderCount.incrementAndGet();
+            return "News about " + model.get("product");
+        }, null, Collections.emptyList());
+
+        List<EmailNotificationMessage> messages = resolveAll(resolver, 1L, "Alice", "Bob", "Carol");
+
+        assertEquals(1, renderCount.get());
+        assertEquals("News about Notify", messages.get(0).getSubject().getSubject());
+        assertSame(messages.get(0), messages.get(1));
+        assertSame(messages.get(0), messages.get(2));
+        assertEquals(2L, resolver.getMessageCacheStatistics().getHitCount());
+    }
+
+    @Test
+    public void renderMessageReadingRecipientPerRecipient() {
+        AtomicInteger renderCount = new AtomicInteger();
+        EmailNotificationMessageResolver resolver = createResolver(model -> {
+            renderCount.incrementAndGet();
+            return "Hello " + ((NamedRecipient) model.get(NotificationMessageModel.RECIPIENT_KEY)).name;
+        }, null, Collections.emptyList());
+
+        List<EmailNotificationMessage> messages = resolveAll(resolver, 1L, "Alice", "Bob", "Carol");
+
+        assertEquals(3, renderCount.get());
+        assertEquals("Hello Alice", messages.get(0).getSubject().getSubject());
+        assertEquals("Hello Bob", messages.get(1).getSubject().getSubject());
+        assertEquals("Hello Carol", messages.get(2).getSubject().getSubject());
+    }
+
+    @Test
+    public void shareMessagesPerJobInstance() {
+        EmailNotificationMessageResolver resolver = createResolver(model -> "News about " + model.get("product"), null, Collections.emptyList());
+
+        EmailNotificationMessage first = resolveAll(resolver, 1L, "Alice").get(0);
+        EmailNotificationMessage second = resolveAll(resolver, 2L, "Alice").get(0);
+
+        assertNotSame(first, second);
+        assertEquals(first.getSubject().getSubject(), second.getSubject().getSubject());
+    }
+
+    @Test
+    public void renderMessageReadingCustomizerEntryPerRecipient() {
+        AtomicInteger renderCount = new AtomicInteger();
+        // Customizers compute entries per notification, so reading such an entry makes the message recipient specific
+        NotificationMessageResolverModelCustomizer customizer = (model, notification, context) -> ((NotificationMessageModel) model)
+            .putLazy("greeting", () -> "Dear " + ((NamedRecipient) notification.getRecipient()).name);
+        EmailNotificationMessageResolver resolver = createResolver(model -> {
+            renderCount.incrementAndGet();
+            return model.get("greeting") + ", news about " + model.get("product");
+        }, null, Collections.singletonList(customizer));
+
+        List<EmailNotificationMessage> messages = resolveAll(resolver, 1L, "Alice", "Bob");
+
+        assertEquals(2, renderCount.get());
+        assertEquals("Dear Alice, news about Notify", messages.get(0).getSubject().getSubject());
+        assertEquals("Dear Bob, news about Notify", messages.get(1).getSubject().getSubject());
+    }
+
+    @Test
+    public void shareMessageNotReadingCustomizerEntry() {
+        AtomicInteger computeCount = new AtomicInteger();
+        NotificationMessageResolverModelCustomizer customizer = (model, notification, context) -> ((NotificationMessageModel) model)
+            .putLazy("greeting", () -> "Dear " + computeCount.incrementAndGet());
+        EmailNotificationMessageResolver resolver = createResolver(model -> "News about " + model.get("product"), null, Collections.singletonList(customizer));
+
+        List<EmailNotificationMessage> messages = resolveAll(resolver, 1L, "Alice", "Bob");
+
+        assertEquals(0, computeCount.get());
+        assertSame(messages.get(0), messages.get(1));
+    }
+
+    @Test
+    public void shareAttachmentsIndependentOfRecipient() {
+        AtomicInteger renderCount = new AtomicInteger();
+        EmailNotificationMessageResolver resolver = createResolver(model -> "News about " + model.get("product"), model -> {
+            renderCount.incrementAndGet();
+            return Collections.singletonList(new Attachment("terms.txt", new FileDataSource("terms.txt")));
+        }, Collections.emptyList());
+
+        List<EmailNotificationMessage> messages = resolveAll(resolver, 1L, "Alice", "Bob");
+
+        assertEquals(1, renderCount.get());
+        assertSame(messages.get(0), messages.get(1));
+        assertEquals(1, messages.get(0).getAttachments().size());
+        assertEquals("terms.txt", messages.get(0).getAttachments().iterator().next().getName());
+    }
+
+    @Test
+    public void renderAttachmentsReadingRecipientPerRecipient() {
+        EmailNotificationMessageResolver resolver = createResolver(model -> "News about " + model.get("product"), model -> {
+            String name = ((NamedRecipient) model.get(NotificationMessageModel.RECIPIENT_KEY)).name;
+            return Collections.singletonList(new Attachment("invoice-" + name + ".txt", new FileDataSource("invoice.txt")));
+        }, Collections.emptyList());
+
+        List<EmailNotificationMessage> messages = resolveAll(resolver, 1L, "Alice", "Bob");
+
+        assertEquals("invoice-Alice.txt", messages.get(0).getAttachments().iterator().next().getName());
+        assertEquals("invoice-Bob.txt", messages.get(1).getAttachments().iterator().next().getName());
+    }
+
+    private static EmailNotificationMessageResolver createResolver(TemplateProcessor<String> subjectTemplateProcessor, TemplateProcessor<Collection<Attachment>> attachmentProcessor,
+                                                                   List<NotificationMessageResolverModelCustomizer> modelCustomizers) {
+        Collection<TemplateProcessor> attachmentProcessors = attachmentProcessor == null ? null : Collections.singletonList(attachmentProcessor);
+        return new EmailNotificationMessageResolver(null, "no-reply@localhost", null, null, null, null, null,
+            subjectTemplateProcessor, null, null, attachmentProcessors, modelCustomizers);
+    }
+
+    private static List<EmailNotificationMessage> resolveAll(EmailNotificationMessageResolver resolver, Long jobInstanceId, String... recipientNames) {
+        List<EmailNotificationMessage> messages = new ArrayList<>(recipientNames.length);
+        for (String recipientName : recipientNames) {
+            SimpleNotification notification = new SimpleNotification();
+            notification.getId().setNotificationJobInstanceId(jobInstanceId);
+            notification.setRecipient(new NamedRecipient(recipientName));
+            notification.getJobConfiguration().getParameters().put("product", "Notify");
+            messages.add(resolver.resolveNotificationMessage(notification));
+        }
+        return messages;
+    }
+
+    private static class NamedRecipient extends SimpleNotificationRecipient {
+
+        private final String name;
+
+        public NamedRecipient(String name) {
+            super(Locale.ENGLISH);
+            this.name = name;
+        }
+    }
+}
@@ -15,14 +15,28 @@
  */
 package com.blazebit.notify.testsuite;
 
+import com.blazebit.job.JobInstanceState;
+import com.blazebit.notify.Channel;
+import com.blazebit.notify.NotificationException;
+import com.blazebit.notify.NotificationMessage;
+import com.blazebit.notify.NotificationProcessor;
 import com.blazebit.notify.NotificationRecipientResolver;
+import com.blazebit.notify.impl.NotificationProcessorFactoryImpl;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 public class NotificationJobProcessorTest extends AbstractNotificationJobTest<SimpleNotificationRecipient, SimpleNotificationMessage> {
 
@@ -35,5 +49,113 @@ public class NotificationJobProcessorTest extends AbstractNotificationJobTest<Si
         jobContext.stop(1, TimeUnit.MINUTES);
         assertEquals(1, sink.size());
     }
+
+    @Test
+    public void testTriggerToBatchingChannel() throws Exception {
+        this.jobContext = builder(3)
+            .withProperty(NotificationProcessorFactoryImpl.NOTIFICATION_PROCESSOR_BATCHING_PROPERTY, true)
+            .createContext();
+        jobContext.getJobManager().addJobInstance(new SimpleNotificationJobTrigger(channel, NotificationRecipientResolver.of(new SimpleNotificationRecipient(Locale.GERMAN)), new OnceSchedule(), new OnceSchedule(), Collections.emptyMap()));
+        await();
+        jobContext.stop(1, TimeUnit.MINUTES);
+        assertEquals(1, sink.size());
+    }
+
+    @Test
+    public void testBatchConcurrentNotificationsForChannel() throws Exception {
+        int count = 4;
+        SimpleNotificationRecipient failingRecipient = new SimpleNotificationRecipient(Locale.GERMAN);
+        BatchRecordingChannel batchRecordingChannel = new BatchRecordingChannel(count, failingRecipient);
+        this.channel = batchRecordingChannel;
+        // The linger time is long enough for all notifications to arrive, as the leader sends as soon as the batch is full
+        this.jobContext = builder()
+            .withProperty(NotificationProcessorFactoryImpl.NOTIFICATION_PROCESSOR_BATCHING_PROPERTY, true)
+            .withProperty(NotificationProcessorFactoryImpl.NOTIFICATION_PROCESSOR_BATCH_LINGER_PROPERTY, 10_000L)
+            .createContext();
+        List<SimpleNotification> notifications = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            SimpleNotification notification = new SimpleNotification();
+            notification.setChannelType(channelKey.getChannelType());
+            notification.setRecipient(i == 1 ? failingRecipient : new SimpleNotificationRecipient(Locale.GERMAN));
+            notifications.add(notification);
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(count);
+        try {
+            List<Future<?>> futures = new ArrayList<>(count);
+            for (SimpleNotification notification : notifications) {
+                futures.add(executorService.submit(() -> {
+                    NotificationProcessor<SimpleNotification> processor = (NotificationProcessor<SimpleNotification>) jobContext.getJobInstanceProcessor(notification);
+                    return processor.process(notification, jobContext).toCompletableFuture().join();
+                }));
+            }
+            for (int i = 0; i < count; i++) {
+                try {
+                    futures.get(i).get(1, TimeUnit.MINUTES);
+                    assertEquals(JobInstanceState.DONE, notifications.get(i).getState());
+                } catch (ExecutionException e) {
+                    // Only the notification that failed in the batch fails
+                    assertEquals(1, i);
+                    assertTrue(e.getCause() instanceof NotificationException);
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        assertEquals(Collections.singletonList(count), batchRecordingChannel.batchSizes);
+        assertNotEquals(JobInstanceState.DONE, notifications.get(1).getState());
+    }
+
     // TODO: updateEarliestSchedule tests + channel partition tests
+
+    private static class BatchRecordingChannel implements Channel<SimpleNotificationRecipient, SimpleNotificationMessage> {
+
+        private final int maxBatchSize;
+        private final SimpleNotificationRecipient failingRecipient;
+        private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+
+        public BatchRecordingChannel(int maxBatchSize, SimpleNotificationRecipient failingRecipient) {
+            this.maxBatchSize = maxBatchSize;
+            this.failingRecipient = failingRecipient;
+        }
+
+        @Override
+        public Class<SimpleNotificationMessage> getNotificationMessageType() {
+            return (Class<SimpleNotificationMessage>) (Class<?>) NotificationMessage.class;
+        }
+
+        @Override
+        public Object sendNotificationMessage(SimpleNotificationRecipient recipient, SimpleNotificationMessage message) {
+            throw new AssertionError("Expected the notifications to be sent as batch");
+        }
+
+        @Override
+        public boolean isBatchingSupported() {
+            return true;
+        }
+
+        @Override
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        @Override
+        public Object[] sendNotificationMessages(List<? extends SimpleNotificationRecipient> recipients, List<? extends SimpleNotificationMessage> messages) {
+            batchSizes.add(recipients.size());
+            Object[] results = new Object[recipients.size()];
+            for (int i = 0; i < results.length; i++) {
+                if (recipients.get(i) == failingRecipient) {
+                    results[i] = new NotificationException("Recipient rejected");
+                } else {
+                    results[i] = "sent-" + i;
+                }
+            }
+            return results;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
 }